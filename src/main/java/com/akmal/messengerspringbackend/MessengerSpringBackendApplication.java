@@ -9,6 +9,7 @@ import org.springframework.boot.autoconfigure.data.cassandra.CassandraReactiveRe
 import org.springframework.boot.autoconfigure.data.cassandra.CassandraRepositoriesAutoConfiguration;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(
     exclude = {
@@ -19,6 +20,7 @@ import org.springframework.scheduling.annotation.EnableAsync;
       CassandraReactiveRepositoriesAutoConfiguration.class
     })
 @EnableAsync
+@EnableScheduling
 @EnableKafka
 public class MessengerSpringBackendApplication {
 
@@ -1,6 +1,11 @@
 package com.akmal.messengerspringbackend.config;
 
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.shared.concurrent.KeyOrderedExecutor;
 import com.akmal.messengerspringbackend.shared.timeago.TimeAgoConverter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.ThreadPoolExecutor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.AsyncTaskExecutor;
@@ -31,4 +36,59 @@ public class ProjectConfiguration {
     executor.initialize();
     return executor;
   }
+
+  /**
+   * Executor for the blocking Cassandra reads that are issued in parallel on behalf of a single
+   * request (e.g. first pages of several threads). The pool bounds the number of concurrent queries,
+   * once it is saturated the request thread runs the query itself instead of failing.
+   */
+  @Bean
+  public AsyncTaskExecutor messageFetchExecutor() {
+    final var executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(8);
+    executor.setMaxPoolSize(32);
+    executor.setQueueCapacity(64);
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.setThreadNamePrefix("message-fetch-");
+    executor.initialize();
+    return executor;
+  }
+
+  /**
+   * Workers that deliver the consumed thread events to the websocket sessions. Events are keyed by
+   * the recipient, so the events of one user are delivered in the order of the topic partition.
+   */
+  @Bean
+  public KeyOrderedExecutor threadEventsExecutor(
+      MessagingConfigurationProperties messagingProps, MeterRegistry meterRegistry) {
+    final var deliveryProps = messagingProps.getDelivery();
+    final var executor =
+        new KeyOrderedExecutor(
+            "thread-events-", deliveryProps.getStripes(), deliveryProps.getStripeQueueCapacity());
+
+    for (int stripe = 0; stripe < executor.getStripeCount(); stripe++) {
+      final int stripeIndex = stripe;
+      Gauge.builder("thread.events.stripe.queue.depth", executor, e -> e.getQueueDepth(stripeIndex))
+          .description("Number of thread events waiting for the delivery worker")
+          .tag("stripe", String.valueOf(stripeIndex))
+          .register(meterRegistry);
+    }
+
+    return executor;
+  }
+
+  /**
+   * Workers that publish the presence transitions of the users, keyed by the user, so the online
+   * and offline transitions of one user are published in the order they happened.
+   */
+  @Bean
+  public KeyOrderedExecutor presenceEventsExecutor(
+      MessagingConfigurationProperties messagingProps) {
+    final var presenceProps = messagingProps.getPresence();
+
+    return new KeyOrderedExecutor(
+        "presence-events-",
+        presenceProps.getPublishStripes(),
+        presenceProps.getPublishQueueCapacity());
+  }
 }
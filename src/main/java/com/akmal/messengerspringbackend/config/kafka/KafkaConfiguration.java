@@ -1,14 +1,22 @@
 package com.akmal.messengerspringbackend.config.kafka;
 
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.exception.EntityNotFoundException;
 import com.akmal.messengerspringbackend.thread.ThreadEventKey;
+import java.util.Map;
 import lombok.RequiredArgsConstructor;
 import org.apache.avro.specific.SpecificRecord;
 import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.TopicConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
@@ -16,8 +24,14 @@ import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaOperations;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties.AckMode;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.FixedBackOff;
 
 /**
  * @author Akmal Alikhujaev
@@ -29,8 +43,29 @@ import org.springframework.kafka.core.ProducerFactory;
 @Configuration
 @RequiredArgsConstructor
 public class KafkaConfiguration {
+  /** Suffix of the dead letter topic of the accepted messages topic. */
+  static final String DEAD_LETTER_SUFFIX = ".DLT";
 
   private final KafkaConfigurationProperties kafkaProps;
+  private final MessagingConfigurationProperties messagingProps;
+
+  @Bean
+  KafkaAdmin kafkaAdmin() {
+    return new KafkaAdmin(
+        Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, this.kafkaProps.getBootstrapServers()));
+  }
+
+  /** Topic through which the thread events of the users connected to this instance are routed. */
+  @Bean
+  @ConditionalOnProperty(prefix = "project.messaging.routing", name = "enabled", havingValue = "true")
+  NewTopic localNodeThreadEventsTopic() {
+    final var routing = this.messagingProps.getRouting();
+
+    return new NewTopic(
+        routing.getNodeTopicPrefix().concat(this.kafkaProps.getGroupId()),
+        routing.getNodeTopicPartitions(),
+        routing.getNodeTopicReplicationFactor());
+  }
 
   @Bean
   ConcurrentKafkaListenerContainerFactory<SpecificRecord, SpecificRecord>
@@ -42,6 +77,90 @@ public class KafkaConfiguration {
     return containerFactory;
   }
 
+  /**
+   * Container factory of the thread events listener, the records are acknowledged manually once
+   * their delivery completes on the worker threads. The acknowledgements arrive out of order, the
+   * container commits an offset only when all the records below it are acknowledged.
+   */
+  @Bean
+  ConcurrentKafkaListenerContainerFactory<SpecificRecord, SpecificRecord>
+      threadEventsListenerContainerFactory(
+          @Qualifier("consumerFactoryAvroKeyAvroValue") ConsumerFactory<SpecificRecord, SpecificRecord> consumerFactory) {
+    final var containerFactory =
+        new ConcurrentKafkaListenerContainerFactory<SpecificRecord, SpecificRecord>();
+    containerFactory.setConsumerFactory(consumerFactory);
+    containerFactory.setConcurrency(this.messagingProps.getDelivery().getConsumerConcurrency());
+    containerFactory.getContainerProperties().setAckMode(AckMode.MANUAL);
+    containerFactory.getContainerProperties().setAsyncAcks(true);
+    return containerFactory;
+  }
+
+  /**
+   * Container factory of the batch thread events listener, the offsets of the batch are committed
+   * once the listener returns, i.e. after all the events of the batch were delivered.
+   */
+  @Bean
+  ConcurrentKafkaListenerContainerFactory<SpecificRecord, SpecificRecord>
+      threadEventsBatchListenerContainerFactory(
+          @Qualifier("consumerFactoryAvroKeyAvroValue") ConsumerFactory<SpecificRecord, SpecificRecord> consumerFactory) {
+    final var containerFactory =
+        new ConcurrentKafkaListenerContainerFactory<SpecificRecord, SpecificRecord>();
+    containerFactory.setConsumerFactory(consumerFactory);
+    containerFactory.setConcurrency(this.messagingProps.getDelivery().getConsumerConcurrency());
+    containerFactory.setBatchListener(true);
+    containerFactory.getContainerProperties().setAckMode(AckMode.BATCH);
+    return containerFactory;
+  }
+
+  /** Container factory of the ephemeral events listener, the offsets are committed per batch. */
+  @Bean
+  ConcurrentKafkaListenerContainerFactory<SpecificRecord, SpecificRecord>
+      ephemeralEventsListenerContainerFactory(
+          @Qualifier("consumerFactoryEphemeralAvroKeyAvroValue") ConsumerFactory<SpecificRecord, SpecificRecord> consumerFactory) {
+    final var containerFactory =
+        new ConcurrentKafkaListenerContainerFactory<SpecificRecord, SpecificRecord>();
+    containerFactory.setConsumerFactory(consumerFactory);
+    containerFactory.setConcurrency(this.kafkaProps.getEphemeral().getConsumerConcurrency());
+    return containerFactory;
+  }
+
+  /**
+   * Container factory of the accepted messages persister. A failed record is retried {@link
+   * KafkaConfigurationProperties.AcceptedMessagesConfig#getRetryAttempts()} times and then
+   * published to the dead letter topic, so it neither blocks its partition nor gets lost.
+   */
+  @Bean
+  ConcurrentKafkaListenerContainerFactory<String, SpecificRecord>
+      acceptedMessagesListenerContainerFactory(
+          @Qualifier("consumerFactoryStringKeyAvroValue") ConsumerFactory<String, SpecificRecord> consumerFactory,
+          @Qualifier("kafkaTemplateStringKeyAvroValue") KafkaTemplate<String, SpecificRecord> template) {
+    final var containerFactory =
+        new ConcurrentKafkaListenerContainerFactory<String, SpecificRecord>();
+    containerFactory.setConsumerFactory(consumerFactory);
+    containerFactory.setCommonErrorHandler(this.acceptedMessagesErrorHandler(template));
+    return containerFactory;
+  }
+
+  /**
+   * The message of a missing thread will not be persisted by a retry, it is dead lettered right
+   * away.
+   */
+  DefaultErrorHandler acceptedMessagesErrorHandler(KafkaOperations<?, ?> template) {
+    final var acceptedProps = this.kafkaProps.getAcceptedMessages();
+    final var recoverer =
+        new DeadLetterPublishingRecoverer(
+            template,
+            (record, e) ->
+                new TopicPartition(record.topic().concat(DEAD_LETTER_SUFFIX), record.partition()));
+    final var errorHandler =
+        new DefaultErrorHandler(
+            recoverer,
+            new FixedBackOff(
+                acceptedProps.getRetryInterval().toMillis(), acceptedProps.getRetryAttempts()));
+    errorHandler.addNotRetryableExceptions(EntityNotFoundException.class);
+    return errorHandler;
+  }
+
   @Bean
   ConcurrentKafkaListenerContainerFactory<String, SpecificRecord>
   kafkaListenerContainerFactoryStringKeyAvroValue(
@@ -64,16 +183,41 @@ public class KafkaConfiguration {
     return new DefaultKafkaConsumerFactory<>(props);
   }
 
+  @Bean
+  ConsumerFactory<SpecificRecord, SpecificRecord> consumerFactoryEphemeralAvroKeyAvroValue() throws ClassNotFoundException {
+    return new DefaultKafkaConsumerFactory<>(this.kafkaProps.ephemeralConsumerProps());
+  }
+
   @Bean
   ProducerFactory<SpecificRecord, SpecificRecord> producerFactoryAvroKeyAvroValue()
       throws ClassNotFoundException {
-    return new DefaultKafkaProducerFactory<>(this.kafkaProps.producerProps());
+    return new DefaultKafkaProducerFactory<>(
+        this.kafkaProps.producerProps(this.kafkaProps.getTemplates().getAvroKeyAvroValue()));
   }
 
   @Bean
   ProducerFactory<String, SpecificRecord> producerFactoryStringKeyAvroValue()
       throws ClassNotFoundException {
-    final var props = this.kafkaProps.producerProps();
+    final var props =
+        this.kafkaProps.producerProps(this.kafkaProps.getTemplates().getStringKeyAvroValue());
+    props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+    return new DefaultKafkaProducerFactory<>(props);
+  }
+
+  @Bean
+  ProducerFactory<SpecificRecord, SpecificRecord> producerFactoryEphemeralAvroKeyAvroValue()
+      throws ClassNotFoundException {
+    return new DefaultKafkaProducerFactory<>(
+        this.kafkaProps.producerProps(
+            this.kafkaProps.getTemplates().getEphemeralAvroKeyAvroValue()));
+  }
+
+  @Bean
+  ProducerFactory<String, SpecificRecord> producerFactoryEphemeralStringKeyAvroValue()
+      throws ClassNotFoundException {
+    final var props =
+        this.kafkaProps.producerProps(
+            this.kafkaProps.getTemplates().getEphemeralStringKeyAvroValue());
     props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
     return new DefaultKafkaProducerFactory<>(props);
   }
@@ -89,4 +233,63 @@ public class KafkaConfiguration {
       @Qualifier("producerFactoryStringKeyAvroValue") ProducerFactory<String, SpecificRecord> factory) {
     return new KafkaTemplate<>(factory);
   }
+
+  @Bean
+  KafkaTemplate<SpecificRecord, SpecificRecord> kafkaTemplateEphemeralAvroKeyAvroValue(
+      @Qualifier("producerFactoryEphemeralAvroKeyAvroValue") ProducerFactory<SpecificRecord, SpecificRecord> factory) {
+    return new KafkaTemplate<>(factory);
+  }
+
+  @Bean
+  KafkaTemplate<String, SpecificRecord> kafkaTemplateEphemeralStringKeyAvroValue(
+      @Qualifier("producerFactoryEphemeralStringKeyAvroValue") ProducerFactory<String, SpecificRecord> factory) {
+    return new KafkaTemplate<>(factory);
+  }
+
+  @Bean
+  @ConditionalOnProperty(prefix = "project.messaging", name = "send-mode", havingValue = "KAFKA_FIRST")
+  NewTopic threadMessagesAcceptedTopic() {
+    return this.acceptedMessagesTopic(this.kafkaProps.getTopics().getThreadMessagesAccepted());
+  }
+
+  @Bean
+  @ConditionalOnProperty(prefix = "project.messaging", name = "send-mode", havingValue = "KAFKA_FIRST")
+  NewTopic threadMessagesAcceptedDeadLetterTopic() {
+    return this.acceptedMessagesTopic(
+        this.kafkaProps.getTopics().getThreadMessagesAccepted().concat(DEAD_LETTER_SUFFIX));
+  }
+
+  @Bean
+  NewTopic threadEphemeralEventsTopic() {
+    return this.ephemeralTopic(this.kafkaProps.getTopics().getThreadEphemeralEvents());
+  }
+
+  /** Topic through which the ephemeral events of the users connected to this instance are routed. */
+  @Bean
+  @ConditionalOnProperty(prefix = "project.messaging.routing", name = "enabled", havingValue = "true")
+  NewTopic localNodeEphemeralEventsTopic() {
+    return this.ephemeralTopic(
+        this.messagingProps
+            .getRouting()
+            .getEphemeralNodeTopicPrefix()
+            .concat(this.kafkaProps.getGroupId()));
+  }
+
+  private NewTopic acceptedMessagesTopic(String name) {
+    final var acceptedProps = this.kafkaProps.getAcceptedMessages();
+
+    return new NewTopic(
+        name, acceptedProps.getPartitions(), acceptedProps.getReplicationFactor());
+  }
+
+  private NewTopic ephemeralTopic(String name) {
+    final var ephemeralProps = this.kafkaProps.getEphemeral();
+
+    return new NewTopic(
+            name, ephemeralProps.getPartitions(), ephemeralProps.getReplicationFactor())
+        .configs(
+            Map.of(
+                TopicConfig.RETENTION_MS_CONFIG,
+                String.valueOf(ephemeralProps.getRetention().toMillis())));
+  }
 }
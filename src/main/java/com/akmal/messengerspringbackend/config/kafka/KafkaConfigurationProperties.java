@@ -3,11 +3,14 @@ package com.akmal.messengerspringbackend.config.kafka;
 import io.confluent.kafka.serializers.AbstractKafkaSchemaSerDeConfig;
 import io.confluent.kafka.serializers.KafkaAvroDeserializerConfig;
 import io.confluent.kafka.serializers.subject.TopicNameStrategy;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
@@ -27,6 +30,9 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 @ConfigurationProperties(prefix = "project.kafka")
 public class KafkaConfigurationProperties {
+  /** Appended to {@link KafkaConfigurationProperties#groupId} for the ephemeral events consumer. */
+  public static final String EPHEMERAL_GROUP_SUFFIX = "-ephemeral";
+
   @Getter @Setter
   private String partitionAssignmentStrategy = CooperativeStickyAssignor.class.getName();
 
@@ -39,12 +45,33 @@ public class KafkaConfigurationProperties {
   @Getter @Setter private String valueSerializer = StringSerializer.class.getName();
 
   @Getter @Setter private String groupId = "instance-1";
+
+  /**
+   * Consumer group shared by all instances that persist accepted messages, unlike {@link
+   * KafkaConfigurationProperties#groupId} each message is processed by one instance only.
+   */
+  @Getter @Setter private String persisterGroupId = "thread-message-persister";
   @Getter @Setter private String bootstrapServers = "localhost:9092";
 
   @Getter @Setter private SchemaRegistryConfig schemaRegistry = SchemaRegistryConfig.withDefaults();
 
   @Getter @Setter private TopicNames topics;
 
+  @Getter @Setter private EphemeralConfig ephemeral = new EphemeralConfig();
+
+  @Getter @Setter private AcceptedMessagesConfig acceptedMessages = new AcceptedMessagesConfig();
+
+  /**
+   * Named producer tunings (batching, compression, delivery guarantees), a profile is picked per
+   * {@link org.springframework.kafka.core.KafkaTemplate} through {@link
+   * KafkaConfigurationProperties#templates}. Profiles configured in the properties are merged with
+   * the built-in ones.
+   */
+  @Getter @Setter
+  private Map<String, ProducerProfile> producerProfiles = ProducerProfile.withDefaults();
+
+  @Getter @Setter private TemplateProfiles templates = new TemplateProfiles();
+
   Map<String, Object> consumerProps() throws ClassNotFoundException {
     final var props = new HashMap<String, Object>();
     props.put(
@@ -83,11 +110,30 @@ public class KafkaConfigurationProperties {
   }
 
   Map<String, Object> producerProps() throws ClassNotFoundException {
+    return this.producerProps(ProducerProfile.DEFAULT);
+  }
+
+  /**
+   * Producer properties tuned according to the named profile.
+   *
+   * @throws IllegalStateException if the profile is not configured.
+   * @param profile name of the profile in {@link KafkaConfigurationProperties#producerProfiles}.
+   */
+  Map<String, Object> producerProps(String profile) throws ClassNotFoundException {
+    final ProducerProfile producerProfile = this.producerProfiles.get(profile);
+
+    if (producerProfile == null) {
+      throw new IllegalStateException(
+          String.format(
+              "Producer profile %s is not configured, available profiles %s",
+              profile, this.producerProfiles.keySet()));
+    }
+
     final var props = new HashMap<String, Object>();
     props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, this.bootstrapServers);
     props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, Class.forName(this.valueSerializer));
     props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, Class.forName(this.keySerializer));
-    props.put(ProducerConfig.ACKS_CONFIG, "all");
+    producerProfile.applyTo(props);
 
     if (this.schemaRegistry.enabled) {
       props.put(
@@ -106,10 +152,111 @@ public class KafkaConfigurationProperties {
     return props;
   }
 
+  /**
+   * Consumer properties of the ephemeral events, consumed in their own group of the instance, stale
+   * events are of no use after a restart.
+   */
+  Map<String, Object> ephemeralConsumerProps() throws ClassNotFoundException {
+    final var props = this.consumerProps();
+    props.put(ConsumerConfig.GROUP_ID_CONFIG, this.groupId.concat(EPHEMERAL_GROUP_SUFFIX));
+    props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, this.ephemeral.autoOffsetReset);
+    return props;
+  }
+
   @Data
   public static class TopicNames {
     private String threadEvents;
     private String userPresence;
+    private String threadMessagesAccepted = "thread.messages.accepted";
+    private String threadEphemeralEvents = "thread.events.ephemeral";
+  }
+
+  @Data
+  public static class EphemeralConfig {
+    /** Retention of the ephemeral events topics. */
+    private Duration retention = Duration.ofMinutes(5);
+    private int partitions = 3;
+    private short replicationFactor = 1;
+
+    private int consumerConcurrency = 1;
+    private String autoOffsetReset = "latest";
+  }
+
+  /** Topic of the messages accepted in the KAFKA_FIRST send mode and its dead letter topic. */
+  @Data
+  public static class AcceptedMessagesConfig {
+    /** Partitions of both topics, the dead letter record keeps the partition of the original. */
+    private int partitions = 3;
+    private short replicationFactor = 1;
+
+    /** Attempts to persist the message after the failed one, before it is dead lettered. */
+    private int retryAttempts = 3;
+    private Duration retryInterval = Duration.ofSeconds(1);
+  }
+
+  /**
+   * Producer tuning, the defaults of the fields correspond to the {@link ProducerProfile#DEFAULT}
+   * profile: no batching delay, no compression and idempotent delivery.
+   */
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  @Builder
+  public static class ProducerProfile {
+    public static final String DEFAULT = "default";
+    public static final String THROUGHPUT = "throughput";
+    public static final String EPHEMERAL = "ephemeral";
+
+    @Builder.Default private String acks = "all";
+    @Builder.Default private int lingerMs = 0;
+    @Builder.Default private int batchSize = 16_384;
+
+    /** One of none, gzip, snappy, lz4 or zstd. */
+    @Builder.Default private String compressionType = "none";
+
+    /** Requires acks "all", keeps the per partition ordering with up to 5 requests in flight. */
+    @Builder.Default private boolean enableIdempotence = true;
+
+    @Builder.Default private int maxInFlightRequestsPerConnection = 5;
+    @Builder.Default private int retries = Integer.MAX_VALUE;
+
+    private void applyTo(Map<String, Object> props) {
+      props.put(ProducerConfig.ACKS_CONFIG, this.acks);
+      props.put(ProducerConfig.LINGER_MS_CONFIG, this.lingerMs);
+      props.put(ProducerConfig.BATCH_SIZE_CONFIG, this.batchSize);
+      props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, this.compressionType);
+      props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, this.enableIdempotence);
+      props.put(
+          ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION,
+          this.maxInFlightRequestsPerConnection);
+      props.put(ProducerConfig.RETRIES_CONFIG, this.retries);
+    }
+
+    private static Map<String, ProducerProfile> withDefaults() {
+      final var profiles = new HashMap<String, ProducerProfile>();
+      profiles.put(DEFAULT, ProducerProfile.builder().build());
+
+      // fan-out of a message produces a burst of records, waiting a few millis fills the batches
+      profiles.put(
+          THROUGHPUT,
+          ProducerProfile.builder().lingerMs(5).batchSize(65_536).compressionType("lz4").build());
+
+      // typing and presence events are fine to be lost, so they neither wait for the replicas
+      // nor are retried
+      profiles.put(
+          EPHEMERAL,
+          ProducerProfile.builder().acks("1").enableIdempotence(false).retries(0).build());
+      return profiles;
+    }
+  }
+
+  /** Names of the producer profiles used by each of the templates. */
+  @Data
+  public static class TemplateProfiles {
+    private String avroKeyAvroValue = ProducerProfile.THROUGHPUT;
+    private String stringKeyAvroValue = ProducerProfile.DEFAULT;
+    private String ephemeralAvroKeyAvroValue = ProducerProfile.EPHEMERAL;
+    private String ephemeralStringKeyAvroValue = ProducerProfile.EPHEMERAL;
   }
 
   @Data
@@ -0,0 +1,296 @@
+package com.akmal.messengerspringbackend.config.messaging;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 20/07/2022 - 19:15
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Configuration
+@ConfigurationProperties(prefix = "project.messaging")
+public class MessagingConfigurationProperties {
+  @Getter @Setter private SendMode sendMode = SendMode.SYNC_PERSIST;
+
+  /**
+   * How long the sender waits for Kafka to acknowledge the accepted message in {@link
+   * SendMode#KAFKA_FIRST} mode before the send is considered failed.
+   */
+  @Getter @Setter private Duration acceptTimeout = Duration.ofSeconds(5);
+
+  /**
+   * Shape of the records published to the thread events topic. {@link FanoutMode#BROADCAST} must
+   * only be enabled once every instance is able to consume the broadcast event.
+   */
+  @Getter @Setter private FanoutMode fanoutMode = FanoutMode.PER_RECIPIENT;
+
+  @Getter @Setter private RoutingConfig routing = new RoutingConfig();
+
+  @Getter @Setter private DeliveryConfig delivery = new DeliveryConfig();
+
+  @Getter @Setter private TypingConfig typing = new TypingConfig();
+
+  @Getter @Setter private SessionsConfig sessions = new SessionsConfig();
+
+  @Getter @Setter private BrokerConfig broker = new BrokerConfig();
+
+  @Getter @Setter private OutboundConfig outbound = new OutboundConfig();
+
+  @Getter @Setter private ReplayConfig replay = new ReplayConfig();
+
+  @Getter @Setter private PresenceConfig presence = new PresenceConfig();
+
+  @Getter
+  @Setter
+  public static class RoutingConfig {
+    /**
+     * Whether the thread events are published to the topics of the instances the recipients are
+     * connected to, instead of the shared thread events topic consumed by every instance.
+     */
+    private boolean enabled = false;
+
+    /** Prefix of the per instance topic, the instance is identified by its consumer group id. */
+    private String nodeTopicPrefix = "thread.events.node.";
+
+    /** Prefix of the per instance topic of the ephemeral events (typing, presence). */
+    private String ephemeralNodeTopicPrefix = "thread.events.ephemeral.node.";
+
+    private int nodeTopicPartitions = 3;
+
+    private short nodeTopicReplicationFactor = 1;
+
+    /** How long the location of a session is kept without being refreshed by its instance. */
+    private Duration sessionTtl = Duration.ofSeconds(90);
+
+    /** How often the instance refreshes the locations of the sessions connected to it. */
+    private Duration refreshInterval = Duration.ofSeconds(30);
+  }
+
+  @Getter
+  @Setter
+  public static class DeliveryConfig {
+    /** Number of consumer threads of the thread events topics, bounded by their partitions. */
+    private int consumerConcurrency = 1;
+
+    /**
+     * Number of workers that deliver the thread events, events of the same recipient are always
+     * handled by the same worker. Defaults to the number of available processors.
+     */
+    private int stripes = Runtime.getRuntime().availableProcessors();
+
+    /** Capacity of the queue of each worker, the consumer blocks once it is reached. */
+    private int stripeQueueCapacity = 1024;
+
+    /**
+     * Whether the thread events are consumed in batches, the events of one user within the batch
+     * are then sent as a single coalesced frame to the clients that support it.
+     */
+    private boolean batchListener = false;
+
+    /**
+     * How long the batch listener waits for the deliveries of the batch, the batch fails and is
+     * redelivered if they have not completed by then (e.g. a worker stuck on a slow session).
+     */
+    private Duration batchDeliveryTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Whether the events of the recipients connected to the same instance are delivered in-process
+     * instead of a round trip through Kafka.
+     */
+    private boolean localFastPath = false;
+
+    /**
+     * Whether the message frames of a fan-out are encoded once and shared by the recipients
+     * instead of being converted by the broker for every session.
+     */
+    private boolean encodeOnce = false;
+
+    /** How long the encoded part of the message shared by the recipients is kept. */
+    private Duration encodedFrameTtl = Duration.ofSeconds(30);
+
+    /**
+     * Whether the clients may negotiate a binary encoding (CBOR, Smile) of the frames per
+     * subscription, otherwise every frame is sent as JSON.
+     */
+    private boolean binaryEncodings = false;
+  }
+
+  @Getter
+  @Setter
+  public static class TypingConfig {
+    /** At most one typing event of the user in the thread is published within the window. */
+    private Duration throttleWindow = Duration.ofSeconds(2);
+
+    /**
+     * Maximum number of the user and thread pairs remembered for the throttling, bounds the memory
+     * when many users type within the window, the evicted pairs are only throttled less precisely.
+     */
+    private long throttleMaxEntries = 100_000;
+
+    /**
+     * How long the recipient sees the user typing after the last typing event, must be longer than
+     * the throttle window, otherwise the indicator flickers while the user keeps typing.
+     */
+    private Duration indicatorTtl = Duration.ofSeconds(5);
+
+    /** Accuracy of the expiration of the typing indicators. */
+    private Duration tickDuration = Duration.ofMillis(250);
+
+    private int wheelSize = 64;
+
+    /**
+     * How long the members of the thread are cached for the fanout of the typing events and the
+     * authorization of the thread broadcast subscriptions.
+     */
+    private Duration membersCacheTtl = Duration.ofSeconds(30);
+  }
+
+  @Getter
+  @Setter
+  public static class SessionsConfig {
+    /** Heart-beat interval the broker offers to the clients in both directions. */
+    private Duration heartbeatInterval = Duration.ofSeconds(10);
+
+    /**
+     * Number of heart-beats the client may miss before its session is considered dead and removed
+     * from the registry. Sessions of the clients that send no heart-beats are removed only once
+     * their sockets are closed.
+     */
+    private int missedHeartbeats = 3;
+
+    /** Accuracy of the idle session reaper. */
+    private Duration reaperTick = Duration.ofSeconds(1);
+
+    private int wheelSize = 512;
+  }
+
+  @Getter
+  @Setter
+  public static class BrokerConfig {
+    /**
+     * Whether the subscriptions of the simple broker are indexed by the trie of the destination
+     * segments instead of the default registry, which scans all the subscriptions once its cache
+     * of the resolved destinations overflows.
+     */
+    private boolean trieRegistry = false;
+
+    /**
+     * Whether the frames of the known sessions are sent straight to the session destinations of
+     * the broker, bypassing the resolution of the user destinations through the user registry.
+     */
+    private boolean directSessionRouting = false;
+
+    /**
+     * Whether the members of the group threads may subscribe to the thread broadcast destination,
+     * the message is then published to it once per instance instead of once per member session.
+     */
+    private boolean threadBroadcast = false;
+  }
+
+  @Getter
+  @Setter
+  public static class OutboundConfig {
+    /**
+     * Bytes that may be buffered for a session while its socket is being written to, the session
+     * is closed once the limit is exceeded.
+     */
+    private DataSize sendBufferSizeLimit = DataSize.ofKilobytes(512);
+
+    /** How long a single write to the socket may take before the session is closed. */
+    private Duration sendTimeLimit = Duration.ofSeconds(10);
+
+    /** Threads of the client outbound channel, i.e. of the writes to the sockets. */
+    private int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Frames of the session queued on the client outbound channel from which the session is
+     * considered slow and its ephemeral frames (typing, presence) are dropped.
+     */
+    private int ephemeralFrameLimit = 32;
+
+    /** Frames of the session queued on the client outbound channel from which it is closed. */
+    private int pendingFrameLimit = 512;
+
+    /**
+     * Frames queued on the client outbound channel from which the thread events consumer is
+     * paused, it is resumed once the queue drains to {@link #resumeThreshold}.
+     */
+    private int pauseThreshold = 20_000;
+
+    private int resumeThreshold = 5_000;
+
+    /** How often the depth of the client outbound channel is checked. */
+    private Duration checkInterval = Duration.ofMillis(200);
+  }
+
+  @Getter
+  @Setter
+  public static class ReplayConfig {
+    /**
+     * Whether the message frames are numbered per user and kept for the clients that reconnect,
+     * so they can resume from the last frame they have seen instead of reloading the threads.
+     */
+    private boolean enabled = false;
+
+    /** Frames kept per user, a client that missed more has to reload. */
+    private int capacity = 256;
+
+    /**
+     * How long the frames are kept, both after they were sent and after the last session of the
+     * user closed.
+     */
+    private Duration retention = Duration.ofSeconds(60);
+
+    private Duration sweepInterval = Duration.ofSeconds(5);
+  }
+
+  @Getter
+  @Setter
+  public static class PresenceConfig {
+    /**
+     * How long the user stays online after the last session closed, a client that reconnects
+     * within it (e.g. a phone switching networks) does not flap the presence of the user.
+     */
+    private Duration offlineGrace = Duration.ofSeconds(10);
+
+    private Duration sweepInterval = Duration.ofSeconds(1);
+
+    /** The last seen time of the user is written at most once per the interval. */
+    private Duration lastSeenFlushInterval = Duration.ofMinutes(1);
+
+    /**
+     * Number of workers that publish the presence transitions, the transitions of the same user
+     * are always published by the same worker in the order they happened.
+     */
+    private int publishStripes = 2;
+
+    private int publishQueueCapacity = 1024;
+  }
+
+  public enum SendMode {
+    /** The message is written to Cassandra for every member before the sender gets the ack. */
+    SYNC_PERSIST,
+    /**
+     * The message is acknowledged once it is committed to the accepted messages topic, persistence
+     * and fanout are done by the consumers of that topic.
+     */
+    KAFKA_FIRST
+  }
+
+  public enum FanoutMode {
+    /** One record with the full message is published for every recipient. */
+    PER_RECIPIENT,
+    /**
+     * One record is published per message with the list of recipients, each instance expands it
+     * for the recipients connected to it.
+     */
+    BROADCAST
+  }
+}
@@ -0,0 +1,102 @@
+package com.akmal.messengerspringbackend.config.pagination;
+
+import com.akmal.messengerspringbackend.shared.pagination.PageLimit;
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 16/07/2022 - 14:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Configuration
+@ConfigurationProperties(prefix = "project.pagination")
+public class PaginationConfigurationProperties {
+  @Getter @Setter private CursorConfig cursor = new CursorConfig();
+  @Getter @Setter private PageSizeConfig pageSize = new PageSizeConfig();
+  @Getter @Setter private PrefetchConfig prefetch = new PrefetchConfig();
+
+  /** Maximum number of threads whose first pages can be requested at once. */
+  @Getter @Setter private int maxBatchThreads = 10;
+
+  /**
+   * Resolves the page bounds requested by the client against the server limits. Absent size falls
+   * back to the default one, unless the byte budget is requested, in which case the page is bounded
+   * by the maximum size and the budget decides where it ends.
+   *
+   * @param size requested number of messages, optional.
+   * @param maxBytes requested byte budget of the page, optional.
+   * @return page limit within the server limits.
+   */
+  public PageLimit resolvePageLimit(@Nullable Integer size, @Nullable Integer maxBytes) {
+    final boolean withBudget = maxBytes != null && maxBytes > 0;
+    final int requestedSize =
+        size != null ? size : (withBudget ? this.pageSize.maxSize : this.pageSize.defaultSize);
+
+    return new PageLimit(
+        Math.max(1, Math.min(requestedSize, this.pageSize.maxSize)),
+        withBudget ? Math.min(maxBytes, this.pageSize.maxBytes) : 0);
+  }
+
+  @Getter
+  @Setter
+  public static class CursorConfig {
+    /**
+     * Secret used to sign the pagination cursors. Must be shared between all instances, otherwise
+     * cursors issued by one node will be rejected by the other. Required outside of the dev and
+     * test profiles, in which a random secret is generated on start up if it is left blank.
+     */
+    private String secret;
+
+    /**
+     * Whether to embed the driver's paging state into the cursor when it is available. Cursors are
+     * resumable without it (by seeking past the last message id), however, the paging state lets
+     * Cassandra continue the scan without re-evaluating the range.
+     */
+    private boolean includePagingState = true;
+  }
+
+  @Getter
+  @Setter
+  public static class PageSizeConfig {
+    /** Number of messages in a page if the client did not request a specific size. */
+    private int defaultSize = 25;
+
+    /** Upper bound of the number of messages in a page that a client can request. */
+    private int maxSize = 100;
+
+    /** Upper bound of the byte budget of a page that a client can request. */
+    private int maxBytes = 256 * 1024;
+
+    /**
+     * Number of rows that the driver fetches per round trip while filling a byte-budgeted page.
+     * Smaller values waste fewer rows past the budget, larger save round trips for tiny messages.
+     */
+    private int budgetFetchSize = 25;
+  }
+
+  @Getter
+  @Setter
+  public static class PrefetchConfig {
+    /**
+     * Whether to load the first page of a thread on subscribe and the next page after each fetch in
+     * the background.
+     */
+    private boolean enabled = false;
+
+    /**
+     * How long a prefetched page stays in the cache, also the bound of how long a first page may
+     * stay stale if its invalidation could not be published.
+     */
+    private Duration ttl = Duration.ofSeconds(30);
+
+    /** Upper bound of the estimated size of all prefetched pages held in memory. */
+    private long maxWeightBytes = 32L * 1024 * 1024;
+  }
+}
@@ -5,9 +5,14 @@ import static net.logstash.logback.argument.StructuredArguments.v;
 import com.akmal.messengerspringbackend.CorsConfigurationProperties;
 import com.akmal.messengerspringbackend.config.condition.CorsEnableCondition;
 import com.akmal.messengerspringbackend.controller.v1.rest.ThreadController;
+import com.akmal.messengerspringbackend.shared.security.CachingJwtDecoder;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.Arrays;
 import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Conditional;
@@ -18,6 +23,7 @@ import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.web.cors.CorsConfiguration;
@@ -97,6 +103,37 @@ public class SecurityConfiguration {
     return bean;
   }
 
+  /**
+   * Wraps the decoder of the resource server with {@link CachingJwtDecoder}. The same bean is used
+   * by the STOMP CONNECT frames, so both share the verified tokens. Static, since the post
+   * processors are created before the rest of the configuration, the dependencies are resolved
+   * once the decoder is created.
+   */
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "project.security.jwt-cache",
+      name = "enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  static BeanPostProcessor cachingJwtDecoderPostProcessor(
+      ObjectProvider<SecurityConfigurationProperties> securityProps,
+      ObjectProvider<MeterRegistry> meterRegistry) {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof JwtDecoder jwtDecoder) || bean instanceof CachingJwtDecoder) {
+          return bean;
+        }
+
+        final var cacheProps = securityProps.getObject().getJwtCache();
+        final var cachingDecoder =
+            new CachingJwtDecoder(jwtDecoder, cacheProps.getMaximumSize(), cacheProps.getMaxTtl());
+        meterRegistry.ifAvailable(cachingDecoder::bindTo);
+        return cachingDecoder;
+      }
+    };
+  }
+
   @Bean
   JwtAuthenticationConverter jwtAuthenticationConverter() {
     final var converter = new JwtAuthenticationConverter();
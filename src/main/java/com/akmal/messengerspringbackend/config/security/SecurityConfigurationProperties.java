@@ -0,0 +1,35 @@
+package com.akmal.messengerspringbackend.config.security;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 19:35
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Configuration
+@ConfigurationProperties(prefix = "project.security")
+public class SecurityConfigurationProperties {
+  @Getter @Setter private JwtCacheConfig jwtCache = new JwtCacheConfig();
+
+  @Getter
+  @Setter
+  public static class JwtCacheConfig {
+    /**
+     * Whether the verified tokens are cached until their expiration, both for the REST requests
+     * and the STOMP CONNECT frames.
+     */
+    private boolean enabled = true;
+
+    private long maximumSize = 100_000;
+
+    /** Upper bound of the time a token is cached for, regardless of its expiration time. */
+    private Duration maxTtl = Duration.ofHours(1);
+  }
+}
@@ -3,10 +3,19 @@ package com.akmal.messengerspringbackend.config.security;
 import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
 import com.akmal.messengerspringbackend.websocket.controller.WsMessageController;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.security.config.annotation.web.messaging.MessageSecurityMetadataSourceRegistry;
 import org.springframework.security.config.annotation.web.socket.AbstractSecurityWebSocketMessageBrokerConfigurer;
 
 /**
+ * Authorizes the inbound STOMP frames. The simple broker matches the subscribed destinations as
+ * patterns, therefore subscriptions with pattern characters are rejected altogether, otherwise
+ * '/topic/**' would receive the broadcasts of every thread. Under '/topic' only the members of the
+ * thread may subscribe to its broadcast destination, see {@link
+ * WebSocketConfiguration#THREAD_BROADCAST_TOPIC}.
+ *
  * @author Akmal Alikhujaev
  * @version 1.0
  * @created 17/06/2022 - 19:20
@@ -17,20 +26,42 @@ import org.springframework.security.config.annotation.web.socket.AbstractSecurit
 public class WebsocketSecurityConfiguration
     extends AbstractSecurityWebSocketMessageBrokerConfigurer {
   public static final String WS_API_DEST_PREFIX = "/ws-api";
+  private static final String THREAD_MEMBER_EXPRESSION =
+      "@userService.currentUser.threadIds.contains(T(java.util.UUID).fromString(#threadId))";
 
   @Override
   protected void configureInbound(MessageSecurityMetadataSourceRegistry messages) {
     messages
         .simpDestMatchers("/queue/**", WebSocketConfiguration.THREAD_TOPIC)
         .denyAll()
+        .matchers(WebsocketSecurityConfiguration::isPatternSubscription)
+        .denyAll()
         .simpDestMatchers(WebSocketConfiguration.THREAD_TOPIC.concat("/{threadId}/**"), WS_API_DEST_PREFIX.concat("/users/{userId}/threads/{threadId}/**"))
-        .access(
-            "@userService.currentUser.threadIds.contains(T(java.util.UUID).fromString(#threadId))")
+        .access(THREAD_MEMBER_EXPRESSION)
+        .simpSubscribeDestMatchers(
+            WebSocketConfiguration.THREAD_BROADCAST_TOPIC.concat("/{threadId}"))
+        .access(THREAD_MEMBER_EXPRESSION)
+        .simpDestMatchers("/topic/**")
+        .denyAll()
         .simpDestMatchers(WS_API_DEST_PREFIX.concat("/users/{userId}/**")).access("authentication.name == #userId")
         .anyMessage()
         .authenticated();
   }
 
+  /** @return whether the SUBSCRIBE frame has a destination the broker would match as a pattern. */
+  private static boolean isPatternSubscription(Message<?> message) {
+    if (!SimpMessageType.SUBSCRIBE.equals(
+        SimpMessageHeaderAccessor.getMessageType(message.getHeaders()))) {
+      return false;
+    }
+
+    final String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+    return destination != null
+        && (destination.indexOf('*') >= 0
+            || destination.indexOf('?') >= 0
+            || destination.indexOf('{') >= 0);
+  }
+
   @Override
   protected boolean sameOriginDisabled() {
     return true;
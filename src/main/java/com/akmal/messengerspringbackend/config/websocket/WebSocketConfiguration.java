@@ -1,17 +1,42 @@
 package com.akmal.messengerspringbackend.config.websocket;
 
-import com.akmal.messengerspringbackend.service.UserPresenceService;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.service.MessageService;
+import com.akmal.messengerspringbackend.service.ThreadMembersCache;
+import com.akmal.messengerspringbackend.shared.pagination.MessagePrefetchCache;
 import com.akmal.messengerspringbackend.websocket.BearerHandshakeInterceptor;
+import com.akmal.messengerspringbackend.websocket.IdleSessionReaper;
 import com.akmal.messengerspringbackend.websocket.IpHandshakeInterceptor;
+import com.akmal.messengerspringbackend.websocket.OutboundFlowControlInterceptor;
 import com.akmal.messengerspringbackend.websocket.SessionManagementInterceptor;
+import com.akmal.messengerspringbackend.websocket.SessionResumeInterceptor;
+import com.akmal.messengerspringbackend.websocket.ThreadBroadcastAuthorizationInterceptor;
+import com.akmal.messengerspringbackend.websocket.UserPresenceTracker;
+import com.akmal.messengerspringbackend.websocket.WebSocketSessionCloser;
+import com.akmal.messengerspringbackend.websocket.broker.TrieSubscriptionRegistry;
+import com.akmal.messengerspringbackend.websocket.delivery.FrameEncoding;
+import com.akmal.messengerspringbackend.websocket.delivery.FrameEncodingMessageConverter;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrameDispatcher;
+import com.akmal.messengerspringbackend.websocket.delivery.ReplayBuffer;
+import com.akmal.messengerspringbackend.websocket.delivery.ReplaySequence;
+import com.akmal.messengerspringbackend.websocket.delivery.ThreadBroadcastDelivery;
+import com.akmal.messengerspringbackend.websocket.dto.TypingStateDto;
+import com.akmal.messengerspringbackend.websocket.storage.SessionLocationRegistry;
 import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
-import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.scheduling.TaskScheduler;
@@ -21,6 +46,7 @@ import org.springframework.security.oauth2.server.resource.authentication.JwtAut
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 /**
  * @author Akmal Alikhujaev
@@ -39,16 +65,49 @@ public class WebSocketConfiguration implements WebSocketMessageBrokerConfigurer
   public static final String ERROR_TOPIC = "/user/queue/errors";
   public static final String THREAD_TOPIC =
       "/user/queue/threads";
+  /**
+   * Prefix of the broadcast destinations of the group threads, '/{threadId}' is appended. Only the
+   * members of the thread may subscribe, see {@link ThreadBroadcastAuthorizationInterceptor}.
+   */
+  public static final String THREAD_BROADCAST_TOPIC = "/topic/threads";
+  /** Destination of the typing states of the threads, see {@link TypingStateDto}. */
+  public static final String TYPING_TOPIC = "/user/queue/typing";
+  /** Destination of the presence changes of the users the user has threads with. */
+  public static final String USER_PRESENCE_TOPIC = "/user/queue/user-presence";
+  /** Destination of the frames that carry several coalesced frames of the user. */
+  public static final String COALESCED_FRAMES_TOPIC = "/user/queue/batch";
+  /** CONNECT header through which the client announces it can unpack coalesced frames. */
+  public static final String COALESCED_FRAMES_HEADER = "accept-coalesced-frames";
+  /** Header of the message frames with their {@link ReplaySequence}. */
+  public static final String SEQUENCE_HEADER = "seq";
+  /** CONNECT header through which the reconnecting client sends the last sequence it has seen. */
+  public static final String LAST_SEQUENCE_HEADER = "last-seq";
+  /** SUBSCRIBE header through which the client negotiates the {@link FrameEncoding}. */
+  public static final String ACCEPT_HEADER = "accept";
   private static final String BEARER_PREFIX = "Bearer ";
   private final JwtDecoder jwtDecoder;
   private final JwtAuthenticationConverter authenticationConverter;
   private final WebsocketSessionStorage sessionStorage;
-  private final UserPresenceService userPresenceService;
-  @Qualifier("asyncExecutor") private final AsyncTaskExecutor asyncTaskExecutor;
+  private final UserPresenceTracker userPresenceTracker;
+  // resolved lazily because the message service depends on the messaging template of this config
+  private final ObjectProvider<MessageService> messageServiceProvider;
+  private final MessagePrefetchCache prefetchCache;
+  // resolved lazily, it sends through the messaging template of this config as well
+  private final ObjectProvider<ThreadBroadcastDelivery> threadBroadcastDeliveryProvider;
+  private final SessionLocationRegistry sessionLocationRegistry;
+  private final IdleSessionReaper idleSessionReaper;
+  private final ThreadMembersCache threadMembersCache;
+  private final OutboundFlowControlInterceptor outboundFlowControlInterceptor;
+  private final WebSocketSessionCloser webSocketSessionCloser;
+  private final ReplayBuffer replayBuffer;
+  private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+  private final MessagingConfigurationProperties messagingProps;
 
   @Override
   public void configureMessageBroker(MessageBrokerRegistry registry) {
+    final long heartbeat = this.messagingProps.getSessions().getHeartbeatInterval().toMillis();
     registry.enableSimpleBroker("/topic", "/queue")
+        .setHeartbeatValue(new long[] {heartbeat, heartbeat})
         .setTaskScheduler(heartBeatScheduler());
     registry.setUserDestinationPrefix("/user");
 
@@ -68,15 +127,138 @@ public class WebSocketConfiguration implements WebSocketMessageBrokerConfigurer
     final var bearerInterceptor =
         BearerHandshakeInterceptor.customInstance(
             jwtDecoder, authenticationConverter, BEARER_PREFIX);
+
+    final var threadBroadcastInterceptor =
+        ThreadBroadcastAuthorizationInterceptor.withMembers(
+            this.threadMembersCache, this.messagingProps.getBroker().isThreadBroadcast());
+
+    registration.interceptors(
+        bearerInterceptor,
+        threadBroadcastInterceptor,
+        sessionManagementInterceptor(),
+        SessionResumeInterceptor.withBuffer(this.replayBuffer));
+  }
+
+  @Override
+  public void configureClientOutboundChannel(ChannelRegistration registration) {
+    final int poolSize = this.messagingProps.getOutbound().getPoolSize();
+    registration.taskExecutor().corePoolSize(poolSize).maxPoolSize(poolSize);
+    registration.interceptors(this.outboundFlowControlInterceptor);
+  }
+
+  /**
+   * Adds the converters of the binary {@link FrameEncoding}s in front of the default ones, they
+   * take only the frames with their content type, which the delivery sets per session.
+   */
+  @Override
+  public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+    if (!this.messagingProps.getDelivery().isBinaryEncodings()) return true;
+
+    for (FrameEncoding encoding : FrameEncoding.values()) {
+      if (!encoding.isBinary()) continue;
+
+      messageConverters.add(
+          new FrameEncodingMessageConverter(
+              encoding, this.objectMapperBuilder.factory(encoding.newFactory()).build()));
+    }
+    return true;
+  }
+
+  @Override
+  public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+    final var outboundProps = this.messagingProps.getOutbound();
+    registration
+        .setSendBufferSizeLimit((int) outboundProps.getSendBufferSizeLimit().toBytes())
+        .setSendTimeLimit((int) outboundProps.getSendTimeLimit().toMillis())
+        .addDecoratorFactory(this.webSocketSessionCloser);
+  }
+
+  @Bean
+  public SessionManagementInterceptor sessionManagementInterceptor() {
     final var sessionInterceptor = SessionManagementInterceptor.withStore(this.sessionStorage);
 
-    sessionInterceptor.registerPostConnectCallback(
-        session -> {
-          this.asyncTaskExecutor.submit(
-              () -> this.userPresenceService.sendUserPresenceEvent(session.uid()));
-        });
+    sessionInterceptor.registerPostConnectCallback(this.userPresenceTracker::onConnected);
+    sessionInterceptor.registerPostDisconnectCallback(this.userPresenceTracker::onDisconnected);
+
+    sessionInterceptor.registerPostConnectCallback(this.idleSessionReaper::track);
+
+    if (this.replayBuffer.isEnabled()) {
+      sessionInterceptor.registerPostConnectCallback(
+          session -> this.replayBuffer.onConnected(session.uid()));
+      sessionInterceptor.registerPostDisconnectCallback(
+          session -> this.replayBuffer.onDisconnected(session.uid(), session.id()));
+    }
+    this.idleSessionReaper.onIdle(
+        session -> sessionInterceptor.disconnect(session.uid(), session.id()));
+
+    if (this.sessionLocationRegistry.isEnabled()) {
+      sessionInterceptor.registerPostConnectCallback(
+          session -> this.sessionLocationRegistry.register(session.uid()));
+      sessionInterceptor.registerPostDisconnectCallback(
+          session -> this.sessionLocationRegistry.unregister(session.uid()));
+    }
+
+    if (this.messagingProps.getBroker().isThreadBroadcast()) {
+      sessionInterceptor.registerPostSubscribeCallback(
+          (uid, subscription) ->
+              this.threadBroadcastDeliveryProvider.getObject().onSubscribed(uid, subscription));
+    }
+
+    if (this.prefetchCache.isEnabled()) {
+      sessionInterceptor.registerPostSubscribeCallback(
+          (uid, subscription) ->
+              parseThreadId(subscription.topic())
+                  .ifPresent(
+                      threadId ->
+                          this.messageServiceProvider
+                              .getObject()
+                              .prefetchFirstPage(uid, threadId)));
+    }
 
-    registration.interceptors(bearerInterceptor, sessionInterceptor);
+    return sessionInterceptor;
+  }
+
+  /**
+   * Extracts the thread id from the destination of the form {@link
+   * WebSocketConfiguration#THREAD_TOPIC} + '/{threadId}'.
+   */
+  private static Optional<UUID> parseThreadId(String destination) {
+    final var prefix = THREAD_TOPIC.concat("/");
+
+    if (destination == null || !destination.startsWith(prefix)) return Optional.empty();
+
+    try {
+      return Optional.of(UUID.fromString(destination.substring(prefix.length())));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Replaces the subscription registry of the simple broker with {@link TrieSubscriptionRegistry},
+   * the broker registration does not expose it. Static, since the post processors are created
+   * before the rest of the configuration.
+   *
+   * <p>The simple broker itself is kept, its outbound channel still writes one frame per message.
+   * The frames are batched per session only by the coalescing of {@link OutboundFrameDispatcher},
+   * i.e. for the sessions that negotiated the coalesced frames and the events consumed by the batch
+   * listener.
+   */
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "project.messaging.broker",
+      name = "trie-registry",
+      havingValue = "true")
+  public static BeanPostProcessor brokerSubscriptionRegistryPostProcessor() {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof SimpleBrokerMessageHandler brokerHandler) {
+          brokerHandler.setSubscriptionRegistry(new TrieSubscriptionRegistry());
+        }
+        return bean;
+      }
+    };
   }
 
   @Bean
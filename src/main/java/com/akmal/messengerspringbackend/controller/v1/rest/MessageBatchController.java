@@ -0,0 +1,37 @@
+package com.akmal.messengerspringbackend.controller.v1.rest;
+
+import com.akmal.messengerspringbackend.dto.v1.MessageDTO;
+import com.akmal.messengerspringbackend.dto.v1.ScrollContent;
+import com.akmal.messengerspringbackend.service.MessageService;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Message endpoints that span multiple threads of the user.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 19/07/2022 - 18:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@RestController
+@RequestMapping(MessageBatchController.BASE_API)
+@RequiredArgsConstructor
+public class MessageBatchController {
+  public static final String BASE_API = "/api/v1/users/{userId}/messages";
+  private final MessageService messageService;
+
+  @GetMapping("/first-pages")
+  public Map<UUID, ScrollContent<MessageDTO>> getFirstPagesByUserByThreads(
+      @PathVariable String userId, @RequestParam List<UUID> threadIds) {
+    return this.messageService.findFirstPagesByUserAndThreads(userId, threadIds);
+  }
+}
@@ -3,10 +3,14 @@ package com.akmal.messengerspringbackend.controller.v1.rest;
 import com.akmal.messengerspringbackend.dto.v1.MessageDTO;
 import com.akmal.messengerspringbackend.dto.v1.MessageSendRequestDTO;
 import com.akmal.messengerspringbackend.dto.v1.MessageSentResponseDTO;
+import com.akmal.messengerspringbackend.dto.v1.MessageWindowDTO;
 import com.akmal.messengerspringbackend.dto.v1.ScrollContent;
 import com.akmal.messengerspringbackend.service.MessageService;
+import java.time.Instant;
 import java.util.UUID;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -33,10 +37,28 @@ public class MessageController {
   public ScrollContent<MessageDTO> getMessagesByUserByThreadByBucket(
       @PathVariable String userId,
       @PathVariable UUID threadId,
-      @RequestParam(required = false) Integer bucket,
-      @RequestParam(required = false) String pagingState,
-      @RequestParam(required = false) Long beforeMessageId) {
-    return this.messageService.findAllByUserAndThreadAndBucketMarkAsRead(
-        userId, threadId, bucket, beforeMessageId, pagingState);
+      @RequestParam(required = false) String cursor,
+      @RequestParam(required = false) Integer size,
+      @RequestParam(required = false) Integer maxBytes) {
+    return this.messageService.findAllByUserAndThreadMarkAsRead(
+        userId, threadId, cursor, size, maxBytes);
+  }
+
+  @GetMapping("/around/{messageId}")
+  public MessageWindowDTO getMessagesAroundMessage(
+      @PathVariable String userId,
+      @PathVariable UUID threadId,
+      @PathVariable long messageId,
+      @RequestParam(required = false) Integer size) {
+    return this.messageService.findAllAroundMessage(userId, threadId, messageId, size);
+  }
+
+  @GetMapping("/at")
+  public MessageWindowDTO getMessagesAtTimestamp(
+      @PathVariable String userId,
+      @PathVariable UUID threadId,
+      @RequestParam @DateTimeFormat(iso = ISO.DATE_TIME) Instant timestamp,
+      @RequestParam(required = false) Integer size) {
+    return this.messageService.findAllAtTimestamp(userId, threadId, timestamp, size);
   }
 }
@@ -0,0 +1,23 @@
+package com.akmal.messengerspringbackend.dto.v1;
+
+import java.util.List;
+
+/**
+ * Slice of the thread history surrounding an anchor (message id or a point in time). Messages are
+ * sorted from the newest to the oldest like in {@link ScrollContent}, the cursor can be used to
+ * continue scrolling towards the older messages.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 17/07/2022 - 11:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public record MessageWindowDTO(
+    long anchorMessageId,
+    List<MessageDTO> content,
+    String cursor,
+    boolean hasNewer
+) {
+
+}
@@ -19,18 +19,19 @@ import org.springframework.data.util.Streamable;
  */
 @With
 public record ScrollContent<T> (
-    String pagingState, // stores the offset from where to start to read
+    @JsonIgnore String pagingState, // driver's paging state of the query that read the last element
+    String cursor, // opaque position of the last element, null if there is nothing more to read
     List<T> content
 ) implements Streamable<T> {
 
   public static <T> ScrollContent<T> of(@NotNull List<T> content,
       @Nullable String pagingState) {
-    return new ScrollContent<>(pagingState, content);
+    return new ScrollContent<>(pagingState, null, content);
   }
 
   @JsonIgnore
   public static <T> ScrollContent<T> empty() {
-    return new ScrollContent<>(null, List.of());
+    return new ScrollContent<>(null, null, List.of());
   }
 
   @Contract(value = " -> new", pure = true)
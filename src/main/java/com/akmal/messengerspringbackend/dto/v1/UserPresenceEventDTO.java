@@ -14,13 +14,15 @@ import java.time.ZoneOffset;
  */
 public record UserPresenceEventDTO(
     String uid,
-    Instant lastSeenAt
+    Instant lastSeenAt,
+    boolean online
 ) {
 
   public static UserPresenceEventDTO fromUserPresenceEvent(UserPresenceEvent presenceEvent) {
     return new UserPresenceEventDTO(
-        presenceEvent.getUserId().toString(),
-        Instant.ofEpochMilli(presenceEvent.getLastSeenAt())
+        presenceEvent.getUserId(),
+        Instant.ofEpochMilli(presenceEvent.getLastSeenAt()),
+        presenceEvent.getOnline()
     );
   }
 }
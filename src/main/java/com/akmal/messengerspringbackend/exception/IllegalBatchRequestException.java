@@ -0,0 +1,35 @@
+package com.akmal.messengerspringbackend.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * The exception is thrown when a batch request exceeds the limits of the server, for example too
+ * many threads were requested at once.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 19/07/2022 - 18:34
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class IllegalBatchRequestException extends RuntimeException {
+
+  public IllegalBatchRequestException(String message) {
+    super(message);
+  }
+
+  public IllegalBatchRequestException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  public IllegalBatchRequestException(Throwable cause) {
+    super(cause);
+  }
+
+  public IllegalBatchRequestException(
+      String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+    super(message, cause, enableSuppression, writableStackTrace);
+  }
+}
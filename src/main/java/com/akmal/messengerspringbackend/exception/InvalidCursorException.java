@@ -0,0 +1,35 @@
+package com.akmal.messengerspringbackend.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when the pagination cursor supplied by the client is malformed or its signature does not
+ * match.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 16/07/2022 - 14:31
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidCursorException extends RuntimeException {
+
+  public InvalidCursorException(String message) {
+    super(message);
+  }
+
+  public InvalidCursorException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  public InvalidCursorException(Throwable cause) {
+    super(cause);
+  }
+
+  public InvalidCursorException(
+      String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+    super(message, cause, enableSuppression, writableStackTrace);
+  }
+}
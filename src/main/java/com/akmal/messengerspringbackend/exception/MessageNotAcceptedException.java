@@ -0,0 +1,35 @@
+package com.akmal.messengerspringbackend.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * The exception is thrown when the message could not be durably accepted for the delivery, hence
+ * the client must retry sending it.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 20/07/2022 - 19:40
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class MessageNotAcceptedException extends RuntimeException {
+
+  public MessageNotAcceptedException(String message) {
+    super(message);
+  }
+
+  public MessageNotAcceptedException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  public MessageNotAcceptedException(Throwable cause) {
+    super(cause);
+  }
+
+  public MessageNotAcceptedException(
+      String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+    super(message, cause, enableSuppression, writableStackTrace);
+  }
+}
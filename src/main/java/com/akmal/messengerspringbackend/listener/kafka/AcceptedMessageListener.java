@@ -0,0 +1,44 @@
+package com.akmal.messengerspringbackend.listener.kafka;
+
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfiguration;
+import com.akmal.messengerspringbackend.service.MessageService;
+import com.akmal.messengerspringbackend.thread.ThreadMessageEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+/**
+ * Persists and fans out the messages that were accepted in the KAFKA_FIRST send mode. Unlike the
+ * other listeners, all instances share one consumer group, so each message is persisted by exactly
+ * one of them. The thread and the author are validated before the message is accepted; failures
+ * are propagated to the container, which retries the record and then dead letters it (see {@link
+ * KafkaConfiguration#acceptedMessagesListenerContainerFactory}).
+ *
+ * <p>Persistence is idempotent on the message id, the rows are written with the timestamp of the
+ * snowflake. A redelivered record (after a rebalance or a failed attempt) is fanned out again, the
+ * recipients skip the message ids they have already been delivered.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 20/07/2022 - 20:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@ConditionalOnProperty(prefix = "project.messaging", name = "send-mode", havingValue = "KAFKA_FIRST")
+@RequiredArgsConstructor
+public class AcceptedMessageListener {
+  private final MessageService messageService;
+
+  @KafkaListener(
+      id = "accepted-message-persister",
+      idIsGroup = false,
+      groupId = "${project.kafka.persister-group-id}",
+      topics = "${project.kafka.topics.thread-messages-accepted}",
+      containerFactory = "acceptedMessagesListenerContainerFactory")
+  public void persistAcceptedMessage(@Payload ThreadMessageEvent acceptedMessage) {
+    this.messageService.persistAcceptedMessage(acceptedMessage);
+  }
+}
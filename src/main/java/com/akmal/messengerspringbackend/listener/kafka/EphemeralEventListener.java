@@ -0,0 +1,68 @@
+package com.akmal.messengerspringbackend.listener.kafka;
+
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService.RecipientEvent;
+import com.akmal.messengerspringbackend.shared.pagination.MessagePrefetchCache;
+import com.akmal.messengerspringbackend.thread.ThreadEventKey;
+import com.akmal.messengerspringbackend.thread.ThreadPageInvalidationEvent;
+import com.akmal.messengerspringbackend.websocket.delivery.LocalEventDelivery;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrameDispatcher;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+/**
+ * Consumes the ephemeral thread events (typing) published with the low durability producer. The
+ * events are delivered right on the consumer thread, they are cheap and their order relative to
+ * the messages does not matter. The invalidations of the first pages (see {@link
+ * MessagePrefetchCache#invalidateFirstPages(java.util.UUID, java.util.Collection)}) are applied to
+ * the prefetch cache of this instance. The listener has its own consumer group, so its offsets,
+ * reset to the latest ones, are kept apart from the ones of the thread events listener.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 16:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class EphemeralEventListener {
+  private final MessageDeliveryService messageDeliveryService;
+  private final OutboundFrameDispatcher frameDispatcher;
+  private final LocalEventDelivery localEventDelivery;
+  private final MessagePrefetchCache prefetchCache;
+
+  @KafkaListener(
+      id = "${project.kafka.group-id}" + KafkaConfigurationProperties.EPHEMERAL_GROUP_SUFFIX,
+      topics = "#{@sessionLocationRegistry.ephemeralListenerTopics()}",
+      containerFactory = "ephemeralEventsListenerContainerFactory")
+  public void listenToEvents(
+      @Payload SpecificRecord ephemeralEvent,
+      @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) SpecificRecord key,
+      @Header(name = LocalEventDelivery.ORIGIN_NODE_HEADER, required = false) byte[] origin) {
+    if (ephemeralEvent instanceof ThreadPageInvalidationEvent invalidationEvent) {
+      this.prefetchCache.onInvalidation(invalidationEvent);
+      return;
+    }
+    if (this.localEventDelivery.isLocalOrigin(origin)) return;
+
+    for (RecipientEvent recipientEvent :
+        this.messageDeliveryService.expandThreadEvent((ThreadEventKey) key, ephemeralEvent)) {
+      try {
+        this.messageDeliveryService
+            .prepareFrame(recipientEvent)
+            .forEach(this.frameDispatcher::send);
+      } catch (RuntimeException e) {
+        log.error("type=delivery_failed; uid={}", recipientEvent.userId(), e);
+      }
+    }
+  }
+}
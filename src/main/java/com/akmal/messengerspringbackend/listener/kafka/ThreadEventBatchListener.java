@@ -0,0 +1,121 @@
+package com.akmal.messengerspringbackend.listener.kafka;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService.RecipientEvent;
+import com.akmal.messengerspringbackend.shared.concurrent.KeyOrderedExecutor;
+import com.akmal.messengerspringbackend.thread.ThreadEventKey;
+import com.akmal.messengerspringbackend.thread.ThreadMessageEvent;
+import com.akmal.messengerspringbackend.websocket.delivery.LocalEventDelivery;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrame;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrameDispatcher;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Batch alternative of {@link ThreadEventListeners}. The events of the polled batch are grouped by
+ * the recipient and each recipient's events are delivered by a single task of its worker, so the
+ * frames of one user can be coalesced into a single websocket write (see {@link
+ * OutboundFrameDispatcher#sendAll(String, List)}). The listener returns, and the offsets of the
+ * batch are committed, once all the deliveries of the batch are completed. If they do not complete
+ * within {@link MessagingConfigurationProperties.DeliveryConfig#getBatchDeliveryTimeout()} the
+ * batch fails and is redelivered, the messages that were already delivered are skipped by {@link
+ * MessageDeliveryService#prepareMessageFrame(String, ThreadMessageEvent)}.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 22/07/2022 - 18:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@ConditionalOnProperty(
+    prefix = "project.messaging.delivery",
+    name = "batch-listener",
+    havingValue = "true")
+@Slf4j
+@RequiredArgsConstructor
+public class ThreadEventBatchListener {
+  private final MessageDeliveryService messageDeliveryService;
+  private final OutboundFrameDispatcher frameDispatcher;
+  @Qualifier("threadEventsExecutor")
+  private final KeyOrderedExecutor threadEventsExecutor;
+  private final LocalEventDelivery localEventDelivery;
+  private final MessagingConfigurationProperties messagingProps;
+
+  @KafkaListener(
+      id = "${project.kafka.group-id}",
+      topics = "#{@sessionLocationRegistry.listenerTopics()}",
+      containerFactory = "threadEventsBatchListenerContainerFactory")
+  public void listenToEvents(List<ConsumerRecord<SpecificRecord, SpecificRecord>> records)
+      throws InterruptedException {
+    log.debug("Received batch of {} thread events", records.size());
+    final Map<String, List<RecipientEvent>> eventsByUser = new LinkedHashMap<>();
+
+    for (ConsumerRecord<SpecificRecord, SpecificRecord> threadRecord : records) {
+      final Header origin =
+          threadRecord.headers().lastHeader(LocalEventDelivery.ORIGIN_NODE_HEADER);
+      if (origin != null && this.localEventDelivery.isLocalOrigin(origin.value())) continue;
+
+      for (RecipientEvent recipientEvent :
+          this.messageDeliveryService.expandThreadEvent(
+              (ThreadEventKey) threadRecord.key(), threadRecord.value())) {
+        eventsByUser
+            .computeIfAbsent(recipientEvent.userId(), userId -> new ArrayList<>())
+            .add(recipientEvent);
+      }
+    }
+
+    final var completedUsers = new CountDownLatch(eventsByUser.size());
+
+    eventsByUser.forEach((userId, recipientEvents) ->
+        this.threadEventsExecutor.execute(userId, () -> {
+          try {
+            this.deliver(userId, recipientEvents);
+          } finally {
+            completedUsers.countDown();
+          }
+        }));
+
+    final Duration timeout = this.messagingProps.getDelivery().getBatchDeliveryTimeout();
+    if (!completedUsers.await(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+      throw new KafkaException(
+          String.format(
+              "Deliveries of the batch did not complete within %s; pending=%d",
+              timeout, completedUsers.getCount()));
+    }
+  }
+
+  private void deliver(String userId, List<RecipientEvent> recipientEvents) {
+    final var frames = new ArrayList<OutboundFrame>(recipientEvents.size());
+
+    try {
+      for (RecipientEvent recipientEvent : recipientEvents) {
+        frames.addAll(this.messageDeliveryService.prepareFrame(recipientEvent));
+      }
+    } catch (RuntimeException e) {
+      log.error("type=delivery_failed; uid={}", userId, e);
+    }
+
+    try {
+      this.frameDispatcher.sendAll(userId, frames);
+    } catch (RuntimeException e) {
+      log.error("type=delivery_failed; uid={}", userId, e);
+    }
+  }
+}
@@ -1,26 +1,34 @@
 package com.akmal.messengerspringbackend.listener.kafka;
 
-import com.akmal.messengerspringbackend.dto.v1.TypingEvent;
 import com.akmal.messengerspringbackend.service.MessageDeliveryService;
-import com.akmal.messengerspringbackend.service.UserPresenceService;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService.RecipientEvent;
+import com.akmal.messengerspringbackend.shared.concurrent.KeyOrderedExecutor;
 import com.akmal.messengerspringbackend.thread.ThreadEventKey;
-import com.akmal.messengerspringbackend.thread.ThreadMessageEvent;
-import com.akmal.messengerspringbackend.thread.ThreadPresenceEvent;
-import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import com.akmal.messengerspringbackend.websocket.delivery.LocalEventDelivery;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrameDispatcher;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.specific.SpecificRecord;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaHandler;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
 /**
+ * Consumes the thread events and hands them over to the {@link KeyOrderedExecutor} keyed by the
+ * recipient, so the events of one user are delivered in order, while the events of different users
+ * are delivered in parallel. A record is acknowledged once all the deliveries it produced are
+ * completed, the offset is committed when all the records before it are acknowledged as well.
+ *
  * @author Akmal Alikhujaev
  * @version 1.0
  * @created 07/06/2022 - 19:18
@@ -28,36 +36,66 @@ import org.springframework.stereotype.Component;
  * @since 1.0
  */
 @Component
+@ConditionalOnProperty(
+    prefix = "project.messaging.delivery",
+    name = "batch-listener",
+    havingValue = "false",
+    matchIfMissing = true)
 @KafkaListener(
     id = "${project.kafka.group-id}",
-    topics = "${project.kafka.topics.thread-events}",
-    containerFactory = "kafkaListenerContainerFactoryAvroKeyAvroValue"
+    topics = "#{@sessionLocationRegistry.listenerTopics()}",
+    containerFactory = "threadEventsListenerContainerFactory"
 )
 @Slf4j
 @RequiredArgsConstructor
 public class ThreadEventListeners {
   private final MessageDeliveryService messageDeliveryService;
-  private final UserPresenceService presenceService;
-  private final SimpMessagingTemplate wsMessagingTemplate;
-  private final WebsocketSessionStorage websocketSessionStorage;
+  private final OutboundFrameDispatcher frameDispatcher;
+  @Qualifier("threadEventsExecutor")
+  private final KeyOrderedExecutor threadEventsExecutor;
+  private final LocalEventDelivery localEventDelivery;
 
   @KafkaHandler
   public void listenToEvents(@Payload final SpecificRecord threadEvent,
-      @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY)  SpecificRecord key) {
+      @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY)  SpecificRecord key,
+      @Header(name = LocalEventDelivery.ORIGIN_NODE_HEADER, required = false) byte[] origin,
+      Acknowledgment acknowledgment) {
       log.info("Received message event {}", (threadEvent));
-      ThreadEventKey parsedKey = (ThreadEventKey) key;
-      switch(threadEvent) {
-        case ThreadMessageEvent e -> this.messageDeliveryService.handleIncomingMessageEvent(parsedKey.getUid().toString(), e);
-        case ThreadPresenceEvent e -> this.handlePresenceEvent(parsedKey, e);
-        default -> log.info("type=error; reason=Unknown thread event received; value={}; key={}", threadEvent, parsedKey);
+      if (this.localEventDelivery.isLocalOrigin(origin)) {
+        acknowledgment.acknowledge(); // the local recipients were served by the fast path
+        return;
       }
+
+      final List<RecipientEvent> recipientEvents =
+          this.messageDeliveryService.expandThreadEvent((ThreadEventKey) key, threadEvent);
+
+      this.dispatch(recipientEvents, acknowledgment);
   }
 
+  /**
+   * Schedules the events on the workers of their recipients and acknowledges the record after the
+   * last one is delivered. A failed delivery is logged and does not block the offset, the same way
+   * as the failures of the delivery were never retried.
+   */
+  private void dispatch(List<RecipientEvent> recipientEvents, Acknowledgment acknowledgment) {
+    if (recipientEvents.isEmpty()) {
+      acknowledgment.acknowledge();
+      return;
+    }
+
+    final var remainingEvents = new AtomicInteger(recipientEvents.size());
 
-  private void handlePresenceEvent(ThreadEventKey key, ThreadPresenceEvent presenceEvent) {
-    switch (presenceEvent.getType()) {
-      case TYPING: this.notifyUserOfTypingEvent(key.getUid().toString(),
-          presenceEvent.getUid().toString(), UUID.fromString(key.getThreadId().toString()));
+    for (RecipientEvent recipientEvent : recipientEvents) {
+      this.threadEventsExecutor.execute(recipientEvent.userId(), () -> {
+        try {
+          this.messageDeliveryService.prepareFrame(recipientEvent)
+              .forEach(this.frameDispatcher::send);
+        } catch (RuntimeException e) {
+          log.error("type=delivery_failed; uid={}", recipientEvent.userId(), e);
+        } finally {
+          if (remainingEvents.decrementAndGet() == 0) acknowledgment.acknowledge();
+        }
+      });
     }
   }
 
@@ -70,10 +108,7 @@ public class ThreadEventListeners {
    */
   public void notifyUserOfTypingEvent(@NotNull String userId,
       @NotNull String authorId, @NotNull UUID threadId) {
-
-    if (this.websocketSessionStorage.isUserConnected(userId)) {
-      this.wsMessagingTemplate.convertAndSendToUser(userId,
-          "/queue/typing", new TypingEvent(authorId, threadId.toString()));
-    }
+    this.messageDeliveryService.prepareTypingFrame(userId, authorId, threadId)
+        .ifPresent(this.frameDispatcher::send);
   }
 }
@@ -0,0 +1,95 @@
+package com.akmal.messengerspringbackend.listener.kafka;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Propagates the backpressure of the websocket clients to the thread events consumer. While the
+ * frames queued on the client outbound channel exceed {@link
+ * MessagingConfigurationProperties.OutboundConfig#getPauseThreshold()} the listener container of
+ * the thread events ({@link ThreadEventListeners} or {@link ThreadEventBatchListener}) is paused,
+ * i.e. it stops fetching from its partitions while keeping the assignment, and it is resumed once
+ * the queue drains below {@link
+ * MessagingConfigurationProperties.OutboundConfig#getResumeThreshold()}. The records are not lost,
+ * they wait in Kafka instead of the heap.
+ *
+ * <p>The ephemeral events are not paused, they are dropped for the slow sessions anyway.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 19:00
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+public class ThreadEventsBackpressure implements MeterBinder {
+  private final KafkaListenerEndpointRegistry listenerRegistry;
+  private final ThreadPoolTaskExecutor outboundExecutor;
+  private final String listenerId;
+  private final int pauseThreshold;
+  private final int resumeThreshold;
+
+  public ThreadEventsBackpressure(
+      KafkaListenerEndpointRegistry listenerRegistry,
+      @Qualifier("clientOutboundChannelExecutor") ThreadPoolTaskExecutor outboundExecutor,
+      @Value("${project.kafka.group-id}") String listenerId,
+      MessagingConfigurationProperties messagingProps) {
+    final var outboundProps = messagingProps.getOutbound();
+    this.listenerRegistry = listenerRegistry;
+    this.outboundExecutor = outboundExecutor;
+    this.listenerId = listenerId;
+    this.pauseThreshold = outboundProps.getPauseThreshold();
+    this.resumeThreshold = outboundProps.getResumeThreshold();
+  }
+
+  @Scheduled(
+      fixedDelayString = "#{@messagingConfigurationProperties.outbound.checkInterval.toMillis()}")
+  public void adjust() {
+    final MessageListenerContainer container =
+        this.listenerRegistry.getListenerContainer(this.listenerId);
+    if (container == null || !container.isRunning()) return;
+
+    final int queuedFrames = this.queuedFrames();
+
+    if (!container.isPauseRequested() && queuedFrames >= this.pauseThreshold) {
+      log.warn("type=thread_events_paused; queued_frames={}", queuedFrames);
+      container.pause();
+    } else if (container.isPauseRequested() && queuedFrames <= this.resumeThreshold) {
+      log.info("type=thread_events_resumed; queued_frames={}", queuedFrames);
+      container.resume();
+    }
+  }
+
+  /** @return frames waiting for the threads of the client outbound channel. */
+  public int queuedFrames() {
+    return this.outboundExecutor.getThreadPoolExecutor().getQueue().size();
+  }
+
+  public boolean isPaused() {
+    final MessageListenerContainer container =
+        this.listenerRegistry.getListenerContainer(this.listenerId);
+    return container != null && container.isPauseRequested();
+  }
+
+  @Override
+  public void bindTo(@NotNull MeterRegistry registry) {
+    Gauge.builder("websocket.outbound.queue.depth", this, ThreadEventsBackpressure::queuedFrames)
+        .description("Frames queued on the client outbound channel")
+        .register(registry);
+    Gauge.builder("thread.events.consumer.paused", this, b -> b.isPaused() ? 1 : 0)
+        .description("Whether the thread events consumer is paused by the outbound backpressure")
+        .register(registry);
+  }
+}
@@ -0,0 +1,44 @@
+package com.akmal.messengerspringbackend.listener.websocket;
+
+import com.akmal.messengerspringbackend.websocket.SessionManagementInterceptor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+/**
+ * Removes the session once its socket is closed. The event is published for every closed socket,
+ * whether the client sent the DISCONNECT frame or just went away, while the synthetic DISCONNECT
+ * message that follows it may not reach {@link SessionManagementInterceptor} (e.g. when an earlier
+ * interceptor rejects it). Removing the session twice is a no-op.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 21:55
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class SessionDisconnectListener {
+  private final SessionManagementInterceptor sessionManagementInterceptor;
+
+  @EventListener
+  public void onSessionDisconnect(SessionDisconnectEvent event) {
+    if (event.getUser() == null) return;
+
+    final boolean removed =
+        this.sessionManagementInterceptor.disconnect(
+            event.getUser().getName(), event.getSessionId());
+
+    if (removed) {
+      log.debug(
+          "type=session_closed; uid={}; session_id={}; close_status={}",
+          event.getUser().getName(),
+          event.getSessionId(),
+          event.getCloseStatus());
+    }
+  }
+}
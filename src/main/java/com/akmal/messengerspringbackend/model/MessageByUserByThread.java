@@ -27,6 +27,8 @@ import org.springframework.data.cassandra.core.mapping.Table;
 @Builder
 @Data
 public class MessageByUserByThread {
+  /** Rough size of the JSON representation of {@link MessageDTO} without the body. */
+  public static final int SERIALIZED_OVERHEAD_BYTES = 230;
 
   @PrimaryKey private final Key key;
   @Column("author_id")
@@ -53,6 +55,31 @@ public class MessageByUserByThread {
         this.isSystemMessage());
   }
 
+  /**
+   * Estimates the size of the message once it is serialized to the client. The body is the only
+   * variable part, its UTF-8 length is counted without encoding it.
+   *
+   * @return approximate size in bytes.
+   */
+  public int estimateSerializedSize() {
+    if (this.body == null) return SERIALIZED_OVERHEAD_BYTES;
+
+    int bytes = SERIALIZED_OVERHEAD_BYTES;
+
+    for (int i = 0; i < this.body.length(); i++) {
+      final char c = this.body.charAt(i);
+
+      if (c < 0x80) bytes++;
+      else if (c < 0x800) bytes += 2;
+      else if (Character.isHighSurrogate(c)) {
+        bytes += 4;
+        i++;
+      } else bytes += 3;
+    }
+
+    return bytes;
+  }
+
   @With
   @Data
   @PrimaryKeyClass
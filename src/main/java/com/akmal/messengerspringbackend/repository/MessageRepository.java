@@ -3,8 +3,12 @@ package com.akmal.messengerspringbackend.repository;
 import com.akmal.messengerspringbackend.dto.v1.ScrollContent;
 import com.akmal.messengerspringbackend.model.MessageByUserByThread;
 import com.akmal.messengerspringbackend.model.ThreadByUserByLastMessage;
+import com.akmal.messengerspringbackend.shared.pagination.PageLimit;
+import java.time.Instant;
 import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -43,6 +47,58 @@ public interface MessageRepository {
   ScrollContent<MessageByUserByThread> findAllBeforeMessageId(
       @NotNull String uid, @NotNull UUID threadId, int bucket, int size, long messageId);
 
+  /**
+   * Byte-budgeted variant of {@link MessageRepository#findAllByUidAndThreadIdAndBucket(String,
+   * UUID, int, int, String)}. Rows are read in driver pages until the estimated size of the read
+   * messages reaches the budget or the size limit, see {@link PageLimit}. The paging state is only
+   * returned if reading stopped at the boundary of a driver page, otherwise it would skip the rows
+   * that were fetched but not included.
+   */
+  ScrollContent<MessageByUserByThread> findAllByUidAndThreadIdAndBucket(
+      @NotNull String uid,
+      @NotNull UUID threadId,
+      int bucket,
+      @NotNull PageLimit limit,
+      @Nullable String pagingState);
+
+  /**
+   * Byte-budgeted variant of {@link MessageRepository#findAllBeforeMessageId(String, UUID, int,
+   * int, long)}, see {@link MessageRepository#findAllByUidAndThreadIdAndBucket(String, UUID, int,
+   * PageLimit, String)}.
+   */
+  ScrollContent<MessageByUserByThread> findAllBeforeMessageId(
+      @NotNull String uid, @NotNull UUID threadId, int bucket, @NotNull PageLimit limit,
+      long messageId);
+
+  /**
+   * Asynchronously reads at most {@code limit} messages of the bucket that are strictly older than
+   * the given message id. Results are sorted from the newest to the oldest (clustering order).
+   *
+   * @param uid - user id (first part of the partition key).
+   * @param threadId - identifies the chat (second part of the partition key).
+   * @param bucket - a time bucket that is created from the custom epoch.
+   * @param limit - maximum number of messages to read.
+   * @param messageId - exclusive upper bound (snowflake).
+   * @return future completed with the messages.
+   */
+  CompletableFuture<List<MessageByUserByThread>> findLatestBeforeMessageIdAsync(
+      @NotNull String uid, @NotNull UUID threadId, int bucket, int limit, long messageId);
+
+  /**
+   * Asynchronously reads at most {@code limit} messages of the bucket starting from the given
+   * message id (inclusive). Results are sorted from the oldest to the newest (reversed clustering
+   * order), so that the closest messages to the message id are read first.
+   *
+   * @param uid - user id (first part of the partition key).
+   * @param threadId - identifies the chat (second part of the partition key).
+   * @param bucket - a time bucket that is created from the custom epoch.
+   * @param limit - maximum number of messages to read.
+   * @param messageId - inclusive lower bound (snowflake).
+   * @return future completed with the messages.
+   */
+  CompletableFuture<List<MessageByUserByThread>> findEarliestFromMessageIdAsync(
+      @NotNull String uid, @NotNull UUID threadId, int bucket, int limit, long messageId);
+
   /**
    * Saves the message in a partition for a given user, thread and a bucket. It must perform a batch
    * operation that will insert the message to all the users that are part of the thread.
@@ -56,6 +112,24 @@ public interface MessageRepository {
       @NotNull Collection<ThreadByUserByLastMessage> latestThreads);
 
 
+  /**
+   * Idempotent variant of {@link MessageRepository#saveMessageForAllThreadMembers(Collection,
+   * Collection)}. All rows are written with the given write time (USING TIMESTAMP), therefore,
+   * replaying the same message yields exactly the same cells and never overrides later updates
+   * (e.g. read flags) or the later last message of a thread. Unlike the non-idempotent variant,
+   * failures are propagated so that the caller can retry.
+   *
+   * @param messages - message rows for every member of the thread.
+   * @param latestThreads - latest thread rows for every member of the thread.
+   * @param writeTime - write time of all the rows, must be derived from the message id.
+   * @throws com.akmal.messengerspringbackend.exception.persistence.DataAccessException if any of
+   *     the writes failed or timed out.
+   */
+  void saveMessageForAllThreadMembers(
+      @NotNull Collection<MessageByUserByThread> messages,
+      @NotNull Collection<ThreadByUserByLastMessage> latestThreads,
+      @NotNull Instant writeTime);
+
   void updateIsRead(@NotNull String uid, @NotNull UUID threadId, int bucket,
       long messageId, boolean state);
 }
@@ -1,19 +1,29 @@
 package com.akmal.messengerspringbackend.repository;
 
+import com.akmal.messengerspringbackend.config.pagination.PaginationConfigurationProperties;
 import com.akmal.messengerspringbackend.dto.v1.ScrollContent;
+import com.akmal.messengerspringbackend.exception.persistence.DataAccessException;
+import com.akmal.messengerspringbackend.exception.persistence.DataWriteTimeoutException;
 import com.akmal.messengerspringbackend.model.MessageByUserByThread;
 import com.akmal.messengerspringbackend.model.ThreadByUserByLastMessage;
+import com.akmal.messengerspringbackend.shared.pagination.PageLimit;
 import com.datastax.oss.driver.api.core.ConsistencyLevel;
 import com.datastax.oss.driver.api.core.cql.PagingState;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.SimpleStatement;
 import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
@@ -38,6 +48,7 @@ import org.springframework.util.StringUtils;
 public class MessageRepositoryImpl implements MessageRepository {
   private final CassandraOperations cassandraOperations;
   private final AsyncCassandraOperations asyncCassandraOperations;
+  private final PaginationConfigurationProperties paginationProps;
 
   @Override
   public ScrollContent<MessageByUserByThread> findAllByUidAndThreadIdAndBucket(
@@ -46,6 +57,28 @@ public class MessageRepositoryImpl implements MessageRepository {
       int bucket,
       int size,
       @Nullable String pagingState) {
+    final var statement = this.bucketStatement(uid, threadId, bucket, size, pagingState);
+
+    final var resultSet = this.cassandraOperations.execute(statement);
+    return this.fetchCurrentPage(resultSet, MessageByUserByThread.class);
+  }
+
+  @Override
+  public ScrollContent<MessageByUserByThread> findAllByUidAndThreadIdAndBucket(
+      @NotNull String uid,
+      @NotNull UUID threadId,
+      int bucket,
+      @NotNull PageLimit limit,
+      @Nullable String pagingState) {
+    final var statement =
+        this.bucketStatement(
+            uid, threadId, bucket, this.budgetFetchSize(limit), pagingState);
+
+    return this.fetchWithinLimit(this.cassandraOperations.execute(statement), limit);
+  }
+
+  private SimpleStatement bucketStatement(
+      String uid, UUID threadId, int bucket, int size, @Nullable String pagingState) {
     var statement =
         SimpleStatement.newInstance(
                 "SELECT * FROM messages_by_user_by_thread WHERE uid = ? AND thread_id = ? AND bucket = ?",
@@ -68,28 +101,112 @@ public class MessageRepositoryImpl implements MessageRepository {
       statement = statement.setPagingState(parsedPaginState);
     }
 
+    return statement;
+  }
+
+  @Override
+  public ScrollContent<MessageByUserByThread> findAllBeforeMessageId(
+      @NotNull String uid, @NotNull UUID threadId, int bucket, int size, long messageId) {
+    final var statement = this.beforeMessageIdStatement(uid, threadId, bucket, size, messageId);
+
     final var resultSet = this.cassandraOperations.execute(statement);
+
     return this.fetchCurrentPage(resultSet, MessageByUserByThread.class);
   }
 
   @Override
   public ScrollContent<MessageByUserByThread> findAllBeforeMessageId(
-      @NotNull String uid, @NotNull UUID threadId, int bucket, int size, long messageId) {
+      @NotNull String uid, @NotNull UUID threadId, int bucket, @NotNull PageLimit limit,
+      long messageId) {
+    final var statement =
+        this.beforeMessageIdStatement(
+            uid, threadId, bucket, this.budgetFetchSize(limit), messageId);
+
+    return this.fetchWithinLimit(this.cassandraOperations.execute(statement), limit);
+  }
+
+  private SimpleStatement beforeMessageIdStatement(
+      String uid, UUID threadId, int bucket, int size, long messageId) {
+    return SimpleStatement.newInstance(
+            "SELECT * FROM messages_by_user_by_thread WHERE uid = ? AND thread_id = ? AND bucket = ? "
+                + "AND message_id < ?",
+            uid,
+            threadId,
+            bucket,
+            messageId)
+        .setPageSize(size)
+        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM)
+        .setExecutionProfileName("custom-retries");
+  }
+
+  @Override
+  public CompletableFuture<List<MessageByUserByThread>> findLatestBeforeMessageIdAsync(
+      @NotNull String uid, @NotNull UUID threadId, int bucket, int limit, long messageId) {
     final var statement =
         SimpleStatement.newInstance(
                 "SELECT * FROM messages_by_user_by_thread WHERE uid = ? AND thread_id = ? AND bucket = ? "
-                    + "AND message_id < ?",
+                    + "AND message_id < ? LIMIT ?",
                 uid,
                 threadId,
                 bucket,
-                messageId)
-            .setPageSize(size)
+                messageId,
+                limit)
             .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM)
             .setExecutionProfileName("custom-retries");
 
-    final var resultSet = this.cassandraOperations.execute(statement);
+    return this.asyncCassandraOperations.select(statement, MessageByUserByThread.class).completable();
+  }
 
-    return this.fetchCurrentPage(resultSet, MessageByUserByThread.class);
+  @Override
+  public CompletableFuture<List<MessageByUserByThread>> findEarliestFromMessageIdAsync(
+      @NotNull String uid, @NotNull UUID threadId, int bucket, int limit, long messageId) {
+    final var statement =
+        SimpleStatement.newInstance(
+                "SELECT * FROM messages_by_user_by_thread WHERE uid = ? AND thread_id = ? AND bucket = ? "
+                    + "AND message_id >= ? ORDER BY message_id ASC LIMIT ?",
+                uid,
+                threadId,
+                bucket,
+                messageId,
+                limit)
+            .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM)
+            .setExecutionProfileName("custom-retries");
+
+    return this.asyncCassandraOperations.select(statement, MessageByUserByThread.class).completable();
+  }
+
+  private int budgetFetchSize(PageLimit limit) {
+    return Math.min(limit.size(), this.paginationProps.getPageSize().getBudgetFetchSize());
+  }
+
+  /**
+   * Iterates over the result set, transparently fetching the next driver pages, until the limit is
+   * reached. The message that crosses the byte budget is still included.
+   */
+  private ScrollContent<MessageByUserByThread> fetchWithinLimit(
+      ResultSet resultSet, PageLimit limit) {
+    final var content = new LinkedList<MessageByUserByThread>();
+    long bytes = 0;
+
+    while (!limit.isReachedBy(content.size(), bytes)) {
+      final var row = resultSet.one();
+
+      if (row == null) break;
+
+      final var message =
+          this.cassandraOperations.getConverter().read(MessageByUserByThread.class, row);
+      content.add(message);
+      bytes += message.estimateSerializedSize();
+    }
+
+    final String pagingState =
+        resultSet.getAvailableWithoutFetching() == 0
+            ? Optional.ofNullable(resultSet.getExecutionInfo().getSafePagingState())
+                .map(PagingState::toString)
+                .orElse(null)
+            : null;
+
+    return ScrollContent.of(content, pagingState);
   }
 
   private <T> ScrollContent<T> fetchCurrentPage(ResultSet resultSet, Class<T> clazz) {
@@ -149,6 +266,39 @@ public class MessageRepositoryImpl implements MessageRepository {
     return null;
   }
 
+  @Override
+  public void saveMessageForAllThreadMembers(
+      @NotNull Collection<MessageByUserByThread> messages,
+      @NotNull Collection<ThreadByUserByLastMessage> latestThreads,
+      @NotNull Instant writeTime) {
+    final var insertOptions =
+        InsertOptions.builder()
+            .consistencyLevel(ConsistencyLevel.LOCAL_QUORUM)
+            .executionProfile("custom-retries")
+            .timestamp(TimeUnit.MILLISECONDS.toMicros(writeTime.toEpochMilli()))
+            .build();
+    final var futures = new ArrayList<CompletableFuture<?>>(messages.size() + latestThreads.size());
+
+    for (MessageByUserByThread message : messages) {
+      futures.add(this.asyncCassandraOperations.insert(message, insertOptions).completable());
+    }
+
+    for (ThreadByUserByLastMessage thread : latestThreads) {
+      futures.add(this.asyncCassandraOperations.insert(thread, insertOptions).completable());
+    }
+
+    try {
+      CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      throw new DataWriteTimeoutException("The message could not be saved due to a timeout", e);
+    } catch (ExecutionException e) {
+      throw new DataAccessException("The message could not be saved", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DataAccessException("Interrupted while saving the message", e);
+    }
+  }
+
   @Override
   public void updateIsRead(@NotNull String uid, @NotNull UUID threadId, int bucket,
       long messageId, boolean state) {
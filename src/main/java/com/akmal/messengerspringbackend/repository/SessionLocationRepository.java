@@ -0,0 +1,22 @@
+package com.akmal.messengerspringbackend.repository;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 21/07/2022 - 18:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public interface SessionLocationRepository {
+
+  void save(String uid, String node, Duration ttl);
+
+  void delete(String uid, String node);
+
+  Map<String, Set<String>> findNodesByUids(Collection<String> uids);
+}
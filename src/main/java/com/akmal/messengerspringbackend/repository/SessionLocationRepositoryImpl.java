@@ -0,0 +1,122 @@
+package com.akmal.messengerspringbackend.repository;
+
+import com.akmal.messengerspringbackend.exception.persistence.DataAccessException;
+import com.akmal.messengerspringbackend.exception.persistence.DataReadTimeoutException;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.cassandra.core.AsyncCassandraOperations;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Location rows are written asynchronously, a lost write is healed by the next refresh of the
+ * instance and a stale row expires together with its TTL.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 21/07/2022 - 18:14
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class SessionLocationRepositoryImpl implements SessionLocationRepository {
+  /** Partition reads of one lookup that may be in flight at once. */
+  static final int MAX_CONCURRENT_READS = 64;
+  private static final long READ_TIMEOUT_SECONDS = 2;
+
+  private final AsyncCassandraOperations asyncCassandraOperations;
+
+  @Override
+  public void save(@NotNull String uid, @NotNull String node, @NotNull Duration ttl) {
+    this.asyncCassandraOperations
+        .getAsyncCqlOperations()
+        .execute(
+            SimpleStatement.newInstance(
+                "INSERT INTO session_locations (uid, node) VALUES (?, ?) USING TTL ?",
+                uid, node, (int) ttl.toSeconds()))
+        .addCallback(
+            applied -> {},
+            e -> log.warn("type=session_location_write_failed; uid={}; node={}", uid, node, e));
+  }
+
+  @Override
+  public void delete(@NotNull String uid, @NotNull String node) {
+    this.asyncCassandraOperations
+        .getAsyncCqlOperations()
+        .execute(
+            SimpleStatement.newInstance(
+                "DELETE FROM session_locations WHERE uid = ? AND node = ?", uid, node))
+        .addCallback(
+            applied -> {},
+            e -> log.warn("type=session_location_delete_failed; uid={}; node={}", uid, node, e));
+  }
+
+  /**
+   * Reads the nodes of every user by its own partition query, in windows of {@link
+   * SessionLocationRepositoryImpl#MAX_CONCURRENT_READS}, so no coordinator has to gather the
+   * partitions of all the recipients of a large group.
+   */
+  @Override
+  public Map<String, Set<String>> findNodesByUids(@NotNull Collection<String> uids) {
+    final var nodesByUid = new HashMap<String, Set<String>>();
+    final var window = new ArrayList<String>(Math.min(uids.size(), MAX_CONCURRENT_READS));
+
+    for (String uid : uids) {
+      window.add(uid);
+      if (window.size() == MAX_CONCURRENT_READS) {
+        this.findNodes(window, nodesByUid);
+        window.clear();
+      }
+    }
+    if (!window.isEmpty()) this.findNodes(window, nodesByUid);
+
+    return nodesByUid;
+  }
+
+  private void findNodes(List<String> uids, Map<String, Set<String>> nodesByUid) {
+    final var futures = new ArrayList<CompletableFuture<List<String>>>(uids.size());
+
+    for (String uid : uids) {
+      futures.add(
+          this.asyncCassandraOperations
+              .getAsyncCqlOperations()
+              .query(
+                  SimpleStatement.newInstance(
+                      "SELECT node FROM session_locations WHERE uid = ?", uid),
+                  (row, rowNum) -> row.getString("node"))
+              .completable());
+    }
+
+    try {
+      CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+          .get(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      throw new DataReadTimeoutException("The session locations could not be read in time", e);
+    } catch (ExecutionException e) {
+      throw new DataAccessException("The session locations could not be read", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DataAccessException("Interrupted while reading the session locations", e);
+    }
+
+    for (int i = 0; i < uids.size(); i++) {
+      final List<String> nodes = futures.get(i).join();
+      if (!nodes.isEmpty()) nodesByUid.put(uids.get(i), new HashSet<>(nodes));
+    }
+  }
+}
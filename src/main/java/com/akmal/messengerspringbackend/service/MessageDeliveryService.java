@@ -1,21 +1,43 @@
 package com.akmal.messengerspringbackend.service;
 
 import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties.FanoutMode;
 import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
 import com.akmal.messengerspringbackend.repository.MessageRepository;
 import com.akmal.messengerspringbackend.repository.ThreadRepository;
 import com.akmal.messengerspringbackend.shared.datastructure.Tuple;
+import com.akmal.messengerspringbackend.shared.pagination.MessagePrefetchCache;
 import com.akmal.messengerspringbackend.snowflake.SnowflakeGenerator;
+import com.akmal.messengerspringbackend.thread.PresenceEventType;
+import com.akmal.messengerspringbackend.thread.ThreadBroadcastMessageEvent;
 import com.akmal.messengerspringbackend.thread.ThreadEventKey;
 import com.akmal.messengerspringbackend.thread.ThreadMessageEvent;
+import com.akmal.messengerspringbackend.thread.ThreadPresenceEvent;
+import com.akmal.messengerspringbackend.websocket.delivery.LocalEventDelivery;
+import com.akmal.messengerspringbackend.websocket.delivery.MessageFrameEncoder;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrame;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrameDispatcher;
+import com.akmal.messengerspringbackend.websocket.delivery.ReplayBuffer;
+import com.akmal.messengerspringbackend.websocket.delivery.ReplaySequence;
+import com.akmal.messengerspringbackend.websocket.delivery.ThreadBroadcastDelivery;
+import com.akmal.messengerspringbackend.websocket.delivery.TypingStateTracker;
 import com.akmal.messengerspringbackend.websocket.dto.MessageEventDto;
-import com.akmal.messengerspringbackend.websocket.storage.TopicSubscription;
+import com.akmal.messengerspringbackend.websocket.storage.SessionLocationRegistry;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
 import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import lombok.Builder;
 import lombok.RequiredArgsConstructor;
@@ -28,7 +50,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
@@ -43,18 +64,34 @@ import org.springframework.stereotype.Service;
 @RequiredArgsConstructor
 @Slf4j
 public class MessageDeliveryService {
+  @Qualifier("kafkaTemplateAvroKeyAvroValue")
   private final KafkaTemplate<SpecificRecord, SpecificRecord> threadEventsTemplate;
   private final KafkaConfigurationProperties kafkaProps;
+  private final MessagingConfigurationProperties messagingProps;
 
   private final WebsocketSessionStorage sessionStorage;
-  private final SimpMessagingTemplate wsMessagingTemplate;
+  private final SessionLocationRegistry sessionLocationRegistry;
+  private final OutboundFrameDispatcher frameDispatcher;
+  private final MessageFrameEncoder messageFrameEncoder;
+  private final ThreadBroadcastDelivery threadBroadcastDelivery;
+  private final ReplayBuffer replayBuffer;
+  private final LocalEventDelivery localEventDelivery;
+  private final TypingStateTracker typingStateTracker;
   private final SnowflakeGenerator snowflakeGenerator;
 
   private final MessageRepository messageRepository;
   private final ThreadRepository threadRepository;
+  private final MessagePrefetchCache prefetchCache;
   @Qualifier("asyncExecutor")
   @Autowired
   private TaskExecutor taskExecutor;
+  /** Messages prepared for the users recently, a redelivery is expected within minutes. */
+  private final Cache<DeliveredMessage, Boolean> deliveredMessages =
+      Caffeine.newBuilder()
+          .expireAfterWrite(Duration.ofMinutes(5))
+          .maximumSize(100_000)
+          .build();
+
   /**
    * Delivers the message to the active user when invoked. In case, the user is not online, i.e.
    * his/her websocket session is not registered in the registry, then the message is dropped. (In
@@ -64,62 +101,232 @@ public class MessageDeliveryService {
    * but is not subscribed to a particular topic, we deliver the message as a notification to the
    * following queue {@link WebSocketConfiguration#NOTIFICATION_TOPIC}.
    *
+   * <p>The method runs on the caller thread, the events of the same user must be handled
+   * sequentially to preserve their order (see {@link
+   * com.akmal.messengerspringbackend.listener.kafka.ThreadEventListeners}).
+   *
    * @param userId - recipient of the message.
    * @param messageEvent
    */
-  @Async
   public void handleIncomingMessageEvent(String userId, ThreadMessageEvent messageEvent) {
-    if (!this.sessionStorage.isUserConnected(userId)) return;
-    else {
-      final var threadTopicName =
-          WebSocketConfiguration.THREAD_TOPIC.concat(
-              String.format("/%s", messageEvent.getThreadId()));
-      String destination = null;
-      boolean deliveredDirectly = false;
-
-      if (this.sessionStorage.isUserSubscribedTo(userId, threadTopicName)) {
-        final Instant messageTimestamp =
-            this.snowflakeGenerator.toInstant(messageEvent.getMessageId());
-        final Instant connectionTime =
-            this.sessionStorage
-                .getSubscription(userId, threadTopicName)
-                .map(TopicSubscription::joinedAt)
-                .orElse(Instant.now().plus(Duration.ofDays(1)));
-
-        if (connectionTime.isAfter(messageTimestamp)) {
-          return; // do not deliver messages if the user subscribed to the thread after the message
-                  // was received by the server
-        }
-
-        destination = threadTopicName.replace("/user", ""); // stripping /user because Spring appends that automatically
-
-        this.taskExecutor.execute(() -> {
-          this.messageRepository.updateIsRead(
-              userId,
-              UUID.fromString(messageEvent.getThreadId().toString()),
-              messageEvent.getBucket(),
-              messageEvent.getMessageId(),
-              true);
-          this.threadRepository.updateIsReadThreadByUserByMessage(UUID.fromString(messageEvent.getThreadId().toString()),
-              userId, true);
-        });
+    this.prepareMessageFrame(userId, messageEvent).forEach(this.frameDispatcher::send);
+  }
+
+  /**
+   * Prepares the frames of the message for every session (device) of the user, see {@link
+   * MessageDeliveryService#handleIncomingMessageEvent(String, ThreadMessageEvent)} for the rules,
+   * which are applied to each session on its own. The message that has already been prepared for
+   * the user is skipped, so the fanout is idempotent on the message id. The sessions subscribed to the broadcast of the
+   * thread (see {@link ThreadBroadcastDelivery}) are served by the broadcast, which is published
+   * right away if it has not been yet. The message is numbered and kept by the {@link
+   * ReplayBuffer} of the user under the destination it was sent to, even if no session of the user
+   * gets it right now, unless all the sessions of the user got it by the broadcast.
+   *
+   * @return frames to be sent, empty if the message must not be delivered to the user.
+   */
+  public List<OutboundFrame> prepareMessageFrame(String userId, ThreadMessageEvent messageEvent) {
+    final var threadId = UUID.fromString(messageEvent.getThreadId());
+    this.prefetchCache.invalidateFirstPage(userId, threadId);
+
+    final Collection<WebsocketSession> sessions = this.sessionStorage.getSessions(userId);
+    // the frames of a user that has just disconnected are kept for its reconnect
+    final boolean retained = this.replayBuffer.isRetained(userId);
+    if (sessions.isEmpty() && !retained) return List.of();
+    // a redelivered record (see AcceptedMessageListener) must not reach the user twice
+    if (this.deliveredMessages
+            .asMap()
+            .putIfAbsent(new DeliveredMessage(userId, messageEvent.getMessageId()), Boolean.TRUE)
+        != null) {
+      return List.of();
+    }
+
+    this.typingStateTracker.clear(userId, threadId, messageEvent.getAuthorId());
+    final var threadTopicName =
+        WebSocketConfiguration.THREAD_TOPIC.concat(
+            String.format("/%s", messageEvent.getThreadId()));
+    // stripping /user because Spring appends that automatically
+    final String threadDestination = threadTopicName.replace("/user", "");
+    final String notificationDestination =
+        WebSocketConfiguration.NOTIFICATION_TOPIC.replace("/user", "");
+
+    final Instant timestampInstant = this.snowflakeGenerator.toInstant(messageEvent.getMessageId());
+    final LocalDateTime timestamp =
+        LocalDateTime.ofInstant(timestampInstant, ZoneId.systemDefault());
+    final var frames = new ArrayList<OutboundFrame>(sessions.size());
+    final var sessionDestinations = new ArrayList<Tuple<String, String>>(sessions.size());
+    final String broadcastTopic =
+        this.threadBroadcastDelivery.isEnabled()
+            ? this.threadBroadcastDelivery.topicOf(messageEvent.getThreadId())
+            : null;
+    boolean deliveredDirectly = false;
+    boolean broadcastSubscribed = false;
+
+    for (WebsocketSession session : sessions) {
+      if (broadcastTopic != null && session.isSubscribedTo(broadcastTopic)) {
+        broadcastSubscribed = true;
+        continue;
+      }
+
+      final long subscribedAt = session.subscribedAtMillis(threadTopicName);
+
+      if (subscribedAt < 0) {
+        sessionDestinations.add(new Tuple<>(session.id(), notificationDestination));
+      } else if (subscribedAt <= timestampInstant.toEpochMilli()) {
+        // messages received by the server before the device subscribed to the thread are skipped
+        sessionDestinations.add(new Tuple<>(session.id(), threadDestination));
         deliveredDirectly = true;
-      } else {
-        destination = WebSocketConfiguration.NOTIFICATION_TOPIC.replace("/user", "");
       }
+    }
 
-      final Instant timestampInstant = this.snowflakeGenerator.toInstant(messageEvent.getMessageId());
-      final LocalDateTime timestamp = LocalDateTime.ofInstant(timestampInstant, ZoneId.systemDefault());
+    if (sessionDestinations.isEmpty() && !broadcastSubscribed && !retained) return List.of();
 
-      this.wsMessagingTemplate.convertAndSendToUser(
-          userId, destination, MessageEventDto.fromThreadMessageEvent(messageEvent, timestamp)
-                                   .withRead(deliveredDirectly));
+    // the subscribers of the broadcast have the thread open as well
+    final boolean read = deliveredDirectly || broadcastSubscribed;
+    if (read) {
+      this.taskExecutor.execute(() -> {
+        this.messageRepository.updateIsRead(
+            userId, threadId, messageEvent.getBucket(), messageEvent.getMessageId(), true);
+        this.threadRepository.updateIsReadThreadByUserByMessage(threadId, userId, true);
+      });
     }
+
+    final MessageEventDto messageDto =
+        MessageEventDto.fromThreadMessageEvent(messageEvent, timestamp);
+
+    if (broadcastSubscribed) {
+      this.threadBroadcastDelivery.publishOnce(
+          messageEvent.getMessageId(),
+          messageEvent.getThreadId(),
+          () -> this.messageFrameEncoder.encode(messageDto.withRead(true)),
+          timestampInstant);
+    }
+
+    // the broadcast is not numbered, the replay would hand its subscribers a duplicate
+    if (sessionDestinations.isEmpty() && (broadcastSubscribed || !retained)) return List.of();
+
+    final Object payload = this.messageFrameEncoder.encode(messageDto.withRead(read));
+    final ReplaySequence sequence =
+        this.replayBuffer.append(
+            userId,
+            deliveredDirectly ? threadTopicName : WebSocketConfiguration.NOTIFICATION_TOPIC,
+            payload,
+            broadcastSubscribed);
+
+    for (Tuple<String, String> sessionDestination : sessionDestinations) {
+      frames.add(
+          new OutboundFrame(
+              userId,
+              sessionDestination.e1(),
+              sessionDestination.e2(),
+              payload,
+              timestampInstant,
+              sequence));
+    }
+
+    return frames;
+  }
+
+  /**
+   * Prepares the typing notification for the user, see {@link TypingStateTracker}.
+   *
+   * @param userId for whom the event was destined.
+   * @param authorId the person who triggered the event.
+   * @param threadId thread in which the event happened.
+   * @return frame to be sent or empty if the user is not connected or the typing state of the
+   *     thread did not change.
+   */
+  public Optional<OutboundFrame> prepareTypingFrame(
+      @NotNull String userId, @NotNull String authorId, @NotNull UUID threadId) {
+    if (!this.sessionStorage.isUserConnected(userId)) return Optional.empty();
+
+    return this.typingStateTracker.onTyping(userId, threadId, authorId);
+  }
+
+  /**
+   * Splits the consumed thread event into the events of the individual recipients, in the order
+   * they have to be delivered.
+   *
+   * @param key key of the record.
+   * @param threadEvent value of the record.
+   * @return events of the recipients, empty if the event is unknown or has no local recipients.
+   */
+  public List<RecipientEvent> expandThreadEvent(ThreadEventKey key, SpecificRecord threadEvent) {
+    final var threadId = UUID.fromString(key.getThreadId());
+
+    return switch (threadEvent) {
+      case ThreadMessageEvent e -> List.of(new RecipientEvent(key.getUid(), threadId, e));
+      case ThreadPresenceEvent e -> List.of(new RecipientEvent(key.getUid(), threadId, e));
+      case ThreadBroadcastMessageEvent e -> this.expandBroadcastEvent(e).stream()
+                                                .map(messageEvent -> new RecipientEvent(
+                                                    messageEvent.getToUser(), threadId, messageEvent))
+                                                .toList();
+      default -> {
+        log.info("type=error; reason=Unknown thread event received; value={}; key={}", threadEvent, key);
+        yield List.of();
+      }
+    };
+  }
+
+  /** Prepares the frames of the recipient's event, if it has to be delivered. */
+  public List<OutboundFrame> prepareFrame(RecipientEvent recipientEvent) {
+    return switch (recipientEvent.event()) {
+      case ThreadMessageEvent e -> this.prepareMessageFrame(recipientEvent.userId(), e);
+      case ThreadPresenceEvent e -> PresenceEventType.TYPING.equals(e.getType())
+                                        ? this.prepareTypingFrame(recipientEvent.userId(),
+                                            e.getUid(), recipientEvent.threadId()).stream().toList()
+                                        : List.of();
+      default -> List.of();
+    };
+  }
+
+  /**
+   * Expands the thread level event into the per recipient {@link ThreadMessageEvent} only for the
+   * recipients that have a websocket session on this instance (or had one recently, see {@link
+   * ReplayBuffer}), the rest are handled by the instances they are connected to. The thread name
+   * and thumbnail carried by the event are the same for every recipient, because the author is
+   * never among them.
+   *
+   * @param broadcastEvent message event published once for all the recipients of the thread.
+   * @return events to be handled by {@link
+   *     MessageDeliveryService#handleIncomingMessageEvent(String, ThreadMessageEvent)}.
+   */
+  public List<ThreadMessageEvent> expandBroadcastEvent(ThreadBroadcastMessageEvent broadcastEvent) {
+    final var threadId = UUID.fromString(broadcastEvent.getThreadId());
+    final var messageEvents = new ArrayList<ThreadMessageEvent>();
+
+    for (String userId : broadcastEvent.getRecipientIds()) {
+      if (!this.sessionStorage.isUserConnected(userId)
+          && !this.replayBuffer.isRetained(userId)) {
+        this.prefetchCache.invalidateFirstPage(userId, threadId);
+        continue;
+      }
+
+      messageEvents.add(
+          ThreadMessageEvent.newBuilder()
+              .setToUser(userId)
+              .setMessageId(broadcastEvent.getMessageId())
+              .setThreadId(broadcastEvent.getThreadId())
+              .setBucket(broadcastEvent.getBucket())
+              .setAuthorId(broadcastEvent.getAuthorId())
+              .setAuthorName(broadcastEvent.getAuthorName())
+              .setThreadName(broadcastEvent.getThreadName())
+              .setThreadPictureThumbnailUrl(broadcastEvent.getThreadPictureThumbnailUrl())
+              .setBody(broadcastEvent.getBody())
+              .setSystemMessage(broadcastEvent.getSystemMessage())
+              .build());
+    }
+
+    return messageEvents;
   }
 
   /**
    * Sends message to all users that are not excluded from the delivery and are part of the
-   * recipients list. For each user separate message is prepared and inserted into the kafka topic.
+   * recipients list. In {@link FanoutMode#PER_RECIPIENT} mode for each user separate message is
+   * prepared and inserted into the kafka topic, in {@link FanoutMode#BROADCAST} mode a single
+   * {@link ThreadBroadcastMessageEvent} listing all the recipients is inserted instead. When the
+   * routing is enabled, the records are published to the topics of the instances the recipients
+   * are connected to, see {@link SessionLocationRegistry}. The recipients connected to this
+   * instance are served in-process by the {@link LocalEventDelivery}.
    *
    * @param metadataList collection of the following properties: - threadId id of the thread for
    *     which fanout is activated. - threadName name of the thread (depending on the side of the
@@ -130,12 +337,61 @@ public class MessageDeliveryService {
    */
   @Async
   public void fanoutMessages(Collection<FanoutMessageMetadata> metadataList) {
+    if (metadataList.isEmpty()) return;
+
+    final List<String> recipientIds =
+        metadataList.stream().map(FanoutMessageMetadata::recipientId).toList();
+    this.deliverLocally(metadataList, this.localEventDelivery.connectedRecipients(recipientIds));
+
+    final Map<String, List<String>> recipientsByTopic =
+        this.localEventDelivery.withoutLocalRoute(
+            this.sessionLocationRegistry.routeByTopic(recipientIds),
+            this.sessionLocationRegistry.getLocalNodeTopic());
+
+    for (Map.Entry<String, List<String>> route : recipientsByTopic.entrySet()) {
+      final var routedRecipientIds = new HashSet<>(route.getValue());
+      final List<FanoutMessageMetadata> routedMetadata =
+          metadataList.stream()
+              .filter(metadata -> routedRecipientIds.contains(metadata.recipientId))
+              .toList();
+
+      this.fanoutMessages(route.getKey(), routedMetadata);
+    }
+  }
+
+  /**
+   * Delivers the message to the recipients connected to this instance without the round trip
+   * through Kafka, see {@link LocalEventDelivery}.
+   */
+  private void deliverLocally(
+      Collection<FanoutMessageMetadata> metadataList, List<String> localRecipientIds) {
+    if (localRecipientIds.isEmpty()) return;
+
+    final var localRecipients = new HashSet<>(localRecipientIds);
+
+    for (FanoutMessageMetadata metadata : metadataList) {
+      if (!localRecipients.contains(metadata.recipientId)) continue;
+
+      final var messageEvent = (ThreadMessageEvent) this.prepareMessageEvent(metadata).e2();
+      this.localEventDelivery.deliver(
+          metadata.recipientId, () -> this.prepareMessageFrame(metadata.recipientId, messageEvent));
+    }
+  }
+
+  private void fanoutMessages(String topic, Collection<FanoutMessageMetadata> metadataList) {
+    if (FanoutMode.BROADCAST.equals(this.messagingProps.getFanoutMode())) {
+      final var broadcastRecord = this.prepareBroadcastEvent(metadataList);
+
+      this.threadEventsTemplate.send(
+          this.localEventDelivery.record(topic, broadcastRecord.e1(), broadcastRecord.e2()));
+      return;
+    }
 
     for (FanoutMessageMetadata metadata : metadataList) {
       final var messageRecord = this.prepareMessageEvent(metadata);
 
       this.threadEventsTemplate.send(
-          this.kafkaProps.getTopics().getThreadEvents(), messageRecord.e1(), messageRecord.e2());
+          this.localEventDelivery.record(topic, messageRecord.e1(), messageRecord.e2()));
     }
   }
 
@@ -162,6 +418,52 @@ public class MessageDeliveryService {
     return new Tuple<>(key, value);
   }
 
+  /**
+   * Builds the thread level event out of the metadata prepared for each recipient. The message
+   * related properties are identical across the metadata, therefore they are taken from the first
+   * element. The key has an empty uid, so all the events of the thread keep their order.
+   */
+  private Tuple<SpecificRecordBase, SpecificRecordBase> prepareBroadcastEvent(
+      Collection<FanoutMessageMetadata> metadataList) {
+    final FanoutMessageMetadata metadata = metadataList.iterator().next();
+    final List<String> recipientIds = new ArrayList<>(metadataList.size());
+
+    for (FanoutMessageMetadata recipientMetadata : metadataList) {
+      recipientIds.add(recipientMetadata.recipientId);
+    }
+
+    final var key =
+        ThreadEventKey.newBuilder().setThreadId(metadata.threadId.toString()).setUid("").build();
+
+    final var builder =
+        ThreadBroadcastMessageEvent.newBuilder()
+            .setMessageId(metadata.messageId)
+            .setThreadId(metadata.threadId.toString())
+            .setBucket(metadata.bucket)
+            .setAuthorId(metadata.authorId)
+            .setBody(metadata.body)
+            .setSystemMessage(metadata.systemMessage != 0)
+            .setRecipientIds(recipientIds);
+
+    if (metadata.authorName != null) builder.setAuthorName(metadata.authorName);
+    if (metadata.threadName != null) builder.setThreadName(metadata.threadName);
+    if (metadata.threadThumbnailUrl != null) {
+      builder.setThreadPictureThumbnailUrl(metadata.threadThumbnailUrl);
+    }
+
+    return new Tuple<>(key, builder.build());
+  }
+
+  /**
+   * Thread event of a single recipient.
+   *
+   * @param userId recipient of the event.
+   * @param threadId thread in which the event happened.
+   * @param event {@link ThreadMessageEvent} or {@link ThreadPresenceEvent}.
+   */
+  public record RecipientEvent(
+      @NotNull String userId, @NotNull UUID threadId, @NotNull SpecificRecord event) {}
+
   @Builder
   record FanoutMessageMetadata(
       @NotNull UUID threadId,
@@ -175,4 +477,6 @@ public class MessageDeliveryService {
       int bucket,
       @Nullable String body,
       int systemMessage) {}
+
+  private record DeliveredMessage(String userId, long messageId) {}
 }
@@ -1,10 +1,18 @@
 package com.akmal.messengerspringbackend.service;
 
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties.SendMode;
+import com.akmal.messengerspringbackend.config.pagination.PaginationConfigurationProperties;
 import com.akmal.messengerspringbackend.dto.v1.MessageAcknowledgement;
 import com.akmal.messengerspringbackend.dto.v1.MessageDTO;
 import com.akmal.messengerspringbackend.dto.v1.MessageSendRequestDTO;
+import com.akmal.messengerspringbackend.dto.v1.MessageWindowDTO;
 import com.akmal.messengerspringbackend.dto.v1.ScrollContent;
 import com.akmal.messengerspringbackend.exception.EntityNotFoundException;
+import com.akmal.messengerspringbackend.exception.UnauthorizedActionException;
+import com.akmal.messengerspringbackend.exception.IllegalBatchRequestException;
+import com.akmal.messengerspringbackend.exception.MessageNotAcceptedException;
 import com.akmal.messengerspringbackend.model.MessageByUserByThread;
 import com.akmal.messengerspringbackend.model.MessageByUserByThread.Key;
 import com.akmal.messengerspringbackend.model.Thread;
@@ -15,27 +23,44 @@ import com.akmal.messengerspringbackend.repository.MessageRepository;
 import com.akmal.messengerspringbackend.repository.ThreadRepository;
 import com.akmal.messengerspringbackend.service.MessageDeliveryService.FanoutMessageMetadata;
 import com.akmal.messengerspringbackend.shared.BucketingManager;
+import com.akmal.messengerspringbackend.shared.pagination.MessageCursor;
+import com.akmal.messengerspringbackend.shared.pagination.MessageCursorCodec;
+import com.akmal.messengerspringbackend.shared.pagination.MessagePrefetchCache;
+import com.akmal.messengerspringbackend.shared.pagination.MessagePrefetchCache.PageKey;
+import com.akmal.messengerspringbackend.shared.metrics.MessagingMetrics;
+import com.akmal.messengerspringbackend.shared.pagination.PageLimit;
 import com.akmal.messengerspringbackend.shared.util.ImmutableLists;
 import com.akmal.messengerspringbackend.snowflake.SnowflakeGenerator;
+import com.akmal.messengerspringbackend.thread.ThreadMessageEvent;
 import com.datastax.oss.driver.api.core.uuid.Uuids;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecord;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
@@ -52,21 +77,37 @@ import org.springframework.util.StringUtils;
 @RequiredArgsConstructor
 @Slf4j
 public class MessageService {
-  private static final int FETCH_SIZE = 25;
   private final MessageRepository messageRepository;
   private final SimpMessagingTemplate wsMessagingTemplate;
   private final ThreadRepository threadRepository;
   private final SnowflakeGenerator snowflakeGenerator;
   private final BucketingManager bucketingManager;
   private final MessageDeliveryService messageDeliveryService;
+  private final MessageCursorCodec cursorCodec;
+  private final PaginationConfigurationProperties paginationProps;
+  private final MessagePrefetchCache prefetchCache;
+  private final MessagingConfigurationProperties messagingProps;
+  private final KafkaConfigurationProperties kafkaProps;
 
-  @Qualifier("asyncExecutor") private TaskExecutor asyncTaskExecutor;
+  @Qualifier("kafkaTemplateStringKeyAvroValue")
+  private final KafkaTemplate<String, SpecificRecord> acceptedMessagesTemplate;
+  private final MessagingMetrics messagingMetrics;
+  private final ThreadMembersCache threadMembersCache;
+
+  @Qualifier("asyncExecutor")
+  @Autowired
+  private TaskExecutor asyncTaskExecutor;
+
+  @Qualifier("messageFetchExecutor")
+  @Autowired
+  private TaskExecutor messageFetchExecutor;
 
   private final UserService userService;
 
   /**
-   * The method fetched the collection of messages with size <= {@link MessageService#FETCH_SIZE}.
-   * The method resolves the data access path based on the following strategy:
+   * The method fetched the collection of messages with size <= the default page size, see {@link
+   * PaginationConfigurationProperties#resolvePageLimit(Integer, Integer)}. The method resolves the
+   * data access path based on the following strategy:
    *
    * <ul>
    *   <li>If beforeMessageId is provided and the bucket is valid, then we use the {@link
@@ -75,19 +116,18 @@ public class MessageService {
    *   <li>If only bucket is provided and optionally the pagingState (scroll state - a series of
    *       bytes, that helps the DSE driver to find the particular offset it stopped reading at
    *       before), then we use {@link MessageRepository#findAllByUidAndThreadIdAndBucket(String,
-   *       UUID, int, int, String)} contract to find all messages limited by the {@link
-   *       MessageService#FETCH_SIZE} in the database based on the user id, thread id and a bucket
-   *       (+ optional pagingState).
+   *       UUID, int, int, String)} contract to find all messages limited by the default page size
+   *       in the database based on the user id, thread id and a bucket (+ optional pagingState).
    *   <li>If none of the above-mentioned arguments were present it defaults to the bucket based on
    *       the current timestamp and uses the same contract as in the second resolution strategy
    *       (the one above).
    * </ul>
    *
-   * However, some buckets might not have enough of data to satisfy the size == {@link
-   * MessageService#FETCH_SIZE} due to the small amount of data in the time bucket or simply paging
-   * state was applied that was just at the end of the time bucket. Therefore, following resolution
-   * algorithm has been developed, see {@link MessageService#aggregateStartingFromBucket(String,
-   * UUID, Integer, ScrollContent)} because current method uses that resolution.
+   * However, some buckets might not have enough of data to satisfy the default page size due to
+   * the small amount of data in the time bucket or simply paging state was applied that was just
+   * at the end of the time bucket. Therefore, following resolution algorithm has been developed,
+   * see {@link MessageService#aggregateStartingFromBucket(String, UUID, Integer, ScrollContent,
+   * PageLimit)} because current method uses that resolution.
    *
    * <p>On the other hand, there are also several conditions for the above-mentioned algorithm not
    * to start execution such as: size has been satisfied or the next bucket (currentBucket - 1) is
@@ -98,8 +138,8 @@ public class MessageService {
    * @param bucket time bucket of the message
    * @param beforeMessageId optional parameter to find all messages published before certain message
    * @param pagingState optional parameter to continue fetching the next set of records (reverse virtual scrolling)
-   * @return a page of messages sorted from the newest to the oldest restricted by the FETCH_SIZE property
-   * in {@link MessageRepository}
+   * @return a page of messages sorted from the newest to the oldest restricted by the default page
+   * size
    */
   @Contract(
       pure = true,
@@ -110,55 +150,212 @@ public class MessageService {
       @Nullable Integer bucket,
       @Nullable Long beforeMessageId,
       @Nullable String pagingState) {
+    return this.findAllByUserAndThreadAndBucket(
+        uid,
+        threadId,
+        bucket,
+        beforeMessageId,
+        pagingState,
+        this.paginationProps.resolvePageLimit(null, null));
+  }
+
+  /**
+   * Same as {@link MessageService#findAllByUserAndThreadAndBucket(String, UUID, Integer, Long,
+   * String)}, but the page is bounded by the given limit instead of the default page size. If the
+   * limit has a byte budget, the aggregation over the earlier buckets continues until the budget is
+   * consumed.
+   */
+  public ScrollContent<MessageDTO> findAllByUserAndThreadAndBucket(
+      @NotNull String uid,
+      @NotNull UUID threadId,
+      @Nullable Integer bucket,
+      @Nullable Long beforeMessageId,
+      @Nullable String pagingState,
+      @NotNull PageLimit limit) {
     Integer resolvedBucket = bucket;
 
     ScrollContent<MessageByUserByThread> messages;
 
-    if (beforeMessageId != null && resolvedBucket != null) {
-      messages = this.findAllBeforeMessageId(uid, threadId, resolvedBucket, beforeMessageId);
+    if (resolvedBucket != null && resolvedBucket >= 0 && StringUtils.hasText(pagingState)) {
+      messages = this.findAllInBucket(uid, threadId, resolvedBucket, pagingState, limit);
+    } else if (beforeMessageId != null && resolvedBucket != null) {
+      messages =
+          this.findAllBeforeMessageId(uid, threadId, resolvedBucket, beforeMessageId, limit)
+              .withPagingState(null); // paging state of a range query cannot resume a bucket scan
     } else if (resolvedBucket != null && resolvedBucket >= 0) {
-      messages = this.findAllInBucket(uid, threadId, resolvedBucket, pagingState);
+      messages = this.findAllInBucket(uid, threadId, resolvedBucket, pagingState, limit);
     } else {
       resolvedBucket = this.bucketingManager.makeBucket();
-      messages = this.findAllInBucket(uid, threadId, resolvedBucket, null);
+      messages = this.findAllInBucket(uid, threadId, resolvedBucket, null, limit);
     }
 
-    resolvedBucket--; // if we reached the FETCH_SIZE then technically bucket might contain
+    resolvedBucket--; // if we reached the page limit then technically bucket might contain
     // some data, however, this variable is used for further aggregation and if we did not manage
     // to accumulate enough of messages, then we have to look in the earlier buckets, however,
     // we must verify that the earlier bucket exists, if it doesn't then we have to return what we
     // have
 
-    if (messages.content().size() == FETCH_SIZE || resolvedBucket < 0)
-      return this.mapScrollContentToDTO(messages);
+    if (isLimitReached(limit, messages.content()) || resolvedBucket < 0)
+      return this.mapScrollContentToDTO(uid, threadId, messages, limit);
 
     return this.mapScrollContentToDTO(
-        this.aggregateStartingFromBucket(uid, threadId, resolvedBucket, messages));
+        uid,
+        threadId,
+        this.aggregateStartingFromBucket(uid, threadId, resolvedBucket, messages, limit),
+        limit);
+  }
+
+  /**
+   * Resumes reading of the thread history from the position encoded in the cursor. If the cursor
+   * carries the driver's paging state, the bucket scan is continued, otherwise the bucket is seeked
+   * past the last message id that the client has seen. In both cases a single query is issued
+   * against the bucket of the cursor, falling back to earlier buckets only if it did not yield
+   * enough of messages, see {@link MessageService#findAllByUserAndThreadAndBucket(String, UUID,
+   * Integer, Long, String)}.
+   *
+   * @param uid user id for whom we are retrieving messages
+   * @param threadId id of a thread for which we are retrieving messages
+   * @param cursor optional cursor returned with the previous page, if null the latest page is read
+   * @param limit bounds of the page
+   * @return a page of messages sorted from the newest to the oldest
+   */
+  public ScrollContent<MessageDTO> findAllByUserAndThread(
+      @NotNull String uid, @NotNull UUID threadId, @Nullable String cursor, @NotNull PageLimit limit) {
+    final var page =
+        this.prefetchCache
+            .get(new PageKey(uid, threadId, StringUtils.hasText(cursor) ? cursor : null, limit))
+            .orElseGet(() -> this.readPage(uid, threadId, cursor, limit));
+
+    if (page.cursor() != null) {
+      this.prefetchCache.prefetch(
+          new PageKey(uid, threadId, page.cursor(), limit),
+          () -> this.readPage(uid, threadId, page.cursor(), limit));
+    }
+
+    return page;
+  }
+
+  /**
+   * Reads the first page of each thread in parallel, so that the client can render several threads
+   * of the inbox after one request. Pages are read exactly like {@link
+   * MessageService#findAllByUserAndThread(String, UUID, String, PageLimit)} without a cursor, but
+   * no message is marked as read, since the user has not opened the threads yet. The messages are
+   * read from the partitions of the user, therefore, threads that the user is not a member of
+   * simply yield empty pages.
+   *
+   * @param uid user id for whom we are retrieving messages
+   * @param threadIds threads to read, at most {@code project.pagination.max-batch-threads}
+   * @return first pages keyed by thread id in the order of the request, threads whose page failed
+   *     to load are omitted
+   */
+  public Map<UUID, ScrollContent<MessageDTO>> findFirstPagesByUserAndThreads(
+      @NotNull String uid, @NotNull Collection<UUID> threadIds) {
+    final var distinctThreadIds = new LinkedHashSet<>(threadIds);
+
+    if (distinctThreadIds.size() > this.paginationProps.getMaxBatchThreads()) {
+      throw new IllegalBatchRequestException(
+          String.format(
+              "At most %d threads can be requested at once",
+              this.paginationProps.getMaxBatchThreads()));
+    }
+
+    final var limit = this.paginationProps.resolvePageLimit(null, null);
+    final var pageFutures =
+        new LinkedHashMap<UUID, CompletableFuture<ScrollContent<MessageDTO>>>();
+
+    for (UUID threadId : distinctThreadIds) {
+      pageFutures.put(
+          threadId,
+          CompletableFuture.supplyAsync(
+                  () -> this.findAllByUserAndThread(uid, threadId, null, limit),
+                  this.messageFetchExecutor)
+              .exceptionally(
+                  e -> {
+                    log.error(
+                        "type=exception; reason=First page could not be read; uid={}; threadId={}",
+                        uid,
+                        threadId,
+                        e);
+                    return null;
+                  }));
+    }
+
+    final var pages = new LinkedHashMap<UUID, ScrollContent<MessageDTO>>();
+
+    pageFutures.forEach(
+        (threadId, pageFuture) -> {
+          final var page = pageFuture.join();
+          if (page != null) pages.put(threadId, page);
+        });
+
+    return pages;
+  }
+
+  /**
+   * Loads the first page of the thread into the prefetch cache in the background, invoked when the
+   * client subscribes to the thread and is about to request it.
+   *
+   * @param uid user id for whom we are retrieving messages
+   * @param threadId id of a thread for which we are retrieving messages
+   */
+  public void prefetchFirstPage(@NotNull String uid, @NotNull UUID threadId) {
+    final var key = this.prefetchCache.firstPageKey(uid, threadId);
+
+    this.prefetchCache.prefetch(key, () -> this.readPage(uid, threadId, null, key.limit()));
+  }
+
+  private ScrollContent<MessageDTO> readPage(
+      @NotNull String uid, @NotNull UUID threadId, @Nullable String cursor, @NotNull PageLimit limit) {
+    if (!StringUtils.hasText(cursor)) {
+      return this.findAllByUserAndThreadAndBucket(uid, threadId, null, null, null, limit);
+    }
+
+    final var decodedCursor = this.cursorCodec.decode(cursor, cursorContext(uid, threadId));
+
+    return this.findAllByUserAndThreadAndBucket(
+        uid,
+        threadId,
+        decodedCursor.bucket(),
+        decodedCursor.messageId(),
+        decodedCursor.pagingState(),
+        limit);
   }
 
   private ScrollContent<MessageByUserByThread> findAllBeforeMessageId(
       @NotNull String uid,
       @NotNull UUID threadId,
       @NotNull Integer bucket,
-      @NotNull Long fromMessageId) {
+      @NotNull Long fromMessageId,
+      @NotNull PageLimit limit) {
+
+    if (limit.hasByteBudget()) {
+      return this.messageRepository.findAllBeforeMessageId(
+          uid, threadId, bucket, limit, fromMessageId);
+    }
 
     return this.messageRepository.findAllBeforeMessageId(
-        uid, threadId, bucket, FETCH_SIZE, fromMessageId);
+        uid, threadId, bucket, limit.size(), fromMessageId);
   }
 
   private ScrollContent<MessageByUserByThread> findAllInBucket(
       @NotNull String uid,
       @NotNull UUID threadId,
       @NotNull Integer bucket,
-      @Nullable String pagingState) {
+      @Nullable String pagingState,
+      @NotNull PageLimit limit) {
+
+    if (limit.hasByteBudget()) {
+      return this.messageRepository.findAllByUidAndThreadIdAndBucket(
+          uid, threadId, bucket, limit, pagingState);
+    }
 
     return this.messageRepository.findAllByUidAndThreadIdAndBucket(
-        uid, threadId, bucket, FETCH_SIZE, pagingState);
+        uid, threadId, bucket, limit.size(), pagingState);
   }
 
   /**
    * A custom algorithm that can scans iteratevely other buckets in case the initial content size is
-   * smaller than {@link MessageService#FETCH_SIZE}.
+   * smaller than the page limit.
    *
    * <p>The algorithm works in the following way:
    *
@@ -174,58 +371,73 @@ public class MessageService {
    *       (inclusive).
    *   <li>Thereafter, we can iteratively go through the buckets in the reverse way collecting the
    *       messages until we either hit a dead end or we have enough of data. We have to also record
-   *       the pagination state for the last set of records that we have fetched and included
-   *       because that will help us to resolve the next set of data.
+   *       the pagination state of the query that returned the last included message, because the
+   *       cursor of the next page is derived from it. Empty buckets must not override it.
    * </ul>
    *
    * @param uid
    * @param threadId
    * @param bucket
    * @param messages
+   * @param limit
    * @return
    */
   private ScrollContent<MessageByUserByThread> aggregateStartingFromBucket(
       @NotNull String uid,
       @NotNull UUID threadId,
       @NotNull Integer bucket,
-      ScrollContent<MessageByUserByThread> messages) {
+      ScrollContent<MessageByUserByThread> messages,
+      @NotNull PageLimit limit) {
     final long threadCreatedTimestamp =
         this.bucketingManager.adjustTimestampToCustomEpoch(Uuids.unixTimestamp(threadId));
 
     final List<Integer> buckets =
-        this.bucketingManager.makeBucketsFromTimestampTillBucket(
-            threadCreatedTimestamp, Math.max(bucket - 1, 0));
+        this.bucketingManager.makeBucketsFromTimestampTillBucket(threadCreatedTimestamp, bucket);
 
     int i = buckets.size() - 1;
-    int messagesToFetch = FETCH_SIZE - messages.content().size();
-    String lastPagingState = null;
+    long aggregatedBytes = estimateSize(messages.content());
+    String lastPagingState = messages.pagingState();
 
     final List<MessageByUserByThread> aggregatedMessages = new LinkedList<>(messages.content());
 
-    while (i >= 0 && aggregatedMessages.size() < FETCH_SIZE) {
+    while (i >= 0 && !limit.isReachedBy(aggregatedMessages.size(), aggregatedBytes)) {
       int currentBucket = buckets.get(i--);
       ScrollContent<MessageByUserByThread> scrollContent =
-          this.messageRepository.findAllByUidAndThreadIdAndBucket(
-              uid, threadId, currentBucket, messagesToFetch, null);
+          this.findAllInBucket(
+              uid,
+              threadId,
+              currentBucket,
+              null,
+              limit.remainingAfter(aggregatedMessages.size(), aggregatedBytes));
+
+      if (scrollContent.content().isEmpty()) continue;
 
       aggregatedMessages.addAll(scrollContent.content());
+      aggregatedBytes += estimateSize(scrollContent.content());
       lastPagingState = scrollContent.pagingState();
-      messagesToFetch -= scrollContent.content().size();
     }
 
     return ScrollContent.of(aggregatedMessages, lastPagingState);
   }
 
-  public ScrollContent<MessageDTO> findAllByUserAndThreadAndBucketMarkAsRead(
+  /**
+   * Reads the page of messages (see {@link MessageService#findAllByUserAndThread(String, UUID,
+   * String, PageLimit)}) and marks the latest message as read if it is the first page.
+   *
+   * @param size requested number of messages, capped by the server.
+   * @param maxBytes requested byte budget of the page, capped by the server.
+   */
+  public ScrollContent<MessageDTO> findAllByUserAndThreadMarkAsRead(
       @NotNull String uid,
       @NotNull UUID threadId,
-      @Nullable Integer bucket,
-      @Nullable Long beforeMessageId,
-      @Nullable String pagingState) {
+      @Nullable String cursor,
+      @Nullable Integer size,
+      @Nullable Integer maxBytes) {
     var scrollContent =
-        this.findAllByUserAndThreadAndBucket(uid, threadId, bucket, beforeMessageId, pagingState);
+        this.findAllByUserAndThread(
+            uid, threadId, cursor, this.paginationProps.resolvePageLimit(size, maxBytes));
 
-    if (!StringUtils.hasText(pagingState) && !scrollContent.content().isEmpty()) {
+    if (!StringUtils.hasText(cursor) && !scrollContent.content().isEmpty()) {
       // means we are loading the first page of the results and hence need to check
       // and mark last read message
 
@@ -236,6 +448,7 @@ public class MessageService {
       if (!messageToMark.read()) {
         scrollContent = scrollContent.withContent(
             ImmutableLists.appendAtIndex(scrollContent.content(), 0, messageToMark.withRead(true)));
+        this.prefetchCache.invalidateFirstPages(threadId, List.of(uid));
         this.asyncTaskExecutor.execute(
             () ->
                 markMessageAsRead(
@@ -245,12 +458,210 @@ public class MessageService {
 
     return scrollContent;
   }
+
+  /**
+   * Retrieves the messages surrounding the given message id, so that clients can jump straight to
+   * a referenced message instead of scrolling towards it page by page.
+   *
+   * @param uid user id for whom we are retrieving messages
+   * @param threadId id of a thread for which we are retrieving messages
+   * @param messageId anchor message, included in the window if it exists
+   * @param size requested number of messages in the window, capped by the server.
+   * @return window of messages sorted from the newest to the oldest
+   */
+  public MessageWindowDTO findAllAroundMessage(
+      @NotNull String uid, @NotNull UUID threadId, long messageId, @Nullable Integer size) {
+    return this.findWindow(
+        uid, threadId, messageId, this.paginationProps.resolvePageLimit(size, null));
+  }
+
+  /**
+   * Retrieves the messages surrounding the given point in time. Points in time before the creation
+   * of the thread or in the future are clamped to the lifetime of the thread.
+   *
+   * @param uid user id for whom we are retrieving messages
+   * @param threadId id of a thread for which we are retrieving messages
+   * @param timestamp point in time, the first message sent at or after it is the anchor
+   * @param size requested number of messages in the window, capped by the server.
+   * @return window of messages sorted from the newest to the oldest
+   */
+  public MessageWindowDTO findAllAtTimestamp(
+      @NotNull String uid,
+      @NotNull UUID threadId,
+      @NotNull Instant timestamp,
+      @Nullable Integer size) {
+    final var threadCreatedAt = Instant.ofEpochMilli(Uuids.unixTimestamp(threadId));
+    final var now = Instant.now();
+    Instant clampedTimestamp = timestamp;
+
+    if (clampedTimestamp.isBefore(threadCreatedAt)) clampedTimestamp = threadCreatedAt;
+    if (clampedTimestamp.isAfter(now)) clampedTimestamp = now;
+
+    return this.findWindow(
+        uid,
+        threadId,
+        this.snowflakeGenerator.lowestIdAt(clampedTimestamp),
+        this.paginationProps.resolvePageLimit(size, null));
+  }
+
+  /**
+   * Since message ids are snowflakes the bucket of the pivot can be computed directly. Both halves
+   * of the window are read from that bucket by two range queries that are issued in parallel:
+   * messages older than the pivot in the clustering order and messages starting from the pivot in
+   * the reversed order. The window is bounded by the bucket, if it is close to the bucket's edge,
+   * the window is smaller, however, the cursor still lets the client continue with the earlier
+   * buckets, see {@link MessageService#findAllByUserAndThread(String, UUID, String, PageLimit)}.
+   * The size of the limit is split between the halves, the byte budget does not apply to windows.
+   */
+  private MessageWindowDTO findWindow(
+      @NotNull String uid, @NotNull UUID threadId, long pivotId, @NotNull PageLimit limit) {
+    final int bucket = this.bucketingManager.makeBucket(pivotId);
+    final int newerLimit = (limit.size() + 1) / 2; // the pivot belongs to the newer half
+    final int olderLimit = limit.size() - newerLimit;
+
+    final CompletableFuture<List<MessageByUserByThread>> olderFuture =
+        olderLimit > 0
+            ? this.messageRepository.findLatestBeforeMessageIdAsync(
+                uid, threadId, bucket, olderLimit, pivotId)
+            : CompletableFuture.completedFuture(List.of());
+    final var newerFuture =
+        this.messageRepository.findEarliestFromMessageIdAsync(
+            uid, threadId, bucket, newerLimit, pivotId);
+
+    final List<MessageByUserByThread> older = olderFuture.join();
+    final List<MessageByUserByThread> newer = newerFuture.join();
+
+    final List<MessageDTO> content = new ArrayList<>(older.size() + newer.size());
+
+    for (int i = newer.size() - 1; i >= 0; i--) {
+      content.add(this.toDTO(newer.get(i)));
+    }
+
+    older.forEach(message -> content.add(this.toDTO(message)));
+
+    final int threadCreatedBucket =
+        this.bucketingManager.makeBucketForTimestamp(
+            this.bucketingManager.adjustTimestampToCustomEpoch(Uuids.unixTimestamp(threadId)));
+    String cursor = null;
+
+    if (older.size() == olderLimit || bucket > threadCreatedBucket) {
+      final long oldestMessageId =
+          older.isEmpty() ? pivotId : older.get(older.size() - 1).getKey().getMessageId();
+
+      cursor =
+          this.cursorCodec.encode(
+              MessageCursor.of(bucket, oldestMessageId), cursorContext(uid, threadId));
+    }
+
+    final boolean hasNewer =
+        newer.size() == newerLimit || bucket < this.bucketingManager.makeBucket();
+
+    return new MessageWindowDTO(pivotId, content, cursor, hasNewer);
+  }
+
   @Async
   public void markMessageAsRead(String uid, UUID threadId, int bucket, long messageId) {
     this.threadRepository.updateIsReadThreadByUserByMessage(threadId, uid, true);
     this.messageRepository.updateIsRead(uid, threadId, bucket, messageId, true);
   }
 
+  /**
+   * Sends the message to the thread according to the configured {@link SendMode}. In {@link
+   * SendMode#SYNC_PERSIST} mode the message is persisted for every member of the thread and fanned
+   * out before the method returns, see {@link MessageService#persistAndFanoutMessage(UUID, String,
+   * long, int, String, Instant)}. In {@link SendMode#KAFKA_FIRST} mode, the method returns as soon
+   * as the message is committed to the accepted messages topic, persistence and fanout are done by
+   * the consumer of that topic, see {@link MessageService#persistAcceptedMessage(ThreadMessageEvent)}.
+   *
+   * @param threadId - conversation id.
+   * @param authorId - user who sent the message.
+   * @param messageSendRequest - DTO object that contains threadId and body.
+   * @return {@link MessageDTO} that contains body and status of the message.
+   */
+  public MessageDTO sendMessage(
+      UUID threadId, String authorId, MessageSendRequestDTO messageSendRequest) {
+    final long messageId = this.snowflakeGenerator.nextId();
+    final int bucket = this.bucketingManager.makeBucket(messageId);
+
+    if (this.messagingProps.getSendMode() == SendMode.KAFKA_FIRST) {
+      this.acceptMessage(threadId, authorId, messageId, bucket, messageSendRequest.body());
+    } else {
+      this.persistAndFanoutMessage(
+          threadId, authorId, messageId, bucket, messageSendRequest.body(), null);
+    }
+
+    return new MessageDTO(
+        messageId, threadId.toString(), bucket, authorId, messageSendRequest.body(),
+        LocalDateTime.now(), true, false, false);
+  }
+
+  /**
+   * Persists the message that was accepted in {@link SendMode#KAFKA_FIRST} mode and fans it out.
+   * Rows are written with the timestamp of the snowflake, hence redelivery of the same event is
+   * idempotent.
+   *
+   * @param acceptedMessage message as it was accepted from the author.
+   * @throws EntityNotFoundException if the thread no longer exists.
+   */
+  public void persistAcceptedMessage(@NotNull ThreadMessageEvent acceptedMessage) {
+    final long messageId = acceptedMessage.getMessageId();
+    final Instant acceptedAt = this.snowflakeGenerator.toInstant(messageId);
+
+    this.persistAndFanoutMessage(
+        UUID.fromString(acceptedMessage.getThreadId()),
+        acceptedMessage.getAuthorId(),
+        messageId,
+        acceptedMessage.getBucket(),
+        acceptedMessage.getBody(),
+        acceptedAt);
+
+    this.messagingMetrics.recordPersisted(acceptedAt);
+  }
+
+  /**
+   * The thread and the author are validated before the message is accepted, as the author is
+   * acknowledged before the message is persisted. The check uses the cached members, a thread
+   * deleted within the TTL is dead lettered by the consumer.
+   *
+   * @throws EntityNotFoundException if the thread does not exist.
+   * @throws UnauthorizedActionException if the author is not a member of the thread.
+   */
+  private void acceptMessage(
+      UUID threadId, String authorId, long messageId, int bucket, String body) {
+    final var members =
+        this.threadMembersCache
+            .get(threadId)
+            .orElseThrow(() -> new EntityNotFoundException("Thread was not found"));
+    if (!members.isMember(authorId)) {
+      throw new UnauthorizedActionException("User is not a member of the thread");
+    }
+
+    final var acceptedMessage =
+        ThreadMessageEvent.newBuilder()
+            .setToUser("") // recipients are resolved once the message is persisted
+            .setMessageId(messageId)
+            .setThreadId(threadId.toString())
+            .setBucket(bucket)
+            .setAuthorId(authorId)
+            .setBody(body)
+            .build();
+
+    try {
+      this.acceptedMessagesTemplate
+          .send(
+              this.kafkaProps.getTopics().getThreadMessagesAccepted(),
+              threadId.toString(), // keeps the order of messages within a thread
+              acceptedMessage)
+          .completable()
+          .get(this.messagingProps.getAcceptTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      throw new MessageNotAcceptedException("The message could not be accepted", e);
+    } catch (InterruptedException e) {
+      java.lang.Thread.currentThread().interrupt();
+      throw new MessageNotAcceptedException("Interrupted while accepting the message", e);
+    }
+  }
+
   /**
    * The method composes {@link MessageByUserByThread} and {@link ThreadByUserByLastMessage} objects
    * and inserts them into cassandra database. MessageByUserByThread has to be inserted for each
@@ -260,13 +671,15 @@ public class MessageService {
    * ThreadByUserByLastMessage#getThreadNameAndThumbnail(Thread, User, UserUDT)} for the
    * documentation.
    *
-   * @param threadId - conversation id.
-   * @param authorId - user who sent the message.
-   * @param messageSendRequest - DTO object that contains threadId and body.
-   * @return {@link MessageDTO} that contains body and status of the message.
+   * @param writeTime - if present, the rows are written idempotently with this write time.
    */
-  public MessageDTO sendMessage(
-      UUID threadId, String authorId, MessageSendRequestDTO messageSendRequest) {
+  private void persistAndFanoutMessage(
+      UUID threadId,
+      String authorId,
+      long messageId,
+      int bucket,
+      String body,
+      @Nullable Instant writeTime) {
     final var thread =
         this.threadRepository
             .findByThreadId(threadId)
@@ -278,9 +691,10 @@ public class MessageService {
     final Collection<ThreadByUserByLastMessage> threads = new LinkedList<>();
     final Set<String> excludedFromDelivery = new HashSet<>(Collections.singletonList(authorId));
     final Collection<FanoutMessageMetadata> fanoutMetadata = new LinkedList<>();
-
-    final long messageId = this.snowflakeGenerator.nextId();
-    final int bucket = this.bucketingManager.makeBucket(messageId);
+    final LocalDateTime time =
+        writeTime != null
+            ? LocalDateTime.ofInstant(writeTime, ZoneId.systemDefault())
+            : LocalDateTime.now();
 
     for (UserUDT participant : thread.getMembers()) {
       final String[] threadNameAndThumbnail =
@@ -289,7 +703,7 @@ public class MessageService {
       messages.add(
           MessageByUserByThread.builder()
               .authorId(author.getUid())
-              .body(messageSendRequest.body())
+              .body(body)
               .read(authorId.equals(participant.getUid()))
               .key(new Key(participant.getUid(), thread.getThreadId(), bucket, messageId))
               .build());
@@ -300,14 +714,14 @@ public class MessageService {
               .author(author.toUDT())
               .threadName(threadNameAndThumbnail[0])
               .threadPictureThumbnailUrl(threadNameAndThumbnail[1])
-              .message(messageSendRequest.body())
+              .message(body)
               .read(
                   authorId.equals(
                       participant
                           .getUid())) // if we are persisting for the author of the message, it
                                       // means the message has been read
               .key(new ThreadByUserByLastMessage.Key(participant.getUid(), thread.getThreadId()))
-              .time(LocalDateTime.now())
+              .time(time)
               .build());
 
       if (!excludedFromDelivery.contains(participant.getUid())) {
@@ -315,7 +729,7 @@ public class MessageService {
             FanoutMessageMetadata.builder()
                 .authorName(author.getFullName())
                 .authorId(authorId)
-                .body(messageSendRequest.body())
+                .body(body)
                 .recipientId(participant.getUid())
                 .bucket(bucket)
                 .messageId(messageId)
@@ -327,13 +741,17 @@ public class MessageService {
       }
     }
 
-    //noinspection ResultOfMethodCallIgnored
-    this.messageRepository.saveMessageForAllThreadMembers(messages, threads);
-    this.messageDeliveryService.fanoutMessages(fanoutMetadata); // async execution
+    if (writeTime != null) {
+      this.messageRepository.saveMessageForAllThreadMembers(messages, threads, writeTime);
+    } else {
+      //noinspection ResultOfMethodCallIgnored
+      this.messageRepository.saveMessageForAllThreadMembers(messages, threads);
+    }
 
-    return new MessageDTO(
-        messageId, threadId.toString(), bucket, authorId, messageSendRequest.body(),
-        LocalDateTime.now(), true, false, false);
+    // the recipients may have their first pages cached by the instances they are not routed to
+    this.prefetchCache.invalidateFirstPages(
+        threadId, thread.getMembers().stream().map(UserUDT::getUid).toList());
+    this.messageDeliveryService.fanoutMessages(fanoutMetadata); // async execution
   }
 
   public void acknowledgeMessage(String receiptId, String userId, MessageDTO messageDTO) {
@@ -344,15 +762,58 @@ public class MessageService {
     );
   }
 
+  /**
+   * Maps the entities to DTOs and issues the cursor for the next page. The cursor points at the
+   * last message of the page, therefore, it stays valid even if the page was aggregated from
+   * several buckets. If the page is not full, all the buckets down to the creation of the thread
+   * have been scanned and there is nothing left to read.
+   */
   private ScrollContent<MessageDTO> mapScrollContentToDTO(
-      ScrollContent<MessageByUserByThread> scrollContent) {
+      String uid,
+      UUID threadId,
+      ScrollContent<MessageByUserByThread> scrollContent,
+      PageLimit limit) {
+    String cursor = null;
+
+    if (!scrollContent.content().isEmpty() && isLimitReached(limit, scrollContent.content())) {
+      final var lastKey =
+          scrollContent.content().get(scrollContent.content().size() - 1).getKey();
+
+      cursor =
+          this.cursorCodec.encode(
+              new MessageCursor(
+                  lastKey.getBucket(), lastKey.getMessageId(), scrollContent.pagingState()),
+              cursorContext(uid, threadId));
+    }
+
+    return new ScrollContent<>(
+        scrollContent.pagingState(),
+        cursor,
+        scrollContent.stream().map(this::toDTO).toList());
+  }
 
-    return ScrollContent.of(
-        scrollContent.stream().map(m -> {
-          Instant instant = this.snowflakeGenerator.toInstant(m.getKey().getMessageId());
+  private MessageDTO toDTO(MessageByUserByThread message) {
+    Instant instant = this.snowflakeGenerator.toInstant(message.getKey().getMessageId());
+
+    return message.toDTO(LocalDateTime.ofInstant(instant, ZoneId.systemDefault()));
+  }
+
+  private static boolean isLimitReached(PageLimit limit, List<MessageByUserByThread> messages) {
+    return limit.isReachedBy(
+        messages.size(), limit.hasByteBudget() ? estimateSize(messages) : 0);
+  }
+
+  private static long estimateSize(List<MessageByUserByThread> messages) {
+    long bytes = 0;
+
+    for (MessageByUserByThread message : messages) {
+      bytes += message.estimateSerializedSize();
+    }
+
+    return bytes;
+  }
 
-          return m.toDTO(LocalDateTime.ofInstant(instant, ZoneId.systemDefault()));
-        }).toList(),
-        scrollContent.pagingState());
+  private static String cursorContext(String uid, UUID threadId) {
+    return uid.concat(threadId.toString());
   }
 }
@@ -0,0 +1,66 @@
+package com.akmal.messengerspringbackend.service;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.model.udt.UserUDT;
+import com.akmal.messengerspringbackend.repository.ThreadRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+
+/**
+ * Members of the threads, cached for {@link
+ * MessagingConfigurationProperties.TypingConfig#getMembersCacheTtl()}. Used on the hot paths that
+ * only need the membership (typing fan-out, authorization of the thread subscriptions), a member
+ * added or removed within the TTL may be missed.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 17:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+public class ThreadMembersCache {
+  private final ThreadRepository threadRepository;
+  private final Cache<UUID, ThreadMembers> threadMembers;
+
+  public ThreadMembersCache(
+      ThreadRepository threadRepository, MessagingConfigurationProperties messagingProps) {
+    this.threadRepository = threadRepository;
+    this.threadMembers =
+        Caffeine.newBuilder()
+            .expireAfterWrite(messagingProps.getTyping().getMembersCacheTtl())
+            .maximumSize(10_000)
+            .build();
+  }
+
+  /** @return members of the thread, empty if the thread does not exist. */
+  public Optional<ThreadMembers> get(@NotNull UUID threadId) {
+    return Optional.ofNullable(this.threadMembers.get(threadId, this::load));
+  }
+
+  private ThreadMembers load(UUID threadId) {
+    return this.threadRepository
+        .findByThreadId(threadId)
+        .map(
+            thread ->
+                new ThreadMembers(
+                    thread.getMembers().stream()
+                        .map(UserUDT::getUid)
+                        .collect(Collectors.toUnmodifiableSet()),
+                    thread.isGroupThread()))
+        .orElse(null);
+  }
+
+  public record ThreadMembers(Set<String> memberIds, boolean groupThread) {
+
+    public boolean isMember(@NotNull String uid) {
+      return this.memberIds.contains(uid);
+    }
+  }
+}
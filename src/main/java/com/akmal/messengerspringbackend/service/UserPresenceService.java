@@ -1,18 +1,25 @@
 package com.akmal.messengerspringbackend.service;
 
 import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
 import com.akmal.messengerspringbackend.exception.EntityNotFoundException;
 import com.akmal.messengerspringbackend.model.udt.UserUDT;
-import com.akmal.messengerspringbackend.repository.ThreadRepository;
 import com.akmal.messengerspringbackend.repository.UserRepository;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService.RecipientEvent;
 import com.akmal.messengerspringbackend.thread.PresenceEventType;
 import com.akmal.messengerspringbackend.thread.ThreadEventKey;
 import com.akmal.messengerspringbackend.thread.ThreadPresenceEvent;
 import com.akmal.messengerspringbackend.user.UserPresenceEvent;
+import com.akmal.messengerspringbackend.websocket.delivery.LocalEventDelivery;
+import com.akmal.messengerspringbackend.websocket.storage.SessionLocationRegistry;
 import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import lombok.RequiredArgsConstructor;
 import org.apache.avro.specific.SpecificRecord;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -27,58 +34,136 @@ import org.springframework.stereotype.Service;
  * @since 1.0
  */
 @Service
-@RequiredArgsConstructor
 public class UserPresenceService {
-  @Qualifier("kafkaTemplateAvroKeyAvroValue") private final KafkaTemplate<SpecificRecord, SpecificRecord> kafkaAvroKeyAvroValueTemplate;
-  @Qualifier("kafkaTemplateStringKeyAvroValue") private final KafkaTemplate<String, SpecificRecord> kafkaStringKeyAvroValueTemplate;
+  // presence and typing events are published with the ephemeral producer, they are fine to be lost
+  private final KafkaTemplate<SpecificRecord, SpecificRecord> kafkaAvroKeyAvroValueTemplate;
+  private final KafkaTemplate<String, SpecificRecord> kafkaStringKeyAvroValueTemplate;
 
   private final KafkaConfigurationProperties kafkaProps;
-  private final ThreadRepository threadRepository;
+  private final ThreadMembersCache threadMembersCache;
   private final WebsocketSessionStorage websocketSessionStorage;
+  private final SessionLocationRegistry sessionLocationRegistry;
+  private final LocalEventDelivery localEventDelivery;
+  private final MessageDeliveryService messageDeliveryService;
   private final UserService userService;
   private final UserRepository userRepository;
 
+  /** Pairs of user and thread whose typing event was published within the throttle window. */
+  private final Cache<TypingKey, Boolean> recentTypingEvents;
+
+  public UserPresenceService(
+      @Qualifier("kafkaTemplateEphemeralAvroKeyAvroValue") KafkaTemplate<SpecificRecord, SpecificRecord> kafkaAvroKeyAvroValueTemplate,
+      @Qualifier("kafkaTemplateEphemeralStringKeyAvroValue") KafkaTemplate<String, SpecificRecord> kafkaStringKeyAvroValueTemplate,
+      KafkaConfigurationProperties kafkaProps,
+      MessagingConfigurationProperties messagingProps,
+      ThreadMembersCache threadMembersCache,
+      WebsocketSessionStorage websocketSessionStorage,
+      SessionLocationRegistry sessionLocationRegistry,
+      LocalEventDelivery localEventDelivery,
+      MessageDeliveryService messageDeliveryService,
+      UserService userService,
+      UserRepository userRepository) {
+    this.kafkaAvroKeyAvroValueTemplate = kafkaAvroKeyAvroValueTemplate;
+    this.kafkaStringKeyAvroValueTemplate = kafkaStringKeyAvroValueTemplate;
+    this.kafkaProps = kafkaProps;
+    this.threadMembersCache = threadMembersCache;
+    this.websocketSessionStorage = websocketSessionStorage;
+    this.sessionLocationRegistry = sessionLocationRegistry;
+    this.localEventDelivery = localEventDelivery;
+    this.messageDeliveryService = messageDeliveryService;
+    this.userService = userService;
+    this.userRepository = userRepository;
+
+    final var typingProps = messagingProps.getTyping();
+    this.recentTypingEvents =
+        Caffeine.newBuilder()
+            .expireAfterWrite(typingProps.getThrottleWindow())
+            .maximumSize(typingProps.getThrottleMaxEntries())
+            .build();
+  }
+
   /**
    * Fans out the typing presence event to all members of the thread excluding the current user.
+   * The events are throttled, at most one event of the user in the thread is published within the
+   * {@link MessagingConfigurationProperties.TypingConfig#getThrottleWindow()}, the recipients keep
+   * the user typing for longer (see {@link
+   * com.akmal.messengerspringbackend.websocket.delivery.TypingStateTracker}). Recipients connected
+   * to this instance are notified in-process, see {@link LocalEventDelivery}.
    *
    * @param userId user from whom the event originated.
    * @param threadId for which the event is scoped.
    */
   public void sendTypingEvent(@NotNull String userId, @NotNull UUID threadId) {
-    final var thread = this.threadRepository.findByThreadId(threadId)
-                           .orElseThrow(() -> new EntityNotFoundException(String.format("Thread with given id %s was not found", threadId)));
+    if (this.recentTypingEvents.asMap().putIfAbsent(new TypingKey(userId, threadId), Boolean.TRUE)
+            != null) {
+      return;
+    }
 
-    for (UserUDT member: thread.getMembers()) {
-      if (member.getUid().equals(userId)) continue; //exclude from delivery the current user
+    final List<String> recipientIds =
+        this.findMemberIds(threadId).stream()
+            .filter(uid -> !uid.equals(userId)) // exclude from delivery the current user
+            .toList();
+    final var presenceEvent = ThreadPresenceEvent.newBuilder()
+                                  .setUid(userId)
+                                  .setType(PresenceEventType.TYPING)
+                                  .build();
 
-      final var presenceEvent = ThreadPresenceEvent.newBuilder()
-                                    .setUid(userId)
-                                    .setType(PresenceEventType.TYPING)
-                                    .build();
+    for (String localRecipientId : this.localEventDelivery.connectedRecipients(recipientIds)) {
+      final var recipientEvent = new RecipientEvent(localRecipientId, threadId, presenceEvent);
+      this.localEventDelivery.deliver(
+          localRecipientId, () -> this.messageDeliveryService.prepareFrame(recipientEvent));
+    }
 
-      final var presenceEventKey = ThreadEventKey.newBuilder()
-                                       .setUid(member.getUid())
-                                       .setThreadId(threadId.toString())
-                                       .build();
+    final Map<String, List<String>> recipientsByTopic =
+        this.localEventDelivery.withoutLocalRoute(
+            this.sessionLocationRegistry.routeEphemeralByTopic(recipientIds),
+            this.sessionLocationRegistry.getLocalEphemeralNodeTopic());
 
-      this.kafkaAvroKeyAvroValueTemplate.send(this.kafkaProps.getTopics().getThreadEvents(),
-          presenceEventKey, presenceEvent);
+    for (Map.Entry<String, List<String>> route : recipientsByTopic.entrySet()) {
+      for (String recipientId : route.getValue()) {
+        final var presenceEventKey = ThreadEventKey.newBuilder()
+                                         .setUid(recipientId)
+                                         .setThreadId(threadId.toString())
+                                         .build();
+
+        this.kafkaAvroKeyAvroValueTemplate.send(
+            this.localEventDelivery.record(route.getKey(), presenceEventKey, presenceEvent));
+      }
     }
   }
 
-  public void sendUserPresenceEvent(String userId) {
+  /**
+   * Publishes the transition of the user between online and offline to its contacts, see {@link
+   * com.akmal.messengerspringbackend.websocket.UserPresenceTracker}.
+   *
+   * @param online whether the user came online or went offline.
+   * @param lastSeenAt time of the transition, the last time the user was heard from if offline.
+   */
+  public void sendUserPresenceEvent(@NotNull String userId, boolean online, Instant lastSeenAt) {
     final var user = this.userService.findUserByUid(userId);
-    final Instant now = Instant.now();
-
-    this.userRepository.updateLastSeenAtByUserId(user.getUid(), now);
 
     final var presenceEvent = UserPresenceEvent.newBuilder()
                                   .setUserId(userId)
-                                  .setLastSeenAt(now.toEpochMilli())
+                                  .setLastSeenAt(lastSeenAt.toEpochMilli())
+                                  .setOnline(online)
                                   .build();
 
     for (UserUDT contact: user.getContacts()) {
-      final var future = this.kafkaStringKeyAvroValueTemplate.send(this.kafkaProps.getTopics().getUserPresence(), contact.getUid(), presenceEvent);
+      this.kafkaStringKeyAvroValueTemplate.send(
+          this.kafkaProps.getTopics().getUserPresence(), contact.getUid(), presenceEvent);
     }
   }
+
+  public void updateLastSeenAt(@NotNull String userId, Instant lastSeenAt) {
+    this.userRepository.updateLastSeenAtByUserId(userId, lastSeenAt);
+  }
+
+  private Set<String> findMemberIds(UUID threadId) {
+    final var threadMembers = this.threadMembersCache.get(threadId)
+                           .orElseThrow(() -> new EntityNotFoundException(String.format("Thread with given id %s was not found", threadId)));
+
+    return threadMembers.memberIds();
+  }
+
+  private record TypingKey(String userId, UUID threadId) {}
 }
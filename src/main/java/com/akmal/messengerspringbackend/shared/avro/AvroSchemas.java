@@ -0,0 +1,104 @@
+package com.akmal.messengerspringbackend.shared.avro;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.common.errors.SerializationException;
+
+/**
+ * Cache of the readers and writers of the classes generated from {@code src/main/resources/avro}.
+ * Records are identified by the CRC-64-AVRO fingerprint of the parsing canonical form of their
+ * schema together with the full name of the schema, which are carried in the record headers
+ * instead of the schema registry id. Readers are created only for the schemas of the classes that
+ * are on the classpath, a record written with any other version of the schema is rejected.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 18:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public final class AvroSchemas {
+  public static final String KEY_FINGERPRINT_HEADER = "avro.key.fingerprint";
+  public static final String KEY_SCHEMA_HEADER = "avro.key.schema";
+  public static final String VALUE_FINGERPRINT_HEADER = "avro.value.fingerprint";
+  public static final String VALUE_SCHEMA_HEADER = "avro.value.schema";
+
+  private static final Map<Class<?>, WriterEntry> WRITERS = new ConcurrentHashMap<>();
+  private static final Map<Long, SpecificDatumReader<SpecificRecord>> READERS =
+      new ConcurrentHashMap<>();
+
+  private AvroSchemas() {}
+
+  /**
+   * @param schema of the record.
+   * @return CRC-64-AVRO fingerprint of the parsing canonical form of the schema.
+   */
+  public static long fingerprint(Schema schema) {
+    return SchemaNormalization.parsingFingerprint64(schema);
+  }
+
+  static WriterEntry writerOf(SpecificRecord record) {
+    return WRITERS.computeIfAbsent(record.getClass(), clazz -> WriterEntry.of(record.getSchema()));
+  }
+
+  /**
+   * Resolves the reader of the records written with the schema of the given fingerprint, the
+   * schema is looked up by its name among the generated classes on the first access.
+   *
+   * @throws SerializationException if there is no generated class with the same schema.
+   */
+  static SpecificDatumReader<SpecificRecord> readerOf(long fingerprint, String schemaName) {
+    final var reader = READERS.get(fingerprint);
+    if (reader != null) return reader;
+
+    final Class<?> recordClass =
+        SpecificData.get().getClass(Schema.createRecord(schemaName, null, null, false));
+
+    if (recordClass == null || !SpecificRecord.class.isAssignableFrom(recordClass)) {
+      throw new SerializationException(
+          String.format("No generated class for the record schema %s", schemaName));
+    }
+
+    final Schema schema = SpecificData.get().getSchema(recordClass);
+
+    if (fingerprint(schema) != fingerprint) {
+      throw new SerializationException(
+          String.format(
+              "Record %s was written with an unknown version of the schema, fingerprint %d",
+              schemaName, fingerprint));
+    }
+
+    return READERS.computeIfAbsent(fingerprint, f -> new SpecificDatumReader<>(schema));
+  }
+
+  static byte[] encodeFingerprint(long fingerprint) {
+    return ByteBuffer.allocate(Long.BYTES).putLong(fingerprint).array();
+  }
+
+  static long decodeFingerprint(byte[] fingerprint) {
+    if (fingerprint.length != Long.BYTES) {
+      throw new SerializationException("Schema fingerprint header must be 8 bytes long");
+    }
+    return ByteBuffer.wrap(fingerprint).getLong();
+  }
+
+  /** Writer of the generated class with its header values, which are computed only once. */
+  record WriterEntry(
+      SpecificDatumWriter<SpecificRecord> writer, byte[] fingerprint, byte[] schemaName) {
+
+    private static WriterEntry of(Schema schema) {
+      return new WriterEntry(
+          new SpecificDatumWriter<>(schema),
+          encodeFingerprint(AvroSchemas.fingerprint(schema)),
+          schema.getFullName().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
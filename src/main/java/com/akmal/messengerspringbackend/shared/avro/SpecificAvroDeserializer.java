@@ -0,0 +1,71 @@
+package com.akmal.messengerspringbackend.shared.avro;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Deserializes the records written by {@link SpecificAvroSerializer} into the generated classes.
+ * Readers are cached per schema fingerprint and the binary decoder is reused per thread. The
+ * records themselves are not reused, since they are handed over to the delivery workers.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 18:35
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public class SpecificAvroDeserializer implements Deserializer<SpecificRecord> {
+  private final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
+  private String fingerprintHeader = AvroSchemas.VALUE_FINGERPRINT_HEADER;
+  private String schemaHeader = AvroSchemas.VALUE_SCHEMA_HEADER;
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {
+    this.fingerprintHeader =
+        isKey ? AvroSchemas.KEY_FINGERPRINT_HEADER : AvroSchemas.VALUE_FINGERPRINT_HEADER;
+    this.schemaHeader = isKey ? AvroSchemas.KEY_SCHEMA_HEADER : AvroSchemas.VALUE_SCHEMA_HEADER;
+  }
+
+  @Override
+  public SpecificRecord deserialize(String topic, byte[] data) {
+    throw new SerializationException(
+        "Schema of the record is carried in the headers, deserialization without headers is not supported");
+  }
+
+  @Override
+  public SpecificRecord deserialize(String topic, Headers headers, byte[] data) {
+    if (data == null) return null;
+
+    final Header fingerprint = headers.lastHeader(this.fingerprintHeader);
+    final Header schemaName = headers.lastHeader(this.schemaHeader);
+
+    if (fingerprint == null || schemaName == null) {
+      throw new SerializationException(
+          String.format(
+              "Record of topic %s has no %s or %s header",
+              topic, this.fingerprintHeader, this.schemaHeader));
+    }
+
+    final var reader =
+        AvroSchemas.readerOf(
+            AvroSchemas.decodeFingerprint(fingerprint.value()),
+            new String(schemaName.value(), StandardCharsets.UTF_8));
+
+    try {
+      final BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, this.decoders.get());
+      this.decoders.set(decoder);
+      return reader.read(null, decoder);
+    } catch (IOException | RuntimeException e) {
+      throw new SerializationException(
+          String.format("Could not deserialize record of topic %s", topic), e);
+    }
+  }
+}
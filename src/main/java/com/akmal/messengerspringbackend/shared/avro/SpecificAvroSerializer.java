@@ -0,0 +1,74 @@
+package com.akmal.messengerspringbackend.shared.avro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * Serializes the generated Avro records without the schema registry, the record is written as
+ * plain Avro binary and the schema is identified by the fingerprint and name headers (see {@link
+ * AvroSchemas}). Writers are cached per class and the output buffer and encoder are reused per
+ * thread.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 18:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public class SpecificAvroSerializer implements Serializer<SpecificRecord> {
+  private static final int INITIAL_BUFFER_SIZE = 512;
+
+  private final ThreadLocal<ReusableOutput> outputs = ThreadLocal.withInitial(ReusableOutput::new);
+  private String fingerprintHeader = AvroSchemas.VALUE_FINGERPRINT_HEADER;
+  private String schemaHeader = AvroSchemas.VALUE_SCHEMA_HEADER;
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {
+    this.fingerprintHeader =
+        isKey ? AvroSchemas.KEY_FINGERPRINT_HEADER : AvroSchemas.VALUE_FINGERPRINT_HEADER;
+    this.schemaHeader = isKey ? AvroSchemas.KEY_SCHEMA_HEADER : AvroSchemas.VALUE_SCHEMA_HEADER;
+  }
+
+  @Override
+  public byte[] serialize(String topic, SpecificRecord data) {
+    throw new SerializationException(
+        "Schema of the record is carried in the headers, serialization without headers is not supported");
+  }
+
+  @Override
+  public byte[] serialize(String topic, Headers headers, SpecificRecord data) {
+    if (data == null) return null;
+
+    final var writerEntry = AvroSchemas.writerOf(data);
+    final var output = this.outputs.get();
+
+    try {
+      output.buffer.reset();
+      output.encoder = EncoderFactory.get().directBinaryEncoder(output.buffer, output.encoder);
+      writerEntry.writer().write(data, output.encoder);
+      output.encoder.flush();
+    } catch (IOException | RuntimeException e) {
+      throw new SerializationException(
+          String.format("Could not serialize record %s", data.getSchema().getFullName()), e);
+    }
+
+    headers.remove(this.fingerprintHeader);
+    headers.remove(this.schemaHeader);
+    headers.add(this.fingerprintHeader, writerEntry.fingerprint());
+    headers.add(this.schemaHeader, writerEntry.schemaName());
+
+    return output.buffer.toByteArray();
+  }
+
+  private static class ReusableOutput {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+    private BinaryEncoder encoder;
+  }
+}
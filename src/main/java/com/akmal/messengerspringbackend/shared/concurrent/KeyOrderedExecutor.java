@@ -0,0 +1,106 @@
+package com.akmal.messengerspringbackend.shared.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Executor that consists of a fixed number of single threaded stripes, each with its own bounded
+ * queue. Tasks submitted with the same key always land on the same stripe, therefore they are
+ * executed one after another in the submission order, while the tasks of different keys run in
+ * parallel. Once the queue of a stripe is full the submitting thread blocks until there is room,
+ * which propagates the back pressure to the producer (e.g. Kafka consumer thread).
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 21/07/2022 - 19:40
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Slf4j
+public class KeyOrderedExecutor {
+  private final ThreadPoolExecutor[] stripes;
+
+  public KeyOrderedExecutor(@NotNull String threadNamePrefix, int stripeCount, int queueCapacity) {
+    if (stripeCount < 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException("Stripe count and queue capacity must be positive");
+    }
+    this.stripes = new ThreadPoolExecutor[stripeCount];
+
+    for (int i = 0; i < stripeCount; i++) {
+      this.stripes[i] =
+          new ThreadPoolExecutor(
+              1,
+              1,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(queueCapacity),
+              new CustomizableThreadFactory(threadNamePrefix.concat(i + "-")),
+              new BlockingSubmitPolicy());
+    }
+  }
+
+  /**
+   * Schedules the task on the stripe of the key, blocks if the stripe is saturated.
+   *
+   * @throws RejectedExecutionException if the executor is shut down or the caller was interrupted
+   *     while waiting for the room in the queue.
+   */
+  public void execute(@NotNull Object key, @NotNull Runnable task) {
+    this.stripes[this.stripeOf(key)].execute(task);
+  }
+
+  public int stripeOf(@NotNull Object key) {
+    final int hash = key.hashCode();
+    return Math.floorMod(hash ^ (hash >>> 16), this.stripes.length);
+  }
+
+  public int getStripeCount() {
+    return this.stripes.length;
+  }
+
+  /** @return number of tasks waiting in the queue of the stripe (excluding the running one). */
+  public int getQueueDepth(int stripe) {
+    return this.stripes[stripe].getQueue().size();
+  }
+
+  /** Stops accepting new tasks and waits for the queued ones to complete. */
+  public void shutdown() {
+    for (ThreadPoolExecutor stripe : this.stripes) {
+      stripe.shutdown();
+    }
+
+    try {
+      for (ThreadPoolExecutor stripe : this.stripes) {
+        if (!stripe.awaitTermination(10, TimeUnit.SECONDS)) {
+          log.warn("type=stripe_shutdown_timeout; pending={}", stripe.getQueue().size());
+          stripe.shutdownNow();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class BlockingSubmitPolicy implements RejectedExecutionHandler {
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Executor has been shut down");
+      }
+
+      try {
+        executor.getQueue().put(task);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted while waiting for the stripe", e);
+      }
+    }
+  }
+}
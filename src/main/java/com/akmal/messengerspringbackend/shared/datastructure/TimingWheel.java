@@ -0,0 +1,98 @@
+package com.akmal.messengerspringbackend.shared.datastructure;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Hashed timing wheel that keeps the items until their deadlines. The wheel consists of a fixed
+ * number of buckets, each covering one tick, an item is placed into the bucket of the tick its
+ * deadline falls into. Deadlines further than one revolution are kept in the same bucket and
+ * skipped until their revolution comes, so scheduling is O(1) and advancing is proportional to the
+ * number of the passed ticks and the items in their buckets. The expiration is accurate to one
+ * tick.
+ *
+ * <p>Items can not be cancelled, the owner is expected to check whether the expired item is still
+ * relevant (e.g. by comparing the deadline with the latest one it holds).
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 22/07/2022 - 19:02
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public class TimingWheel<T> {
+  private final long tickMillis;
+  private final List<List<Entry<T>>> buckets;
+  private long currentTick;
+  private int size;
+
+  public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+    if (tickMillis < 1 || wheelSize < 1) {
+      throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+    }
+    this.tickMillis = tickMillis;
+    this.buckets = new ArrayList<>(wheelSize);
+    this.currentTick = startMillis / tickMillis;
+
+    for (int i = 0; i < wheelSize; i++) {
+      this.buckets.add(new LinkedList<>());
+    }
+  }
+
+  /**
+   * Schedules the item, deadlines in the past expire on the next advance.
+   *
+   * @param item value that is returned once expired.
+   * @param deadlineMillis epoch millis after which the item expires.
+   */
+  public synchronized void schedule(@NotNull T item, long deadlineMillis) {
+    final long tick = Math.max(deadlineMillis / this.tickMillis, this.currentTick + 1);
+    this.buckets.get(this.bucketOf(tick)).add(new Entry<>(item, tick));
+    this.size++;
+  }
+
+  /**
+   * Moves the wheel to the given time and collects the items whose deadlines have passed.
+   *
+   * @param nowMillis current epoch millis.
+   * @return expired items.
+   */
+  public synchronized List<T> advance(long nowMillis) {
+    final long targetTick = nowMillis / this.tickMillis;
+    final var expired = new ArrayList<T>();
+    if (targetTick <= this.currentTick) return expired;
+
+    // once the whole wheel has been visited, the remaining ticks would map to the same buckets
+    final long lastTick = Math.min(targetTick, this.currentTick + this.buckets.size());
+
+    for (long tick = this.currentTick + 1; tick <= lastTick; tick++) {
+      final Iterator<Entry<T>> iterator = this.buckets.get(this.bucketOf(tick)).iterator();
+
+      while (iterator.hasNext()) {
+        final Entry<T> entry = iterator.next();
+
+        if (entry.tick <= targetTick) {
+          expired.add(entry.item);
+          iterator.remove();
+          this.size--;
+        }
+      }
+    }
+
+    this.currentTick = targetTick;
+    return expired;
+  }
+
+  public synchronized int size() {
+    return this.size;
+  }
+
+  private int bucketOf(long tick) {
+    return (int) Math.floorMod(tick, (long) this.buckets.size());
+  }
+
+  private record Entry<T>(T item, long tick) {}
+}
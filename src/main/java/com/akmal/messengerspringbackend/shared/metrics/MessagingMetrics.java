@@ -0,0 +1,91 @@
+package com.akmal.messengerspringbackend.shared.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
+import org.springframework.stereotype.Component;
+
+/**
+ * Meters of the message pipeline. Both timers are measured from the creation of the message id
+ * (snowflake), which happens right when the server receives the message from the author.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 20/07/2022 - 20:25
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+public class MessagingMetrics {
+  private final Timer persistLag;
+  private final Timer deliveryLatency;
+  private final Counter localDeliveries;
+  private final Counter reapedSessions;
+  private final Counter droppedEphemeralFrames;
+  private final Counter droppedOverflowFrames;
+  private final Counter slowSessionDisconnects;
+
+  public MessagingMetrics(MeterRegistry meterRegistry) {
+    this.persistLag =
+        Timer.builder("message.persist.lag")
+            .description("Time between accepting the message and persisting it for all members")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    this.deliveryLatency =
+        Timer.builder("message.delivery.latency")
+            .description("Time between accepting the message and pushing it to the recipient")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    this.localDeliveries =
+        Counter.builder("thread.events.local.delivered")
+            .description("Thread events delivered in-process to the recipients of this instance")
+            .register(meterRegistry);
+    this.reapedSessions =
+        Counter.builder("websocket.sessions.reaped")
+            .description("Sessions removed because the client stopped sending heart-beats")
+            .register(meterRegistry);
+    this.droppedEphemeralFrames = droppedFrames(meterRegistry, "ephemeral");
+    this.droppedOverflowFrames = droppedFrames(meterRegistry, "overflow");
+    this.slowSessionDisconnects =
+        Counter.builder("websocket.sessions.slow.closed")
+            .description("Sessions closed because too many frames were queued for them")
+            .register(meterRegistry);
+  }
+
+  private static Counter droppedFrames(MeterRegistry meterRegistry, String reason) {
+    return Counter.builder("websocket.frames.dropped")
+        .description("Frames not sent to the slow sessions")
+        .tag("reason", reason)
+        .register(meterRegistry);
+  }
+
+  public void recordPersisted(Instant acceptedAt) {
+    this.persistLag.record(Duration.between(acceptedAt, Instant.now()));
+  }
+
+  public void recordDelivered(Instant acceptedAt) {
+    this.deliveryLatency.record(Duration.between(acceptedAt, Instant.now()));
+  }
+
+  public void recordLocalDelivery() {
+    this.localDeliveries.increment();
+  }
+
+  public void recordReapedSession() {
+    this.reapedSessions.increment();
+  }
+
+  public void recordDroppedEphemeralFrame() {
+    this.droppedEphemeralFrames.increment();
+  }
+
+  public void recordDroppedOverflowFrame() {
+    this.droppedOverflowFrames.increment();
+  }
+
+  public void recordSlowSessionDisconnect() {
+    this.slowSessionDisconnects.increment();
+  }
+}
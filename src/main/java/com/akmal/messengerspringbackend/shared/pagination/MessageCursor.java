@@ -0,0 +1,30 @@
+package com.akmal.messengerspringbackend.shared.pagination;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Position in the message history of a thread. The cursor points at the last message that the
+ * client has seen, hence the next page starts strictly before {@link MessageCursor#messageId()} in
+ * the {@link MessageCursor#bucket()}. Driver paging state is optional and is only present if the
+ * last message was read by a plain bucket scan.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 16/07/2022 - 14:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public record MessageCursor(
+    int bucket,
+    long messageId,
+    @Nullable String pagingState
+) {
+
+  public static MessageCursor of(int bucket, long messageId) {
+    return new MessageCursor(bucket, messageId, null);
+  }
+
+  public boolean hasPagingState() {
+    return this.pagingState != null && !this.pagingState.isEmpty();
+  }
+}
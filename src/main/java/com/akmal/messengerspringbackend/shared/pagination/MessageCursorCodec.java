@@ -0,0 +1,200 @@
+package com.akmal.messengerspringbackend.shared.pagination;
+
+import com.akmal.messengerspringbackend.config.pagination.PaginationConfigurationProperties;
+import com.akmal.messengerspringbackend.exception.InvalidCursorException;
+import com.datastax.oss.driver.api.core.cql.PagingState;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Encodes {@link MessageCursor} into an opaque URL safe string and back. The binary layout of the
+ * cursor (version 1) is the following:
+ *
+ * <ul>
+ *   <li><strong>1 byte</strong> version
+ *   <li><strong>1 byte</strong> flags, the lowest bit indicates presence of the paging state
+ *   <li><strong>4 bytes</strong> bucket
+ *   <li><strong>8 bytes</strong> message id (snowflake)
+ *   <li><strong>2 + n bytes</strong> optional driver paging state prefixed with its length
+ *   <li><strong>8 bytes</strong> truncated HMAC-SHA256 of all the bytes above and the context
+ * </ul>
+ *
+ * The context (user and thread id) is not part of the payload, but it is signed, therefore a cursor
+ * issued for one thread cannot be replayed against another one. Without the paging state the cursor
+ * takes 30 characters.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 16/07/2022 - 14:42
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+public class MessageCursorCodec {
+  private static final byte VERSION = 1;
+  private static final int FLAG_PAGING_STATE = 1;
+  private static final int HEADER_LENGTH = 2 + Integer.BYTES + Long.BYTES;
+  private static final int TAG_LENGTH = 8;
+  private static final int MAX_PAGING_STATE_LENGTH = 256;
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+
+  /** Profiles in which a random secret is generated if none is configured. */
+  private static final String[] RANDOM_SECRET_PROFILES = {"dev", "test"};
+
+  private final SecretKeySpec secretKey;
+  private final boolean includePagingState;
+  private final ThreadLocal<Mac> macs;
+
+  public MessageCursorCodec(
+      PaginationConfigurationProperties paginationProps, Environment environment) {
+    this(resolveSecret(paginationProps.getCursor().getSecret(), environment),
+        paginationProps.getCursor().isIncludePagingState());
+  }
+
+  MessageCursorCodec(byte[] secret, boolean includePagingState) {
+    this.secretKey = new SecretKeySpec(secret, MAC_ALGORITHM);
+    this.includePagingState = includePagingState;
+    this.macs = ThreadLocal.withInitial(this::newMac);
+  }
+
+  /**
+   * Serializes the cursor and signs it together with the context.
+   *
+   * @param cursor position in the thread history.
+   * @param context value the cursor is bound to, for example user id + thread id.
+   * @return base64 (URL safe, no padding) representation of the cursor.
+   */
+  public String encode(@NotNull MessageCursor cursor, @NotNull String context) {
+    final byte[] pagingState =
+        this.includePagingState && cursor.hasPagingState()
+            ? PagingState.fromString(cursor.pagingState()).toBytes()
+            : null;
+    final boolean withPagingState =
+        pagingState != null && pagingState.length <= MAX_PAGING_STATE_LENGTH;
+
+    final var buffer =
+        ByteBuffer.allocate(
+            HEADER_LENGTH + (withPagingState ? Short.BYTES + pagingState.length : 0) + TAG_LENGTH);
+
+    buffer.put(VERSION);
+    buffer.put((byte) (withPagingState ? FLAG_PAGING_STATE : 0));
+    buffer.putInt(cursor.bucket());
+    buffer.putLong(cursor.messageId());
+
+    if (withPagingState) {
+      buffer.putShort((short) pagingState.length);
+      buffer.put(pagingState);
+    }
+
+    final byte[] tag = this.sign(buffer.array(), buffer.position(), context);
+    buffer.put(tag, 0, TAG_LENGTH);
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+  }
+
+  /**
+   * Verifies the signature of the cursor and deserializes it.
+   *
+   * @throws InvalidCursorException if the cursor is malformed, of unknown version or was issued
+   *     for another context.
+   * @param cursor value previously produced by {@link MessageCursorCodec#encode(MessageCursor,
+   *     String)}.
+   * @param context value the cursor is bound to.
+   * @return decoded {@link MessageCursor}.
+   */
+  public MessageCursor decode(@NotNull String cursor, @NotNull String context) {
+    final byte[] bytes;
+
+    try {
+      bytes = Base64.getUrlDecoder().decode(cursor);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidCursorException("Cursor is not a valid base64 string", e);
+    }
+
+    if (bytes.length < HEADER_LENGTH + TAG_LENGTH || bytes[0] != VERSION) {
+      throw new InvalidCursorException("Cursor is malformed or has unsupported version");
+    }
+
+    final int payloadLength = bytes.length - TAG_LENGTH;
+    final byte[] expectedTag = this.sign(bytes, payloadLength, context);
+
+    if (!MessageDigest.isEqual(
+        Arrays.copyOf(expectedTag, TAG_LENGTH),
+        Arrays.copyOfRange(bytes, payloadLength, bytes.length))) {
+      throw new InvalidCursorException("Cursor signature does not match");
+    }
+
+    try {
+      final var buffer = ByteBuffer.wrap(bytes, 1, payloadLength - 1);
+      final byte flags = buffer.get();
+      final int bucket = buffer.getInt();
+      final long messageId = buffer.getLong();
+      String pagingState = null;
+
+      if ((flags & FLAG_PAGING_STATE) != 0) {
+        final byte[] rawPagingState = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(rawPagingState);
+        pagingState = PagingState.fromBytes(rawPagingState).toString();
+      }
+
+      return new MessageCursor(bucket, messageId, pagingState);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new InvalidCursorException("Cursor payload is malformed", e);
+    }
+  }
+
+  private byte[] sign(byte[] payload, int length, String context) {
+    final Mac mac = this.macs.get();
+    mac.update(payload, 0, length);
+    return mac.doFinal(context.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Mac newMac() {
+    try {
+      final var mac = Mac.getInstance(MAC_ALGORITHM);
+      mac.init(this.secretKey);
+      return mac;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new IllegalStateException("Could not initialize cursor signing algorithm", e);
+    }
+  }
+
+  /**
+   * @throws IllegalStateException if the secret is not configured outside of the {@link
+   *     MessageCursorCodec#RANDOM_SECRET_PROFILES}.
+   */
+  private static byte[] resolveSecret(String secret, Environment environment) {
+    if (StringUtils.hasText(secret)) return secret.getBytes(StandardCharsets.UTF_8);
+
+    if (!environment.acceptsProfiles(Profiles.of(RANDOM_SECRET_PROFILES))) {
+      throw new IllegalStateException(
+          String.format(
+              "Cursor secret (project.pagination.cursor.secret) must be configured outside of "
+                  + "the %s profiles",
+              Arrays.toString(RANDOM_SECRET_PROFILES)));
+    }
+
+    log.warn(
+        "Cursor secret (project.pagination.cursor.secret) is not configured, generating a random "
+            + "one. Cursors will not be portable between instances and restarts.");
+    final byte[] randomSecret = new byte[32];
+    new SecureRandom().nextBytes(randomSecret);
+    return randomSecret;
+  }
+}
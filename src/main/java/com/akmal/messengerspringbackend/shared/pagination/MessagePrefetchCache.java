@@ -0,0 +1,203 @@
+package com.akmal.messengerspringbackend.shared.pagination;
+
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties;
+import com.akmal.messengerspringbackend.config.pagination.PaginationConfigurationProperties;
+import com.akmal.messengerspringbackend.dto.v1.MessageDTO;
+import com.akmal.messengerspringbackend.dto.v1.ScrollContent;
+import com.akmal.messengerspringbackend.model.MessageByUserByThread;
+import com.akmal.messengerspringbackend.thread.ThreadEventKey;
+import com.akmal.messengerspringbackend.thread.ThreadPageInvalidationEvent;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecord;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Short-lived cache of message pages that the client is likely to request next: the first page of
+ * a thread once the client subscribes to it and the next page after each fetch. Pages are keyed by
+ * the cursor that the client will send, the loading happens on the async executor and concurrent
+ * requests for a page that is still being loaded wait for the same query.
+ *
+ * <p>Only pages read with a cursor are immutable (except read flags). The first page changes with
+ * every new message, therefore it has to be invalidated, see {@link
+ * MessagePrefetchCache#invalidateFirstPage(String, UUID)}. The first page of the user may be cached
+ * by any instance that served its requests, while the thread events are only delivered to the
+ * instances the recipients are connected to (and never to the author), hence the changes of the
+ * first pages are published to every instance, see {@link
+ * MessagePrefetchCache#invalidateFirstPages(UUID, Collection)}.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 18/07/2022 - 19:02
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+public class MessagePrefetchCache {
+  private final PaginationConfigurationProperties paginationProps;
+  private final KafkaConfigurationProperties kafkaProps;
+  private final KafkaTemplate<SpecificRecord, SpecificRecord> threadEventsTemplate;
+  @Nullable private final AsyncCache<PageKey, ScrollContent<MessageDTO>> cache;
+
+  public MessagePrefetchCache(
+      PaginationConfigurationProperties paginationProps,
+      KafkaConfigurationProperties kafkaProps,
+      @Qualifier("kafkaTemplateAvroKeyAvroValue")
+          KafkaTemplate<SpecificRecord, SpecificRecord> threadEventsTemplate,
+      MeterRegistry meterRegistry,
+      @Qualifier("asyncExecutor") TaskExecutor asyncTaskExecutor) {
+    this.paginationProps = paginationProps;
+    this.kafkaProps = kafkaProps;
+    this.threadEventsTemplate = threadEventsTemplate;
+    final var prefetchProps = paginationProps.getPrefetch();
+
+    if (!prefetchProps.isEnabled()) {
+      this.cache = null;
+      return;
+    }
+
+    this.cache =
+        CaffeineCacheMetrics.monitor(
+            meterRegistry,
+            Caffeine.newBuilder()
+                .executor(asyncTaskExecutor)
+                .expireAfterWrite(prefetchProps.getTtl())
+                .maximumWeight(prefetchProps.getMaxWeightBytes())
+                .<PageKey, ScrollContent<MessageDTO>>weigher((key, page) -> weigh(page))
+                .recordStats()
+                .buildAsync(),
+            "message.prefetch");
+  }
+
+  /**
+   * Returns the prefetched page if it is present. If it is still being loaded, waits for the load
+   * to complete instead of issuing the same query again.
+   */
+  public Optional<ScrollContent<MessageDTO>> get(@NotNull PageKey key) {
+    if (this.cache == null) return Optional.empty();
+
+    final CompletableFuture<ScrollContent<MessageDTO>> page = this.cache.getIfPresent(key);
+
+    if (page == null) return Optional.empty();
+
+    try {
+      return Optional.of(page.join());
+    } catch (CompletionException e) {
+      log.debug("type=prefetch; reason=Prefetched page failed to load; key={}", key, e.getCause());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Schedules loading of the page in the background unless it is already cached or being loaded.
+   */
+  public void prefetch(@NotNull PageKey key, @NotNull Supplier<ScrollContent<MessageDTO>> loader) {
+    if (this.cache == null) return;
+
+    this.cache.get(key, (k, executor) -> CompletableFuture.supplyAsync(loader, executor));
+  }
+
+  public boolean isEnabled() {
+    return this.cache != null;
+  }
+
+  public PageKey firstPageKey(@NotNull String uid, @NotNull UUID threadId) {
+    return new PageKey(uid, threadId, null, this.paginationProps.resolvePageLimit(null, null));
+  }
+
+  /**
+   * Drops the first page of the thread, must be called when a new message is stored for the user.
+   * Only the default page limit is prefetched for the first page, therefore, it is the only entry
+   * to invalidate.
+   */
+  public void invalidateFirstPage(@NotNull String uid, @NotNull UUID threadId) {
+    if (this.cache == null) return;
+
+    this.cache.synchronous().invalidate(this.firstPageKey(uid, threadId));
+  }
+
+  /**
+   * Drops the first pages of the thread of the users on this and on every other instance, must be
+   * called when the first pages change (a new message, a message marked as read). The event is
+   * routed through the ephemeral topic, since the instances that start later have nothing to drop,
+   * but it is published with the acknowledged and retried producer of the thread events, as a lost
+   * one leaves the page stale until it expires. A failed publishing is only logged, it must not
+   * fail the request that changed the page.
+   *
+   * @param threadId thread whose first pages changed.
+   * @param uids users whose first pages changed.
+   */
+  public void invalidateFirstPages(@NotNull UUID threadId, @NotNull Collection<String> uids) {
+    if (this.cache == null || uids.isEmpty()) return;
+
+    for (String uid : uids) {
+      this.invalidateFirstPage(uid, threadId);
+    }
+
+    final var key = ThreadEventKey.newBuilder().setThreadId(threadId.toString()).setUid("").build();
+    final var invalidationEvent =
+        ThreadPageInvalidationEvent.newBuilder()
+            .setThreadId(threadId.toString())
+            .setUids(List.copyOf(uids))
+            .build();
+
+    try {
+      this.threadEventsTemplate
+          .send(this.kafkaProps.getTopics().getThreadEphemeralEvents(), key, invalidationEvent)
+          .addCallback(
+              result -> {},
+              e -> log.warn("type=prefetch_invalidation_failed; threadId={}", threadId, e));
+    } catch (RuntimeException e) {
+      log.warn("type=prefetch_invalidation_failed; threadId={}", threadId, e);
+    }
+  }
+
+  /** Drops the first pages that were invalidated by another instance. */
+  public void onInvalidation(@NotNull ThreadPageInvalidationEvent invalidationEvent) {
+    final var threadId = UUID.fromString(invalidationEvent.getThreadId());
+
+    for (String uid : invalidationEvent.getUids()) {
+      this.invalidateFirstPage(uid, threadId);
+    }
+  }
+
+  private static int weigh(ScrollContent<MessageDTO> page) {
+    long bytes = 0;
+
+    for (MessageDTO message : page.content()) {
+      bytes +=
+          MessageByUserByThread.SERIALIZED_OVERHEAD_BYTES
+              + (message.body() != null ? message.body().length() : 0);
+    }
+
+    return (int) Math.min(bytes, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param cursor cursor of the page as issued to the client, null for the first page.
+   */
+  public record PageKey(
+      String uid,
+      UUID threadId,
+      @Nullable String cursor,
+      PageLimit limit
+  ) {
+
+  }
+}
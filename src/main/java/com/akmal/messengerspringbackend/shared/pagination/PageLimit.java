@@ -0,0 +1,44 @@
+package com.akmal.messengerspringbackend.shared.pagination;
+
+/**
+ * Bounds of a single page of messages. A page is complete once it holds {@link PageLimit#size()}
+ * messages or, if the byte budget is set, once the estimated size of its messages reaches {@link
+ * PageLimit#maxBytes()}, whichever comes first. The last message is always included even if it
+ * overflows the budget, so that a page is never empty because of a single large message.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 17/07/2022 - 15:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public record PageLimit(
+    int size,
+    long maxBytes // 0 means that the page is bounded only by its size
+) {
+
+  public static PageLimit ofSize(int size) {
+    return new PageLimit(size, 0);
+  }
+
+  public boolean hasByteBudget() {
+    return this.maxBytes > 0;
+  }
+
+  public boolean isReachedBy(int rows, long bytes) {
+    return rows >= this.size || (this.hasByteBudget() && bytes >= this.maxBytes);
+  }
+
+  /**
+   * Produces the limit for the remainder of the page, used when the page is aggregated from
+   * multiple queries.
+   *
+   * @param rows number of messages that are already in the page.
+   * @param bytes estimated size of the messages that are already in the page.
+   * @return limit that is left, must only be used if the current one is not reached yet.
+   */
+  public PageLimit remainingAfter(int rows, long bytes) {
+    return new PageLimit(
+        this.size - rows, this.hasByteBudget() ? Math.max(this.maxBytes - bytes, 1) : 0);
+  }
+}
@@ -0,0 +1,100 @@
+package com.akmal.messengerspringbackend.shared.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Objects;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+/**
+ * {@link JwtDecoder} that remembers the tokens verified by its delegate, so a client that presents
+ * the same token again (every REST request, every reconnect of the websocket) skips the signature
+ * verification. The tokens are kept by their SHA-256 hash until their expiration time, capped by
+ * the maximum TTL, the tokens without the expiration time and the rejected tokens are not cached.
+ *
+ * <p>A cached token stays valid until its expiration, the same way it would be accepted by the
+ * delegate, since the verification does not depend on anything but the token and the keys.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 19:25
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public class CachingJwtDecoder implements JwtDecoder, MeterBinder {
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final JwtDecoder delegate;
+  private final Cache<String, Jwt> verifiedTokens;
+
+  public CachingJwtDecoder(
+      @NotNull JwtDecoder delegate, long maximumSize, @NotNull Duration maxTtl) {
+    this.delegate = Objects.requireNonNull(delegate, "JwtDecoder was null");
+    this.verifiedTokens =
+        Caffeine.newBuilder()
+            .expireAfter(new UntilExpiration(maxTtl))
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build();
+  }
+
+  @Override
+  public Jwt decode(String token) throws JwtException {
+    final String key = hash(token);
+    final Jwt cached = this.verifiedTokens.getIfPresent(key);
+    if (cached != null) return cached;
+
+    final Jwt jwt = this.delegate.decode(token);
+    final Instant expiresAt = jwt.getExpiresAt();
+    if (expiresAt != null && expiresAt.isAfter(Instant.now())) this.verifiedTokens.put(key, jwt);
+    return jwt;
+  }
+
+  @Override
+  public void bindTo(@NotNull MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, this.verifiedTokens, "jwt.verified.tokens");
+  }
+
+  private static String hash(String token) {
+    try {
+      final var digest = MessageDigest.getInstance("SHA-256");
+      return HEX.formatHex(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported by the JVM", e);
+    }
+  }
+
+  /** Expires the token at its expiration time or after the maximum TTL, whichever comes first. */
+  private record UntilExpiration(Duration maxTtl) implements Expiry<String, Jwt> {
+
+    @Override
+    public long expireAfterCreate(@NotNull String key, @NotNull Jwt jwt, long currentTime) {
+      final Duration untilExpiration = Duration.between(Instant.now(), jwt.getExpiresAt());
+      return Math.max(0, Math.min(untilExpiration.toNanos(), this.maxTtl.toNanos()));
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        @NotNull String key, @NotNull Jwt jwt, long currentTime, long currentDuration) {
+      return this.expireAfterCreate(key, jwt, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        @NotNull String key, @NotNull Jwt jwt, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
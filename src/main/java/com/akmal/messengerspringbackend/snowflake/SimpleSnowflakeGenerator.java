@@ -180,6 +180,11 @@ public class SimpleSnowflakeGenerator implements SnowflakeGenerator {
     return Instant.ofEpochMilli(this.customEpoch).plusMillis(this.toTimestampMilli(id));
   }
 
+  @Override
+  public long lowestIdAt(Instant instant) {
+    return Math.max(instant.toEpochMilli() - this.customEpoch, 0) << SHIFT_BY_FOR_TIMESTAMP;
+  }
+
   @Override
   public long epochMilli() {
     return this.customEpoch;
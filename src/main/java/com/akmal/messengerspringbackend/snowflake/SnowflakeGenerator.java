@@ -31,4 +31,13 @@ public interface SnowflakeGenerator {
    * @return number of milliseconds from {@link java.time.Instant#EPOCH}
    */
   Instant toInstant(long id);
+
+  /**
+   * Produces the smallest id that could have been generated at the given instant. Since ids are
+   * time sortable, it can be used as a bound for range queries over time.
+   *
+   * @param instant point in time, instants before the custom epoch are clamped to it.
+   * @return id with the timestamp of the instant and all the other bits set to 0.
+   */
+  long lowestIdAt(Instant instant);
 }
@@ -0,0 +1,114 @@
+package com.akmal.messengerspringbackend.websocket;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.shared.datastructure.TimingWheel;
+import com.akmal.messengerspringbackend.shared.metrics.MessagingMetrics;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Removes the sessions whose clients went silent, i.e. the sockets that died without being closed
+ * (lost network of a phone, a crashed proxy), which would otherwise stay in the registry until the
+ * transport notices. A session is idle once the client has missed {@link
+ * MessagingConfigurationProperties.SessionsConfig#getMissedHeartbeats()} heart-beats, only the
+ * sessions that negotiated the client heart-beats are tracked.
+ *
+ * <p>The sessions are kept in a {@link TimingWheel} by their idle deadline. Since the wheel can not
+ * cancel its items, an expired session that has been heard from in the meantime is scheduled again
+ * and the one already removed by its close event is dropped.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 21:40
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+public class IdleSessionReaper {
+  private final WebsocketSessionStorage sessionStorage;
+  private final MessagingMetrics messagingMetrics;
+  private final TimingWheel<WebsocketSession> timingWheel;
+  private final long serverHeartbeatMillis;
+  private final int missedHeartbeats;
+  private final ConcurrentLinkedQueue<Consumer<WebsocketSession>> idleCallbacks =
+      new ConcurrentLinkedQueue<>();
+
+  public IdleSessionReaper(
+      WebsocketSessionStorage sessionStorage,
+      MessagingMetrics messagingMetrics,
+      MessagingConfigurationProperties messagingProps) {
+    final var sessionsProps = messagingProps.getSessions();
+    this.sessionStorage = sessionStorage;
+    this.messagingMetrics = messagingMetrics;
+    this.serverHeartbeatMillis = sessionsProps.getHeartbeatInterval().toMillis();
+    this.missedHeartbeats = sessionsProps.getMissedHeartbeats();
+    this.timingWheel =
+        new TimingWheel<>(
+            sessionsProps.getReaperTick().toMillis(),
+            sessionsProps.getWheelSize(),
+            System.currentTimeMillis());
+  }
+
+  /**
+   * Registers the callback that is invoked with the idle session, it is expected to remove the
+   * session the same way as on its disconnect.
+   */
+  public void onIdle(@NotNull Consumer<WebsocketSession> callback) {
+    this.idleCallbacks.add(callback);
+  }
+
+  public void track(@NotNull WebsocketSession session) {
+    if (session.heartbeatMillis() <= 0) return;
+
+    this.timingWheel.schedule(session, this.deadlineOf(session));
+  }
+
+  @Scheduled(
+      fixedDelayString = "#{@messagingConfigurationProperties.sessions.reaperTick.toMillis()}")
+  public void reapIdleSessions() {
+    final long now = System.currentTimeMillis();
+
+    for (WebsocketSession session : this.timingWheel.advance(now)) {
+      final boolean registered =
+          this.sessionStorage
+              .getSession(session.uid(), session.id())
+              .filter(current -> current == session)
+              .isPresent();
+      if (!registered) continue;
+
+      final long deadline = this.deadlineOf(session);
+      if (deadline > now) {
+        this.timingWheel.schedule(session, deadline);
+        continue;
+      }
+
+      log.info(
+          "type=session_idle; uid={}; session_id={}; last_active_millis={}",
+          session.uid(),
+          session.id(),
+          session.lastActiveMillis());
+      this.messagingMetrics.recordReapedSession();
+
+      for (Consumer<WebsocketSession> callback : this.idleCallbacks) {
+        callback.accept(session);
+      }
+    }
+  }
+
+  public int trackedSessions() {
+    return this.timingWheel.size();
+  }
+
+  /** The broker expects the client heart-beats at the slower of the two intervals. */
+  private long deadlineOf(WebsocketSession session) {
+    final long interval = Math.max(session.heartbeatMillis(), this.serverHeartbeatMillis);
+    return session.lastActiveMillis() + interval * this.missedHeartbeats;
+  }
+}
@@ -0,0 +1,167 @@
+package com.akmal.messengerspringbackend.websocket;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.shared.metrics.MessagingMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+
+/**
+ * Flow control of the client outbound channel. The frames of every session that are queued on the
+ * channel and not yet written to its socket are counted, once a session has {@link
+ * MessagingConfigurationProperties.OutboundConfig#getEphemeralFrameLimit()} of them it is
+ * considered slow and its ephemeral frames (typing, presence) are dropped, since the next state
+ * replaces them anyway. A session that reaches {@link
+ * MessagingConfigurationProperties.OutboundConfig#getPendingFrameLimit()} is closed and the rest of
+ * its frames are dropped, the client is expected to reconnect and catch up through the REST API.
+ *
+ * <p>The frames already buffered by the socket of the session are limited by the transport (see
+ * {@link MessagingConfigurationProperties.OutboundConfig#getSendBufferSizeLimit()}), here the
+ * frames are stopped before they occupy the threads of the channel.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 18:45
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+public class OutboundFlowControlInterceptor implements ExecutorChannelInterceptor, MeterBinder {
+  private static final Set<String> EPHEMERAL_DESTINATIONS =
+      Set.of(WebSocketConfiguration.TYPING_TOPIC, WebSocketConfiguration.USER_PRESENCE_TOPIC);
+
+  private final WebSocketSessionCloser sessionCloser;
+  private final MessagingMetrics messagingMetrics;
+  private final int ephemeralFrameLimit;
+  private final int pendingFrameLimit;
+  /** Session id → frames queued on the channel, sessions without queued frames are removed. */
+  private final Map<String, AtomicInteger> pendingFrames = new ConcurrentHashMap<>();
+
+  public OutboundFlowControlInterceptor(
+      WebSocketSessionCloser sessionCloser,
+      MessagingMetrics messagingMetrics,
+      MessagingConfigurationProperties messagingProps) {
+    final var outboundProps = messagingProps.getOutbound();
+    this.sessionCloser = sessionCloser;
+    this.messagingMetrics = messagingMetrics;
+    this.ephemeralFrameLimit = outboundProps.getEphemeralFrameLimit();
+    this.pendingFrameLimit = outboundProps.getPendingFrameLimit();
+  }
+
+  @Override
+  public Message<?> preSend(@NotNull Message<?> message, @NotNull MessageChannel channel) {
+    final MessageHeaders headers = message.getHeaders();
+    final String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+    if (sessionId == null) return message;
+
+    if (SimpMessageType.MESSAGE.equals(SimpMessageHeaderAccessor.getMessageType(headers))) {
+      final int pending = this.pendingOf(sessionId);
+
+      if (pending >= this.pendingFrameLimit) {
+        this.messagingMetrics.recordDroppedOverflowFrame();
+        this.closeSlowSession(sessionId, pending);
+        return null;
+      }
+
+      if (pending >= this.ephemeralFrameLimit && isEphemeral(headers)) {
+        this.messagingMetrics.recordDroppedEphemeralFrame();
+        return null;
+      }
+    }
+
+    this.pendingFrames.compute(
+        sessionId,
+        (id, counter) -> {
+          if (counter == null) return new AtomicInteger(1);
+          counter.incrementAndGet();
+          return counter;
+        });
+    return message;
+  }
+
+  @Override
+  public void afterSendCompletion(
+      @NotNull Message<?> message,
+      @NotNull MessageChannel channel,
+      boolean sent,
+      @Nullable Exception ex) {
+    // the frame was counted but not handed over to the executor
+    if (!sent && ex != null) this.release(message);
+  }
+
+  @Override
+  public void afterMessageHandled(
+      @NotNull Message<?> message,
+      @NotNull MessageChannel channel,
+      @NotNull MessageHandler handler,
+      @Nullable Exception ex) {
+    this.release(message);
+  }
+
+  /** @return number of the sessions whose ephemeral frames are being dropped. */
+  public int slowSessions() {
+    int slowSessions = 0;
+    for (AtomicInteger pending : this.pendingFrames.values()) {
+      if (pending.get() >= this.ephemeralFrameLimit) slowSessions++;
+    }
+    return slowSessions;
+  }
+
+  @Override
+  public void bindTo(@NotNull MeterRegistry registry) {
+    Gauge.builder("websocket.sessions.slow", this, OutboundFlowControlInterceptor::slowSessions)
+        .description("Sessions with enough queued frames to have the ephemeral ones dropped")
+        .register(registry);
+  }
+
+  private int pendingOf(String sessionId) {
+    final AtomicInteger pending = this.pendingFrames.get(sessionId);
+    return pending == null ? 0 : pending.get();
+  }
+
+  private void release(Message<?> message) {
+    final String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+    if (sessionId == null) return;
+
+    this.pendingFrames.computeIfPresent(
+        sessionId, (id, counter) -> counter.decrementAndGet() <= 0 ? null : counter);
+  }
+
+  private void closeSlowSession(String sessionId, int pending) {
+    if (!this.sessionCloser.close(sessionId, CloseStatus.SESSION_NOT_RELIABLE)) return;
+
+    log.warn("type=slow_session_closed; session_id={}; pending_frames={}", sessionId, pending);
+    this.messagingMetrics.recordSlowSessionDisconnect();
+  }
+
+  /**
+   * The user destinations are resolved before the frame reaches the channel, the destination the
+   * client subscribed to is kept in the original destination native header (set by the user
+   * destination handler and by {@code OutboundFrameDispatcher}).
+   */
+  private static boolean isEphemeral(MessageHeaders headers) {
+    final String destination =
+        NativeMessageHeaderAccessor.getFirstNativeHeader(
+            SimpMessageHeaderAccessor.ORIGINAL_DESTINATION, headers);
+    return destination != null && EPHEMERAL_DESTINATIONS.contains(destination);
+  }
+}
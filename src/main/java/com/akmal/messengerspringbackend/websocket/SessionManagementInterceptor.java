@@ -1,13 +1,13 @@
 package com.akmal.messengerspringbackend.websocket;
 
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.websocket.delivery.FrameEncoding;
 import com.akmal.messengerspringbackend.websocket.storage.TopicSubscription;
 import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
 import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.time.Instant;
-import java.util.HashSet;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
@@ -29,11 +29,13 @@ public class SessionManagementInterceptor implements ChannelInterceptor {
   private final WebsocketSessionStorage sessionStorage;
   private final ConcurrentLinkedQueue<Consumer<WebsocketSession>> postConnectCallbacks;
   private final ConcurrentLinkedQueue<Consumer<WebsocketSession>> postDisconnectCallbacks;
+  private final ConcurrentLinkedQueue<BiConsumer<String, TopicSubscription>> postSubscribeCallbacks;
 
   private SessionManagementInterceptor(WebsocketSessionStorage sessionStorage) {
     this.sessionStorage = sessionStorage;
     this.postConnectCallbacks = new ConcurrentLinkedQueue<>();
     this.postDisconnectCallbacks = new ConcurrentLinkedQueue<>();
+    this.postSubscribeCallbacks = new ConcurrentLinkedQueue<>();
   }
 
   public static SessionManagementInterceptor withStore(@NotNull WebsocketSessionStorage sessionStorage) {
@@ -48,29 +50,76 @@ public class SessionManagementInterceptor implements ChannelInterceptor {
     this.postDisconnectCallbacks.add(callback);
   }
 
+  /**
+   * Registers the callback that is invoked with the user id and the subscription once the user
+   * subscribes to a destination. Callbacks run on the inbound channel thread and must not block.
+   */
+  public void registerPostSubscribeCallback(
+      @NotNull BiConsumer<String, TopicSubscription> callback) {
+    this.postSubscribeCallbacks.add(callback);
+  }
+
   @Override
   public Message<?> preSend(@NotNull Message<?> message, @NotNull MessageChannel channel) {
     final var headerAccessor = StompHeaderAccessor.wrap(message);
     final var stompCommand = headerAccessor.getCommand();
-    if (stompCommand != null) {
-
-      switch (stompCommand) {
-        case CONNECT -> this.handleConnect(headerAccessor);
-        case DISCONNECT -> this.handleDisconnect(headerAccessor);
-        case SUBSCRIBE -> this.handleSubscribe(headerAccessor);
-        case UNSUBSCRIBE -> this.handleUnsubscribe(headerAccessor);
-        default -> {}
+    if (stompCommand == null) {
+      // heart-beats carry no command, they only keep the session alive
+      this.touch(headerAccessor);
+      return message;
+    }
+
+    switch (stompCommand) {
+      case CONNECT -> this.handleConnect(headerAccessor);
+      case DISCONNECT -> this.handleDisconnect(headerAccessor);
+      case SUBSCRIBE -> {
+        this.touch(headerAccessor);
+        this.handleSubscribe(headerAccessor);
       }
+      case UNSUBSCRIBE -> {
+        this.touch(headerAccessor);
+        this.handleUnsubscribe(headerAccessor);
+      }
+      default -> this.touch(headerAccessor);
     }
 
     return message;
   }
+
+  /**
+   * Removes the session and notifies the disconnect callbacks, unless the session has already
+   * been removed. Used for the sessions that end without the DISCONNECT frame passing through the
+   * inbound channel, i.e. closed sockets and idle sessions.
+   *
+   * @return whether the session was removed by this call.
+   */
+  public boolean disconnect(@NotNull String uid, @NotNull String sessionId) {
+    final var session = this.sessionStorage.remove(uid, sessionId);
+    if (session.isEmpty()) return false;
+
+    for (Consumer<WebsocketSession> callback: this.postDisconnectCallbacks) {
+      callback.accept(session.get());
+    }
+    return true;
+  }
+
+  private void touch(StompHeaderAccessor headerAccessor) {
+    final var principal = headerAccessor.getUser();
+    if (principal == null || headerAccessor.getSessionId() == null) return;
+
+    final long now = System.currentTimeMillis();
+    this.sessionStorage
+        .getSession(principal.getName(), headerAccessor.getSessionId())
+        .ifPresent(session -> session.touch(now));
+  }
+
   private void handleUnsubscribe(StompHeaderAccessor headerAccessor) {
     final var principal = headerAccessor.getUser();
-    if (principal == null) return;
-    final var topicName = headerAccessor.getDestination();
+    if (principal == null || headerAccessor.getSubscriptionId() == null) return;
 
-    this.sessionStorage.unsubscribe(principal.getName(), topicName);
+    // UNSUBSCRIBE frame carries only the id of the subscription, not its destination
+    this.sessionStorage.unsubscribe(
+        principal.getName(), headerAccessor.getSessionId(), headerAccessor.getSubscriptionId());
   }
 
   private void handleSubscribe(StompHeaderAccessor headerAccessor) {
@@ -83,9 +132,15 @@ public class SessionManagementInterceptor implements ChannelInterceptor {
                         .id(subscriptionId)
                         .joinedAt(Instant.now())
                         .topic(topicName)
+                        .encoding(FrameEncoding.negotiate(headerAccessor.getFirstNativeHeader(
+                            WebSocketConfiguration.ACCEPT_HEADER)))
                         .build();
 
-    this.sessionStorage.addSubscription(principal.getName(), sub);
+    this.sessionStorage.addSubscription(principal.getName(), headerAccessor.getSessionId(), sub);
+
+    for (BiConsumer<String, TopicSubscription> callback: this.postSubscribeCallbacks) {
+      callback.accept(principal.getName(), sub);
+    }
   }
 
   private void handleConnect(StompHeaderAccessor headerAccessor) {
@@ -93,22 +148,19 @@ public class SessionManagementInterceptor implements ChannelInterceptor {
     final var principal = headerAccessor.getUser();
     if (principal == null) return;
 
-    InetAddress remoteAddress = null;
-
-    if (headerAccessor.getSessionAttributes() != null &&
-            headerAccessor.getSessionAttributes().containsKey("remote_address")) {
-      final var socketAddress = (InetSocketAddress) headerAccessor.getSessionAttributes().get("remote_address");
-      remoteAddress = socketAddress.getAddress();
-    }
-
+    // heart-beat header of CONNECT is "cx,cy", cx being the interval the client sends them at
+    final long[] heartbeat = headerAccessor.getHeartbeat();
 
     final var session =
         WebsocketSession.builder()
-            .joinedAt(Instant.now())
-            .remoteAddress(remoteAddress)
-            .subscriptions(new HashSet<>())
+            .joinedAtMillis(System.currentTimeMillis())
             .id(sessionId)
             .uid(principal.getName())
+            .heartbeatMillis((int) Math.min(heartbeat[0], Integer.MAX_VALUE))
+            .coalescedFrames(
+                Boolean.parseBoolean(
+                    headerAccessor.getFirstNativeHeader(
+                        WebSocketConfiguration.COALESCED_FRAMES_HEADER)))
             .build();
 
     this.sessionStorage.add(session);
@@ -120,12 +172,8 @@ public class SessionManagementInterceptor implements ChannelInterceptor {
 
   private void handleDisconnect(StompHeaderAccessor headerAccessor) {
     final var principal = headerAccessor.getUser();
+    if (principal == null) return;
 
-    final var session = this.sessionStorage.get(principal.getName());
-    this.sessionStorage.remove(principal.getName());
-
-    for (Consumer<WebsocketSession> callback: this.postDisconnectCallbacks) {
-      callback.accept(session.get());
-    }
+    this.disconnect(principal.getName(), headerAccessor.getSessionId());
   }
 }
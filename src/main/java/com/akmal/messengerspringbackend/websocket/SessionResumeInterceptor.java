@@ -0,0 +1,50 @@
+package com.akmal.messengerspringbackend.websocket;
+
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.websocket.delivery.ReplayBuffer;
+import com.akmal.messengerspringbackend.websocket.delivery.ReplaySequence;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+
+/**
+ * Picks up the last sequence the client has seen ({@link
+ * WebSocketConfiguration#LAST_SEQUENCE_HEADER}) from its CONNECT frame. The missed frames are sent
+ * once the client subscribes to the resume destination, i.e. after it has restored its other
+ * subscriptions, see {@link ReplayBuffer}.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 20:35
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public class SessionResumeInterceptor implements ChannelInterceptor {
+  private final ReplayBuffer replayBuffer;
+
+  private SessionResumeInterceptor(ReplayBuffer replayBuffer) {
+    this.replayBuffer = replayBuffer;
+  }
+
+  public static SessionResumeInterceptor withBuffer(@NotNull ReplayBuffer replayBuffer) {
+    return new SessionResumeInterceptor(replayBuffer);
+  }
+
+  @Override
+  public Message<?> preSend(@NotNull Message<?> message, @NotNull MessageChannel channel) {
+    final var headerAccessor = StompHeaderAccessor.wrap(message);
+    if (!StompCommand.CONNECT.equals(headerAccessor.getCommand())
+        || headerAccessor.getSessionId() == null) {
+      return message;
+    }
+
+    ReplaySequence.parse(
+            headerAccessor.getFirstNativeHeader(WebSocketConfiguration.LAST_SEQUENCE_HEADER))
+        .ifPresent(
+            lastSeen -> this.replayBuffer.requestResume(headerAccessor.getSessionId(), lastSeen));
+    return message;
+  }
+}
@@ -0,0 +1,86 @@
+package com.akmal.messengerspringbackend.websocket;
+
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.exception.AuthorizationException;
+import com.akmal.messengerspringbackend.service.ThreadMembersCache;
+import com.akmal.messengerspringbackend.service.ThreadMembersCache.ThreadMembers;
+import com.akmal.messengerspringbackend.websocket.delivery.ThreadBroadcastDelivery;
+import java.util.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+
+/**
+ * Guards the subscriptions to the thread broadcast destinations ({@link
+ * WebSocketConfiguration#THREAD_BROADCAST_TOPIC}), unlike the user destinations they are shared by
+ * all the subscribers. Only the members of an existing group thread may subscribe, and only while
+ * the broadcasts are enabled. Any other destination under '/topic', including the patterns that
+ * could match the broadcast destinations, is rejected. The rejected SUBSCRIBE frame is answered
+ * with the ERROR frame by the broker.
+ *
+ * <p>Must precede {@link SessionManagementInterceptor}, so the rejected subscriptions are not
+ * registered with the session.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 17:50
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Slf4j
+public class ThreadBroadcastAuthorizationInterceptor implements ChannelInterceptor {
+  private final ThreadMembersCache threadMembersCache;
+  private final boolean enabled;
+
+  private ThreadBroadcastAuthorizationInterceptor(
+      ThreadMembersCache threadMembersCache, boolean enabled) {
+    this.threadMembersCache = threadMembersCache;
+    this.enabled = enabled;
+  }
+
+  public static ThreadBroadcastAuthorizationInterceptor withMembers(
+      @NotNull ThreadMembersCache threadMembersCache, boolean enabled) {
+    return new ThreadBroadcastAuthorizationInterceptor(threadMembersCache, enabled);
+  }
+
+  @Override
+  public Message<?> preSend(@NotNull Message<?> message, @NotNull MessageChannel channel) {
+    final var headerAccessor = StompHeaderAccessor.wrap(message);
+    if (!StompCommand.SUBSCRIBE.equals(headerAccessor.getCommand())) return message;
+
+    final String destination = headerAccessor.getDestination();
+    if (!ThreadBroadcastDelivery.isBroadcastDestination(destination)) return message;
+
+    final var principal = headerAccessor.getUser();
+    final UUID threadId =
+        ThreadBroadcastDelivery.parseThreadId(destination)
+            .orElseThrow(
+                () ->
+                    new AuthorizationException(
+                        "Not a thread broadcast destination " + destination));
+
+    if (!this.enabled || principal == null) {
+      throw new AuthorizationException("Thread broadcasts are not available");
+    }
+
+    final boolean allowed =
+        this.threadMembersCache
+            .get(threadId)
+            .filter(ThreadMembers::groupThread)
+            .map(members -> members.isMember(principal.getName()))
+            .orElse(false);
+
+    if (!allowed) {
+      log.info(
+          "type=subscription_rejected; uid={}; destination={}", principal.getName(), destination);
+      throw new AuthorizationException(
+          String.format("User is not a member of the group thread %s", threadId));
+    }
+
+    return message;
+  }
+}
@@ -0,0 +1,206 @@
+package com.akmal.messengerspringbackend.websocket;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.service.UserPresenceService;
+import com.akmal.messengerspringbackend.shared.concurrent.KeyOrderedExecutor;
+import com.akmal.messengerspringbackend.websocket.storage.SessionLocationRegistry;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tracks the users that are online from the lifecycle of their websocket sessions. The session
+ * whose client stopped sending STOMP heart-beats is removed by {@link IdleSessionReaper}, so the
+ * clients do not send heartbeat frames of their own. The contacts of the user are notified only on
+ * the transitions: when the first session of the user connects and once the user has had no
+ * session for {@link MessagingConfigurationProperties.PresenceConfig#getOfflineGrace()}.
+ *
+ * <p>The last seen time is kept in memory and written at most once per {@link
+ * MessagingConfigurationProperties.PresenceConfig#getLastSeenFlushInterval()} per user: the time
+ * any session of the online user was last heard from, or the time of the last session of the user
+ * that went offline.
+ *
+ * <p>The transitions are decided under the lock of the presence entry of the user and published
+ * by the {@link KeyOrderedExecutor} keyed by the user, so the contacts see them in order even when
+ * the user reconnects while the sweep takes it offline.
+ *
+ * <p>The presence is tracked per instance, the user that still has sessions on another instance
+ * (known only with the routing enabled) does not go offline.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 21:50
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+public class UserPresenceTracker implements MeterBinder {
+  private final WebsocketSessionStorage sessionStorage;
+  private final SessionLocationRegistry sessionLocationRegistry;
+  private final UserPresenceService userPresenceService;
+  private final KeyOrderedExecutor presenceEventsExecutor;
+  private final long offlineGraceMillis;
+  private final Map<String, Presence> presences = new ConcurrentHashMap<>();
+  /** User id → last seen millis that are yet to be written. */
+  private final Map<String, Long> pendingLastSeen = new ConcurrentHashMap<>();
+
+  public UserPresenceTracker(
+      WebsocketSessionStorage sessionStorage,
+      SessionLocationRegistry sessionLocationRegistry,
+      UserPresenceService userPresenceService,
+      @Qualifier("presenceEventsExecutor") KeyOrderedExecutor presenceEventsExecutor,
+      MessagingConfigurationProperties messagingProps) {
+    this.sessionStorage = sessionStorage;
+    this.sessionLocationRegistry = sessionLocationRegistry;
+    this.userPresenceService = userPresenceService;
+    this.presenceEventsExecutor = presenceEventsExecutor;
+    this.offlineGraceMillis = messagingProps.getPresence().getOfflineGrace().toMillis();
+  }
+
+  /** Publishes the online transition if it is the first session of the user. */
+  public void onConnected(@NotNull WebsocketSession session) {
+    final long now = System.currentTimeMillis();
+
+    this.presences.compute(
+        session.uid(),
+        (uid, presence) -> {
+          if (presence != null) {
+            presence.offlineSinceMillis = -1;
+            return presence;
+          }
+
+          this.publish(uid, true, now);
+          return new Presence(now);
+        });
+  }
+
+  /** Starts the offline grace of the user once its last session is closed. */
+  public void onDisconnected(@NotNull WebsocketSession session) {
+    final long now = System.currentTimeMillis();
+
+    this.presences.computeIfPresent(
+        session.uid(),
+        (uid, presence) -> {
+          presence.lastSeenMillis = Math.max(presence.lastSeenMillis, session.lastActiveMillis());
+          if (!this.sessionStorage.isUserConnected(uid)) presence.offlineSinceMillis = now;
+          return presence;
+        });
+  }
+
+  /** Publishes the offline transitions of the users whose grace has passed. */
+  @Scheduled(
+      fixedDelayString = "#{@messagingConfigurationProperties.presence.sweepInterval.toMillis()}")
+  public void sweep() {
+    final long expiredBefore = System.currentTimeMillis() - this.offlineGraceMillis;
+
+    // under the lock of the entry, so a user that reconnects meanwhile stays online or, once the
+    // entry is removed, goes online again after the offline transition is published
+    for (String uid : this.presences.keySet()) {
+      this.presences.computeIfPresent(
+          uid,
+          (id, presence) -> {
+            final long offlineSince = presence.offlineSinceMillis;
+            if (offlineSince < 0 || offlineSince > expiredBefore) return presence;
+
+            if (this.sessionStorage.isUserConnected(id)) {
+              presence.offlineSinceMillis = -1;
+              return presence;
+            }
+
+            this.pendingLastSeen.merge(id, presence.lastSeenMillis, Math::max);
+            this.publish(id, false, presence.lastSeenMillis);
+            return null;
+          });
+    }
+  }
+
+  /** Writes the last seen time of the online users and of those that went offline since. */
+  @Scheduled(
+      initialDelayString =
+          "#{@messagingConfigurationProperties.presence.lastSeenFlushInterval.toMillis()}",
+      fixedDelayString =
+          "#{@messagingConfigurationProperties.presence.lastSeenFlushInterval.toMillis()}")
+  public void flushLastSeen() {
+    for (Map.Entry<String, Presence> entry : this.presences.entrySet()) {
+      final Presence presence = entry.getValue();
+      if (presence.offlineSinceMillis >= 0) continue;
+
+      long lastSeen = presence.lastSeenMillis;
+      for (WebsocketSession session : this.sessionStorage.getSessions(entry.getKey())) {
+        lastSeen = Math.max(lastSeen, session.lastActiveMillis());
+      }
+
+      // silent sessions (without heart-beats) do not rewrite the same time
+      if (lastSeen > presence.writtenLastSeenMillis) {
+        presence.writtenLastSeenMillis = lastSeen;
+        this.pendingLastSeen.merge(entry.getKey(), lastSeen, Math::max);
+      }
+    }
+
+    for (String uid : this.pendingLastSeen.keySet()) {
+      final Long lastSeen = this.pendingLastSeen.remove(uid);
+      if (lastSeen == null) continue;
+
+      try {
+        this.userPresenceService.updateLastSeenAt(uid, Instant.ofEpochMilli(lastSeen));
+      } catch (RuntimeException e) {
+        log.warn("type=last_seen_write_failed; uid={}", uid, e);
+      }
+    }
+  }
+
+  @PreDestroy
+  public void flushOnShutdown() {
+    this.flushLastSeen();
+  }
+
+  @Override
+  public void bindTo(@NotNull MeterRegistry registry) {
+    Gauge.builder("users.online", this.presences, Map::size)
+        .description("Users with a websocket session on this instance or within the grace")
+        .register(registry);
+  }
+
+  /**
+   * Must be called under the lock of the presence entry of the user, so the transitions of the
+   * user are queued in the order they were decided in. The user that is still connected to another
+   * instance is not offline, while a duplicate online transition is harmless to the contacts.
+   */
+  private void publish(String uid, boolean online, long atMillis) {
+    this.presenceEventsExecutor.execute(
+        uid,
+        () -> {
+          if (!online && this.sessionLocationRegistry.isConnectedElsewhere(uid)) return;
+
+          try {
+            this.userPresenceService.sendUserPresenceEvent(
+                uid, online, Instant.ofEpochMilli(atMillis));
+          } catch (RuntimeException e) {
+            log.warn("type=presence_publish_failed; uid={}; online={}", uid, online, e);
+          }
+        });
+  }
+
+  private static class Presence {
+    /** Millis the last session of the user closed at, -1 while the user has sessions. */
+    private volatile long offlineSinceMillis = -1;
+    private volatile long lastSeenMillis;
+    private volatile long writtenLastSeenMillis;
+
+    private Presence(long lastSeenMillis) {
+      this.lastSeenMillis = lastSeenMillis;
+    }
+  }
+}
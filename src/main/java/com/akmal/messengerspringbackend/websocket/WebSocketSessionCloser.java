@@ -0,0 +1,63 @@
+package com.akmal.messengerspringbackend.websocket;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+/**
+ * Keeps the open sockets by the id of their session, which is the same id the STOMP messages carry,
+ * so that the server can close the session on its own (e.g. a client that does not keep up with
+ * its frames). Registered as the decorator of the STOMP handler, closing the socket goes through
+ * the regular close handling, i.e. the session is removed on the disconnect event.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 18:35
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+public class WebSocketSessionCloser implements WebSocketHandlerDecoratorFactory {
+  private final Map<String, WebSocketSession> openSessions = new ConcurrentHashMap<>();
+
+  @Override
+  public WebSocketHandler decorate(WebSocketHandler handler) {
+    return new WebSocketHandlerDecorator(handler) {
+      @Override
+      public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        openSessions.put(session.getId(), session);
+        super.afterConnectionEstablished(session);
+      }
+
+      @Override
+      public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus)
+          throws Exception {
+        openSessions.remove(session.getId());
+        super.afterConnectionClosed(session, closeStatus);
+      }
+    };
+  }
+
+  /** @return whether the session was open and has been closed. */
+  public boolean close(@NotNull String sessionId, @NotNull CloseStatus closeStatus) {
+    final WebSocketSession session = this.openSessions.remove(sessionId);
+    if (session == null || !session.isOpen()) return false;
+
+    try {
+      session.close(closeStatus);
+      return true;
+    } catch (IOException e) {
+      log.warn("type=session_close_failed; session_id={}", sessionId, e);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package com.akmal.messengerspringbackend.websocket.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.broker.AbstractSubscriptionRegistry;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.PathMatcher;
+
+/**
+ * Subscription registry of the simple broker that indexes the destinations in a trie of their
+ * '/' separated segments. The default registry caches the resolved destinations up to a fixed
+ * limit and otherwise matches the destination against every subscription, while every session
+ * subscribes to its own user destinations (e.g. {@code /queue/notifications-user{sessionId}}), so
+ * with tens of thousands of sessions the cache does not help and every message is matched against
+ * all the subscriptions. Here the lookup walks one path of the trie, i.e. it is proportional to the
+ * depth of the destination and not to the number of subscriptions.
+ *
+ * <p>The whole segment wildcards ({@code /topic/*} and a trailing {@code /topic/**}) are indexed as
+ * well, other patterns are kept aside and matched by the {@link AntPathMatcher} on every lookup.
+ * Selector headers are not supported. Writes are serialized, lookups do not lock; nodes left
+ * without subscriptions are pruned once their last subscription is removed.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 12:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public class TrieSubscriptionRegistry extends AbstractSubscriptionRegistry {
+  private static final char SEPARATOR = '/';
+  private static final String SINGLE_WILDCARD = "*";
+  private static final String MULTI_WILDCARD = "**";
+
+  private final Node root = new Node(null, null);
+  /** Session id → subscription id → destination, used to remove the subscriptions. */
+  private final Map<String, Map<String, String>> destinationsBySession = new ConcurrentHashMap<>();
+  /** Pattern → subscriptions of the patterns that can not be indexed. */
+  private final Map<String, Subscribers> patterns = new ConcurrentHashMap<>();
+  private final PathMatcher pathMatcher = new AntPathMatcher();
+
+  @Override
+  protected synchronized void addSubscriptionInternal(
+      String sessionId, String subscriptionId, String destination, Message<?> message) {
+    final String previous =
+        this.destinationsBySession
+            .computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+            .put(subscriptionId, destination);
+    if (previous != null) this.removeSubscriber(sessionId, subscriptionId, previous);
+
+    if (isIndexable(destination)) {
+      this.nodeOf(destination).subscribers.add(sessionId, subscriptionId);
+    } else {
+      this.patterns
+          .computeIfAbsent(destination, pattern -> new Subscribers())
+          .add(sessionId, subscriptionId);
+    }
+  }
+
+  @Override
+  protected synchronized void removeSubscriptionInternal(
+      String sessionId, String subscriptionId, Message<?> message) {
+    final Map<String, String> destinations = this.destinationsBySession.get(sessionId);
+    if (destinations == null) return;
+
+    final String destination = destinations.remove(subscriptionId);
+    if (destinations.isEmpty()) this.destinationsBySession.remove(sessionId);
+    if (destination != null) this.removeSubscriber(sessionId, subscriptionId, destination);
+  }
+
+  @Override
+  public synchronized void unregisterAllSubscriptions(String sessionId) {
+    final Map<String, String> destinations = this.destinationsBySession.remove(sessionId);
+    if (destinations == null) return;
+
+    destinations.forEach(
+        (subscriptionId, destination) ->
+            this.removeSubscriber(sessionId, subscriptionId, destination));
+  }
+
+  @Override
+  protected MultiValueMap<String, String> findSubscriptionsInternal(
+      String destination, Message<?> message) {
+    final var result = new LinkedMultiValueMap<String, String>();
+    this.collect(this.root, destination, 0, result);
+
+    if (!this.patterns.isEmpty()) {
+      this.patterns.forEach(
+          (pattern, subscribers) -> {
+            if (this.pathMatcher.match(pattern, destination)) subscribers.addTo(result);
+          });
+    }
+    return result;
+  }
+
+  /** @return number of the sessions with at least one subscription. */
+  public int sessionCount() {
+    return this.destinationsBySession.size();
+  }
+
+  /**
+   * Collects the subscribers of the segments starting at {@code start}, the destination is fully
+   * consumed once {@code start} is past its end.
+   */
+  private void collect(
+      Node node, String destination, int start, MultiValueMap<String, String> result) {
+    final Node multiWildcard = node.multiWildcard;
+    if (multiWildcard != null) multiWildcard.subscribers.addTo(result);
+
+    if (start > destination.length()) {
+      node.subscribers.addTo(result);
+      return;
+    }
+
+    int end = destination.indexOf(SEPARATOR, start);
+    if (end < 0) end = destination.length();
+
+    final Node child = node.children.get(destination.substring(start, end));
+    if (child != null) this.collect(child, destination, end + 1, result);
+
+    final Node singleWildcard = node.singleWildcard;
+    if (singleWildcard != null) this.collect(singleWildcard, destination, end + 1, result);
+  }
+
+  private Node nodeOf(String destination) {
+    Node node = this.root;
+    int start = 0;
+
+    while (start <= destination.length()) {
+      int end = destination.indexOf(SEPARATOR, start);
+      if (end < 0) end = destination.length();
+      node = node.child(destination.substring(start, end));
+      start = end + 1;
+    }
+    return node;
+  }
+
+  private void removeSubscriber(String sessionId, String subscriptionId, String destination) {
+    if (!isIndexable(destination)) {
+      this.patterns.computeIfPresent(
+          destination,
+          (pattern, subscribers) ->
+              subscribers.remove(sessionId, subscriptionId) ? null : subscribers);
+      return;
+    }
+
+    final Node node = this.find(destination);
+    if (node != null && node.subscribers.remove(sessionId, subscriptionId)) node.prune();
+  }
+
+  private Node find(String destination) {
+    Node node = this.root;
+    int start = 0;
+
+    while (node != null && start <= destination.length()) {
+      int end = destination.indexOf(SEPARATOR, start);
+      if (end < 0) end = destination.length();
+      node = node.existingChild(destination.substring(start, end));
+      start = end + 1;
+    }
+    return node;
+  }
+
+  /** Only the plain segments and the whole segment wildcards are kept in the trie. */
+  private static boolean isIndexable(String destination) {
+    int start = 0;
+
+    while (start <= destination.length()) {
+      int end = destination.indexOf(SEPARATOR, start);
+      if (end < 0) end = destination.length();
+      final String segment = destination.substring(start, end);
+
+      if (MULTI_WILDCARD.equals(segment)) {
+        if (end != destination.length()) return false;
+      } else if (!SINGLE_WILDCARD.equals(segment)
+          && (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0)) {
+        return false;
+      }
+      start = end + 1;
+    }
+    return true;
+  }
+
+  /** Node of the segment, the wildcard children are kept apart from the plain ones. */
+  private static class Node {
+    private final Node parent;
+    private final String segment;
+    private final Map<String, Node> children = new ConcurrentHashMap<>();
+    private final Subscribers subscribers = new Subscribers();
+    private volatile Node singleWildcard;
+    private volatile Node multiWildcard;
+
+    private Node(Node parent, String segment) {
+      this.parent = parent;
+      this.segment = segment;
+    }
+
+    private Node child(String segment) {
+      if (SINGLE_WILDCARD.equals(segment)) {
+        if (this.singleWildcard == null) this.singleWildcard = new Node(this, segment);
+        return this.singleWildcard;
+      }
+      if (MULTI_WILDCARD.equals(segment)) {
+        if (this.multiWildcard == null) this.multiWildcard = new Node(this, segment);
+        return this.multiWildcard;
+      }
+      return this.children.computeIfAbsent(segment, s -> new Node(this, s));
+    }
+
+    private Node existingChild(String segment) {
+      if (SINGLE_WILDCARD.equals(segment)) return this.singleWildcard;
+      if (MULTI_WILDCARD.equals(segment)) return this.multiWildcard;
+      return this.children.get(segment);
+    }
+
+    private boolean isEmpty() {
+      return this.subscribers.isEmpty()
+          && this.children.isEmpty()
+          && this.singleWildcard == null
+          && this.multiWildcard == null;
+    }
+
+    /** Detaches the node and its ancestors that are left without subscribers and children. */
+    private void prune() {
+      Node node = this;
+
+      while (node.parent != null && node.isEmpty()) {
+        final Node parent = node.parent;
+        if (parent.singleWildcard == node) parent.singleWildcard = null;
+        else if (parent.multiWildcard == node) parent.multiWildcard = null;
+        else parent.children.remove(node.segment, node);
+        node = parent;
+      }
+    }
+  }
+
+  /** Session id → subscription ids of the destination. */
+  private static class Subscribers {
+    private final Map<String, Set<String>> bySession = new ConcurrentHashMap<>();
+
+    private void add(String sessionId, String subscriptionId) {
+      this.bySession
+          .computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet())
+          .add(subscriptionId);
+    }
+
+    /** @return whether no subscriber is left. */
+    private boolean remove(String sessionId, String subscriptionId) {
+      this.bySession.computeIfPresent(
+          sessionId,
+          (id, subscriptionIds) -> {
+            subscriptionIds.remove(subscriptionId);
+            return subscriptionIds.isEmpty() ? null : subscriptionIds;
+          });
+      return this.bySession.isEmpty();
+    }
+
+    private boolean isEmpty() {
+      return this.bySession.isEmpty();
+    }
+
+    private void addTo(@NotNull MultiValueMap<String, String> result) {
+      if (this.bySession.isEmpty()) return;
+
+      this.bySession.forEach(
+          (sessionId, subscriptionIds) -> {
+            final List<String> ids = new ArrayList<>(subscriptionIds);
+            if (!ids.isEmpty()) result.addAll(sessionId, ids);
+          });
+    }
+  }
+}
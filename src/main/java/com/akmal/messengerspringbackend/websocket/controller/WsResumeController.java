@@ -0,0 +1,39 @@
+package com.akmal.messengerspringbackend.websocket.controller;
+
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.websocket.delivery.ReplayBuffer;
+import com.akmal.messengerspringbackend.websocket.dto.ResumeDto;
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+/**
+ * Answers the reconnected client with the frames it missed. The client that sent {@link
+ * WebSocketConfiguration#LAST_SEQUENCE_HEADER} with its CONNECT subscribes here once it has
+ * restored its other subscriptions and gets a single {@link ResumeDto}, the subscription is not
+ * kept by the broker.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 20:45
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Controller
+@RequiredArgsConstructor
+public class WsResumeController {
+  public static final String BASE_PATH = "/users/{userId}";
+
+  private final ReplayBuffer replayBuffer;
+
+  /** @return missed frames, null (nothing is sent) if the client did not ask for them. */
+  @SubscribeMapping(BASE_PATH + "/resume")
+  public ResumeDto resume(
+      @DestinationVariable String userId,
+      @Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId) {
+    return this.replayBuffer.resume(userId, sessionId).orElse(null);
+  }
+}
@@ -1,12 +1,15 @@
 package com.akmal.messengerspringbackend.websocket.controller;
 
-import com.akmal.messengerspringbackend.service.UserPresenceService;
-import lombok.RequiredArgsConstructor;
+import com.akmal.messengerspringbackend.websocket.UserPresenceTracker;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.stereotype.Controller;
 
 /**
+ * Kept for the clients that still send their own heartbeat frames. The presence is tracked from
+ * the STOMP heart-beats and the lifecycle of the sessions by {@link UserPresenceTracker}, the frame
+ * only counts as activity of the session like any other.
+ *
  * @author Akmal Alikhujaev
  * @version 1.0
  * @created 14/07/2022 - 16:46
@@ -14,16 +17,13 @@ import org.springframework.stereotype.Controller;
  * @since 1.0
  */
 @Controller
-@RequiredArgsConstructor
 public class WsUserPresenceController {
   public static final String BASE_PATH = "/users/{userId}";
 
-  private final UserPresenceService userPresenceService;
-
   @MessageMapping(BASE_PATH + "/heartbeat")
   public void handleHeartBeat(
       @DestinationVariable String userId
   ) {
-    this.userPresenceService.sendUserPresenceEvent(userId);
+    // the session has been touched by the inbound channel, there is nothing else to do
   }
 }
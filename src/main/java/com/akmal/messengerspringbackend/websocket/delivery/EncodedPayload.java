@@ -0,0 +1,47 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import com.akmal.messengerspringbackend.websocket.dto.CoalescedFramesDto;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * JSON body of the frame encoded ahead of the send. {@link OutboundFrameDispatcher} writes it to
+ * the session as is, bypassing the message converters of the broker, and embeds it as raw JSON
+ * within the {@link CoalescedFramesDto}. The sessions that negotiated a binary {@link
+ * FrameEncoding} get the source of the payload encoded instead.
+ *
+ * @param json UTF-8 encoded JSON document, not modified once the payload is created.
+ * @param source object the JSON document was encoded from.
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 15:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@JsonSerialize(using = EncodedPayload.RawJsonSerializer.class)
+public record EncodedPayload(@NotNull byte[] json, @NotNull Object source) {
+
+  public static class RawJsonSerializer extends StdSerializer<EncodedPayload> {
+
+    public RawJsonSerializer() {
+      super(EncodedPayload.class);
+    }
+
+    @Override
+    public void serialize(
+        EncodedPayload value, JsonGenerator generator, SerializerProvider provider)
+        throws IOException {
+      // the binary formats cannot embed the JSON document, the source is written in their format
+      if (generator.canWriteBinaryNatively()) {
+        provider.defaultSerializeValue(value.source(), generator);
+        return;
+      }
+      generator.writeRawValue(new String(value.json(), StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Encoding of the frames the client negotiated for a subscription through {@link
+ * WebSocketConfiguration#ACCEPT_HEADER} of its SUBSCRIBE frame, JSON if it sent none or none of
+ * the media types is supported.
+ *
+ * <p>The binary encodings are sent with the {@code application/octet-stream} content type and the
+ * {@code encoding} parameter (e.g. {@code application/octet-stream;encoding=cbor}), since only
+ * those frames are written as binary websocket messages, the rest is sent as text.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 21:15
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public enum FrameEncoding {
+  JSON(MimeTypeUtils.APPLICATION_JSON, MimeTypeUtils.APPLICATION_JSON, JsonFactory::new),
+  CBOR(binary("cbor"), new MimeType("application", "cbor"), CBORFactory::new),
+  SMILE(binary("smile"), new MimeType("application", "x-jackson-smile"), SmileFactory::new);
+
+  private static final String ENCODING_PARAMETER = "encoding";
+  private static final FrameEncoding[] VALUES = values();
+
+  private final MimeType contentType;
+  private final MimeType mediaType;
+  private final Supplier<JsonFactory> factorySupplier;
+
+  FrameEncoding(MimeType contentType, MimeType mediaType, Supplier<JsonFactory> factorySupplier) {
+    this.contentType = contentType;
+    this.mediaType = mediaType;
+    this.factorySupplier = factorySupplier;
+  }
+
+  /** @return content type of the frames sent in the encoding. */
+  public MimeType contentType() {
+    return this.contentType;
+  }
+
+  public boolean isBinary() {
+    return this != JSON;
+  }
+
+  /** @return new Jackson factory of the format. */
+  public JsonFactory newFactory() {
+    return this.factorySupplier.get();
+  }
+
+  /**
+   * @param accept value of the accept header, comma separated media types in the order of
+   *     preference.
+   * @return the first supported encoding, JSON if there is none.
+   */
+  public static FrameEncoding negotiate(@Nullable String accept) {
+    if (accept == null || accept.isBlank()) return JSON;
+
+    try {
+      for (MimeType mimeType : MimeTypeUtils.parseMimeTypes(accept)) {
+        for (FrameEncoding encoding : VALUES) {
+          if (encoding.mediaType.equalsTypeAndSubtype(mimeType)
+              || encoding.contentType.equals(mimeType)) {
+            return encoding;
+          }
+        }
+      }
+    } catch (InvalidMimeTypeException e) {
+      return JSON;
+    }
+    return JSON;
+  }
+
+  /** @return encoding of the content type, null if it is not one of the encodings. */
+  public static @Nullable FrameEncoding of(@Nullable MimeType contentType) {
+    if (contentType == null) return null;
+
+    for (FrameEncoding encoding : VALUES) {
+      if (encoding.contentType.equalsTypeAndSubtype(contentType)
+          && (!encoding.isBinary()
+              || encoding.contentType
+                  .getParameter(ENCODING_PARAMETER)
+                  .equalsIgnoreCase(contentType.getParameter(ENCODING_PARAMETER)))) {
+        return encoding;
+      }
+    }
+    return null;
+  }
+
+  /** @param ordinal ordinal of the encoding, as kept by the session storage. */
+  public static FrameEncoding ofOrdinal(int ordinal) {
+    return VALUES[ordinal];
+  }
+
+  private static MimeType binary(@NotNull String encoding) {
+    return new MimeType(
+        MimeTypeUtils.APPLICATION_OCTET_STREAM, Map.of(ENCODING_PARAMETER, encoding));
+  }
+}
@@ -0,0 +1,39 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+
+/**
+ * Converts the payloads of the frames with the content type of the binary {@link FrameEncoding}.
+ * The converter matches the content type strictly, including its {@code encoding} parameter, so
+ * the frames without it keep going through the JSON converter of the broker.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 21:25
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public class FrameEncodingMessageConverter extends MappingJackson2MessageConverter {
+  private final FrameEncoding encoding;
+
+  /**
+   * @param encoding binary encoding of the frames.
+   * @param objectMapper mapper created with the {@link FrameEncoding#newFactory()} of the encoding.
+   */
+  public FrameEncodingMessageConverter(
+      @NotNull FrameEncoding encoding, @NotNull ObjectMapper objectMapper) {
+    super(encoding.contentType());
+    this.encoding = encoding;
+    this.setObjectMapper(objectMapper);
+    this.setStrictContentTypeMatch(true);
+  }
+
+  @Override
+  protected boolean supportsMimeType(@Nullable MessageHeaders headers) {
+    return FrameEncoding.of(this.getMimeType(headers)) == this.encoding;
+  }
+}
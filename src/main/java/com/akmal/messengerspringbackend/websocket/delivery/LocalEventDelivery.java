@@ -0,0 +1,133 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.shared.concurrent.KeyOrderedExecutor;
+import com.akmal.messengerspringbackend.shared.metrics.MessagingMetrics;
+import com.akmal.messengerspringbackend.websocket.storage.SessionLocationRegistry;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fast path of the thread events whose recipients are connected to this instance. Such events are
+ * delivered in-process on the worker of the recipient (the same one that delivers the recipient's
+ * events consumed from Kafka), only the remote recipients are published. The messages are durable
+ * in Cassandra before the fan-out, so the thread events topics only carry the notifications.
+ *
+ * <p>The published records are tagged with the {@link LocalEventDelivery#ORIGIN_NODE_HEADER}, the
+ * instance skips its own records, since all its connected recipients were already served. This
+ * matters for the shared topics, whose records are consumed by every instance; the topic of this
+ * instance is not published to at all.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 19:45
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+public class LocalEventDelivery {
+  public static final String ORIGIN_NODE_HEADER = "origin-node";
+
+  private final WebsocketSessionStorage sessionStorage;
+  private final SessionLocationRegistry sessionLocationRegistry;
+  private final KeyOrderedExecutor threadEventsExecutor;
+  private final OutboundFrameDispatcher frameDispatcher;
+  private final MessagingMetrics messagingMetrics;
+  private final ReplayBuffer replayBuffer;
+  private final boolean enabled;
+  private final byte[] localOrigin;
+
+  public LocalEventDelivery(
+      WebsocketSessionStorage sessionStorage,
+      SessionLocationRegistry sessionLocationRegistry,
+      @Qualifier("threadEventsExecutor") KeyOrderedExecutor threadEventsExecutor,
+      OutboundFrameDispatcher frameDispatcher,
+      MessagingMetrics messagingMetrics,
+      ReplayBuffer replayBuffer,
+      MessagingConfigurationProperties messagingProps) {
+    this.sessionStorage = sessionStorage;
+    this.sessionLocationRegistry = sessionLocationRegistry;
+    this.threadEventsExecutor = threadEventsExecutor;
+    this.frameDispatcher = frameDispatcher;
+    this.messagingMetrics = messagingMetrics;
+    this.replayBuffer = replayBuffer;
+    this.enabled = messagingProps.getDelivery().isLocalFastPath();
+    this.localOrigin = sessionLocationRegistry.getLocalNode().getBytes(StandardCharsets.UTF_8);
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  /**
+   * @param uids recipients of the event.
+   * @return recipients connected to this instance, or recently connected ones whose frames are kept
+   *     by the {@link ReplayBuffer}, empty if the fast path is disabled.
+   */
+  public List<String> connectedRecipients(@NotNull Collection<String> uids) {
+    if (!this.enabled) return List.of();
+
+    return uids.stream()
+        .filter(
+            uid -> this.sessionStorage.isUserConnected(uid) || this.replayBuffer.isRetained(uid))
+        .toList();
+  }
+
+  /**
+   * Drops the routes to the topic of this instance, the recipients behind it are served by the
+   * fast path.
+   *
+   * @param routes topic to the recipients, as returned by {@link SessionLocationRegistry}.
+   * @param localNodeTopic topic of this instance the routes point to.
+   * @return the same mutable map without the local route.
+   */
+  public Map<String, List<String>> withoutLocalRoute(
+      @NotNull Map<String, List<String>> routes, @NotNull String localNodeTopic) {
+    if (this.enabled && this.sessionLocationRegistry.isEnabled()) routes.remove(localNodeTopic);
+    return routes;
+  }
+
+  /**
+   * Prepares and sends the frames of the recipient on its worker.
+   *
+   * @param userId recipient connected to this instance.
+   * @param frames prepares the frames, empty if nothing has to be sent.
+   */
+  public void deliver(@NotNull String userId, @NotNull Supplier<List<OutboundFrame>> frames) {
+    this.threadEventsExecutor.execute(userId, () -> {
+      try {
+        frames.get().forEach(this.frameDispatcher::send);
+        this.messagingMetrics.recordLocalDelivery();
+      } catch (RuntimeException e) {
+        log.error("type=local_delivery_failed; uid={}", userId, e);
+      }
+    });
+  }
+
+  /** Creates the record tagged with the origin of this instance when the fast path is enabled. */
+  public <K, V> ProducerRecord<K, V> record(@NotNull String topic, K key, V value) {
+    final var producerRecord = new ProducerRecord<>(topic, key, value);
+    if (this.enabled) producerRecord.headers().add(ORIGIN_NODE_HEADER, this.localOrigin);
+    return producerRecord;
+  }
+
+  /**
+   * @param origin value of the {@link LocalEventDelivery#ORIGIN_NODE_HEADER} of the consumed record.
+   * @return whether the record was published by this instance, hence already delivered locally.
+   */
+  public boolean isLocalOrigin(@Nullable byte[] origin) {
+    return this.enabled && origin != null && Arrays.equals(this.localOrigin, origin);
+  }
+}
@@ -0,0 +1,102 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.websocket.dto.MessageEventDto;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.nio.charset.StandardCharsets;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+
+/**
+ * Encodes the message frames of a fan-out once instead of once per recipient and session. The
+ * recipients of a message differ only in whether the message was read on delivery, so the rest of
+ * the {@link MessageEventDto} is encoded on the first delivery of the message and kept for {@link
+ * MessagingConfigurationProperties.DeliveryConfig#getEncodedFrameTtl()}, the payload of a recipient
+ * is that shared part with the read flag appended.
+ *
+ * <p>The shared part is encoded by the application's {@link ObjectMapper}, the same one the broker
+ * converts the payloads with, so the frames look the same as before, except that the read flag is
+ * the last field.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 15:25
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+public class MessageFrameEncoder {
+  private static final byte[] READ_FIELD = ",\"read\":true}".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] UNREAD_FIELD = ",\"read\":false}".getBytes(StandardCharsets.UTF_8);
+
+  private final ObjectWriter sharedFieldsWriter;
+  private final Cache<Long, SharedFields> sharedFieldsByMessage;
+  private final boolean enabled;
+
+  public MessageFrameEncoder(
+      ObjectMapper objectMapper, MessagingConfigurationProperties messagingProps) {
+    final var deliveryProps = messagingProps.getDelivery();
+    this.enabled = deliveryProps.isEncodeOnce();
+    this.sharedFieldsWriter =
+        objectMapper
+            .copy()
+            .addMixIn(MessageEventDto.class, SharedFieldsMixin.class)
+            .writerFor(MessageEventDto.class);
+    this.sharedFieldsByMessage =
+        Caffeine.newBuilder()
+            .expireAfterWrite(deliveryProps.getEncodedFrameTtl())
+            .maximumSize(10_000)
+            .build();
+  }
+
+  /**
+   * @param event message event of the recipient.
+   * @return {@link EncodedPayload} of the event, or the event itself if the encoding is disabled.
+   */
+  public Object encode(@NotNull MessageEventDto event) {
+    if (!this.enabled) return event;
+
+    final MessageEventDto shared = event.withRead(false);
+    SharedFields sharedFields =
+        this.sharedFieldsByMessage.get(event.messageId(), messageId -> this.encodeShared(shared));
+
+    // events published per recipient may carry the recipient's own view of the thread
+    if (!sharedFields.event().equals(shared)) sharedFields = this.encodeShared(shared);
+
+    final byte[] prefix = sharedFields.prefix();
+    final byte[] readField = event.read() ? READ_FIELD : UNREAD_FIELD;
+    final var json = new byte[prefix.length + readField.length];
+    System.arraycopy(prefix, 0, json, 0, prefix.length);
+    System.arraycopy(readField, 0, json, prefix.length, readField.length);
+
+    return new EncodedPayload(json, event);
+  }
+
+  /** Encodes the event without the read flag and strips the closing brace of the object. */
+  private SharedFields encodeShared(MessageEventDto shared) {
+    final byte[] json;
+    try {
+      json = this.sharedFieldsWriter.writeValueAsBytes(shared);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(
+          String.format("Could not encode message %d", shared.messageId()), e);
+    }
+
+    int end = json.length - 1;
+    while (json[end] != '}') end--;
+
+    final var prefix = new byte[end];
+    System.arraycopy(json, 0, prefix, 0, end);
+    return new SharedFields(shared, prefix);
+  }
+
+  private record SharedFields(MessageEventDto event, byte[] prefix) {}
+
+  @JsonIgnoreProperties("read")
+  private interface SharedFieldsMixin {}
+}
@@ -0,0 +1,40 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import java.time.Instant;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Payload destined to the user's websocket session.
+ *
+ * @param userId recipient of the frame.
+ * @param sessionId session (device) of the recipient, if null the frame goes to all the sessions.
+ * @param destination user destination without the '/user' prefix, e.g. '/queue/notifications'.
+ * @param payload body that is converted by the message converters of the broker.
+ * @param acceptedAt time when the message was accepted by the server, if the frame carries one.
+ * @param sequence number of the frame in the replay buffer of the user, if it is kept there.
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 22/07/2022 - 17:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public record OutboundFrame(
+    @NotNull String userId,
+    @Nullable String sessionId,
+    @NotNull String destination,
+    @NotNull Object payload,
+    @Nullable Instant acceptedAt,
+    @Nullable ReplaySequence sequence) {
+
+  public static OutboundFrame of(
+      @NotNull String userId, @NotNull String destination, @NotNull Object payload) {
+    return new OutboundFrame(userId, null, destination, payload, null, null);
+  }
+
+  /** @return the same frame addressed only to the given session of the recipient. */
+  public OutboundFrame toSession(@NotNull String sessionId) {
+    return new OutboundFrame(
+        this.userId, sessionId, this.destination, this.payload, this.acceptedAt, this.sequence);
+  }
+}
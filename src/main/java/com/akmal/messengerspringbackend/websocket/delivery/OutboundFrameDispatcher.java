@@ -0,0 +1,304 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.shared.metrics.MessagingMetrics;
+import com.akmal.messengerspringbackend.websocket.dto.CoalescedFramesDto;
+import com.akmal.messengerspringbackend.websocket.dto.CoalescedFramesDto.Frame;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.DefaultUserDestinationResolver;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Single point through which the server pushes frames to the users' websocket sessions.
+ *
+ * <p>With {@link MessagingConfigurationProperties.BrokerConfig#isDirectSessionRouting()} the
+ * frames are sent straight to the destinations the broker keeps for the sessions of the user, the
+ * same ones the user destinations resolve to (e.g. {@code /queue/notifications-user{sessionId}}),
+ * so the user registry is not consulted on every send.
+ *
+ * <p>The frames are encoded in the {@link FrameEncoding} the session negotiated for the
+ * subscription of the destination. The broadcasts and the frames sent to all the sessions of the
+ * user through the user registry are not bound to a session, they are always sent as JSON.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 22/07/2022 - 17:30
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+public class OutboundFrameDispatcher {
+  private static final String USER_PREFIX = "/user";
+  /** Suffix of the session destinations, see {@link DefaultUserDestinationResolver}. */
+  private static final String SESSION_SUFFIX = "-user";
+
+  private final SimpMessagingTemplate wsMessagingTemplate;
+  private final WebsocketSessionStorage sessionStorage;
+  private final MessagingMetrics messagingMetrics;
+  private final boolean directSessionRouting;
+  private final boolean binaryEncodings;
+
+  public OutboundFrameDispatcher(
+      SimpMessagingTemplate wsMessagingTemplate,
+      WebsocketSessionStorage sessionStorage,
+      MessagingMetrics messagingMetrics,
+      MessagingConfigurationProperties messagingProps) {
+    this.wsMessagingTemplate = wsMessagingTemplate;
+    this.sessionStorage = sessionStorage;
+    this.messagingMetrics = messagingMetrics;
+    this.directSessionRouting = messagingProps.getBroker().isDirectSessionRouting();
+    this.binaryEncodings = messagingProps.getDelivery().isBinaryEncodings();
+  }
+
+  public void send(@NotNull OutboundFrame frame) {
+    this.write(frame);
+    this.recordDelivered(frame);
+  }
+
+  /**
+   * Publishes the payload to the broker destination, delivered to every session subscribed to it.
+   *
+   * @param destination broker destination, e.g. the {@link
+   *     WebSocketConfiguration#THREAD_BROADCAST_TOPIC} of the thread.
+   * @param acceptedAt time when the message was accepted by the server, if the payload carries one.
+   */
+  public void broadcast(
+      @NotNull String destination, @NotNull Object payload, @Nullable Instant acceptedAt) {
+    this.send(
+        destination,
+        payload,
+        SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE),
+        FrameEncoding.JSON);
+    if (acceptedAt != null) this.messagingMetrics.recordDelivered(acceptedAt);
+  }
+
+  /**
+   * Removes the subscription of the session from the broker, the client gets no frame about it.
+   *
+   * @param subscriptionId id the client assigned to the subscription.
+   */
+  public void unsubscribe(@NotNull String sessionId, @NotNull String subscriptionId) {
+    final var headerAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+    headerAccessor.setSessionId(sessionId);
+    headerAccessor.setSubscriptionId(subscriptionId);
+
+    this.wsMessagingTemplate
+        .getMessageChannel()
+        .send(MessageBuilder.createMessage(new byte[0], headerAccessor.getMessageHeaders()));
+  }
+
+  /**
+   * Sends the frames of the user. If the client announced the support of the coalesced frames
+   * (see {@link WebSocketConfiguration#COALESCED_FRAMES_HEADER}) and there is more than one frame
+   * for its session, they are sent as a single {@link CoalescedFramesDto} frame to {@link
+   * WebSocketConfiguration#COALESCED_FRAMES_TOPIC}, otherwise one by one. The coalescing is decided
+   * per session (device), the frames addressed to all the sessions are then written to each of
+   * them.
+   *
+   * @param userId recipient of the frames.
+   * @param frames frames of the recipient in the order of delivery.
+   */
+  public void sendAll(@NotNull String userId, @NotNull List<OutboundFrame> frames) {
+    if (frames.isEmpty()) return;
+
+    final Collection<WebsocketSession> sessions = this.sessionStorage.getSessions(userId);
+    final boolean coalesce =
+        frames.size() > 1 && sessions.stream().anyMatch(WebsocketSession::coalescedFrames);
+
+    if (!coalesce) {
+      frames.forEach(this::send);
+      return;
+    }
+
+    for (WebsocketSession session : sessions) {
+      final var sessionFrames = new ArrayList<OutboundFrame>(frames.size());
+
+      for (OutboundFrame frame : frames) {
+        if (frame.sessionId() == null) sessionFrames.add(frame.toSession(session.id()));
+        else if (frame.sessionId().equals(session.id())) sessionFrames.add(frame);
+      }
+
+      if (session.coalescedFrames() && sessionFrames.size() > 1) {
+        this.writeCoalesced(userId, session, sessionFrames);
+      } else {
+        sessionFrames.forEach(this::write);
+      }
+    }
+
+    frames.forEach(this::recordDelivered);
+  }
+
+  private void write(OutboundFrame frame) {
+    if (this.directSessionRouting) {
+      if (frame.sessionId() != null) {
+        this.writeToSession(
+            frame.sessionId(),
+            frame.destination(),
+            frame.payload(),
+            frame.sequence(),
+            this.encodingOf(frame.userId(), frame.sessionId(), frame.destination()));
+        return;
+      }
+
+      for (WebsocketSession session : this.sessionStorage.getSessions(frame.userId())) {
+        this.writeToSession(
+            session.id(),
+            frame.destination(),
+            frame.payload(),
+            frame.sequence(),
+            this.encodingOf(session, frame.destination()));
+      }
+      return;
+    }
+
+    this.writeToUser(
+        frame.userId(),
+        frame.sessionId(),
+        frame.destination(),
+        frame.payload(),
+        frame.sequence(),
+        this.encodingOf(frame.userId(), frame.sessionId(), frame.destination()));
+  }
+
+  /** @return encoding of the frames of the session, JSON if the session is not known. */
+  private FrameEncoding encodingOf(
+      String userId, @Nullable String sessionId, String destination) {
+    if (!this.binaryEncodings || sessionId == null) return FrameEncoding.JSON;
+
+    return this.sessionStorage
+        .getSession(userId, sessionId)
+        .map(session -> session.encodingOf(USER_PREFIX.concat(destination)))
+        .orElse(FrameEncoding.JSON);
+  }
+
+  private FrameEncoding encodingOf(WebsocketSession session, String destination) {
+    if (!this.binaryEncodings) return FrameEncoding.JSON;
+    return session.encodingOf(USER_PREFIX.concat(destination));
+  }
+
+  /**
+   * Sends the payload to the destination of the session, the client sees the user destination it
+   * subscribed to, as if the frame was resolved by the user destination handler.
+   */
+  private void writeToSession(
+      String sessionId,
+      String destination,
+      Object payload,
+      @Nullable ReplaySequence sequence,
+      FrameEncoding encoding) {
+    final var headerAccessor = headersOf(sequence);
+    headerAccessor.setSessionId(sessionId);
+    // a native header, the STOMP handler reads it from there as set by the user destination handler
+    headerAccessor.setNativeHeader(
+        SimpMessageHeaderAccessor.ORIGINAL_DESTINATION, USER_PREFIX.concat(destination));
+
+    this.send(
+        destination.concat(SESSION_SUFFIX).concat(sessionId), payload, headerAccessor, encoding);
+  }
+
+  /**
+   * Sends the payload to the user destination, resolved by the user destination handler to the
+   * given session, or to all the sessions of the user if it is null.
+   */
+  private void writeToUser(
+      String userId,
+      @Nullable String sessionId,
+      String destination,
+      Object payload,
+      @Nullable ReplaySequence sequence,
+      FrameEncoding encoding) {
+    final var headerAccessor = headersOf(sequence);
+    if (sessionId != null) headerAccessor.setSessionId(sessionId);
+
+    this.send(
+        USER_PREFIX + "/" + StringUtils.replace(userId, "/", "%2F") + destination,
+        payload,
+        headerAccessor,
+        encoding);
+  }
+
+  /** The sequence of the frame is passed as {@link WebSocketConfiguration#SEQUENCE_HEADER}. */
+  private static SimpMessageHeaderAccessor headersOf(@Nullable ReplaySequence sequence) {
+    final var headerAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+    if (sequence != null) {
+      headerAccessor.setNativeHeader(WebSocketConfiguration.SEQUENCE_HEADER, sequence.toString());
+    }
+    return headerAccessor;
+  }
+
+  /**
+   * The {@link EncodedPayload} is sent as is, other payloads are converted by the broker. The
+   * binary encodings are converted by the broker from the source of the encoded payload.
+   */
+  private void send(
+      String destination,
+      Object payload,
+      SimpMessageHeaderAccessor headerAccessor,
+      FrameEncoding encoding) {
+    headerAccessor.setLeaveMutable(true);
+
+    if (encoding.isBinary()) {
+      headerAccessor.setContentType(encoding.contentType());
+      this.wsMessagingTemplate.convertAndSend(
+          destination,
+          payload instanceof EncodedPayload encodedPayload ? encodedPayload.source() : payload,
+          headerAccessor.getMessageHeaders());
+      return;
+    }
+
+    if (payload instanceof EncodedPayload encodedPayload) {
+      headerAccessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+      this.wsMessagingTemplate.send(
+          destination,
+          MessageBuilder.createMessage(encodedPayload.json(), headerAccessor.getMessageHeaders()));
+      return;
+    }
+
+    this.wsMessagingTemplate.convertAndSend(
+        destination, payload, headerAccessor.getMessageHeaders());
+  }
+
+  private void writeCoalesced(
+      String userId, WebsocketSession session, List<OutboundFrame> frames) {
+    final var coalescedFrames = new ArrayList<Frame>(frames.size());
+
+    for (OutboundFrame frame : frames) {
+      coalescedFrames.add(
+          new Frame(
+              USER_PREFIX.concat(frame.destination()),
+              frame.payload(),
+              frame.sequence() == null ? null : frame.sequence().toString()));
+    }
+
+    final String destination =
+        WebSocketConfiguration.COALESCED_FRAMES_TOPIC.replace(USER_PREFIX, "");
+    final var payload = new CoalescedFramesDto(coalescedFrames);
+    final FrameEncoding encoding = this.encodingOf(session, destination);
+
+    if (this.directSessionRouting) {
+      this.writeToSession(session.id(), destination, payload, null, encoding);
+    } else {
+      this.writeToUser(userId, session.id(), destination, payload, null, encoding);
+    }
+  }
+
+  private void recordDelivered(OutboundFrame frame) {
+    if (frame.acceptedAt() != null) {
+      this.messagingMetrics.recordDelivered(frame.acceptedAt());
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.websocket.dto.ResumeDto;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the last message frames of every connected user, numbered per user (see {@link
+ * ReplaySequence}), so the client whose socket dropped for a moment reconnects with the last
+ * sequence it has seen and gets only the frames it missed. The frames of the user are kept for
+ * {@link MessagingConfigurationProperties.ReplayConfig#getRetention()} after the last session of
+ * the user closed, the events that arrive in the meantime are still numbered and kept.
+ *
+ * <p>The buffer is local to the instance, the client that reconnects to another instance is told
+ * to reload. With the routing enabled the events stop coming to this instance once the user
+ * disconnects, so the buffer is dropped right away.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 20:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+public class ReplayBuffer implements MeterBinder {
+  private final WebsocketSessionStorage sessionStorage;
+  private final boolean enabled;
+  private final boolean routingEnabled;
+  private final int capacity;
+  private final long retentionMillis;
+  private final SecureRandom random = new SecureRandom();
+  private final Map<String, UserFrames> buffers = new ConcurrentHashMap<>();
+  /** Session id → last sequence the client has seen, until the client asks for the frames. */
+  private final Map<String, ReplaySequence> pendingResumes = new ConcurrentHashMap<>();
+
+  public ReplayBuffer(
+      WebsocketSessionStorage sessionStorage, MessagingConfigurationProperties messagingProps) {
+    final var replayProps = messagingProps.getReplay();
+    this.sessionStorage = sessionStorage;
+    this.enabled = replayProps.isEnabled();
+    this.routingEnabled = messagingProps.getRouting().isEnabled();
+    this.capacity = replayProps.getCapacity();
+    this.retentionMillis = replayProps.getRetention().toMillis();
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  public void onConnected(@NotNull String uid) {
+    if (!this.enabled) return;
+
+    this.buffers.compute(
+        uid,
+        (id, frames) -> {
+          if (frames == null) return new UserFrames(this.random.nextLong(), this.capacity);
+          frames.disconnectedAtMillis = -1;
+          return frames;
+        });
+  }
+
+  /**
+   * Starts the retention of the frames once the last session of the user is closed, the resume
+   * requested by the session is forgotten.
+   */
+  public void onDisconnected(@NotNull String uid, @NotNull String sessionId) {
+    this.pendingResumes.remove(sessionId);
+    if (!this.enabled) return;
+
+    final long now = System.currentTimeMillis();
+    this.buffers.computeIfPresent(
+        uid,
+        (id, frames) -> {
+          if (this.sessionStorage.isUserConnected(uid)) return frames;
+          if (this.routingEnabled) return null;
+          frames.disconnectedAtMillis = now;
+          return frames;
+        });
+  }
+
+  /** Remembers the last sequence the client of the session has seen, sent with its CONNECT. */
+  public void requestResume(@NotNull String sessionId, @NotNull ReplaySequence lastSeen) {
+    if (this.enabled) this.pendingResumes.put(sessionId, lastSeen);
+  }
+
+  /**
+   * Numbers the frame and keeps it, if the user is connected or has been recently.
+   *
+   * @param destination destination the frame was sent to, with the '/user' prefix.
+   * @param broadcast whether some sessions of the user got the frame by the thread broadcast.
+   * @return sequence of the frame, null if it is not kept.
+   */
+  public @Nullable ReplaySequence append(
+      @NotNull String uid,
+      @NotNull String destination,
+      @NotNull Object payload,
+      boolean broadcast) {
+    final UserFrames frames = this.buffers.get(uid);
+    return frames == null ? null : frames.append(destination, payload, broadcast);
+  }
+
+  /** @return whether the frames of the user are kept, even though it may have no sessions. */
+  public boolean isRetained(@NotNull String uid) {
+    return this.buffers.containsKey(uid);
+  }
+
+  /**
+   * @return frames the client of the session missed since the sequence it sent with its CONNECT,
+   *     empty if it has not sent one (or has already been answered).
+   */
+  public Optional<ResumeDto> resume(@NotNull String uid, @NotNull String sessionId) {
+    final ReplaySequence lastSeen = this.pendingResumes.remove(sessionId);
+    if (lastSeen == null) return Optional.empty();
+
+    final UserFrames frames = this.buffers.get(uid);
+    if (frames == null) return Optional.of(ResumeDto.incomplete(null));
+
+    return Optional.of(frames.since(lastSeen));
+  }
+
+  @Scheduled(
+      fixedDelayString = "#{@messagingConfigurationProperties.replay.sweepInterval.toMillis()}")
+  public void sweep() {
+    final long expiredBefore = System.currentTimeMillis() - this.retentionMillis;
+
+    // under the lock of the entry, so a user that reconnects meanwhile keeps its frames
+    for (String uid : this.buffers.keySet()) {
+      this.buffers.computeIfPresent(
+          uid,
+          (id, frames) -> {
+            final long disconnectedAt = frames.disconnectedAtMillis;
+            if (disconnectedAt >= 0 && disconnectedAt < expiredBefore) return null;
+            frames.trim(expiredBefore);
+            return frames;
+          });
+    }
+  }
+
+  @Override
+  public void bindTo(@NotNull MeterRegistry registry) {
+    Gauge.builder("websocket.replay.buffers", this.buffers, Map::size)
+        .description("Users whose frames are kept for the replay after a reconnect")
+        .register(registry);
+  }
+
+  private record BufferedFrame(
+      long seq, String destination, Object payload, boolean broadcast, long sentAtMillis) {}
+
+  /** Frames of one user, the oldest are evicted once the capacity is reached. */
+  private static class UserFrames {
+    private final long epoch;
+    private final int capacity;
+    private final ArrayDeque<BufferedFrame> frames;
+    private long lastSeq;
+    private long disconnectedAtMillis = -1;
+
+    private UserFrames(long epoch, int capacity) {
+      this.epoch = epoch;
+      this.capacity = capacity;
+      this.frames = new ArrayDeque<>(Math.min(capacity, 16));
+    }
+
+    private synchronized ReplaySequence append(
+        String destination, Object payload, boolean broadcast) {
+      if (this.frames.size() == this.capacity) this.frames.removeFirst();
+      this.frames.addLast(
+          new BufferedFrame(
+              ++this.lastSeq, destination, payload, broadcast, System.currentTimeMillis()));
+      return new ReplaySequence(this.epoch, this.lastSeq);
+    }
+
+    /** The frames are complete if the one right after the last seen is still kept. */
+    private synchronized ResumeDto since(ReplaySequence lastSeen) {
+      final String current = new ReplaySequence(this.epoch, this.lastSeq).toString();
+      if (lastSeen.epoch() != this.epoch || lastSeen.seq() > this.lastSeq) {
+        return ResumeDto.incomplete(current);
+      }
+
+      final BufferedFrame oldest = this.frames.peekFirst();
+      if (lastSeen.seq() < this.lastSeq && (oldest == null || oldest.seq() > lastSeen.seq() + 1)) {
+        return ResumeDto.incomplete(current);
+      }
+
+      final var missed = new ArrayList<ResumeDto.Frame>();
+      for (BufferedFrame frame : this.frames) {
+        if (frame.seq() <= lastSeen.seq()) continue;
+        missed.add(
+            new ResumeDto.Frame(
+                new ReplaySequence(this.epoch, frame.seq()).toString(),
+                frame.destination(),
+                frame.payload(),
+                frame.broadcast()));
+      }
+      return new ResumeDto(current, true, List.copyOf(missed));
+    }
+
+    private synchronized void trim(long expiredBefore) {
+      while (!this.frames.isEmpty() && this.frames.peekFirst().sentAtMillis() < expiredBefore) {
+        this.frames.removeFirst();
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import java.util.Optional;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Position of the frame in the replay buffer of the user. The numbers are only comparable within
+ * one epoch, the epoch changes whenever the buffer is created anew (first connect of the user,
+ * restart of the instance), so the client that presents a position of another epoch is told to
+ * reload. Written as {@code <epoch in hex>:<seq>}, the clients treat it as an opaque value and
+ * send back the last one they have seen.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 20:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public record ReplaySequence(long epoch, long seq) {
+  private static final char SEPARATOR = ':';
+
+  /** @return the position of the header value, empty if it is absent or malformed. */
+  public static Optional<ReplaySequence> parse(@Nullable String value) {
+    if (value == null) return Optional.empty();
+
+    final int separator = value.indexOf(SEPARATOR);
+    if (separator <= 0) return Optional.empty();
+
+    try {
+      return Optional.of(
+          new ReplaySequence(
+              Long.parseUnsignedLong(value.substring(0, separator), 16),
+              Long.parseLong(value.substring(separator + 1))));
+    } catch (NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Long.toHexString(this.epoch) + SEPARATOR + this.seq;
+  }
+}
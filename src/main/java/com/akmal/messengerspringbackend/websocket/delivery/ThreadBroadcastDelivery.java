@@ -0,0 +1,184 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.service.ThreadMembersCache;
+import com.akmal.messengerspringbackend.service.ThreadMembersCache.ThreadMembers;
+import com.akmal.messengerspringbackend.websocket.storage.TopicSubscription;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Delivers the messages of the group threads to the sessions subscribed to the broadcast
+ * destination of the thread ({@link WebSocketConfiguration#THREAD_BROADCAST_TOPIC}). The message
+ * is published to the broker once per instance, the first recipient whose session is subscribed to
+ * the broadcast triggers the publish, the rest of the recipients skip such sessions and get the
+ * per user frames only on their other sessions.
+ *
+ * <p>Every subscriber of the broadcast receives the message, including the other sessions of its
+ * author, the clients recognize their own messages by the id. The membership is checked only when
+ * subscribing, therefore the subscriptions of the users that are no longer members of the thread
+ * (as seen by {@link ThreadMembersCache}) are revoked before each publish and periodically.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 17:25
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@Slf4j
+public class ThreadBroadcastDelivery {
+  /** Long enough to cover the fan-out of one message to the recipients of the instance. */
+  private static final Duration PUBLISHED_MESSAGES_TTL = Duration.ofMinutes(1);
+  private static final String TOPIC_PREFIX = WebSocketConfiguration.THREAD_BROADCAST_TOPIC + "/";
+  private static final String BROKER_TOPIC_PREFIX = "/topic";
+
+  private final OutboundFrameDispatcher frameDispatcher;
+  private final WebsocketSessionStorage sessionStorage;
+  private final ThreadMembersCache threadMembersCache;
+  private final Cache<Long, Boolean> publishedMessages;
+  /** Thread id → users of this instance subscribed to the broadcast, guarded by the entry lock. */
+  private final Map<UUID, Set<String>> subscribers = new ConcurrentHashMap<>();
+  private final boolean enabled;
+
+  public ThreadBroadcastDelivery(
+      OutboundFrameDispatcher frameDispatcher,
+      WebsocketSessionStorage sessionStorage,
+      ThreadMembersCache threadMembersCache,
+      MessagingConfigurationProperties messagingProps) {
+    this.frameDispatcher = frameDispatcher;
+    this.sessionStorage = sessionStorage;
+    this.threadMembersCache = threadMembersCache;
+    this.enabled = messagingProps.getBroker().isThreadBroadcast();
+    this.publishedMessages =
+        Caffeine.newBuilder().expireAfterWrite(PUBLISHED_MESSAGES_TTL).maximumSize(100_000).build();
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  /** @return broadcast destination of the thread. */
+  public String topicOf(@NotNull String threadId) {
+    return TOPIC_PREFIX.concat(threadId);
+  }
+
+  /** Records the subscription of the user, so it can be revoked once the user leaves the thread. */
+  public void onSubscribed(@NotNull String uid, @NotNull TopicSubscription subscription) {
+    parseThreadId(subscription.topic())
+        .ifPresent(
+            threadId ->
+                this.subscribers.compute(
+                    threadId,
+                    (id, uids) -> {
+                      final Set<String> subscribed = uids == null ? new HashSet<>() : uids;
+                      subscribed.add(uid);
+                      return subscribed;
+                    }));
+  }
+
+  /**
+   * @param destination destination of the SUBSCRIBE frame.
+   * @return id of the thread if the destination is a thread broadcast destination.
+   */
+  public static Optional<UUID> parseThreadId(@Nullable String destination) {
+    if (destination == null || !destination.startsWith(TOPIC_PREFIX)) return Optional.empty();
+
+    try {
+      return Optional.of(UUID.fromString(destination.substring(TOPIC_PREFIX.length())));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @return whether the destination is under '/topic', so it is, or as a pattern could match, a
+   *     thread broadcast destination in the broker.
+   */
+  public static boolean isBroadcastDestination(@Nullable String destination) {
+    return destination != null && destination.startsWith(BROKER_TOPIC_PREFIX);
+  }
+
+  /**
+   * Publishes the message to the broadcast destination, unless it has already been published by
+   * this instance.
+   *
+   * @param payload creates the payload, invoked only if the message is published.
+   * @param acceptedAt time when the message was accepted by the server.
+   */
+  public void publishOnce(
+      long messageId,
+      @NotNull String threadId,
+      @NotNull Supplier<Object> payload,
+      @Nullable Instant acceptedAt) {
+    if (!this.enabled
+        || this.publishedMessages.asMap().putIfAbsent(messageId, Boolean.TRUE) != null) {
+      return;
+    }
+
+    this.revokeNonMembers(UUID.fromString(threadId));
+    this.frameDispatcher.broadcast(TOPIC_PREFIX.concat(threadId), payload.get(), acceptedAt);
+  }
+
+  /** Revokes the subscriptions of the former members and forgets the users that unsubscribed. */
+  @Scheduled(
+      fixedDelayString = "#{@messagingConfigurationProperties.typing.membersCacheTtl.toMillis()}")
+  public void revokeNonMembers() {
+    for (UUID threadId : this.subscribers.keySet()) {
+      this.revokeNonMembers(threadId);
+    }
+  }
+
+  private void revokeNonMembers(UUID threadId) {
+    if (!this.subscribers.containsKey(threadId)) return;
+
+    final String topic = TOPIC_PREFIX.concat(threadId.toString());
+    final Optional<ThreadMembers> members = this.threadMembersCache.get(threadId);
+
+    // under the lock of the entry, so a concurrent subscription is not forgotten
+    this.subscribers.computeIfPresent(
+        threadId,
+        (id, uids) -> {
+          uids.removeIf(uid -> !this.revokeIfNotMember(uid, topic, members));
+          return uids.isEmpty() ? null : uids;
+        });
+  }
+
+  /** @return whether the user stays subscribed to the topic. */
+  private boolean revokeIfNotMember(String uid, String topic, Optional<ThreadMembers> members) {
+    final boolean member = members.map(m -> m.isMember(uid)).orElse(false);
+    boolean subscribed = false;
+
+    for (WebsocketSession session : this.sessionStorage.getSessions(uid)) {
+      final Optional<TopicSubscription> subscription = session.getSubscription(topic);
+      if (subscription.isEmpty()) continue;
+
+      if (member) {
+        subscribed = true;
+      } else {
+        log.info("type=subscription_revoked; uid={}; destination={}", uid, topic);
+        this.sessionStorage.unsubscribe(uid, session.id(), subscription.get().id());
+        this.frameDispatcher.unsubscribe(session.id(), subscription.get().id());
+      }
+    }
+
+    return subscribed;
+  }
+}
@@ -0,0 +1,123 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.shared.datastructure.TimingWheel;
+import com.akmal.messengerspringbackend.websocket.dto.TypingStateDto;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps track of the users typing in the threads of the locally connected recipients. A typing
+ * event of an author keeps the author in the recipient's typing state for {@link
+ * MessagingConfigurationProperties.TypingConfig#getIndicatorTtl()}, repeated events only extend the
+ * deadline. The recipient receives the {@link TypingStateDto} only when the set of typing users
+ * changes, i.e. when someone starts typing or the indicator expires, the expiration is driven by
+ * the {@link TimingWheel}.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 22/07/2022 - 20:12
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+public class TypingStateTracker {
+  private final OutboundFrameDispatcher frameDispatcher;
+  private final Duration indicatorTtl;
+  private final Map<TypingKey, Map<String, Long>> deadlinesByKey = new ConcurrentHashMap<>();
+  private final TimingWheel<TypingEntry> timingWheel;
+
+  public TypingStateTracker(
+      OutboundFrameDispatcher frameDispatcher, MessagingConfigurationProperties messagingProps) {
+    final var typingProps = messagingProps.getTyping();
+    this.frameDispatcher = frameDispatcher;
+    this.indicatorTtl = typingProps.getIndicatorTtl();
+    this.timingWheel =
+        new TimingWheel<>(
+            typingProps.getTickDuration().toMillis(),
+            typingProps.getWheelSize(),
+            System.currentTimeMillis());
+  }
+
+  /**
+   * Registers that the author is typing in the thread of the recipient.
+   *
+   * @return typing state to be sent to the recipient, empty if the author was already typing.
+   */
+  public Optional<OutboundFrame> onTyping(
+      @NotNull String recipientId, @NotNull UUID threadId, @NotNull String authorId) {
+    final var key = new TypingKey(recipientId, threadId);
+    final long deadline = System.currentTimeMillis() + this.indicatorTtl.toMillis();
+    final var started = new AtomicBoolean();
+
+    this.deadlinesByKey.compute(
+        key,
+        (k, deadlines) -> {
+          final Map<String, Long> authorDeadlines =
+              deadlines != null ? deadlines : new ConcurrentHashMap<>();
+          started.set(authorDeadlines.put(authorId, deadline) == null);
+          return authorDeadlines;
+        });
+    this.timingWheel.schedule(new TypingEntry(key, authorId, deadline), deadline);
+
+    return started.get() ? Optional.of(this.stateFrame(key)) : Optional.empty();
+  }
+
+  /**
+   * Removes the author from the typing state without notifying the recipient, used once the
+   * message of the author arrives, since the client stops showing the indicator on its own.
+   */
+  public void clear(@NotNull String recipientId, @NotNull UUID threadId, @NotNull String authorId) {
+    this.deadlinesByKey.computeIfPresent(
+        new TypingKey(recipientId, threadId),
+        (k, deadlines) -> {
+          deadlines.remove(authorId);
+          return deadlines.isEmpty() ? null : deadlines;
+        });
+  }
+
+  /**
+   * Expires the indicators whose deadlines have passed and were not extended, the affected
+   * recipients receive their new typing states.
+   */
+  @Scheduled(fixedDelayString = "#{@messagingConfigurationProperties.typing.tickDuration.toMillis()}")
+  public void expireIndicators() {
+    for (TypingEntry entry : this.timingWheel.advance(System.currentTimeMillis())) {
+      final var expired = new AtomicBoolean();
+
+      this.deadlinesByKey.computeIfPresent(
+          entry.key(),
+          (k, deadlines) -> {
+            expired.set(deadlines.remove(entry.authorId(), entry.deadline()));
+            return deadlines.isEmpty() ? null : deadlines;
+          });
+
+      if (expired.get()) {
+        this.frameDispatcher.send(this.stateFrame(entry.key()));
+      }
+    }
+  }
+
+  private OutboundFrame stateFrame(TypingKey key) {
+    final Map<String, Long> deadlines = this.deadlinesByKey.get(key);
+    final List<String> userIds = deadlines != null ? List.copyOf(deadlines.keySet()) : List.of();
+
+    return OutboundFrame.of(
+        key.recipientId(),
+        WebSocketConfiguration.TYPING_TOPIC.replace("/user", ""),
+        new TypingStateDto(key.threadId().toString(), userIds));
+  }
+
+  private record TypingKey(String recipientId, UUID threadId) {}
+
+  private record TypingEntry(TypingKey key, String authorId, long deadline) {}
+}
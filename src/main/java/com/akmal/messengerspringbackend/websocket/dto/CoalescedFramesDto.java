@@ -0,0 +1,24 @@
+package com.akmal.messengerspringbackend.websocket.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+
+/**
+ * Several frames of one user sent within a single STOMP frame, in the order they were produced.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 22/07/2022 - 17:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public record CoalescedFramesDto(List<Frame> frames) {
+
+  /**
+   * @param destination destination the client subscribed to, the frame would have been sent to.
+   * @param payload body of the frame.
+   * @param seq sequence of the frame, if it is kept for the replay.
+   */
+  public record Frame(
+      String destination, Object payload, @JsonInclude(JsonInclude.Include.NON_NULL) String seq) {}
+}
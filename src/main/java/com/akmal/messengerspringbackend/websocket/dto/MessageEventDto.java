@@ -31,14 +31,14 @@ public record MessageEventDto(
   public static MessageEventDto fromThreadMessageEvent(ThreadMessageEvent messageEvent, LocalDateTime timestamp) {
     return new MessageEventDto(
         messageEvent.getMessageId(),
-        messageEvent.getThreadId().toString(),
-        messageEvent.getThreadPictureUrl().toString(),
-        messageEvent.getThreadPictureThumbnailUrl().toString(),
-        messageEvent.getThreadName().toString(),
+        messageEvent.getThreadId(),
+        messageEvent.getThreadPictureUrl(),
+        messageEvent.getThreadPictureThumbnailUrl(),
+        messageEvent.getThreadName(),
         messageEvent.getBucket(),
-        messageEvent.getAuthorId().toString(),
-        messageEvent.getAuthorName().toString(),
-        messageEvent.getBody().toString(),
+        messageEvent.getAuthorId(),
+        messageEvent.getAuthorName(),
+        messageEvent.getBody(),
         timestamp,
         messageEvent.getRead(),
         messageEvent.getEdited(),
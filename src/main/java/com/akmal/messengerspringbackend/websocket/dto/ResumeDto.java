@@ -0,0 +1,33 @@
+package com.akmal.messengerspringbackend.websocket.dto;
+
+import java.util.List;
+
+/**
+ * Answer to the client that reconnected with the last sequence it has seen.
+ *
+ * @param seq last sequence of the user the client is up to date with once it applies the frames,
+ *     null if the user has no frames yet.
+ * @param complete whether the frames cover everything the client missed, if not the frames are
+ *     empty and the client has to reload the threads.
+ * @param frames missed frames in the order they were sent.
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 20:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public record ResumeDto(String seq, boolean complete, List<Frame> frames) {
+
+  public static ResumeDto incomplete(String seq) {
+    return new ResumeDto(seq, false, List.of());
+  }
+
+  /**
+   * @param seq sequence of the frame.
+   * @param destination destination the frame was sent to.
+   * @param payload body of the frame.
+   * @param broadcast whether the frame was also delivered by the thread broadcast, the client that
+   *     was subscribed to it has already received the frame.
+   */
+  public record Frame(String seq, String destination, Object payload, boolean broadcast) {}
+}
@@ -0,0 +1,14 @@
+package com.akmal.messengerspringbackend.websocket.dto;
+
+import java.util.List;
+
+/**
+ * Users that are currently typing in the thread, an empty list means nobody is typing anymore.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 22/07/2022 - 20:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+public record TypingStateDto(String threadId, List<String> userIds) {}
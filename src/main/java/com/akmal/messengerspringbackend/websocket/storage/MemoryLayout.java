@@ -0,0 +1,34 @@
+package com.akmal.messengerspringbackend.websocket.storage;
+
+/**
+ * Sizes of the objects on a 64-bit JVM with compressed references, used to estimate the memory
+ * the sessions retain. The estimate ignores padding between fields, it is meant for sizing the
+ * nodes, not for exact accounting.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 21:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+final class MemoryLayout {
+  static final int OBJECT_HEADER = 12;
+  static final int ARRAY_HEADER = 16;
+  static final int REFERENCE = 4;
+  private static final int STRING_FIELDS = REFERENCE + Integer.BYTES + 2 * Byte.BYTES;
+
+  private MemoryLayout() {}
+
+  static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  static long arrayBytes(int length, int elementBytes) {
+    return align(ARRAY_HEADER + (long) length * elementBytes);
+  }
+
+  /** Assumes latin-1 strings, which the ids are. */
+  static long stringBytes(String value) {
+    return align(OBJECT_HEADER + STRING_FIELDS) + arrayBytes(value.length(), Byte.BYTES);
+  }
+}
@@ -0,0 +1,227 @@
+package com.akmal.messengerspringbackend.websocket.storage;
+
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.repository.SessionLocationRepository;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cluster wide registry of the instances (nodes) that hold websocket sessions of the users. The
+ * node is identified by the consumer group id of the instance and owns the topic {@link
+ * MessagingConfigurationProperties.RoutingConfig#getNodeTopicPrefix()} + node id. The locations are
+ * written when a user connects and removed on disconnect, in between the instance periodically
+ * refreshes them, so the locations of a crashed instance expire on their own.
+ *
+ * <p>Once the routing is enabled the thread events are only published to the topics of the nodes
+ * the recipients are connected to, recipients without a session are skipped altogether.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 21/07/2022 - 18:32
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SessionLocationRegistry {
+  private final SessionLocationRepository sessionLocationRepository;
+  private final WebsocketSessionStorage sessionStorage;
+  private final MessagingConfigurationProperties messagingProps;
+  private final KafkaConfigurationProperties kafkaProps;
+  /**
+   * Users whose location this instance has written, the location of the user is saved and deleted
+   * under the lock of its entry, so the check of the sessions and the write are atomic.
+   */
+  private final Map<String, Boolean> localUids = new ConcurrentHashMap<>();
+
+  public boolean isEnabled() {
+    return this.messagingProps.getRouting().isEnabled();
+  }
+
+  public String getLocalNode() {
+    return this.kafkaProps.getGroupId();
+  }
+
+  public String getLocalNodeTopic() {
+    return this.messagingProps.getRouting().getNodeTopicPrefix().concat(this.getLocalNode());
+  }
+
+  public String getLocalEphemeralNodeTopic() {
+    return this.messagingProps
+        .getRouting()
+        .getEphemeralNodeTopicPrefix()
+        .concat(this.getLocalNode());
+  }
+
+  /**
+   * Topics the thread events listener of this instance consumes. The shared topic is consumed even
+   * when the routing is enabled, because instances that are not yet routing still publish there.
+   */
+  public String[] listenerTopics() {
+    final String sharedTopic = this.kafkaProps.getTopics().getThreadEvents();
+
+    return this.isEnabled()
+        ? new String[] {sharedTopic, this.getLocalNodeTopic()}
+        : new String[] {sharedTopic};
+  }
+
+  /** Topics the ephemeral events listener of this instance consumes. */
+  public String[] ephemeralListenerTopics() {
+    final String sharedTopic = this.kafkaProps.getTopics().getThreadEphemeralEvents();
+
+    return this.isEnabled()
+        ? new String[] {sharedTopic, this.getLocalEphemeralNodeTopic()}
+        : new String[] {sharedTopic};
+  }
+
+  /** Saves the location of the user, invoked once its session has been added to the storage. */
+  public void register(@NotNull String uid) {
+    if (!this.isEnabled()) return;
+
+    this.localUids.compute(
+        uid,
+        (id, registered) -> {
+          this.save(id);
+          return Boolean.TRUE;
+        });
+  }
+
+  /**
+   * Removes the location of the user, unless another device of the user is still connected. A
+   * device that connects concurrently either is seen as connected here or registers afterwards,
+   * the writes are issued in that order and timestamped by the driver, so the location survives.
+   */
+  public void unregister(@NotNull String uid) {
+    if (!this.isEnabled()) return;
+
+    this.localUids.computeIfPresent(
+        uid,
+        (id, registered) -> {
+          if (this.sessionStorage.isUserConnected(id)) return registered;
+
+          this.sessionLocationRepository.delete(id, this.getLocalNode());
+          return null;
+        });
+  }
+
+  /**
+   * @return whether the user has sessions on other instances, false without routing or if the
+   *     locations could not be read.
+   */
+  public boolean isConnectedElsewhere(@NotNull String uid) {
+    if (!this.isEnabled()) return false;
+
+    try {
+      final Set<String> nodes =
+          this.sessionLocationRepository.findNodesByUids(List.of(uid)).getOrDefault(uid, Set.of());
+      return nodes.stream().anyMatch(node -> !node.equals(this.getLocalNode()));
+    } catch (RuntimeException e) {
+      log.warn("type=session_location_read_failed; uid={}", uid, e);
+      return false;
+    }
+  }
+
+  /**
+   * Groups the users by the topics their events have to be published to. Without routing (or if
+   * the locations could not be read) all the users are mapped to the shared thread events topic.
+   *
+   * @param uids recipients of the event.
+   * @return topic to the recipients whose events are published there.
+   */
+  public Map<String, List<String>> routeByTopic(@NotNull Collection<String> uids) {
+    return this.route(
+        uids,
+        this.kafkaProps.getTopics().getThreadEvents(),
+        this.messagingProps.getRouting().getNodeTopicPrefix());
+  }
+
+  /**
+   * Same as {@link SessionLocationRegistry#routeByTopic(Collection)}, but for the topics of the
+   * ephemeral events.
+   */
+  public Map<String, List<String>> routeEphemeralByTopic(@NotNull Collection<String> uids) {
+    return this.route(
+        uids,
+        this.kafkaProps.getTopics().getThreadEphemeralEvents(),
+        this.messagingProps.getRouting().getEphemeralNodeTopicPrefix());
+  }
+
+  private Map<String, List<String>> route(
+      Collection<String> uids, String sharedTopic, String nodeTopicPrefix) {
+    final var routes = new HashMap<String, List<String>>();
+    if (uids.isEmpty()) return routes;
+
+    if (!this.isEnabled()) {
+      routes.put(sharedTopic, new ArrayList<>(uids));
+      return routes;
+    }
+
+    final Map<String, Set<String>> nodesByUid;
+
+    try {
+      nodesByUid = this.sessionLocationRepository.findNodesByUids(uids);
+    } catch (RuntimeException e) {
+      log.warn("type=session_location_read_failed; falling back to the shared topic", e);
+      routes.put(sharedTopic, new ArrayList<>(uids));
+      return routes;
+    }
+
+    for (Map.Entry<String, Set<String>> entry : nodesByUid.entrySet()) {
+      for (String node : entry.getValue()) {
+        routes.computeIfAbsent(nodeTopicPrefix.concat(node), topic -> new ArrayList<>()).add(entry.getKey());
+      }
+    }
+
+    return routes;
+  }
+
+  @Scheduled(
+      initialDelayString = "#{@messagingConfigurationProperties.routing.refreshInterval.toMillis()}",
+      fixedDelayString = "#{@messagingConfigurationProperties.routing.refreshInterval.toMillis()}")
+  public void refreshLocalSessions() {
+    if (!this.isEnabled()) return;
+
+    for (String uid : this.localUids.keySet()) {
+      this.localUids.computeIfPresent(uid, (id, registered) -> this.saveIfConnected(id));
+    }
+  }
+
+  /** Removes the locations of all the local users, the instance is shutting down. */
+  @PreDestroy
+  public void unregisterAll() {
+    for (String uid : this.localUids.keySet()) {
+      if (this.localUids.remove(uid) != null) {
+        this.sessionLocationRepository.delete(uid, this.getLocalNode());
+      }
+    }
+  }
+
+  /** @return null, i.e. the user is no longer local, if its location has been deleted. */
+  private Boolean saveIfConnected(String uid) {
+    if (this.sessionStorage.isUserConnected(uid)) {
+      this.save(uid);
+      return Boolean.TRUE;
+    }
+
+    this.sessionLocationRepository.delete(uid, this.getLocalNode());
+    return null;
+  }
+
+  private void save(String uid) {
+    this.sessionLocationRepository.save(
+        uid, this.getLocalNode(), this.messagingProps.getRouting().getSessionTtl());
+  }
+}
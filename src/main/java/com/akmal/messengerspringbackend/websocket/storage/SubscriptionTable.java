@@ -0,0 +1,188 @@
+package com.akmal.messengerspringbackend.websocket.storage;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Immutable open addressing table of the subscriptions of one session, keyed by the interned topic
+ * id (see {@link TopicIds}). The entries are kept in flat parallel arrays, slots of the topic ids
+ * hold {@code id + 1}, so zero marks an empty slot. Collisions are resolved by linear probing and
+ * the table is kept at most half full.
+ *
+ * <p>Sessions subscribe rarely and are looked up on every delivered event, hence every change
+ * builds a new table and the readers never lock.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 21:15
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+final class SubscriptionTable {
+  static final SubscriptionTable EMPTY = new SubscriptionTable(0);
+  private static final int MIN_CAPACITY = 4;
+  private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+  private final int[] topicSlots;
+  private final long[] joinedAtMillis;
+  private final String[] subscriptionIds;
+  /** Ordinals of the frame encodings the subscriptions negotiated. */
+  private final byte[] encodings;
+  private final int size;
+
+  private SubscriptionTable(int capacity) {
+    this.topicSlots = new int[capacity];
+    this.joinedAtMillis = new long[capacity];
+    this.subscriptionIds = new String[capacity];
+    this.encodings = new byte[capacity];
+    this.size = 0;
+  }
+
+  private SubscriptionTable(
+      int[] topicSlots,
+      long[] joinedAtMillis,
+      String[] subscriptionIds,
+      byte[] encodings,
+      int size) {
+    this.topicSlots = topicSlots;
+    this.joinedAtMillis = joinedAtMillis;
+    this.subscriptionIds = subscriptionIds;
+    this.encodings = encodings;
+    this.size = size;
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  /** @return slot of the topic or -1 if the session is not subscribed to it. */
+  int indexOf(int topicId) {
+    if (this.size == 0 || topicId < 0) return -1;
+
+    final int mask = this.topicSlots.length - 1;
+    for (int i = slotOf(topicId, mask); ; i = (i + 1) & mask) {
+      final int slot = this.topicSlots[i];
+      if (slot == 0) return -1;
+      if (slot == topicId + 1) return i;
+    }
+  }
+
+  int topicIdAt(int index) {
+    return this.topicSlots[index] - 1;
+  }
+
+  long joinedAtMillisAt(int index) {
+    return this.joinedAtMillis[index];
+  }
+
+  String subscriptionIdAt(int index) {
+    return this.subscriptionIds[index];
+  }
+
+  int encodingAt(int index) {
+    return this.encodings[index];
+  }
+
+  void forEachTopicId(@NotNull IntConsumer action) {
+    for (int i = 0; i < this.topicSlots.length; i++) {
+      if (this.topicSlots[i] != 0) action.accept(this.topicIdAt(i));
+    }
+  }
+
+  /** @return slot of the subscription or -1 if there is no subscription with the id. */
+  int indexOfSubscription(@NotNull String subscriptionId) {
+    for (int i = 0; i < this.subscriptionIds.length; i++) {
+      if (this.topicSlots[i] != 0 && subscriptionId.equals(this.subscriptionIds[i])) return i;
+    }
+    return -1;
+  }
+
+  /** @return copy of the table with the subscription, replacing the one of the same topic. */
+  SubscriptionTable with(
+      int topicId, @NotNull String subscriptionId, long joinedAtMillis, int encoding) {
+    final int existing = this.indexOf(topicId);
+    final int newSize = existing < 0 ? this.size + 1 : this.size;
+    final var table = this.rehash(capacityFor(newSize), existing);
+
+    table.insert(topicId, subscriptionId, joinedAtMillis, (byte) encoding);
+    return new SubscriptionTable(
+        table.topicSlots, table.joinedAtMillis, table.subscriptionIds, table.encodings, newSize);
+  }
+
+  /** @return copy of the table without the slot. */
+  SubscriptionTable without(int index) {
+    if (this.size == 1) return EMPTY;
+
+    final var table = this.rehash(capacityFor(this.size - 1), index);
+    return new SubscriptionTable(
+        table.topicSlots,
+        table.joinedAtMillis,
+        table.subscriptionIds,
+        table.encodings,
+        this.size - 1);
+  }
+
+  /** @return approximate retained heap size of the table, excluding the interned topics. */
+  long estimatedBytes() {
+    if (this == EMPTY) return 0;
+
+    long bytes =
+        MemoryLayout.OBJECT_HEADER + 4L * MemoryLayout.REFERENCE + Integer.BYTES
+            + MemoryLayout.arrayBytes(this.topicSlots.length, Integer.BYTES)
+            + MemoryLayout.arrayBytes(this.joinedAtMillis.length, Long.BYTES)
+            + MemoryLayout.arrayBytes(this.subscriptionIds.length, MemoryLayout.REFERENCE)
+            + MemoryLayout.arrayBytes(this.encodings.length, Byte.BYTES);
+
+    for (String subscriptionId : this.subscriptionIds) {
+      if (subscriptionId != null) bytes += MemoryLayout.stringBytes(subscriptionId);
+    }
+    return MemoryLayout.align(bytes);
+  }
+
+  private SubscriptionTable rehash(int capacity, int skippedIndex) {
+    final var table = new SubscriptionTable(capacity);
+
+    for (int i = 0; i < this.topicSlots.length; i++) {
+      if (this.topicSlots[i] != 0 && i != skippedIndex) {
+        table.insert(
+            this.topicIdAt(i), this.subscriptionIds[i], this.joinedAtMillis[i], this.encodings[i]);
+      }
+    }
+    return table;
+  }
+
+  /** Writes into a table under construction, which is not yet visible to the readers. */
+  private void insert(int topicId, String subscriptionId, long joinedAtMillis, byte encoding) {
+    final int mask = this.topicSlots.length - 1;
+    int i = slotOf(topicId, mask);
+
+    while (this.topicSlots[i] != 0) {
+      i = (i + 1) & mask;
+    }
+
+    this.topicSlots[i] = topicId + 1;
+    this.subscriptionIds[i] = subscriptionId;
+    this.joinedAtMillis[i] = joinedAtMillis;
+    this.encodings[i] = encoding;
+  }
+
+  private static int slotOf(int topicId, int mask) {
+    final int hash = topicId * GOLDEN_RATIO;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  private static int capacityFor(int size) {
+    return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size * 2 - 1)) << 1);
+  }
+
+  @Override
+  public String toString() {
+    final var topics = new String[this.size];
+    int n = 0;
+    for (int i = 0; i < this.topicSlots.length; i++) {
+      if (this.topicSlots[i] != 0) topics[n++] = TopicIds.topicOf(this.topicIdAt(i));
+    }
+    return Arrays.toString(topics);
+  }
+}
@@ -0,0 +1,78 @@
+package com.akmal.messengerspringbackend.websocket.storage;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interns the subscription topics into dense int ids, so the sessions keep a 4 byte id per
+ * subscription instead of a reference to their own copy of the destination string. The same
+ * thread topic subscribed by many users is stored once. The ids are reference counted by the
+ * subscriptions: the id of the topic that nobody is subscribed to anymore is released and reused
+ * for the next topic, so the table holds only the topics of the current subscriptions.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 21:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+final class TopicIds {
+  static final int UNKNOWN = -1;
+
+  private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+  private static final Deque<Integer> RELEASED_IDS = new ArrayDeque<>();
+  private static volatile String[] topics = new String[1024];
+  private static int[] referenceCounts = new int[1024];
+  private static int nextId = 0;
+
+  private TopicIds() {}
+
+  /**
+   * Must be paired with {@link TopicIds#release(int)} once the subscription is removed.
+   *
+   * @return id of the topic, assigned on the first call.
+   */
+  static synchronized int acquire(@NotNull String topic) {
+    final Integer existingId = IDS.get(topic);
+    final int id;
+
+    if (existingId != null) {
+      id = existingId;
+    } else {
+      id = RELEASED_IDS.isEmpty() ? nextId++ : RELEASED_IDS.pop();
+      if (id == topics.length) {
+        referenceCounts = Arrays.copyOf(referenceCounts, topics.length * 2);
+        topics = Arrays.copyOf(topics, topics.length * 2);
+      }
+      topics[id] = topic;
+      IDS.put(topic, id); // published after the topic is readable by its id
+    }
+
+    referenceCounts[id]++;
+    return id;
+  }
+
+  /** Releases the id of the topic once its last subscription is removed. */
+  static synchronized void release(int id) {
+    if (--referenceCounts[id] > 0) return;
+
+    IDS.remove(topics[id]);
+    topics[id] = null;
+    RELEASED_IDS.push(id);
+  }
+
+  /** @return id of the topic or {@link TopicIds#UNKNOWN} if nobody is subscribed to it. */
+  static int find(@NotNull String topic) {
+    final Integer id = IDS.get(topic);
+    return id != null ? id : UNKNOWN;
+  }
+
+  /** @return topic of the id, null if the id has been released. */
+  static String topicOf(int id) {
+    return topics[id];
+  }
+}
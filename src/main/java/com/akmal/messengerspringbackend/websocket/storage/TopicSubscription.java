@@ -1,9 +1,12 @@
 package com.akmal.messengerspringbackend.websocket.storage;
 
+import com.akmal.messengerspringbackend.websocket.delivery.FrameEncoding;
 import java.time.Instant;
 import lombok.Builder;
 
 /**
+ * @param encoding encoding of the frames the client negotiated for the subscription, null stands
+ *     for {@link FrameEncoding#JSON}.
  * @author Akmal Alikhujaev
  * @version 1.0
  * @created 22/06/2022 - 18:05
@@ -14,7 +17,8 @@ import lombok.Builder;
 public record TopicSubscription(
   String topic,
   Instant joinedAt,
-  String id
+  String id,
+  FrameEncoding encoding
 ) {
 
 }
@@ -1,25 +1,200 @@
 package com.akmal.messengerspringbackend.websocket.storage;
 
-import java.net.InetAddress;
+import com.akmal.messengerspringbackend.websocket.delivery.FrameEncoding;
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.util.Set;
+import java.util.Optional;
 import lombok.Builder;
+import org.jetbrains.annotations.NotNull;
 
 /**
+ * Websocket (STOMP) session of one device of the user. The session is laid out to stay small with
+ * a million of them on one node: timestamps are epoch millis, and the subscriptions live in a
+ * {@link SubscriptionTable} keyed by the interned topic id. The table is replaced on every change,
+ * so the delivery reads it without locking.
+ *
+ * <p>The session remembers when the client was last heard from (any frame, heart-beats included),
+ * which lets {@code IdleSessionReaper} drop the sessions whose sockets died without a close.
+ *
  * @author Akmal Alikhujaev
  * @version 1.0
  * @created 18/06/2022 - 19:58
  * @project messenger-spring-backend
  * @since 1.0
  */
-@Builder(toBuilder = true)
-public record WebsocketSession(
-    InetAddress remoteAddress,
-    String uid,
-    Instant joinedAt,
-    Set<TopicSubscription> subscriptions,
-    String id
-) {
+public final class WebsocketSession {
+  private final String uid;
+  private final String id;
+  private final long joinedAtMillis;
+  private final int heartbeatMillis;
+  private final boolean coalescedFrames;
+  private volatile SubscriptionTable subscriptions = SubscriptionTable.EMPTY;
+  private volatile long lastActiveMillis;
+  private boolean removed;
 
+  /**
+   * @param heartbeatMillis interval of the heart-beats the client promised to send in its CONNECT
+   *     frame, zero if it sends none.
+   */
+  @Builder
+  public WebsocketSession(
+      String uid, String id, long joinedAtMillis, int heartbeatMillis, boolean coalescedFrames) {
+    this.uid = uid;
+    this.id = id;
+    this.joinedAtMillis = joinedAtMillis;
+    this.heartbeatMillis = heartbeatMillis;
+    this.coalescedFrames = coalescedFrames;
+    this.lastActiveMillis = joinedAtMillis;
+  }
+
+  public String uid() {
+    return this.uid;
+  }
+
+  public String id() {
+    return this.id;
+  }
+
+  public long joinedAtMillis() {
+    return this.joinedAtMillis;
+  }
+
+  public int heartbeatMillis() {
+    return this.heartbeatMillis;
+  }
+
+  public boolean coalescedFrames() {
+    return this.coalescedFrames;
+  }
+
+  public long lastActiveMillis() {
+    return this.lastActiveMillis;
+  }
+
+  /** Records that a frame of the client has been received. */
+  public void touch(long nowMillis) {
+    this.lastActiveMillis = nowMillis;
+  }
+
+  public Optional<TopicSubscription> getSubscription(@NotNull String topic) {
+    final SubscriptionTable table = this.subscriptions;
+    final int index = indexOf(table, topic);
+    if (index < 0) return Optional.empty();
+
+    return Optional.of(
+        new TopicSubscription(
+            topic,
+            Instant.ofEpochMilli(table.joinedAtMillisAt(index)),
+            table.subscriptionIdAt(index),
+            FrameEncoding.ofOrdinal(table.encodingAt(index))));
+  }
+
+  /**
+   * Allocation free variant of {@link WebsocketSession#getSubscription(String)} for the delivery.
+   *
+   * @return epoch millis the session subscribed to the topic at, -1 if it is not subscribed.
+   */
+  public long subscribedAtMillis(@NotNull String topic) {
+    final SubscriptionTable table = this.subscriptions;
+    final int index = indexOf(table, topic);
+    return index < 0 ? -1 : table.joinedAtMillisAt(index);
+  }
+
+  /** @return encoding the session negotiated for the topic, JSON if it is not subscribed. */
+  public FrameEncoding encodingOf(@NotNull String topic) {
+    final SubscriptionTable table = this.subscriptions;
+    final int index = indexOf(table, topic);
+    return index < 0 ? FrameEncoding.JSON : FrameEncoding.ofOrdinal(table.encodingAt(index));
+  }
+
+  public boolean isSubscribedTo(@NotNull String topic) {
+    return indexOf(this.subscriptions, topic) >= 0;
+  }
+
+  /**
+   * Adds the subscription, replacing the previous subscription of the same topic. Ignored once the
+   * session has been removed, see {@link WebsocketSession#unsubscribeAll()}.
+   */
+  synchronized void subscribe(@NotNull TopicSubscription subscription) {
+    if (this.removed) return;
+
+    final SubscriptionTable table = this.subscriptions;
+    final int topicId = TopicIds.acquire(subscription.topic());
+    final boolean replaced = table.indexOf(topicId) >= 0;
+
+    this.subscriptions =
+        table.with(
+            topicId,
+            subscription.id(),
+            subscription.joinedAt().toEpochMilli(),
+            subscription.encoding() == null
+                ? FrameEncoding.JSON.ordinal()
+                : subscription.encoding().ordinal());
+    // the replaced subscription holds the topic id already
+    if (replaced) TopicIds.release(topicId);
+  }
+
+  /**
+   * @param subscriptionId id the client assigned to the subscription.
+   * @return the removed subscription, if it existed.
+   */
+  synchronized Optional<TopicSubscription> unsubscribe(@NotNull String subscriptionId) {
+    final SubscriptionTable table = this.subscriptions;
+    final int index = table.indexOfSubscription(subscriptionId);
+    if (index < 0) return Optional.empty();
+
+    this.subscriptions = table.without(index);
+    final int topicId = table.topicIdAt(index);
+    final var removedSubscription =
+        new TopicSubscription(
+            TopicIds.topicOf(topicId),
+            Instant.ofEpochMilli(table.joinedAtMillisAt(index)),
+            subscriptionId,
+            FrameEncoding.ofOrdinal(table.encodingAt(index)));
+    TopicIds.release(topicId);
+    return Optional.of(removedSubscription);
+  }
+
+  /** Removes all the subscriptions of the session that has been removed from the storage. */
+  synchronized void unsubscribeAll() {
+    final SubscriptionTable table = this.subscriptions;
+    this.removed = true;
+    this.subscriptions = SubscriptionTable.EMPTY;
+    table.forEachTopicId(TopicIds::release);
+  }
+
+  /** @return approximate retained heap size of the session and its subscriptions. */
+  public long estimatedBytes() {
+    final long fields =
+        MemoryLayout.OBJECT_HEADER
+            + 3L * MemoryLayout.REFERENCE
+            + 2L * Long.BYTES
+            + Integer.BYTES
+            + 2;
+
+    return MemoryLayout.align(fields)
+        + MemoryLayout.stringBytes(this.id)
+        + this.subscriptions.estimatedBytes();
+  }
+
+  /**
+   * The reader may hold the table of a subscription that has just been removed, whose topic id has
+   * been released and reused for another topic.
+   */
+  private static int indexOf(SubscriptionTable table, String topic) {
+    final int index = table.indexOf(TopicIds.find(topic));
+    return index >= 0 && topic.equals(TopicIds.topicOf(table.topicIdAt(index))) ? index : -1;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "WebsocketSession[uid=%s, id=%s, joinedAtMillis=%d, heartbeatMillis=%d, "
+            + "coalescedFrames=%b, subscriptions=%s]",
+        this.uid,
+        this.id,
+        this.joinedAtMillis,
+        this.heartbeatMillis,
+        this.coalescedFrames,
+        this.subscriptions);
+  }
 }
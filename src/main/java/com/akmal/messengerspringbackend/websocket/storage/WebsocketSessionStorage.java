@@ -1,8 +1,12 @@
 package com.akmal.messengerspringbackend.websocket.storage;
 
+import java.util.Collection;
 import java.util.Optional;
 
 /**
+ * Websocket sessions of the users connected to this instance. A user may be connected from
+ * several devices at once, each device has its own session and subscriptions.
+ *
  * @author Akmal Alikhujaev
  * @version 1.0
  * @created 14/06/2022 - 21:21
@@ -13,17 +17,28 @@ public interface WebsocketSessionStorage {
 
   void add(WebsocketSession websocketSession);
 
-  Optional<WebsocketSession> get(String uid);
+  /** @return sessions of all the devices of the user, empty if the user is not connected. */
+  Collection<WebsocketSession> getSessions(String uid);
 
-  Optional<TopicSubscription> getSubscription(String uid, String topic);
+  Optional<WebsocketSession> getSession(String uid, String sessionId);
 
-  boolean addSubscription(String uid, TopicSubscription sub);
+  boolean addSubscription(String uid, String sessionId, TopicSubscription sub);
 
-  void remove(String uid);
+  /**
+   * Removes the session of the device.
+   *
+   * @return the removed session, if it existed.
+   */
+  Optional<WebsocketSession> remove(String uid, String sessionId);
 
-  void unsubscribe(String uid, String topicName);
+  /**
+   * @param subscriptionId id the client assigned to the subscription, UNSUBSCRIBE frames carry
+   *     only the id.
+   */
+  void unsubscribe(String uid, String sessionId, String subscriptionId);
 
   boolean isUserConnected(String uid);
 
+  /** @return whether any of the devices of the user is subscribed to the topic. */
   boolean isUserSubscribedTo(String uid, String topicName);
 }
@@ -1,14 +1,28 @@
 package com.akmal.messengerspringbackend.websocket.storage;
 
-import java.util.HashSet;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.stereotype.Service;
 
 /**
+ * Keeps the sessions as uid → sessions of the user's devices. The devices are held in a plain
+ * array (almost always of one element) that is replaced atomically within the map's compute, so
+ * the lookups are a map read and a short scan. The per user entry is created and dropped together
+ * with the first and the last session of the user.
+ *
+ * <p>Reports the number of sessions and their estimated heap size, the latter is computed on every
+ * read of the gauge by walking all the sessions.
+ *
  * @author Akmal Alikhujaev
  * @version 1.0
  * @created 22/06/2022 - 18:14
@@ -17,79 +31,151 @@ import org.springframework.stereotype.Service;
  */
 @Service
 @Slf4j
-public class WebsocketSessionStorageImpl implements WebsocketSessionStorage {
-  public final Map<String, WebsocketSession> sessions = new ConcurrentHashMap<>();
+public class WebsocketSessionStorageImpl implements WebsocketSessionStorage, MeterBinder {
+  private static final WebsocketSession[] NO_SESSIONS = new WebsocketSession[0];
+  /** Map node of the user and its sessions array. */
+  private static final long USER_ENTRY_BYTES =
+      MemoryLayout.align(MemoryLayout.OBJECT_HEADER + Integer.BYTES + 3L * MemoryLayout.REFERENCE);
+
+  private final Map<String, WebsocketSession[]> sessions = new ConcurrentHashMap<>();
+  private final AtomicInteger sessionCount = new AtomicInteger();
 
   @Override
-  public void add(WebsocketSession websocketSession) {
+  public void add(@NotNull WebsocketSession websocketSession) {
     log.info("Adding websocket session {}", websocketSession);
-    this.sessions.put(websocketSession.uid(), websocketSession);
+    final var replaced = new WebsocketSession[1];
+
+    this.sessions.compute(websocketSession.uid(), (uid, userSessions) -> {
+      final WebsocketSession[] current = userSessions != null ? userSessions : NO_SESSIONS;
+      final int index = indexOf(current, websocketSession.id());
+
+      final WebsocketSession[] updated;
+      if (index < 0) {
+        updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = websocketSession;
+        this.sessionCount.incrementAndGet();
+      } else {
+        updated = current.clone();
+        replaced[0] = updated[index];
+        updated[index] = websocketSession;
+      }
+      return updated;
+    });
+
+    if (replaced[0] != null && replaced[0] != websocketSession) replaced[0].unsubscribeAll();
   }
 
   @Override
-  public Optional<WebsocketSession> get(@NotNull String uid) {
-    return Optional.ofNullable(this.sessions.get(uid));
+  public Collection<WebsocketSession> getSessions(@NotNull String uid) {
+    final WebsocketSession[] userSessions = this.sessions.get(uid);
+    return userSessions != null ? List.of(userSessions) : List.of();
   }
 
   @Override
-  public Optional<TopicSubscription> getSubscription(String uid, String topic) {
-    if (!this.sessions.containsKey(uid)) return Optional.empty();
+  public Optional<WebsocketSession> getSession(@NotNull String uid, @NotNull String sessionId) {
+    final WebsocketSession[] userSessions = this.sessions.get(uid);
+    if (userSessions == null) return Optional.empty();
 
-    return this.sessions.get(uid).subscriptions().stream()
-               .filter(sub -> sub.topic().equals(topic))
-               .findFirst();
+    final int index = indexOf(userSessions, sessionId);
+    return index < 0 ? Optional.empty() : Optional.of(userSessions[index]);
   }
 
   @Override
-  public boolean addSubscription(String uid, TopicSubscription sub) {
-    if (!this.isUserConnected(uid)) return false;
+  public boolean addSubscription(
+      @NotNull String uid, @NotNull String sessionId, @NotNull TopicSubscription sub) {
+    final var session = this.getSession(uid, sessionId);
+    if (session.isEmpty()) return false;
+
     log.info("Adding subscription for user {} sub: {}", uid, sub);
-    this.unsubscribe(uid, sub.topic());
+    session.get().subscribe(sub);
+    return true;
+  }
 
-    final var session =
-        this.sessions.get(uid).toBuilder()
-            .subscriptions(new HashSet<>(this.sessions.get(uid).subscriptions()))
-            .build();
+  @Override
+  public Optional<WebsocketSession> remove(@NotNull String uid, @NotNull String sessionId) {
+    final var removed = new WebsocketSession[1];
 
-    session.subscriptions().add(sub);
+    this.sessions.computeIfPresent(uid, (u, userSessions) -> {
+      final int index = indexOf(userSessions, sessionId);
+      if (index < 0) return userSessions;
 
-    this.sessions.put(session.uid(), session);
-    return true;
+      removed[0] = userSessions[index];
+      this.sessionCount.decrementAndGet();
+      if (userSessions.length == 1) return null;
+
+      final var updated = new WebsocketSession[userSessions.length - 1];
+      System.arraycopy(userSessions, 0, updated, 0, index);
+      System.arraycopy(userSessions, index + 1, updated, index, updated.length - index);
+      return updated;
+    });
+
+    if (removed[0] != null) removed[0].unsubscribeAll();
+    return Optional.ofNullable(removed[0]);
   }
 
   @Override
-  public void remove(String uid) {
-    this.sessions.remove(uid);
+  public void unsubscribe(
+      @NotNull String uid, @NotNull String sessionId, @NotNull String subscriptionId) {
+    this.getSession(uid, sessionId).ifPresent(session -> session.unsubscribe(subscriptionId));
   }
 
   @Override
-  public void unsubscribe(String uid, String topicName) {
-    if (this.isUserConnected(uid)) return;
-    final var session =
-        this.sessions.get(uid).toBuilder()
-            .subscriptions(new HashSet<>(this.sessions.get(uid).subscriptions()))
-            .build();
-
-    session.subscriptions().stream()
-        .filter(s -> s.topic().equals(topicName))
-        .findFirst()
-        .ifPresent(
-            s -> {
-              session.subscriptions().remove(s);
-              this.sessions.put(session.uid(), session);
-            });
+  public boolean isUserConnected(@NotNull String uid) {
+    return this.sessions.containsKey(uid);
   }
 
   @Override
-  public boolean isUserConnected(String uid) {
-    return this.sessions.containsKey(uid);
+  public boolean isUserSubscribedTo(@NotNull String uid, @NotNull String topicName) {
+    final WebsocketSession[] userSessions = this.sessions.get(uid);
+    if (userSessions == null) return false;
+
+    for (WebsocketSession session : userSessions) {
+      if (session.isSubscribedTo(topicName)) return true;
+    }
+    return false;
+  }
+
+  public int sessionCount() {
+    return this.sessionCount.get();
+  }
+
+  /** @return approximate heap retained by the registry, excluding the interned topics. */
+  public long estimatedBytes() {
+    long bytes = 0;
+
+    for (Map.Entry<String, WebsocketSession[]> entry : this.sessions.entrySet()) {
+      bytes +=
+          USER_ENTRY_BYTES
+              + MemoryLayout.stringBytes(entry.getKey())
+              + MemoryLayout.arrayBytes(entry.getValue().length, MemoryLayout.REFERENCE);
+
+      for (WebsocketSession session : entry.getValue()) {
+        bytes += session.estimatedBytes();
+      }
+    }
+    return bytes;
   }
 
   @Override
-  public boolean isUserSubscribedTo(String uid, String topicName) {
-    if (!this.sessions.containsKey(uid)) return false;
+  public void bindTo(@NotNull MeterRegistry registry) {
+    Gauge.builder("websocket.sessions", this, WebsocketSessionStorageImpl::sessionCount)
+        .description("Websocket sessions connected to this instance")
+        .register(registry);
+    Gauge.builder("websocket.session.bytes", this, WebsocketSessionStorageImpl::bytesPerSession)
+        .description("Estimated heap retained by the registry per connected session")
+        .baseUnit("bytes")
+        .register(registry);
+  }
+
+  private double bytesPerSession() {
+    final int count = this.sessionCount();
+    return count == 0 ? 0 : (double) this.estimatedBytes() / count;
+  }
 
-    return this.sessions.get(uid).subscriptions().stream()
-        .anyMatch(sub -> sub.topic().equals(topicName));
+  private static int indexOf(WebsocketSession[] userSessions, String sessionId) {
+    for (int i = 0; i < userSessions.length; i++) {
+      if (userSessions[i].id().equals(sessionId)) return i;
+    }
+    return -1;
   }
 }
@@ -0,0 +1,99 @@
+package com.akmal.messengerspringbackend.config.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.akmal.messengerspringbackend.thread.ThreadBroadcastMessageEvent;
+import com.akmal.messengerspringbackend.thread.ThreadMessageEvent;
+import com.akmal.messengerspringbackend.thread.ThreadPageInvalidationEvent;
+import com.akmal.messengerspringbackend.thread.ThreadPresenceEvent;
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.entities.SchemaReference;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import io.confluent.kafka.serializers.AbstractKafkaSchemaSerDeConfig;
+import io.confluent.kafka.serializers.KafkaAvroSerializer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.avro.Schema;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Serializes the ephemeral events the way the registry-configured producer does: the schemas are
+ * never registered by the application, the latest version of the subject registered by the
+ * kafka-schema-registry-maven-plugin is used.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 16:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class EphemeralEventSchemaTest {
+  private static final String TOPIC = "thread.events.ephemeral";
+  private static final String EVENT_TYPES =
+      "avro/com/akmal/messengerspringbackend/thread/thread-event-types.avsc";
+
+  private final MockSchemaRegistryClient schemaRegistry = new MockSchemaRegistryClient();
+  private final KafkaAvroSerializer serializer =
+      new KafkaAvroSerializer(
+          this.schemaRegistry,
+          Map.of(
+              AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG, "mock://registry",
+              AbstractKafkaSchemaSerDeConfig.AUTO_REGISTER_SCHEMAS, false,
+              AbstractKafkaSchemaSerDeConfig.USE_LATEST_VERSION, true));
+
+  @Test
+  @DisplayName("Should serialize the page invalidation with the registered event types union")
+  void shouldSerializeInvalidationWithEventTypes() throws IOException, RestClientException {
+    final var references = new ArrayList<SchemaReference>();
+    references.add(this.registerReference("thread.message.event", ThreadMessageEvent.SCHEMA$));
+    references.add(this.registerReference("thread.presence.event", ThreadPresenceEvent.SCHEMA$));
+    references.add(
+        this.registerReference(
+            "thread.broadcast.message.event", ThreadBroadcastMessageEvent.SCHEMA$));
+    references.add(
+        this.registerReference(
+            "thread.page.invalidation.event", ThreadPageInvalidationEvent.SCHEMA$));
+    final String eventTypes =
+        new String(
+            new ClassPathResource(EVENT_TYPES).getInputStream().readAllBytes(),
+            StandardCharsets.UTF_8);
+    this.schemaRegistry.register(
+        TOPIC + "-value",
+        this.schemaRegistry.parseSchema(AvroSchema.TYPE, eventTypes, references).orElseThrow());
+
+    final byte[] serialized = this.serializer.serialize(TOPIC, invalidationEvent());
+
+    assertThat(serialized).isNotEmpty();
+  }
+
+  @Test
+  @DisplayName("Should fail to serialize the page invalidation when the subject lacks its schema")
+  void shouldFailWhenSubjectLacksInvalidation() throws IOException, RestClientException {
+    this.schemaRegistry.register(TOPIC + "-value", new AvroSchema(ThreadPresenceEvent.SCHEMA$));
+
+    assertThatThrownBy(() -> this.serializer.serialize(TOPIC, invalidationEvent()))
+        .isInstanceOf(SerializationException.class);
+  }
+
+  private SchemaReference registerReference(String subject, Schema schema)
+      throws IOException, RestClientException {
+    this.schemaRegistry.register(subject, new AvroSchema(schema));
+    return new SchemaReference(schema.getFullName(), subject, 1);
+  }
+
+  private static ThreadPageInvalidationEvent invalidationEvent() {
+    return ThreadPageInvalidationEvent.newBuilder()
+        .setThreadId(UUID.randomUUID().toString())
+        .setUids(List.of("alice", "bob"))
+        .build();
+  }
+}
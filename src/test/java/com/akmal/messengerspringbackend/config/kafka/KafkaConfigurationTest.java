@@ -0,0 +1,123 @@
+package com.akmal.messengerspringbackend.config.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.exception.EntityNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.TopicConfig;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.ListenerExecutionFailedException;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 12:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class KafkaConfigurationTest {
+  private static final String ACCEPTED_TOPIC = "thread.messages.accepted";
+
+  @SuppressWarnings("unchecked")
+  private final KafkaOperations<Object, Object> template = mock(KafkaOperations.class);
+  private final Consumer<?, ?> consumer = mock(Consumer.class);
+  private final DefaultErrorHandler errorHandler =
+      new KafkaConfiguration(
+              new KafkaConfigurationProperties(), new MessagingConfigurationProperties())
+          .acceptedMessagesErrorHandler(this.template);
+
+  KafkaConfigurationTest() {
+    final var sendResult = new SettableListenableFuture<SendResult<Object, Object>>();
+    sendResult.set(null);
+    when(this.template.send(any(ProducerRecord.class))).thenReturn(sendResult);
+  }
+
+  @Test
+  @DisplayName("Should dead letter the message of a missing thread without retrying it")
+  @SuppressWarnings("unchecked")
+  void shouldDeadLetterMissingThreadRightAway() {
+    final var record = new ConsumerRecord<Object, Object>(ACCEPTED_TOPIC, 2, 10L, "thread", "m");
+
+    this.handle(record, new EntityNotFoundException("Thread was not found"));
+
+    final ArgumentCaptor<ProducerRecord<Object, Object>> deadLettered =
+        ArgumentCaptor.forClass(ProducerRecord.class);
+    verify(this.template).send(deadLettered.capture());
+    assertThat(deadLettered.getValue().topic()).isEqualTo(ACCEPTED_TOPIC + ".DLT");
+    assertThat(deadLettered.getValue().key()).isEqualTo("thread");
+    assertThat(deadLettered.getValue().value()).isEqualTo("m");
+    verify(this.consumer, never()).seek(any(TopicPartition.class), any(Long.class));
+  }
+
+  @Test
+  @DisplayName("Should retry the transient failure before dead lettering the message")
+  void shouldRetryTransientFailure() {
+    final var record = new ConsumerRecord<Object, Object>(ACCEPTED_TOPIC, 0, 5L, "thread", "m");
+
+    assertThatThrownBy(() -> this.handle(record, new QueryTimeoutException("Write timed out")))
+        .hasRootCauseInstanceOf(QueryTimeoutException.class);
+
+    verify(this.template, never()).send(any(ProducerRecord.class));
+    verify(this.consumer).seek(new TopicPartition(ACCEPTED_TOPIC, 0), 5L);
+  }
+
+  @Test
+  @DisplayName("Should keep the ephemeral events briefly and consume them in a separate group")
+  void shouldConfigureEphemeralEvents() throws ClassNotFoundException {
+    final var kafkaProps = new KafkaConfigurationProperties();
+    kafkaProps.setTopics(new KafkaConfigurationProperties.TopicNames());
+    kafkaProps.setGroupId("instance01");
+    final var messagingProps = new MessagingConfigurationProperties();
+    final var configuration = new KafkaConfiguration(kafkaProps, messagingProps);
+
+    final NewTopic sharedTopic = configuration.threadEphemeralEventsTopic();
+    final NewTopic nodeTopic = configuration.localNodeEphemeralEventsTopic();
+    final Map<String, Object> consumerProps = kafkaProps.ephemeralConsumerProps();
+
+    assertThat(sharedTopic.name()).isEqualTo("thread.events.ephemeral");
+    assertThat(nodeTopic.name())
+        .isEqualTo(messagingProps.getRouting().getEphemeralNodeTopicPrefix() + "instance01");
+    assertThat(List.of(sharedTopic, nodeTopic))
+        .allSatisfy(
+            topic ->
+                assertThat(topic.configs())
+                    .containsEntry(
+                        TopicConfig.RETENTION_MS_CONFIG,
+                        String.valueOf(kafkaProps.getEphemeral().getRetention().toMillis())));
+    assertThat(consumerProps)
+        .containsEntry(ConsumerConfig.GROUP_ID_CONFIG, "instance01-ephemeral")
+        .containsEntry(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+  }
+
+  private void handle(ConsumerRecord<Object, Object> record, RuntimeException cause) {
+    final List<ConsumerRecord<?, ?>> records = new ArrayList<>(List.of(record));
+    this.errorHandler.handleRemaining(
+        new ListenerExecutionFailedException("Listener failed", cause),
+        records,
+        this.consumer,
+        mock(MessageListenerContainer.class));
+  }
+}
@@ -0,0 +1,85 @@
+package com.akmal.messengerspringbackend.config.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties.ProducerProfile;
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties.SchemaRegistryConfig;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.condition.EmbeddedKafkaCondition;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+
+/**
+ * Smoke test of the built-in producer profiles against an embedded broker: each of them delivers a
+ * message fan-out to the recipients.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 17:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+@EmbeddedKafka(
+    partitions = 3,
+    topics = {"fanout.default", "fanout.throughput", "fanout.ephemeral"})
+class ProducerProfilesFanoutTest {
+  private static final int RECIPIENTS = 100;
+  private static final int MESSAGES = 5;
+
+  /** Roughly the size of a serialized message event, repetitive enough to be compressible. */
+  private static final byte[] PAYLOAD =
+      ("{\"threadId\":\"" + UUID.randomUUID() + "\",\"authorName\":\"John Doe\",\"body\":\""
+              + "Hello there, this is a message that is delivered to every member of the thread"
+                  .repeat(4)
+              + "\"}")
+          .getBytes(StandardCharsets.UTF_8);
+
+  @ParameterizedTest(name = "{0}")
+  @ValueSource(
+      strings = {ProducerProfile.DEFAULT, ProducerProfile.THROUGHPUT, ProducerProfile.EPHEMERAL})
+  @DisplayName("Should deliver the fan-out of the messages with every producer profile")
+  void shouldDeliverFanout(String profile) throws Exception {
+    final EmbeddedKafkaBroker broker = EmbeddedKafkaCondition.getBroker();
+    final var kafkaProps = new KafkaConfigurationProperties();
+    kafkaProps.setBootstrapServers(broker.getBrokersAsString());
+    kafkaProps.setKeySerializer(StringSerializer.class.getName());
+    kafkaProps.setValueSerializer(ByteArraySerializer.class.getName());
+    kafkaProps.setSchemaRegistry(SchemaRegistryConfig.builder().enabled(false).build());
+
+    final var producerFactory =
+        new DefaultKafkaProducerFactory<String, byte[]>(kafkaProps.producerProps(profile));
+    final var template = new KafkaTemplate<>(producerFactory);
+    final var sent = new ArrayList<CompletableFuture<SendResult<String, byte[]>>>();
+
+    try {
+      // keyed by the recipient as the delivery does
+      for (int message = 0; message < MESSAGES; message++) {
+        for (int recipient = 0; recipient < RECIPIENTS; recipient++) {
+          sent.add(
+              template.send("fanout." + profile, "user-" + recipient, PAYLOAD).completable());
+        }
+      }
+      template.flush();
+
+      CompletableFuture.allOf(sent.toArray(CompletableFuture[]::new)).join();
+
+      assertThat(sent)
+          .extracting(future -> future.join().getRecordMetadata().hasOffset())
+          .containsOnly(true)
+          .hasSize(MESSAGES * RECIPIENTS);
+    } finally {
+      producerFactory.destroy();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package com.akmal.messengerspringbackend.config.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.model.User;
+import com.akmal.messengerspringbackend.service.UserService;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.config.annotation.web.messaging.MessageSecurityMetadataSourceRegistry;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.messaging.access.expression.DefaultMessageSecurityExpressionHandler;
+import org.springframework.security.messaging.access.expression.MessageExpressionVoter;
+import org.springframework.security.messaging.access.intercept.MessageSecurityMetadataSource;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 10:50
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class WebsocketSecurityConfigurationTest {
+  private static final String UID = "member";
+  private static final UUID MEMBER_THREAD = UUID.randomUUID();
+  private static final UUID OTHER_THREAD = UUID.randomUUID();
+
+  private final TestingAuthenticationToken authentication =
+      new TestingAuthenticationToken(UID, null, "ROLE_USER");
+  private final MessageExpressionVoter<Object> voter = new MessageExpressionVoter<>();
+  private final MessageSecurityMetadataSource metadataSource = metadataSource();
+
+  @AfterEach
+  void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  @Test
+  @DisplayName("Should let only the members subscribe to the thread broadcast")
+  void shouldAuthorizeMembersOfThreadBroadcast() {
+    assertThat(this.vote(StompCommand.SUBSCRIBE, "/topic/threads/" + MEMBER_THREAD))
+        .isEqualTo(AccessDecisionVoter.ACCESS_GRANTED);
+    assertThat(this.vote(StompCommand.SUBSCRIBE, "/topic/threads/" + OTHER_THREAD))
+        .isEqualTo(AccessDecisionVoter.ACCESS_DENIED);
+    assertThat(this.vote(StompCommand.SEND, "/topic/threads/" + MEMBER_THREAD))
+        .isEqualTo(AccessDecisionVoter.ACCESS_DENIED);
+  }
+
+  @Test
+  @DisplayName("Should reject the subscriptions to the patterns and other topics")
+  void shouldRejectPatternSubscriptions() {
+    assertThat(this.vote(StompCommand.SUBSCRIBE, "/topic/**"))
+        .isEqualTo(AccessDecisionVoter.ACCESS_DENIED);
+    assertThat(this.vote(StompCommand.SUBSCRIBE, "/topic/*/" + MEMBER_THREAD))
+        .isEqualTo(AccessDecisionVoter.ACCESS_DENIED);
+    assertThat(this.vote(StompCommand.SUBSCRIBE, "/topic/threads/" + MEMBER_THREAD + "*"))
+        .isEqualTo(AccessDecisionVoter.ACCESS_DENIED);
+    assertThat(this.vote(StompCommand.SUBSCRIBE, "/user/queue/threads/*"))
+        .isEqualTo(AccessDecisionVoter.ACCESS_DENIED);
+    assertThat(this.vote(StompCommand.SUBSCRIBE, "/topic/greetings"))
+        .isEqualTo(AccessDecisionVoter.ACCESS_DENIED);
+    assertThat(this.vote(StompCommand.SUBSCRIBE, "/user/queue/notifications"))
+        .isEqualTo(AccessDecisionVoter.ACCESS_GRANTED);
+  }
+
+  private int vote(StompCommand command, String destination) {
+    final var accessor = StompHeaderAccessor.create(command);
+    accessor.setDestination(destination);
+    accessor.setSessionId("session");
+    accessor.setUser(this.authentication);
+    final Message<Object> message =
+        MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+
+    SecurityContextHolder.getContext().setAuthentication(this.authentication);
+    return this.voter.vote(
+        this.authentication, message, this.metadataSource.getAttributes(message));
+  }
+
+  private MessageSecurityMetadataSource metadataSource() {
+    final var userService = mock(UserService.class);
+    when(userService.getCurrentUser())
+        .thenReturn(User.builder().uid(UID).threadIds(Set.of(MEMBER_THREAD)).build());
+    final var context = new GenericApplicationContext();
+    context.registerBean("userService", UserService.class, () -> userService);
+    context.refresh();
+
+    final var expressionHandler = new DefaultMessageSecurityExpressionHandler<Object>();
+    expressionHandler.setApplicationContext(context);
+    this.voter.setExpressionHandler(expressionHandler);
+
+    final var registry = new MetadataSourceRegistry();
+    registry.expressionHandler(expressionHandler);
+    new WebsocketSecurityConfiguration().configureInbound(registry);
+    return registry.createMetadataSource();
+  }
+
+  /** Exposes the metadata source the configurer builds for the channel security interceptor. */
+  private static class MetadataSourceRegistry extends MessageSecurityMetadataSourceRegistry {
+
+    @Override
+    public MessageSecurityMetadataSource createMetadataSource() {
+      return super.createMetadataSource();
+    }
+  }
+}
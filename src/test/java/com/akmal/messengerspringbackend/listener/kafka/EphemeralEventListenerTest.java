@@ -0,0 +1,86 @@
+package com.akmal.messengerspringbackend.listener.kafka;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.service.MessageDeliveryService;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService.RecipientEvent;
+import com.akmal.messengerspringbackend.shared.pagination.MessagePrefetchCache;
+import com.akmal.messengerspringbackend.thread.PresenceEventType;
+import com.akmal.messengerspringbackend.thread.ThreadEventKey;
+import com.akmal.messengerspringbackend.thread.ThreadPageInvalidationEvent;
+import com.akmal.messengerspringbackend.thread.ThreadPresenceEvent;
+import com.akmal.messengerspringbackend.websocket.delivery.LocalEventDelivery;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrame;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrameDispatcher;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 14:40
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class EphemeralEventListenerTest {
+  private static final UUID THREAD_ID = UUID.randomUUID();
+  private static final byte[] LOCAL_ORIGIN = {1};
+
+  private final MessageDeliveryService deliveryService = mock(MessageDeliveryService.class);
+  private final OutboundFrameDispatcher frameDispatcher = mock(OutboundFrameDispatcher.class);
+  private final LocalEventDelivery localEventDelivery = mock(LocalEventDelivery.class);
+  private final MessagePrefetchCache prefetchCache = mock(MessagePrefetchCache.class);
+  private final EphemeralEventListener listener =
+      new EphemeralEventListener(
+          this.deliveryService, this.frameDispatcher, this.localEventDelivery, this.prefetchCache);
+
+  EphemeralEventListenerTest() {
+    when(this.localEventDelivery.isLocalOrigin(LOCAL_ORIGIN)).thenReturn(true);
+  }
+
+  @Test
+  @DisplayName("Should deliver the typing event unless it was already delivered in-process")
+  void shouldDeliverTypingEventOfOtherInstance() {
+    final ThreadEventKey key = key("bob");
+    final var typingEvent =
+        ThreadPresenceEvent.newBuilder().setType(PresenceEventType.TYPING).setUid("alice").build();
+    final var recipientEvent = new RecipientEvent("bob", THREAD_ID, typingEvent);
+    final var frame = OutboundFrame.of("bob", "/queue/typing", "typing");
+    when(this.deliveryService.expandThreadEvent(key, typingEvent))
+        .thenReturn(List.of(recipientEvent));
+    when(this.deliveryService.prepareFrame(recipientEvent)).thenReturn(List.of(frame));
+
+    this.listener.listenToEvents(typingEvent, key, LOCAL_ORIGIN);
+
+    verify(this.frameDispatcher, never()).send(any());
+
+    this.listener.listenToEvents(typingEvent, key, null);
+
+    verify(this.frameDispatcher).send(frame);
+  }
+
+  @Test
+  @DisplayName("Should apply the first page invalidation published by any instance")
+  void shouldApplyInvalidationOfAnyInstance() {
+    final var invalidationEvent =
+        ThreadPageInvalidationEvent.newBuilder()
+            .setThreadId(THREAD_ID.toString())
+            .setUids(List.of("bob"))
+            .build();
+
+    this.listener.listenToEvents(invalidationEvent, key(""), LOCAL_ORIGIN);
+
+    verify(this.prefetchCache).onInvalidation(invalidationEvent);
+    verify(this.deliveryService, never()).expandThreadEvent(any(), any());
+  }
+
+  private static ThreadEventKey key(String uid) {
+    return ThreadEventKey.newBuilder().setThreadId(THREAD_ID.toString()).setUid(uid).build();
+  }
+}
@@ -0,0 +1,123 @@
+package com.akmal.messengerspringbackend.listener.kafka;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService.RecipientEvent;
+import com.akmal.messengerspringbackend.shared.concurrent.KeyOrderedExecutor;
+import com.akmal.messengerspringbackend.thread.ThreadEventKey;
+import com.akmal.messengerspringbackend.thread.ThreadMessageEvent;
+import com.akmal.messengerspringbackend.websocket.delivery.LocalEventDelivery;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrame;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrameDispatcher;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.KafkaException;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 13:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class ThreadEventBatchListenerTest {
+  private static final UUID THREAD_ID = UUID.randomUUID();
+  private static final String THREAD_DESTINATION = "/queue/threads/" + THREAD_ID;
+
+  private final MessageDeliveryService deliveryService = mock(MessageDeliveryService.class);
+  private final OutboundFrameDispatcher frameDispatcher = mock(OutboundFrameDispatcher.class);
+  private final KeyOrderedExecutor threadEventsExecutor = mock(KeyOrderedExecutor.class);
+  private final MessagingConfigurationProperties messagingProps =
+      new MessagingConfigurationProperties();
+  private final ThreadEventBatchListener listener =
+      new ThreadEventBatchListener(
+          this.deliveryService,
+          this.frameDispatcher,
+          this.threadEventsExecutor,
+          mock(LocalEventDelivery.class),
+          this.messagingProps);
+
+  ThreadEventBatchListenerTest() {
+    when(this.deliveryService.expandThreadEvent(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              final ThreadEventKey key = invocation.getArgument(0);
+              return List.of(
+                  new RecipientEvent(key.getUid(), THREAD_ID, invocation.getArgument(1)));
+            });
+    when(this.deliveryService.prepareFrame(any()))
+        .thenAnswer(
+            invocation -> {
+              final RecipientEvent recipientEvent = invocation.getArgument(0);
+              final var event = (ThreadMessageEvent) recipientEvent.event();
+              return List.of(
+                  OutboundFrame.of(recipientEvent.userId(), THREAD_DESTINATION, event.getBody()));
+            });
+  }
+
+  @Test
+  @DisplayName("Should deliver the events of the batch by a single write per user")
+  void shouldDeliverEventsOfUserTogether() throws InterruptedException {
+    doAnswer(
+            invocation -> {
+              invocation.<Runnable>getArgument(1).run();
+              return null;
+            })
+        .when(this.threadEventsExecutor)
+        .execute(any(), any());
+
+    this.listener.listenToEvents(
+        List.of(record("alice", "first"), record("bob", "hello"), record("alice", "second")));
+
+    verify(this.frameDispatcher)
+        .sendAll(
+            "alice",
+            List.of(
+                OutboundFrame.of("alice", THREAD_DESTINATION, "first"),
+                OutboundFrame.of("alice", THREAD_DESTINATION, "second")));
+    verify(this.frameDispatcher)
+        .sendAll("bob", List.of(OutboundFrame.of("bob", THREAD_DESTINATION, "hello")));
+  }
+
+  @Test
+  @DisplayName("Should fail the batch when its deliveries do not complete in time")
+  void shouldFailBatchOnDeliveryTimeout() {
+    this.messagingProps.getDelivery().setBatchDeliveryTimeout(Duration.ofMillis(50));
+
+    assertThatThrownBy(() -> this.listener.listenToEvents(List.of(record("alice", "first"))))
+        .isInstanceOf(KafkaException.class)
+        .hasMessageContaining("pending=1");
+    verify(this.frameDispatcher, never()).sendAll(anyString(), any());
+  }
+
+  private static ConsumerRecord<SpecificRecord, SpecificRecord> record(String uid, String body) {
+    final var key =
+        ThreadEventKey.newBuilder().setThreadId(THREAD_ID.toString()).setUid(uid).build();
+    final var event =
+        ThreadMessageEvent.newBuilder()
+            .setToUser(uid)
+            .setMessageId(1L)
+            .setThreadId(THREAD_ID.toString())
+            .setBucket(0)
+            .setAuthorId("author")
+            .setAuthorName("Author")
+            .setThreadName("Thread")
+            .setBody(body)
+            .build();
+    return new ConsumerRecord<>("thread-events", 0, 0L, key, event);
+  }
+}
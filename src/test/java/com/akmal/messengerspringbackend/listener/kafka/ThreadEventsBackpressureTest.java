@@ -0,0 +1,95 @@
+package com.akmal.messengerspringbackend.listener.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 10:30
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class ThreadEventsBackpressureTest {
+  private static final String LISTENER_ID = "thread-events";
+
+  private final LinkedBlockingQueue<Runnable> outboundQueue = new LinkedBlockingQueue<>();
+  private final ThreadPoolExecutor outboundPool =
+      new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, this.outboundQueue);
+  private final AtomicBoolean paused = new AtomicBoolean();
+  private final ThreadEventsBackpressure backpressure = backpressure();
+
+  @AfterEach
+  void tearDown() {
+    this.outboundPool.shutdownNow();
+  }
+
+  @Test
+  @DisplayName("Should pause the consumer at the pause threshold and resume below the resume one")
+  void shouldPauseAndResumeConsumer() {
+    this.queueFrames(3);
+    this.backpressure.adjust();
+    assertThat(this.backpressure.isPaused()).isFalse();
+
+    this.queueFrames(1);
+    this.backpressure.adjust();
+    assertThat(this.backpressure.isPaused()).isTrue();
+
+    this.outboundQueue.poll();
+    this.outboundQueue.poll();
+    this.backpressure.adjust();
+    assertThat(this.backpressure.isPaused()).isTrue();
+
+    this.outboundQueue.poll();
+    this.backpressure.adjust();
+    assertThat(this.backpressure.isPaused()).isFalse();
+  }
+
+  private void queueFrames(int count) {
+    for (int i = 0; i < count; i++) this.outboundQueue.add(() -> {});
+  }
+
+  private ThreadEventsBackpressure backpressure() {
+    final var container = mock(MessageListenerContainer.class);
+    when(container.isRunning()).thenReturn(true);
+    when(container.isPauseRequested()).thenAnswer(invocation -> this.paused.get());
+    doAnswer(invocation -> {
+          this.paused.set(true);
+          return null;
+        })
+        .when(container)
+        .pause();
+    doAnswer(invocation -> {
+          this.paused.set(false);
+          return null;
+        })
+        .when(container)
+        .resume();
+
+    final var listenerRegistry = mock(KafkaListenerEndpointRegistry.class);
+    when(listenerRegistry.getListenerContainer(LISTENER_ID)).thenReturn(container);
+
+    final var outboundExecutor = mock(ThreadPoolTaskExecutor.class);
+    when(outboundExecutor.getThreadPoolExecutor()).thenReturn(this.outboundPool);
+
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getOutbound().setPauseThreshold(4);
+    messagingProps.getOutbound().setResumeThreshold(1);
+    return new ThreadEventsBackpressure(
+        listenerRegistry, outboundExecutor, LISTENER_ID, messagingProps);
+  }
+}
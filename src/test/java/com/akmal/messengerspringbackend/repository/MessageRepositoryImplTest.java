@@ -0,0 +1,111 @@
+package com.akmal.messengerspringbackend.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.pagination.PaginationConfigurationProperties;
+import com.akmal.messengerspringbackend.dto.v1.ScrollContent;
+import com.akmal.messengerspringbackend.model.MessageByUserByThread;
+import com.akmal.messengerspringbackend.model.MessageByUserByThread.Key;
+import com.akmal.messengerspringbackend.shared.pagination.PageLimit;
+import com.datastax.oss.driver.api.core.cql.ExecutionInfo;
+import com.datastax.oss.driver.api.core.cql.PagingState;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.cassandra.core.AsyncCassandraOperations;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.convert.CassandraConverter;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 14:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class MessageRepositoryImplTest {
+  private static final String UID = "user";
+  private static final UUID THREAD_ID = UUID.randomUUID();
+
+  private final CassandraOperations cassandraOperations = mock(CassandraOperations.class);
+  private final CassandraConverter converter = mock(CassandraConverter.class);
+  private final ResultSet resultSet = mock(ResultSet.class);
+  private final Queue<Row> rows = new ArrayDeque<>();
+  private final PaginationConfigurationProperties paginationProps =
+      new PaginationConfigurationProperties();
+  private final MessageRepositoryImpl repository =
+      new MessageRepositoryImpl(
+          this.cassandraOperations, mock(AsyncCassandraOperations.class), this.paginationProps);
+
+  MessageRepositoryImplTest() {
+    final var pagingState = mock(PagingState.class);
+    final var executionInfo = mock(ExecutionInfo.class);
+    when(pagingState.toString()).thenReturn("PAGING_STATE");
+    when(executionInfo.getSafePagingState()).thenReturn(pagingState);
+    when(this.resultSet.getExecutionInfo()).thenReturn(executionInfo);
+    when(this.resultSet.one()).thenAnswer(invocation -> this.rows.poll());
+    when(this.cassandraOperations.execute(any(Statement.class))).thenReturn(this.resultSet);
+    when(this.cassandraOperations.getConverter()).thenReturn(this.converter);
+  }
+
+  @Test
+  @DisplayName("Should end the page with the message that crosses the byte budget")
+  void shouldEndPageWithMessageCrossingBudget() {
+    this.paginationProps.getPageSize().setBudgetFetchSize(4);
+    for (int i = 0; i < 8; i++) this.addRow(i, "x".repeat(100));
+    when(this.resultSet.getAvailableWithoutFetching()).thenAnswer(invocation -> this.rows.size());
+    final long messageBytes =
+        MessageByUserByThread.builder().body("x".repeat(100)).build().estimateSerializedSize();
+
+    final ScrollContent<MessageByUserByThread> page =
+        this.repository.findAllByUidAndThreadIdAndBucket(
+            UID, THREAD_ID, 0, new PageLimit(50, messageBytes * 2 + 1), null);
+
+    final ArgumentCaptor<SimpleStatement> statement =
+        ArgumentCaptor.forClass(SimpleStatement.class);
+    verify(this.cassandraOperations).execute(statement.capture());
+    assertThat(statement.getValue().getPageSize()).isEqualTo(4);
+    assertThat(page.content())
+        .extracting(message -> message.getKey().getMessageId())
+        .containsExactly(0L, 1L, 2L);
+    assertThat(page.pagingState()).isNull();
+  }
+
+  @Test
+  @DisplayName("Should keep the paging state when the page ends on the driver page boundary")
+  void shouldKeepPagingStateOnDriverPageBoundary() {
+    this.paginationProps.getPageSize().setBudgetFetchSize(3);
+    for (int i = 0; i < 3; i++) this.addRow(i, "short");
+    when(this.resultSet.getAvailableWithoutFetching()).thenAnswer(invocation -> this.rows.size());
+
+    final ScrollContent<MessageByUserByThread> page =
+        this.repository.findAllBeforeMessageId(UID, THREAD_ID, 0, new PageLimit(3, 64 * 1024), 10L);
+
+    assertThat(page.content()).hasSize(3);
+    assertThat(page.pagingState()).isEqualTo("PAGING_STATE");
+  }
+
+  private void addRow(long messageId, String body) {
+    final var row = mock(Row.class);
+    final var message =
+        MessageByUserByThread.builder()
+            .key(new Key(UID, THREAD_ID, 0, messageId))
+            .authorId(UID)
+            .body(body)
+            .build();
+    when(this.converter.read(eq(MessageByUserByThread.class), eq(row))).thenReturn(message);
+    this.rows.add(row);
+  }
+}
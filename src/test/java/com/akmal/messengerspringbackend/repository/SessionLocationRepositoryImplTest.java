@@ -0,0 +1,97 @@
+package com.akmal.messengerspringbackend.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.cassandra.core.AsyncCassandraOperations;
+import org.springframework.data.cassandra.core.cql.AsyncCqlOperations;
+import org.springframework.data.cassandra.core.cql.RowMapper;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 11:45
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class SessionLocationRepositoryImplTest {
+  private final AsyncCassandraOperations asyncCassandraOperations =
+      mock(AsyncCassandraOperations.class);
+  private final AsyncCqlOperations asyncCqlOperations = mock(AsyncCqlOperations.class);
+  private final SessionLocationRepositoryImpl repository =
+      new SessionLocationRepositoryImpl(this.asyncCassandraOperations);
+  private final List<SettableListenableFuture<List<String>>> pendingReads = new ArrayList<>();
+  private final List<SimpleStatement> statements = new ArrayList<>();
+
+  SessionLocationRepositoryImplTest() {
+    when(this.asyncCassandraOperations.getAsyncCqlOperations()).thenReturn(this.asyncCqlOperations);
+  }
+
+  @Test
+  @DisplayName("Should read each user's partition on its own in bounded windows")
+  void shouldReadPartitionsInBoundedWindows() {
+    final int users = SessionLocationRepositoryImpl.MAX_CONCURRENT_READS * 2 + 3;
+    final List<String> uids = IntStream.range(0, users).mapToObj(i -> "user-" + i).toList();
+    final var maxInFlight = new AtomicInteger();
+    when(this.asyncCqlOperations.query(any(Statement.class), any(RowMapper.class)))
+        .thenAnswer(
+            invocation -> {
+              final SimpleStatement statement = invocation.getArgument(0);
+              this.statements.add(statement);
+              final var future = new SettableListenableFuture<List<String>>();
+              this.pendingReads.add(future);
+              maxInFlight.accumulateAndGet(this.inFlight(), Math::max);
+
+              // the window is awaited once issued, the rows of the last read complete it
+              if (this.inFlight() == SessionLocationRepositoryImpl.MAX_CONCURRENT_READS
+                  || this.statements.size() == users) {
+                this.completeReads();
+              }
+              return future;
+            });
+
+    final Map<String, Set<String>> nodesByUid = this.repository.findNodesByUids(uids);
+
+    assertThat(this.statements)
+        .hasSize(users)
+        .allSatisfy(
+            statement -> {
+              assertThat(statement.getQuery()).doesNotContain(" IN ");
+              assertThat(statement.getPositionalValues()).hasSize(1);
+            });
+    assertThat(maxInFlight.get()).isEqualTo(SessionLocationRepositoryImpl.MAX_CONCURRENT_READS);
+    assertThat(nodesByUid)
+        .hasSize(users / 2 + 1)
+        .containsEntry("user-0", Set.of("instance-0"))
+        .doesNotContainKey("user-1");
+  }
+
+  private int inFlight() {
+    return (int) this.pendingReads.stream().filter(future -> !future.isDone()).count();
+  }
+
+  /** Users with an even index are connected to the node of the index modulo 2. */
+  private void completeReads() {
+    for (int i = 0; i < this.pendingReads.size(); i++) {
+      final SettableListenableFuture<List<String>> future = this.pendingReads.get(i);
+      if (future.isDone()) continue;
+
+      final String uid = (String) this.statements.get(i).getPositionalValues().get(0);
+      final int index = Integer.parseInt(uid.substring("user-".length()));
+      future.set(index % 2 == 0 ? List.of("instance-" + index % 4 / 2) : List.of());
+    }
+  }
+}
@@ -0,0 +1,357 @@
+package com.akmal.messengerspringbackend.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties.FanoutMode;
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.repository.MessageRepository;
+import com.akmal.messengerspringbackend.repository.ThreadRepository;
+import com.akmal.messengerspringbackend.service.MessageDeliveryService.FanoutMessageMetadata;
+import com.akmal.messengerspringbackend.service.ThreadMembersCache.ThreadMembers;
+import com.akmal.messengerspringbackend.shared.pagination.MessagePrefetchCache;
+import com.akmal.messengerspringbackend.snowflake.SimpleSnowflakeGenerator;
+import com.akmal.messengerspringbackend.snowflake.SnowflakeGenerator;
+import com.akmal.messengerspringbackend.thread.ThreadBroadcastMessageEvent;
+import com.akmal.messengerspringbackend.thread.ThreadEventKey;
+import com.akmal.messengerspringbackend.thread.ThreadMessageEvent;
+import com.akmal.messengerspringbackend.websocket.delivery.LocalEventDelivery;
+import com.akmal.messengerspringbackend.websocket.delivery.MessageFrameEncoder;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrame;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrameDispatcher;
+import com.akmal.messengerspringbackend.websocket.delivery.ReplayBuffer;
+import com.akmal.messengerspringbackend.websocket.delivery.ReplaySequence;
+import com.akmal.messengerspringbackend.websocket.delivery.ThreadBroadcastDelivery;
+import com.akmal.messengerspringbackend.websocket.delivery.TypingStateTracker;
+import com.akmal.messengerspringbackend.websocket.dto.ResumeDto;
+import com.akmal.messengerspringbackend.websocket.storage.SessionLocationRegistry;
+import com.akmal.messengerspringbackend.websocket.storage.TopicSubscription;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorageImpl;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 11:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class MessageDeliveryServiceTest {
+  private static final UUID THREAD_ID = UUID.randomUUID();
+  private static final String THREAD_TOPIC = "/user/queue/threads/" + THREAD_ID;
+  private static final String BROADCAST_TOPIC = "/topic/threads/" + THREAD_ID;
+  private static final String AUTHOR = "author";
+
+  private final MessagingConfigurationProperties messagingProps = messagingProps();
+  private final WebsocketSessionStorageImpl sessionStorage = new WebsocketSessionStorageImpl();
+  private final OutboundFrameDispatcher frameDispatcher = mock(OutboundFrameDispatcher.class);
+  private final ThreadMembersCache threadMembersCache = mock(ThreadMembersCache.class);
+  private final MessageRepository messageRepository = mock(MessageRepository.class);
+  @SuppressWarnings("unchecked")
+  private final KafkaTemplate<SpecificRecord, SpecificRecord> threadEventsTemplate =
+      mock(KafkaTemplate.class);
+  private final SessionLocationRegistry sessionLocationRegistry =
+      mock(SessionLocationRegistry.class);
+  private final LocalEventDelivery localEventDelivery = mock(LocalEventDelivery.class);
+  private final MessagePrefetchCache prefetchCache = mock(MessagePrefetchCache.class);
+  private final SnowflakeGenerator snowflakeGenerator = SimpleSnowflakeGenerator.defaultInstance();
+  private final ThreadBroadcastDelivery threadBroadcastDelivery =
+      new ThreadBroadcastDelivery(
+          this.frameDispatcher, this.sessionStorage, this.threadMembersCache, this.messagingProps);
+  private final ReplayBuffer replayBuffer =
+      new ReplayBuffer(this.sessionStorage, this.messagingProps);
+  private final MessageDeliveryService deliveryService = deliveryService();
+
+  @Test
+  @DisplayName("Should serve the sessions subscribed to the thread broadcast by a single publish")
+  void shouldServeBroadcastSubscribersBySinglePublish() {
+    this.members("alice", "bob");
+    this.subscribe("alice", "alice-phone", BROADCAST_TOPIC);
+    this.subscribe("bob", "bob-phone", BROADCAST_TOPIC);
+    this.subscribe("bob", "bob-laptop", THREAD_TOPIC);
+    final long messageId = this.snowflakeGenerator.nextId();
+
+    final List<OutboundFrame> aliceFrames =
+        this.deliveryService.prepareMessageFrame("alice", messageEvent("alice", messageId));
+    final List<OutboundFrame> bobFrames =
+        this.deliveryService.prepareMessageFrame("bob", messageEvent("bob", messageId));
+
+    assertThat(aliceFrames).isEmpty();
+    assertThat(bobFrames)
+        .singleElement()
+        .satisfies(
+            frame -> {
+              assertThat(frame.sessionId()).isEqualTo("bob-laptop");
+              assertThat(frame.destination()).isEqualTo(THREAD_TOPIC.substring("/user".length()));
+            });
+    verify(this.frameDispatcher, times(1))
+        .broadcast(eq(BROADCAST_TOPIC), any(), any(Instant.class));
+    verify(this.messageRepository).updateIsRead("alice", THREAD_ID, 0, messageId, true);
+  }
+
+  @Test
+  @DisplayName("Should revoke the broadcast subscription of the user removed from the thread")
+  void shouldRevokeBroadcastSubscriptionOfRemovedMember() {
+    this.members("alice");
+    this.subscribe("alice", "alice-phone", BROADCAST_TOPIC);
+    this.subscribe("carol", "carol-phone", BROADCAST_TOPIC);
+
+    this.deliveryService.prepareMessageFrame(
+        "alice", messageEvent("alice", this.snowflakeGenerator.nextId()));
+
+    verify(this.frameDispatcher).unsubscribe("carol-phone", "carol-phone-sub");
+    verify(this.frameDispatcher, never()).unsubscribe(eq("alice-phone"), any());
+    verify(this.frameDispatcher).broadcast(eq(BROADCAST_TOPIC), any(), any(Instant.class));
+    assertThat(this.sessionStorage.isUserSubscribedTo("carol", BROADCAST_TOPIC)).isFalse();
+    assertThat(this.sessionStorage.isUserSubscribedTo("alice", BROADCAST_TOPIC)).isTrue();
+  }
+
+  @Test
+  @DisplayName("Should not deliver the redelivered message to the user again")
+  void shouldNotDeliverRedeliveredMessageAgain() {
+    this.subscribe("bob", "bob-laptop", THREAD_TOPIC);
+    final long messageId = this.snowflakeGenerator.nextId();
+
+    final List<OutboundFrame> delivered =
+        this.deliveryService.prepareMessageFrame("bob", messageEvent("bob", messageId));
+    final List<OutboundFrame> redelivered =
+        this.deliveryService.prepareMessageFrame("bob", messageEvent("bob", messageId));
+
+    assertThat(delivered).hasSize(1);
+    assertThat(redelivered).isEmpty();
+    assertThat(
+            this.deliveryService.prepareMessageFrame(
+                "bob", messageEvent("bob", this.snowflakeGenerator.nextId())))
+        .hasSize(1);
+  }
+
+  @Test
+  @DisplayName("Should replay the message under the destination the session received it on")
+  void shouldReplayUnderDeliveredDestination() {
+    this.replayBuffer.onConnected("bob");
+    this.subscribe("bob", "bob-laptop", "/user/queue/threads/other");
+
+    final ReplaySequence sequence =
+        this.deliveryService
+            .prepareMessageFrame("bob", messageEvent("bob", this.snowflakeGenerator.nextId()))
+            .get(0)
+            .sequence();
+
+    assertThat(this.resume("bob", sequence).frames())
+        .singleElement()
+        .satisfies(
+            frame -> {
+              assertThat(frame.destination()).isEqualTo(WebSocketConfiguration.NOTIFICATION_TOPIC);
+              assertThat(frame.broadcast()).isFalse();
+            });
+  }
+
+  @Test
+  @DisplayName("Should not number the message served only by the thread broadcast")
+  void shouldNotReplayBroadcastOnlyMessage() {
+    this.members("alice");
+    this.replayBuffer.onConnected("alice");
+    this.subscribe("alice", "alice-phone", BROADCAST_TOPIC);
+    this.subscribe("alice", "alice-laptop", THREAD_TOPIC);
+
+    final ReplaySequence sequence =
+        this.deliveryService
+            .prepareMessageFrame("alice", messageEvent("alice", this.snowflakeGenerator.nextId()))
+            .get(0)
+            .sequence();
+    this.sessionStorage.remove("alice", "alice-laptop");
+    final List<OutboundFrame> broadcastOnly =
+        this.deliveryService.prepareMessageFrame(
+            "alice", messageEvent("alice", this.snowflakeGenerator.nextId()));
+
+    final ResumeDto resume = this.resume("alice", sequence);
+    assertThat(broadcastOnly).isEmpty();
+    assertThat(resume.seq()).isEqualTo(sequence.toString());
+    assertThat(resume.frames())
+        .singleElement()
+        .satisfies(
+            frame -> {
+              assertThat(frame.destination()).isEqualTo(THREAD_TOPIC);
+              assertThat(frame.broadcast()).isTrue();
+            });
+  }
+
+  @Test
+  @DisplayName("Should expand the broadcast event only for the recipients served by this instance")
+  void shouldExpandBroadcastEventForLocalRecipients() {
+    this.subscribe("alice", "alice-phone", THREAD_TOPIC);
+    this.replayBuffer.onConnected("carol");
+    final var broadcastEvent =
+        ThreadBroadcastMessageEvent.newBuilder()
+            .setMessageId(this.snowflakeGenerator.nextId())
+            .setThreadId(THREAD_ID.toString())
+            .setBucket(0)
+            .setAuthorId(AUTHOR)
+            .setAuthorName("Author")
+            .setThreadName("Thread")
+            .setBody("Hello, world!")
+            .setSystemMessage(false)
+            .setRecipientIds(List.of("alice", "bob", "carol"))
+            .build();
+
+    final List<ThreadMessageEvent> messageEvents =
+        this.deliveryService.expandBroadcastEvent(broadcastEvent);
+
+    assertThat(messageEvents)
+        .extracting(ThreadMessageEvent::getToUser)
+        .containsExactly("alice", "carol");
+    assertThat(messageEvents)
+        .allSatisfy(
+            messageEvent -> {
+              assertThat(messageEvent.getMessageId()).isEqualTo(broadcastEvent.getMessageId());
+              assertThat(messageEvent.getBody()).isEqualTo("Hello, world!");
+            });
+    verify(this.prefetchCache).invalidateFirstPage("bob", THREAD_ID);
+  }
+
+  @Test
+  @DisplayName("Should publish a single event listing all the recipients in the broadcast mode")
+  @SuppressWarnings("unchecked")
+  void shouldPublishSingleBroadcastEvent() {
+    this.messagingProps.setFanoutMode(FanoutMode.BROADCAST);
+    when(this.sessionLocationRegistry.routeByTopic(any()))
+        .thenAnswer(invocation -> Map.of("thread-events", List.copyOf(invocation.getArgument(0))));
+    when(this.localEventDelivery.withoutLocalRoute(any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    when(this.localEventDelivery.record(any(), any(), any()))
+        .thenAnswer(
+            invocation ->
+                new ProducerRecord<>(
+                    invocation.<String>getArgument(0),
+                    invocation.getArgument(1),
+                    invocation.getArgument(2)));
+    final long messageId = this.snowflakeGenerator.nextId();
+
+    this.deliveryService.fanoutMessages(
+        List.of(fanoutMetadata("alice", messageId), fanoutMetadata("bob", messageId)));
+
+    final ArgumentCaptor<ProducerRecord<SpecificRecord, SpecificRecord>> published =
+        ArgumentCaptor.forClass(ProducerRecord.class);
+    verify(this.threadEventsTemplate).send(published.capture());
+    assertThat(((ThreadEventKey) published.getValue().key()).getUid()).isEmpty();
+    assertThat(published.getValue().value())
+        .isInstanceOfSatisfying(
+            ThreadBroadcastMessageEvent.class,
+            broadcastEvent -> {
+              assertThat(broadcastEvent.getMessageId()).isEqualTo(messageId);
+              assertThat(broadcastEvent.getRecipientIds()).containsExactly("alice", "bob");
+            });
+  }
+
+  /** Resumes from the sequence right before the given one. */
+  private ResumeDto resume(String uid, ReplaySequence sequence) {
+    this.replayBuffer.requestResume(
+        "resumed", new ReplaySequence(sequence.epoch(), sequence.seq() - 1));
+    return this.replayBuffer.resume(uid, "resumed").orElseThrow();
+  }
+
+  private void members(String... uids) {
+    when(this.threadMembersCache.get(THREAD_ID))
+        .thenReturn(Optional.of(new ThreadMembers(Set.of(uids), true)));
+  }
+
+  /** Subscribes the session the way the session interceptor and its callbacks do. */
+  private void subscribe(String uid, String sessionId, String topic) {
+    if (this.sessionStorage.getSession(uid, sessionId).isEmpty()) {
+      this.sessionStorage.add(
+          WebsocketSession.builder()
+              .uid(uid)
+              .id(sessionId)
+              .joinedAtMillis(System.currentTimeMillis())
+              .build());
+    }
+
+    final var subscription =
+        TopicSubscription.builder()
+            .id(sessionId + "-sub")
+            .topic(topic)
+            .joinedAt(Instant.now().minusSeconds(1))
+            .build();
+    this.sessionStorage.addSubscription(uid, sessionId, subscription);
+    this.threadBroadcastDelivery.onSubscribed(uid, subscription);
+  }
+
+  private static ThreadMessageEvent messageEvent(String toUser, long messageId) {
+    return ThreadMessageEvent.newBuilder()
+        .setToUser(toUser)
+        .setMessageId(messageId)
+        .setThreadId(THREAD_ID.toString())
+        .setBucket(0)
+        .setAuthorId(AUTHOR)
+        .setAuthorName("Author")
+        .setThreadName("Thread")
+        .setBody("Hello, world!")
+        .build();
+  }
+
+  private static FanoutMessageMetadata fanoutMetadata(String recipientId, long messageId) {
+    return FanoutMessageMetadata.builder()
+        .threadId(THREAD_ID)
+        .threadName("Thread")
+        .recipientId(recipientId)
+        .messageId(messageId)
+        .authorId(AUTHOR)
+        .authorName("Author")
+        .bucket(0)
+        .body("Hello, world!")
+        .build();
+  }
+
+  private static MessagingConfigurationProperties messagingProps() {
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getBroker().setThreadBroadcast(true);
+    messagingProps.getReplay().setEnabled(true);
+    return messagingProps;
+  }
+
+  private MessageDeliveryService deliveryService() {
+    final var deliveryService =
+        new MessageDeliveryService(
+            this.threadEventsTemplate,
+            new KafkaConfigurationProperties(),
+            this.messagingProps,
+            this.sessionStorage,
+            this.sessionLocationRegistry,
+            this.frameDispatcher,
+            new MessageFrameEncoder(
+                Jackson2ObjectMapperBuilder.json().build(), this.messagingProps),
+            this.threadBroadcastDelivery,
+            this.replayBuffer,
+            this.localEventDelivery,
+            mock(TypingStateTracker.class),
+            this.snowflakeGenerator,
+            this.messageRepository,
+            mock(ThreadRepository.class),
+            this.prefetchCache);
+    ReflectionTestUtils.setField(deliveryService, "taskExecutor", (TaskExecutor) Runnable::run);
+    return deliveryService;
+  }
+}
@@ -1,29 +1,49 @@
 package com.akmal.messengerspringbackend.service;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties.SendMode;
+import com.akmal.messengerspringbackend.config.pagination.PaginationConfigurationProperties;
 import com.akmal.messengerspringbackend.dto.v1.MessageDTO;
+import com.akmal.messengerspringbackend.dto.v1.MessageSendRequestDTO;
 import com.akmal.messengerspringbackend.dto.v1.ScrollContent;
+import com.akmal.messengerspringbackend.exception.EntityNotFoundException;
+import com.akmal.messengerspringbackend.exception.IllegalBatchRequestException;
+import com.akmal.messengerspringbackend.exception.UnauthorizedActionException;
 import com.akmal.messengerspringbackend.model.MessageByUserByThread;
 import com.akmal.messengerspringbackend.model.MessageByUserByThread.Key;
 import com.akmal.messengerspringbackend.repository.MessageRepository;
 import com.akmal.messengerspringbackend.repository.ThreadRepository;
 import com.akmal.messengerspringbackend.repository.UserRepository;
+import com.akmal.messengerspringbackend.service.ThreadMembersCache.ThreadMembers;
 import com.akmal.messengerspringbackend.shared.BucketingManager;
+import com.akmal.messengerspringbackend.shared.pagination.MessageCursorCodec;
+import com.akmal.messengerspringbackend.shared.pagination.PageLimit;
 import com.akmal.messengerspringbackend.snowflake.SnowflakeGenerator;
 import com.datastax.oss.driver.api.core.uuid.Uuids;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import org.apache.avro.specific.SpecificRecord;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -31,7 +51,11 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
 
 /**
  * @author Akmal Alikhujaev
@@ -51,6 +75,12 @@ class MessageServiceTest {
   @Mock private ThreadRepository threadRepository;
   @Mock private SnowflakeGenerator snowflakeGenerator;
   @Mock private BucketingManager bucketingManager;
+  @Mock private MessageCursorCodec cursorCodec;
+  @Mock private ThreadMembersCache threadMembersCache;
+  @Mock private MessagingConfigurationProperties messagingProps;
+  @Mock private KafkaTemplate<String, SpecificRecord> acceptedMessagesTemplate;
+  @Spy private PaginationConfigurationProperties paginationProps =
+      new PaginationConfigurationProperties();
 
   @InjectMocks private MessageService messageService;
 
@@ -187,9 +217,93 @@ class MessageServiceTest {
         .findAllBeforeMessageId(any(), any(), anyInt(), anyInt(), anyLong());
   }
 
+  @Test
+  @DisplayName("Should split the requested window size between the older and the newer halves")
+  void shouldSplitWindowSizeBetweenHalves() {
+    final long pivotId = 100L;
+    when(this.messageRepository.findLatestBeforeMessageIdAsync(USER_ID, THREAD_ID, 0, 4, pivotId))
+        .thenReturn(CompletableFuture.completedFuture(List.of()));
+    when(this.messageRepository.findEarliestFromMessageIdAsync(
+            eq(USER_ID), eq(THREAD_ID), eq(0), anyInt(), eq(pivotId)))
+        .thenReturn(CompletableFuture.completedFuture(List.of()));
+
+    this.messageService.findAllAroundMessage(USER_ID, THREAD_ID, pivotId, 9);
+    this.messageService.findAllAroundMessage(USER_ID, THREAD_ID, pivotId, 1);
+
+    verify(this.messageRepository)
+        .findEarliestFromMessageIdAsync(USER_ID, THREAD_ID, 0, 5, pivotId);
+    verify(this.messageRepository)
+        .findEarliestFromMessageIdAsync(USER_ID, THREAD_ID, 0, 1, pivotId);
+    verify(this.messageRepository, times(1))
+        .findLatestBeforeMessageIdAsync(any(), any(), anyInt(), anyInt(), anyLong());
+  }
+
   @Test
   void sendMessage() {}
 
+  @Test
+  @DisplayName("Should not accept the message of a user that is not a member of the thread")
+  void shouldNotAcceptMessageOfNonMember() {
+    when(this.messagingProps.getSendMode()).thenReturn(SendMode.KAFKA_FIRST);
+    when(this.threadMembersCache.get(THREAD_ID))
+        .thenReturn(Optional.of(new ThreadMembers(Set.of("member"), false)));
+
+    assertThatThrownBy(
+            () ->
+                this.messageService.sendMessage(
+                    THREAD_ID, USER_ID, new MessageSendRequestDTO("Hi", THREAD_ID, null)))
+        .isInstanceOf(UnauthorizedActionException.class);
+
+    when(this.threadMembersCache.get(THREAD_ID)).thenReturn(Optional.empty());
+
+    assertThatThrownBy(
+            () ->
+                this.messageService.sendMessage(
+                    THREAD_ID, USER_ID, new MessageSendRequestDTO("Hi", THREAD_ID, null)))
+        .isInstanceOf(EntityNotFoundException.class);
+    verify(this.acceptedMessagesTemplate, never()).send(any(), any(), any());
+  }
+
+  @Test
+  @DisplayName("Should read the first page of each distinct thread and omit the failed ones")
+  void shouldReadFirstPagesOfDistinctThreads() {
+    final UUID failingThreadId = UUID.randomUUID();
+    final UUID otherThreadId = UUID.randomUUID();
+    final ScrollContent<MessageDTO> page =
+        this.mapScrollContentToDTO(this.generateMessages(2, 1, 0, USER_ID, THREAD_ID));
+    ReflectionTestUtils.setField(
+        this.messageService, "messageFetchExecutor", (TaskExecutor) Runnable::run);
+    final MessageService service = spy(this.messageService);
+    final PageLimit limit = this.paginationProps.resolvePageLimit(null, null);
+    doReturn(page).when(service).findAllByUserAndThread(USER_ID, THREAD_ID, null, limit);
+    doReturn(page).when(service).findAllByUserAndThread(USER_ID, otherThreadId, null, limit);
+    doThrow(new IllegalStateException("Read timed out"))
+        .when(service)
+        .findAllByUserAndThread(USER_ID, failingThreadId, null, limit);
+
+    final Map<UUID, ScrollContent<MessageDTO>> pages =
+        service.findFirstPagesByUserAndThreads(
+            USER_ID, List.of(otherThreadId, failingThreadId, THREAD_ID, otherThreadId));
+
+    assertThat(List.copyOf(pages.keySet())).isEqualTo(List.of(otherThreadId, THREAD_ID));
+    assertThat(pages.get(THREAD_ID)).isEqualTo(page);
+    verify(service, times(1)).findAllByUserAndThread(USER_ID, otherThreadId, null, limit);
+  }
+
+  @Test
+  @DisplayName("Should reject the batch of more threads than allowed")
+  void shouldRejectTooLargeBatch() {
+    this.paginationProps.setMaxBatchThreads(2);
+
+    assertThatThrownBy(
+            () ->
+                this.messageService.findFirstPagesByUserAndThreads(
+                    USER_ID, List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID())))
+        .isInstanceOf(IllegalBatchRequestException.class);
+    verify(this.messageRepository, never())
+        .findAllByUidAndThreadIdAndBucket(any(), any(), anyInt(), anyInt(), any());
+  }
+
   private ScrollContent<MessageByUserByThread> generateMessages(
       int numberOfMessages, long messageIdStart, int bucket, String uid, UUID threadId) {
     List<MessageByUserByThread> messages = new LinkedList<>();
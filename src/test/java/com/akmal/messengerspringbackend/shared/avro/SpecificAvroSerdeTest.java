@@ -0,0 +1,118 @@
+package com.akmal.messengerspringbackend.shared.avro;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.akmal.messengerspringbackend.thread.ThreadEventKey;
+import com.akmal.messengerspringbackend.thread.ThreadMessageEvent;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 19:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class SpecificAvroSerdeTest {
+  private static final String TOPIC = "thread.events";
+
+  private final SpecificAvroSerializer keySerializer = new SpecificAvroSerializer();
+  private final SpecificAvroSerializer valueSerializer = new SpecificAvroSerializer();
+  private final SpecificAvroDeserializer keyDeserializer = new SpecificAvroDeserializer();
+  private final SpecificAvroDeserializer valueDeserializer = new SpecificAvroDeserializer();
+
+  @BeforeEach
+  void setUp() {
+    this.keySerializer.configure(Map.of(), true);
+    this.valueSerializer.configure(Map.of(), false);
+    this.keyDeserializer.configure(Map.of(), true);
+    this.valueDeserializer.configure(Map.of(), false);
+  }
+
+  @Test
+  @DisplayName("Should deserialize the key and value written to the same record")
+  void shouldRoundTripKeyAndValue() {
+    final var key = ThreadEventKey.newBuilder().setThreadId("thread").setUid("user").build();
+    final var value = messageEvent("Hello");
+    final var headers = new RecordHeaders();
+
+    final byte[] keyBytes = this.keySerializer.serialize(TOPIC, headers, key);
+    final byte[] valueBytes = this.valueSerializer.serialize(TOPIC, headers, value);
+
+    assertThat(this.keyDeserializer.deserialize(TOPIC, headers, keyBytes)).isEqualTo(key);
+    assertThat(this.valueDeserializer.deserialize(TOPIC, headers, valueBytes)).isEqualTo(value);
+    assertThat(headers.lastHeader(AvroSchemas.VALUE_FINGERPRINT_HEADER).value())
+        .hasSize(Long.BYTES);
+  }
+
+  @Test
+  @DisplayName("Should decode consecutive records with the reused decoder")
+  void shouldDecodeConsecutiveRecords() {
+    for (String body : new String[] {"first", "second message", ""}) {
+      final var headers = new RecordHeaders();
+      final byte[] bytes = this.valueSerializer.serialize(TOPIC, headers, messageEvent(body));
+
+      final var event =
+          (ThreadMessageEvent) this.valueDeserializer.deserialize(TOPIC, headers, bytes);
+
+      assertThat(event.getBody()).isEqualTo(body);
+    }
+  }
+
+  @Test
+  @DisplayName("Should reject the record written with an unknown version of the schema")
+  void shouldRejectUnknownFingerprint() {
+    final var headers = new RecordHeaders();
+    final byte[] bytes = this.valueSerializer.serialize(TOPIC, headers, messageEvent("Hello"));
+    headers.remove(AvroSchemas.VALUE_FINGERPRINT_HEADER);
+    headers.add(AvroSchemas.VALUE_FINGERPRINT_HEADER, AvroSchemas.encodeFingerprint(42L));
+
+    assertThatThrownBy(() -> this.valueDeserializer.deserialize(TOPIC, headers, bytes))
+        .isInstanceOf(SerializationException.class);
+  }
+
+  @Test
+  @DisplayName("Should reject the record without the schema headers or of an unknown schema")
+  void shouldRejectRecordWithoutSchema() {
+    final var headers = new RecordHeaders();
+    final byte[] bytes = this.valueSerializer.serialize(TOPIC, headers, messageEvent("Hello"));
+
+    assertThatThrownBy(() -> this.valueDeserializer.deserialize(TOPIC, new RecordHeaders(), bytes))
+        .isInstanceOf(SerializationException.class);
+
+    headers.remove(AvroSchemas.VALUE_FINGERPRINT_HEADER);
+    headers.remove(AvroSchemas.VALUE_SCHEMA_HEADER);
+    headers.add(AvroSchemas.VALUE_FINGERPRINT_HEADER, AvroSchemas.encodeFingerprint(43L));
+    headers.add(
+        AvroSchemas.VALUE_SCHEMA_HEADER,
+        "com.akmal.messengerspringbackend.Unknown".getBytes(StandardCharsets.UTF_8));
+
+    assertThatThrownBy(() -> this.valueDeserializer.deserialize(TOPIC, headers, bytes))
+        .isInstanceOf(SerializationException.class);
+  }
+
+  private static ThreadMessageEvent messageEvent(String body) {
+    return ThreadMessageEvent.newBuilder()
+        .setToUser("recipient")
+        .setMessageId(7_000_000_000_123L)
+        .setThreadId("thread")
+        .setBucket(3)
+        .setAuthorId("author")
+        .setAuthorName("John Doe")
+        .setThreadName("Thread")
+        .setThreadPictureThumbnailUrl("thumbnail")
+        .setThreadPictureUrl("picture")
+        .setBody(body)
+        .setRead(false)
+        .setEdited(false)
+        .setSystemMessage(false)
+        .build();
+  }
+}
@@ -0,0 +1,74 @@
+package com.akmal.messengerspringbackend.shared.concurrent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 21/07/2022 - 20:30
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class KeyOrderedExecutorTest {
+  private final KeyOrderedExecutor executor = new KeyOrderedExecutor("test-", 4, 8);
+
+  @AfterEach
+  void tearDown() {
+    this.executor.shutdown();
+  }
+
+  @Test
+  @DisplayName("Should execute the tasks of the same key in the submission order")
+  void shouldPreserveOrderPerKey() throws InterruptedException {
+    final Map<String, List<Integer>> executed = new ConcurrentHashMap<>();
+    final var keys = List.of("user-1", "user-2", "user-3", "user-4", "user-5");
+    final var latch = new CountDownLatch(keys.size() * 100);
+
+    for (int i = 0; i < 100; i++) {
+      final int sequence = i;
+      for (String key : keys) {
+        this.executor.execute(key, () -> {
+          executed.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(sequence);
+          latch.countDown();
+        });
+      }
+    }
+
+    assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(executed).hasSize(keys.size());
+    executed.values().forEach(sequences -> assertThat(sequences).isSorted().hasSize(100));
+  }
+
+  @Test
+  @DisplayName("Should report the depth of the queue of the stripe")
+  void shouldReportQueueDepth() throws InterruptedException {
+    final var release = new CountDownLatch(1);
+    final var started = new CountDownLatch(1);
+    final int stripe = this.executor.stripeOf("user-1");
+
+    this.executor.execute("user-1", () -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    this.executor.execute("user-1", () -> {});
+    this.executor.execute("user-1", () -> {});
+
+    assertThat(this.executor.getQueueDepth(stripe)).isEqualTo(2);
+    release.countDown();
+  }
+}
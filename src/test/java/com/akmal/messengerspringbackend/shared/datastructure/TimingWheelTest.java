@@ -0,0 +1,61 @@
+package com.akmal.messengerspringbackend.shared.datastructure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 22/07/2022 - 19:40
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class TimingWheelTest {
+  private static final long START = 1_000_000L;
+
+  private final TimingWheel<String> wheel = new TimingWheel<>(100, 8, START);
+
+  @Test
+  @DisplayName("Should expire the items once their deadlines have passed")
+  void shouldExpireItemsAfterDeadline() {
+    this.wheel.schedule("first", START + 250);
+    this.wheel.schedule("second", START + 450);
+
+    assertThat(this.wheel.advance(START + 150)).isEmpty();
+    assertThat(this.wheel.advance(START + 299)).containsExactly("first");
+    assertThat(this.wheel.advance(START + 500)).containsExactly("second");
+    assertThat(this.wheel.size()).isZero();
+  }
+
+  @Test
+  @DisplayName("Should keep the items scheduled further than one revolution of the wheel")
+  void shouldKeepItemsOfLaterRevolutions() {
+    this.wheel.schedule("near", START + 100);
+    this.wheel.schedule("far", START + 900); // lands in the same bucket one revolution later
+
+    assertThat(this.wheel.advance(START + 150)).containsExactly("near");
+    assertThat(this.wheel.advance(START + 850)).isEmpty();
+    assertThat(this.wheel.advance(START + 900)).containsExactly("far");
+  }
+
+  @Test
+  @DisplayName("Should expire all the due items when the time jumps past the whole wheel")
+  void shouldExpireEverythingAfterLongPause() {
+    this.wheel.schedule("a", START + 200);
+    this.wheel.schedule("b", START + 1_500);
+    this.wheel.schedule("c", START + 5_000);
+
+    assertThat(this.wheel.advance(START + 2_000)).containsExactlyInAnyOrder("a", "b");
+    assertThat(this.wheel.size()).isEqualTo(1);
+  }
+
+  @Test
+  @DisplayName("Should expire the items with deadlines in the past on the next tick")
+  void shouldExpirePastDeadlinesOnNextTick() {
+    this.wheel.schedule("late", START - 1_000);
+
+    assertThat(this.wheel.advance(START + 100)).containsExactly("late");
+  }
+}
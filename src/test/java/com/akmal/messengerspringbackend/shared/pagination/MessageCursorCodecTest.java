@@ -0,0 +1,105 @@
+package com.akmal.messengerspringbackend.shared.pagination;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.akmal.messengerspringbackend.config.pagination.PaginationConfigurationProperties;
+import com.akmal.messengerspringbackend.exception.InvalidCursorException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 16/07/2022 - 16:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class MessageCursorCodecTest {
+  private static final byte[] SECRET = "test-secret".getBytes(StandardCharsets.UTF_8);
+  private static final String CONTEXT = "fef0d7a7-8af6-46d1-bbcd-94f6483d3645:thread";
+
+  private final MessageCursorCodec codec = new MessageCursorCodec(SECRET, true);
+
+  @Test
+  @DisplayName("Should decode the cursor that was encoded with the same context")
+  void shouldRoundTripCursor() {
+    final var cursor = MessageCursor.of(3, 7_000_000_000_123L);
+
+    final String encoded = this.codec.encode(cursor, CONTEXT);
+
+    assertThat(encoded).hasSize(30).doesNotContain("=", "+", "/");
+    assertThat(this.codec.decode(encoded, CONTEXT)).isEqualTo(cursor);
+  }
+
+  @Test
+  @DisplayName("Should reject the cursor issued for another context")
+  void shouldRejectCursorOfAnotherContext() {
+    final String encoded = this.codec.encode(MessageCursor.of(3, 42L), CONTEXT);
+
+    assertThatThrownBy(() -> this.codec.decode(encoded, CONTEXT.concat("-other")))
+        .isInstanceOf(InvalidCursorException.class);
+  }
+
+  @Test
+  @DisplayName("Should reject the cursor whose payload was modified")
+  void shouldRejectTamperedCursor() {
+    final byte[] raw =
+        Base64.getUrlDecoder().decode(this.codec.encode(MessageCursor.of(3, 42L), CONTEXT));
+    raw[6] ^= 1;
+    final String tampered = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+
+    assertThatThrownBy(() -> this.codec.decode(tampered, CONTEXT))
+        .isInstanceOf(InvalidCursorException.class);
+  }
+
+  @Test
+  @DisplayName("Should reject the cursor signed with another secret")
+  void shouldRejectCursorWithAnotherSecret() {
+    final var otherCodec =
+        new MessageCursorCodec("other-secret".getBytes(StandardCharsets.UTF_8), true);
+    final String encoded = otherCodec.encode(MessageCursor.of(3, 42L), CONTEXT);
+
+    assertThatThrownBy(() -> this.codec.decode(encoded, CONTEXT))
+        .isInstanceOf(InvalidCursorException.class);
+  }
+
+  @Test
+  @DisplayName("Should reject malformed input")
+  void shouldRejectMalformedCursor() {
+    assertThatThrownBy(() -> this.codec.decode("%%%", CONTEXT))
+        .isInstanceOf(InvalidCursorException.class);
+    assertThatThrownBy(() -> this.codec.decode("AQ", CONTEXT))
+        .isInstanceOf(InvalidCursorException.class);
+  }
+
+  @Test
+  @DisplayName("Should omit the paging state when it is disabled")
+  void shouldOmitPagingStateWhenDisabled() {
+    final var seekOnlyCodec = new MessageCursorCodec(SECRET, false);
+
+    final String encoded =
+        seekOnlyCodec.encode(new MessageCursor(3, 42L, "not-a-paging-state"), CONTEXT);
+
+    assertThat(seekOnlyCodec.decode(encoded, CONTEXT)).isEqualTo(MessageCursor.of(3, 42L));
+  }
+
+  @Test
+  @DisplayName("Should require the secret outside of the dev and test profiles")
+  void shouldRequireSecretOutsideDevProfiles() {
+    final var paginationProps = new PaginationConfigurationProperties();
+    final var environment = new MockEnvironment();
+
+    assertThatThrownBy(() -> new MessageCursorCodec(paginationProps, environment))
+        .isInstanceOf(IllegalStateException.class);
+
+    environment.setActiveProfiles("dev");
+    final var devCodec = new MessageCursorCodec(paginationProps, environment);
+
+    assertThat(devCodec.decode(devCodec.encode(MessageCursor.of(3, 42L), CONTEXT), CONTEXT))
+        .isEqualTo(MessageCursor.of(3, 42L));
+  }
+}
@@ -0,0 +1,132 @@
+package com.akmal.messengerspringbackend.shared.pagination;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties;
+import com.akmal.messengerspringbackend.config.pagination.PaginationConfigurationProperties;
+import com.akmal.messengerspringbackend.dto.v1.MessageDTO;
+import com.akmal.messengerspringbackend.dto.v1.ScrollContent;
+import com.akmal.messengerspringbackend.shared.pagination.MessagePrefetchCache.PageKey;
+import com.akmal.messengerspringbackend.thread.ThreadPageInvalidationEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 12:40
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class MessagePrefetchCacheTest {
+  private static final String UID = "user";
+  private static final UUID THREAD_ID = UUID.randomUUID();
+
+  @SuppressWarnings("unchecked")
+  private final KafkaTemplate<SpecificRecord, SpecificRecord> threadEventsTemplate =
+      mock(KafkaTemplate.class);
+  private final KafkaConfigurationProperties kafkaProps = new KafkaConfigurationProperties();
+
+  MessagePrefetchCacheTest() {
+    this.kafkaProps.setTopics(new KafkaConfigurationProperties.TopicNames());
+    when(this.threadEventsTemplate.send(anyString(), any(), any()))
+        .thenReturn(new SettableListenableFuture<>());
+  }
+
+  @Test
+  @DisplayName("Should drop the first page on the instance that did not get the message event")
+  void shouldDropFirstPageOnEveryInstance() {
+    final var senderCache = this.prefetchCache(true);
+    final var otherCache = this.prefetchCache(true);
+    final PageKey firstPage = otherCache.firstPageKey(UID, THREAD_ID);
+    final var nextPage = new PageKey(UID, THREAD_ID, "cursor", firstPage.limit());
+    senderCache.prefetch(firstPage, MessagePrefetchCacheTest::page);
+    otherCache.prefetch(firstPage, MessagePrefetchCacheTest::page);
+    otherCache.prefetch(nextPage, MessagePrefetchCacheTest::page);
+
+    senderCache.invalidateFirstPages(THREAD_ID, List.of(UID, "author"));
+
+    final ArgumentCaptor<SpecificRecord> published = ArgumentCaptor.forClass(SpecificRecord.class);
+    verify(this.threadEventsTemplate)
+        .send(
+            eq(this.kafkaProps.getTopics().getThreadEphemeralEvents()),
+            any(SpecificRecord.class),
+            published.capture());
+    assertThat(senderCache.get(firstPage)).isEmpty();
+    assertThat(otherCache.get(firstPage)).isPresent();
+
+    otherCache.onInvalidation((ThreadPageInvalidationEvent) published.getValue());
+
+    assertThat(otherCache.get(firstPage)).isEmpty();
+    assertThat(otherCache.get(nextPage)).isPresent();
+  }
+
+  @Test
+  @DisplayName("Should not publish the invalidation when the prefetching is disabled")
+  void shouldNotPublishInvalidationWhenDisabled() {
+    final var prefetchCache = this.prefetchCache(false);
+
+    prefetchCache.invalidateFirstPages(THREAD_ID, List.of(UID));
+
+    verify(this.threadEventsTemplate, never()).send(anyString(), any(), any());
+  }
+
+  @Test
+  @DisplayName("Should drop the first page even when the invalidation cannot be published")
+  void shouldDropFirstPageWhenPublishingFails() {
+    final var prefetchCache = this.prefetchCache(true);
+    final PageKey firstPage = prefetchCache.firstPageKey(UID, THREAD_ID);
+    prefetchCache.prefetch(firstPage, MessagePrefetchCacheTest::page);
+    when(this.threadEventsTemplate.send(anyString(), any(), any()))
+        .thenThrow(new SerializationException("Subject not found"));
+
+    prefetchCache.invalidateFirstPages(THREAD_ID, List.of(UID));
+
+    assertThat(prefetchCache.get(firstPage)).isEmpty();
+  }
+
+  private MessagePrefetchCache prefetchCache(boolean enabled) {
+    final var paginationProps = new PaginationConfigurationProperties();
+    paginationProps.getPrefetch().setEnabled(enabled);
+
+    return new MessagePrefetchCache(
+        paginationProps,
+        this.kafkaProps,
+        this.threadEventsTemplate,
+        new SimpleMeterRegistry(),
+        (TaskExecutor) Runnable::run);
+  }
+
+  private static ScrollContent<MessageDTO> page() {
+    return ScrollContent.of(
+        List.of(
+            new MessageDTO(
+                1L,
+                THREAD_ID.toString(),
+                0,
+                "author",
+                "Hello, world!",
+                LocalDateTime.now(),
+                false,
+                false,
+                false)),
+        null);
+  }
+}
@@ -0,0 +1,71 @@
+package com.akmal.messengerspringbackend.shared.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 19:45
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class CachingJwtDecoderTest {
+  private final JwtDecoder delegate = mock(JwtDecoder.class);
+  private final CachingJwtDecoder decoder =
+      new CachingJwtDecoder(this.delegate, 100, Duration.ofHours(1));
+
+  @Test
+  @DisplayName("Should verify the token once until it expires and report the hits")
+  void shouldVerifyTokenOnce() {
+    final Jwt jwt = jwt("valid", Instant.now().plus(Duration.ofMinutes(5)));
+    when(this.delegate.decode("valid")).thenReturn(jwt);
+    final var registry = new SimpleMeterRegistry();
+    this.decoder.bindTo(registry);
+
+    assertThat(this.decoder.decode("valid")).isSameAs(jwt);
+    assertThat(this.decoder.decode("valid")).isSameAs(jwt);
+
+    verify(this.delegate, times(1)).decode("valid");
+    assertThat(registry.get("cache.gets").tag("result", "hit").functionCounter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  @DisplayName("Should not cache the rejected and the expired tokens")
+  void shouldNotCacheRejectedOrExpiredTokens() {
+    when(this.delegate.decode("expired"))
+        .thenReturn(jwt("expired", Instant.now().minus(Duration.ofSeconds(1))));
+    when(this.delegate.decode("forged")).thenThrow(new BadJwtException("Invalid signature"));
+
+    this.decoder.decode("expired");
+    this.decoder.decode("expired");
+    assertThatThrownBy(() -> this.decoder.decode("forged")).isInstanceOf(BadJwtException.class);
+    assertThatThrownBy(() -> this.decoder.decode("forged")).isInstanceOf(BadJwtException.class);
+
+    verify(this.delegate, times(2)).decode("expired");
+    verify(this.delegate, times(2)).decode("forged");
+  }
+
+  private static Jwt jwt(String token, Instant expiresAt) {
+    return Jwt.withTokenValue(token)
+        .header("alg", "RS256")
+        .claim("uid", "user")
+        .issuedAt(expiresAt.minus(Duration.ofHours(1)))
+        .expiresAt(expiresAt)
+        .build();
+  }
+}
@@ -4,6 +4,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
@@ -159,4 +160,17 @@ class SimpleSnowflakeGeneratorTest {
     assertThat(timestampInstant)
         .isBetween(Instant.now().minusMillis(DELTA_MS), Instant.now().plusMillis(DELTA_MS));
   }
+
+  @Test
+  @DisplayName("Should produce the lowest snowflake for an instant that bounds ids generated after it")
+  void shouldProduceLowestIdAtInstant() {
+    final var generator = SimpleSnowflakeGenerator.withCustomEpoch(CUSTOM_EPOCH.toEpochMilli());
+    final var now = Instant.now();
+
+    final var lowestId = generator.lowestIdAt(now);
+
+    assertThat(generator.toInstant(lowestId)).isEqualTo(now.truncatedTo(ChronoUnit.MILLIS));
+    assertThat(generator.nextId()).isGreaterThanOrEqualTo(lowestId);
+    assertThat(generator.lowestIdAt(CUSTOM_EPOCH.minusSeconds(1))).isZero();
+  }
 }
@@ -0,0 +1,183 @@
+package com.akmal.messengerspringbackend.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.config.websocket.WebSocketConfiguration;
+import com.akmal.messengerspringbackend.shared.metrics.MessagingMetrics;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrame;
+import com.akmal.messengerspringbackend.websocket.delivery.OutboundFrameDispatcher;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorageImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.user.DefaultUserDestinationResolver;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 19:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class OutboundFlowControlInterceptorTest {
+  private static final String UID = "user";
+  private static final String SESSION_ID = "session";
+  private static final String THREAD_DESTINATION = "/queue/threads/thread";
+  private static final String TYPING_DESTINATION =
+      WebSocketConfiguration.TYPING_TOPIC.substring("/user".length());
+  private static final String PRESENCE_DESTINATION =
+      WebSocketConfiguration.USER_PRESENCE_TOPIC.substring("/user".length());
+
+  private final WebSocketSessionCloser sessionCloser = mock(WebSocketSessionCloser.class);
+  private final MessageChannel channel = mock(MessageChannel.class);
+  private final OutboundFlowControlInterceptor interceptor = interceptor(2, 4);
+  private final WebsocketSessionStorageImpl sessionStorage = new WebsocketSessionStorageImpl();
+  private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+  private final List<Message<?>> framesToClient = new ArrayList<>();
+
+  OutboundFlowControlInterceptorTest() {
+    this.startBroker(THREAD_DESTINATION, TYPING_DESTINATION, PRESENCE_DESTINATION);
+  }
+
+  @Test
+  @DisplayName("Should drop only the ephemeral frames of the slow session")
+  void shouldDropEphemeralFramesOfSlowSession() {
+    final var first = this.interceptor.preSend(dispatchedFrame(THREAD_DESTINATION), channel);
+    this.interceptor.preSend(dispatchedFrame(THREAD_DESTINATION), this.channel);
+
+    assertThat(this.interceptor.preSend(dispatchedFrame(TYPING_DESTINATION), this.channel))
+        .isNull();
+    assertThat(this.interceptor.preSend(userFrame(PRESENCE_DESTINATION), this.channel)).isNull();
+    assertThat(this.interceptor.preSend(dispatchedFrame(THREAD_DESTINATION), this.channel))
+        .isNotNull();
+    assertThat(this.interceptor.slowSessions()).isEqualTo(1);
+
+    this.interceptor.afterMessageHandled(first, this.channel, mock(MessageHandler.class), null);
+    this.interceptor.afterMessageHandled(first, this.channel, mock(MessageHandler.class), null);
+
+    assertThat(this.interceptor.slowSessions()).isZero();
+    assertThat(this.interceptor.preSend(userFrame(PRESENCE_DESTINATION), this.channel))
+        .isNotNull();
+    verify(this.sessionCloser, never()).close(any(), any());
+  }
+
+  @Test
+  @DisplayName("Should close the session once it reaches the limit of the pending frames")
+  void shouldCloseSessionOverPendingLimit() {
+    when(this.sessionCloser.close(SESSION_ID, CloseStatus.SESSION_NOT_RELIABLE)).thenReturn(true);
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(this.interceptor.preSend(dispatchedFrame(THREAD_DESTINATION), channel))
+          .isNotNull();
+    }
+
+    assertThat(this.interceptor.preSend(dispatchedFrame(THREAD_DESTINATION), channel))
+        .isNull();
+    verify(this.sessionCloser).close(eq(SESSION_ID), eq(CloseStatus.SESSION_NOT_RELIABLE));
+  }
+
+  private OutboundFlowControlInterceptor interceptor(int ephemeralLimit, int pendingLimit) {
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getOutbound().setEphemeralFrameLimit(ephemeralLimit);
+    messagingProps.getOutbound().setPendingFrameLimit(pendingLimit);
+
+    return new OutboundFlowControlInterceptor(
+        this.sessionCloser, new MessagingMetrics(new SimpleMeterRegistry()), messagingProps);
+  }
+
+  /** Frame sent by {@link OutboundFrameDispatcher}, as it leaves the broker. */
+  private Message<?> dispatchedFrame(String destination) {
+    final var template = new SimpMessagingTemplate(this.brokerChannel);
+    final var dispatcher =
+        new OutboundFrameDispatcher(
+            template,
+            this.sessionStorage,
+            new MessagingMetrics(new SimpleMeterRegistry()),
+            new MessagingConfigurationProperties());
+
+    dispatcher.send(OutboundFrame.of(UID, destination, "payload"));
+    return this.lastFrame();
+  }
+
+  /** Frame sent to the user destination through the template, as it leaves the broker. */
+  private Message<?> userFrame(String destination) {
+    new SimpMessagingTemplate(this.brokerChannel).convertAndSendToUser(UID, destination, "payload");
+    return this.lastFrame();
+  }
+
+  private Message<?> lastFrame() {
+    assertThat(this.framesToClient).isNotEmpty();
+    return this.framesToClient.remove(this.framesToClient.size() - 1);
+  }
+
+  /**
+   * Broker and user destination handler of the application, the session of the user is subscribed
+   * to the given user destinations.
+   */
+  private void startBroker(String... userDestinations) {
+    final var userRegistry = mock(SimpUserRegistry.class);
+    final var user = mock(SimpUser.class);
+    final var session = mock(SimpSession.class);
+    when(userRegistry.getUser(UID)).thenReturn(user);
+    when(user.getName()).thenReturn(UID);
+    when(user.getSessions()).thenReturn(Set.of(session));
+    when(session.getId()).thenReturn(SESSION_ID);
+    when(session.getUser()).thenReturn(user);
+
+    final var inboundChannel = new ExecutorSubscribableChannel();
+    final var broker =
+        new SimpleBrokerMessageHandler(
+            inboundChannel,
+            (message, timeout) -> this.framesToClient.add(message),
+            this.brokerChannel,
+            List.of("/topic", "/queue"));
+    final var userDestinationHandler =
+        new UserDestinationMessageHandler(
+            inboundChannel, this.brokerChannel, new DefaultUserDestinationResolver(userRegistry));
+    broker.start();
+    userDestinationHandler.start();
+
+    this.sessionStorage.add(
+        WebsocketSession.builder().uid(UID).id(SESSION_ID).joinedAtMillis(0).build());
+
+    // the broker delivers only to the sessions it has seen connect
+    final var connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+    connect.setSessionId(SESSION_ID);
+    broker.handleMessage(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+    this.framesToClient.clear();
+
+    for (String destination : userDestinations) {
+      final var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+      accessor.setSessionId(SESSION_ID);
+      accessor.setSubscriptionId(destination);
+      accessor.setDestination(destination + "-user" + SESSION_ID);
+      broker.handleMessage(
+          MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.akmal.messengerspringbackend.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.exception.AuthorizationException;
+import com.akmal.messengerspringbackend.service.ThreadMembersCache;
+import com.akmal.messengerspringbackend.service.ThreadMembersCache.ThreadMembers;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 18:15
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class ThreadBroadcastAuthorizationInterceptorTest {
+  private static final UUID GROUP_THREAD = UUID.randomUUID();
+  private static final UUID DIRECT_THREAD = UUID.randomUUID();
+
+  private final ThreadMembersCache threadMembersCache = mock(ThreadMembersCache.class);
+  private final MessageChannel channel = mock(MessageChannel.class);
+  private final ThreadBroadcastAuthorizationInterceptor interceptor =
+      ThreadBroadcastAuthorizationInterceptor.withMembers(this.threadMembersCache, true);
+
+  @Test
+  @DisplayName("Should let only the members of the group thread subscribe to its broadcast")
+  void shouldAuthorizeMembersOfGroupThread() {
+    when(this.threadMembersCache.get(GROUP_THREAD))
+        .thenReturn(Optional.of(new ThreadMembers(Set.of("member", "author"), true)));
+    when(this.threadMembersCache.get(DIRECT_THREAD))
+        .thenReturn(Optional.of(new ThreadMembers(Set.of("member", "friend"), false)));
+
+    final var memberSubscription = subscribe("member", "/topic/threads/" + GROUP_THREAD);
+
+    assertThat(this.interceptor.preSend(memberSubscription, this.channel))
+        .isSameAs(memberSubscription);
+    assertThatThrownBy(
+            () ->
+                this.interceptor.preSend(
+                    subscribe("stranger", "/topic/threads/" + GROUP_THREAD), this.channel))
+        .isInstanceOf(AuthorizationException.class);
+    assertThatThrownBy(
+            () ->
+                this.interceptor.preSend(
+                    subscribe("member", "/topic/threads/" + DIRECT_THREAD), this.channel))
+        .isInstanceOf(AuthorizationException.class);
+  }
+
+  @Test
+  @DisplayName("Should reject the broadcast subscriptions while the broadcasts are disabled")
+  void shouldRejectWhenDisabled() {
+    final var disabledInterceptor =
+        ThreadBroadcastAuthorizationInterceptor.withMembers(this.threadMembersCache, false);
+    final var userSubscription = subscribe("member", "/user/queue/threads/" + GROUP_THREAD);
+
+    assertThatThrownBy(
+            () ->
+                disabledInterceptor.preSend(
+                    subscribe("member", "/topic/threads/" + GROUP_THREAD), this.channel))
+        .isInstanceOf(AuthorizationException.class);
+    assertThat(disabledInterceptor.preSend(userSubscription, this.channel))
+        .isSameAs(userSubscription);
+  }
+
+  @Test
+  @DisplayName("Should reject the patterns and the other destinations under the topics")
+  void shouldRejectPatternsUnderTopics() {
+    when(this.threadMembersCache.get(GROUP_THREAD))
+        .thenReturn(Optional.of(new ThreadMembers(Set.of("member"), true)));
+
+    for (String destination :
+        new String[] {"/topic/**", "/topic/*/" + GROUP_THREAD, "/topic/threads/*", "/topic/x"}) {
+      assertThatThrownBy(
+              () -> this.interceptor.preSend(subscribe("member", destination), this.channel))
+          .isInstanceOf(AuthorizationException.class);
+    }
+  }
+
+  private static Message<byte[]> subscribe(String uid, String destination) {
+    final var accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+    accessor.setDestination(destination);
+    accessor.setSubscriptionId("sub-0");
+    accessor.setSessionId("session");
+    accessor.setUser(new TestingAuthenticationToken(uid, null));
+    return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+  }
+}
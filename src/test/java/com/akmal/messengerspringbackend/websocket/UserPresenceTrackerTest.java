@@ -0,0 +1,162 @@
+package com.akmal.messengerspringbackend.websocket;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.service.UserPresenceService;
+import com.akmal.messengerspringbackend.shared.concurrent.KeyOrderedExecutor;
+import com.akmal.messengerspringbackend.websocket.storage.SessionLocationRegistry;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorageImpl;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 22:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class UserPresenceTrackerTest {
+  private static final String UID = "user";
+
+  private final WebsocketSessionStorageImpl sessionStorage = new WebsocketSessionStorageImpl();
+  private final UserPresenceService userPresenceService = mock(UserPresenceService.class);
+  private final KeyOrderedExecutor presenceEventsExecutor = mock(KeyOrderedExecutor.class);
+  /** Publish tasks in the order they were queued, run by {@link #publishQueued()}. */
+  private final List<Runnable> queuedPublishes = new CopyOnWriteArrayList<>();
+
+  UserPresenceTrackerTest() {
+    doAnswer(invocation -> this.queuedPublishes.add(invocation.getArgument(1)))
+        .when(this.presenceEventsExecutor)
+        .execute(eq(UID), any(Runnable.class));
+  }
+
+  @Test
+  @DisplayName("Should publish only the online and offline transitions of the user")
+  void shouldPublishOnlyTransitions() {
+    final var tracker = tracker(Duration.ZERO);
+
+    this.connect(tracker, "phone");
+    this.connect(tracker, "laptop");
+    this.disconnect(tracker, "phone");
+    tracker.sweep();
+    this.publishQueued();
+
+    verify(this.userPresenceService).sendUserPresenceEvent(eq(UID), eq(true), any());
+    verify(this.userPresenceService, never()).sendUserPresenceEvent(eq(UID), eq(false), any());
+
+    this.disconnect(tracker, "laptop");
+    tracker.sweep();
+    this.publishQueued();
+
+    verify(this.userPresenceService).sendUserPresenceEvent(eq(UID), eq(false), any());
+  }
+
+  @Test
+  @DisplayName("Should keep the user online within the grace and not rewrite the same last seen")
+  void shouldKeepUserOnlineWithinGrace() {
+    final var tracker = tracker(Duration.ofMinutes(1));
+
+    this.connect(tracker, "phone");
+    this.disconnect(tracker, "phone");
+    this.connect(tracker, "phone");
+    tracker.sweep();
+    tracker.flushLastSeen();
+    tracker.flushLastSeen();
+    this.publishQueued();
+
+    verify(this.userPresenceService, times(1)).sendUserPresenceEvent(eq(UID), anyBoolean(), any());
+    verify(this.userPresenceService, times(1)).updateLastSeenAt(eq(UID), any(Instant.class));
+  }
+
+  @Test
+  @DisplayName("Should publish the reconnect during the sweep after the offline transition")
+  void shouldPublishReconnectDuringSweepAfterOffline() throws Exception {
+    final var sessionStorage = spy(this.sessionStorage);
+    final var tracker = tracker(sessionStorage, Duration.ZERO);
+    final var reconnect = new Thread(() -> tracker.onConnected(session("laptop")));
+    this.connect(tracker, "phone");
+    this.disconnect(tracker, "phone");
+
+    // the user reconnects while the sweep holds the entry of the user
+    doAnswer(invocation -> {
+          reconnect.start();
+          awaitBlocked(reconnect);
+          return invocation.callRealMethod();
+        })
+        .when(sessionStorage)
+        .isUserConnected(UID);
+    tracker.sweep();
+    reconnect.join(TimeUnit.SECONDS.toMillis(5));
+    this.publishQueued();
+
+    final InOrder inOrder = inOrder(this.userPresenceService);
+    inOrder.verify(this.userPresenceService).sendUserPresenceEvent(eq(UID), eq(true), any());
+    inOrder.verify(this.userPresenceService).sendUserPresenceEvent(eq(UID), eq(false), any());
+    inOrder.verify(this.userPresenceService).sendUserPresenceEvent(eq(UID), eq(true), any());
+  }
+
+  private void connect(UserPresenceTracker tracker, String sessionId) {
+    final var session = session(sessionId);
+    this.sessionStorage.add(session);
+    tracker.onConnected(session);
+  }
+
+  private void disconnect(UserPresenceTracker tracker, String sessionId) {
+    this.sessionStorage.remove(UID, sessionId).ifPresent(tracker::onDisconnected);
+  }
+
+  private void publishQueued() {
+    this.queuedPublishes.forEach(Runnable::run);
+    this.queuedPublishes.clear();
+  }
+
+  private UserPresenceTracker tracker(Duration offlineGrace) {
+    return this.tracker(this.sessionStorage, offlineGrace);
+  }
+
+  private UserPresenceTracker tracker(
+      WebsocketSessionStorage sessionStorage, Duration offlineGrace) {
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getPresence().setOfflineGrace(offlineGrace);
+    return new UserPresenceTracker(
+        sessionStorage,
+        mock(SessionLocationRegistry.class),
+        this.userPresenceService,
+        this.presenceEventsExecutor,
+        messagingProps);
+  }
+
+  private static WebsocketSession session(String sessionId) {
+    return WebsocketSession.builder()
+        .uid(UID)
+        .id(sessionId)
+        .joinedAtMillis(System.currentTimeMillis())
+        .build();
+  }
+
+  private static void awaitBlocked(Thread thread) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (thread.getState() != Thread.State.BLOCKED && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.akmal.messengerspringbackend.websocket.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Smoke test of {@link TrieSubscriptionRegistry} at the scale of tens of thousands of
+ * subscriptions: it resolves the same subscriptions as the default registry of the simple broker.
+ * Every session subscribes to its notifications and to one thread, as the clients do, and the
+ * lookups target the session destinations of random sessions.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 13:20
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class SubscriptionRegistryLookupTest {
+  private static final int LOOKUPS = 200;
+
+  @ParameterizedTest(name = "{0} subscriptions")
+  @ValueSource(ints = {10_000, 50_000, 100_000})
+  @DisplayName("Should resolve the same subscriptions as the default registry")
+  void shouldResolveSameSubscriptionsAsDefaultRegistry(int subscriptions) {
+    final int sessions = subscriptions / 2;
+    final var threadIds = new String[sessions];
+    for (int i = 0; i < sessions; i++) threadIds[i] = UUID.randomUUID().toString();
+    final var defaultRegistry = register(new DefaultSubscriptionRegistry(), threadIds);
+    final var trieRegistry = register(new TrieSubscriptionRegistry(), threadIds);
+    final var random = ThreadLocalRandom.current();
+
+    for (int lookup = 0; lookup < LOOKUPS; lookup++) {
+      final int session = random.nextInt(sessions);
+      final Message<?> message =
+          TrieSubscriptionRegistryTest.message(
+              "/queue/threads/" + threadIds[session] + "-usersession-" + session);
+
+      assertThat(trieRegistry.findSubscriptions(message))
+          .hasSize(1)
+          .isEqualTo(defaultRegistry.findSubscriptions(message));
+    }
+  }
+
+  private static SubscriptionRegistry register(SubscriptionRegistry registry, String[] threadIds) {
+    for (int i = 0; i < threadIds.length; i++) {
+      registry.registerSubscription(
+          subscribe("session-" + i, "sub-0", "/queue/notifications-usersession-" + i));
+      registry.registerSubscription(
+          subscribe(
+              "session-" + i, "sub-1", "/queue/threads/" + threadIds[i] + "-usersession-" + i));
+    }
+    return registry;
+  }
+
+  private static Message<byte[]> subscribe(
+      String sessionId, String subscriptionId, String destination) {
+    final var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+    accessor.setSessionId(sessionId);
+    accessor.setSubscriptionId(subscriptionId);
+    accessor.setDestination(destination);
+    return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+  }
+}
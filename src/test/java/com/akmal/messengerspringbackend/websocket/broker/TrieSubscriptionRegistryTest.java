@@ -0,0 +1,79 @@
+package com.akmal.messengerspringbackend.websocket.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 12:50
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class TrieSubscriptionRegistryTest {
+  private final TrieSubscriptionRegistry registry = new TrieSubscriptionRegistry();
+
+  @Test
+  @DisplayName("Should find the subscriptions of the exact and the wildcard destinations")
+  void shouldFindExactAndWildcardSubscriptions() {
+    this.registry.registerSubscription(subscribe("s1", "sub-0", "/queue/threads/t1-users1"));
+    this.registry.registerSubscription(subscribe("s2", "sub-0", "/queue/threads/*"));
+    this.registry.registerSubscription(subscribe("s3", "sub-0", "/queue/**"));
+    this.registry.registerSubscription(subscribe("s4", "sub-0", "/queue/threads/t?-users1"));
+
+    assertThat(this.registry.findSubscriptions(message("/queue/threads/t1-users1")))
+        .containsOnlyKeys("s1", "s2", "s3", "s4");
+    assertThat(this.registry.findSubscriptions(message("/queue/threads/t2-users2")))
+        .containsOnlyKeys("s2", "s3");
+    assertThat(this.registry.findSubscriptions(message("/queue/threads/t1/acks")))
+        .containsOnlyKeys("s3");
+    assertThat(this.registry.findSubscriptions(message("/topic/threads/t1-users1"))).isEmpty();
+  }
+
+  @Test
+  @DisplayName("Should not find the subscriptions once they are removed")
+  void shouldRemoveSubscriptions() {
+    this.registry.registerSubscription(subscribe("s1", "sub-0", "/queue/notifications-users1"));
+    this.registry.registerSubscription(subscribe("s1", "sub-1", "/queue/threads/t1-users1"));
+    this.registry.registerSubscription(subscribe("s2", "sub-0", "/queue/notifications-users1"));
+
+    this.registry.unregisterSubscription(unsubscribe("s1", "sub-0"));
+
+    assertThat(this.registry.findSubscriptions(message("/queue/notifications-users1")))
+        .containsOnlyKeys("s2");
+
+    this.registry.unregisterAllSubscriptions("s1");
+    this.registry.unregisterAllSubscriptions("s2");
+
+    assertThat(this.registry.findSubscriptions(message("/queue/threads/t1-users1"))).isEmpty();
+    assertThat(this.registry.sessionCount()).isZero();
+  }
+
+  private static Message<byte[]> subscribe(
+      String sessionId, String subscriptionId, String destination) {
+    final var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+    accessor.setSessionId(sessionId);
+    accessor.setSubscriptionId(subscriptionId);
+    accessor.setDestination(destination);
+    return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+  }
+
+  private static Message<byte[]> unsubscribe(String sessionId, String subscriptionId) {
+    final var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+    accessor.setSessionId(sessionId);
+    accessor.setSubscriptionId(subscriptionId);
+    return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+  }
+
+  static Message<byte[]> message(String destination) {
+    final var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+    accessor.setDestination(destination);
+    return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+  }
+}
@@ -0,0 +1,93 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.websocket.dto.CoalescedFramesDto;
+import com.akmal.messengerspringbackend.websocket.dto.MessageEventDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 21:35
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class FrameEncodingMessageConverterTest {
+  private final ObjectMapper cborMapper =
+      Jackson2ObjectMapperBuilder.json().factory(FrameEncoding.CBOR.newFactory()).build();
+  private final FrameEncodingMessageConverter converter =
+      new FrameEncodingMessageConverter(FrameEncoding.CBOR, this.cborMapper);
+  private final MessageFrameEncoder encoder = encoder();
+
+  @Test
+  @DisplayName("Should negotiate the first supported encoding and fall back to JSON")
+  void shouldNegotiateEncoding() {
+    assertThat(FrameEncoding.negotiate("application/cbor")).isEqualTo(FrameEncoding.CBOR);
+    assertThat(FrameEncoding.negotiate("text/plain, application/x-jackson-smile, application/cbor"))
+        .isEqualTo(FrameEncoding.SMILE);
+    assertThat(FrameEncoding.negotiate("application/octet-stream;encoding=cbor"))
+        .isEqualTo(FrameEncoding.CBOR);
+    assertThat(FrameEncoding.negotiate("text/plain")).isEqualTo(FrameEncoding.JSON);
+    assertThat(FrameEncoding.negotiate("not a media type")).isEqualTo(FrameEncoding.JSON);
+    assertThat(FrameEncoding.negotiate(null)).isEqualTo(FrameEncoding.JSON);
+  }
+
+  @Test
+  @DisplayName("Should encode the source of the encoded payloads and only its own content type")
+  void shouldEncodeSourceOfEncodedPayloads() throws Exception {
+    final var event = messageEvent();
+    final var frames =
+        new CoalescedFramesDto(
+            List.of(
+                new CoalescedFramesDto.Frame(
+                    "/user/queue/threads", this.encoder.encode(event), "1")));
+
+    final var message = this.converter.toMessage(frames, headersOf(FrameEncoding.CBOR));
+
+    assertThat(message).isNotNull();
+    assertThat(this.cborMapper.readTree((byte[]) message.getPayload()).at("/frames/0/payload"))
+        .isEqualTo(this.cborMapper.valueToTree(event));
+    assertThat(this.converter.toMessage(frames, headersOf(FrameEncoding.SMILE))).isNull();
+    assertThat(this.converter.toMessage(frames, headersOf(FrameEncoding.JSON))).isNull();
+    assertThat(this.converter.toMessage(frames, new MessageHeaders(Map.of()))).isNull();
+  }
+
+  private static MessageHeaders headersOf(FrameEncoding encoding) {
+    final var headerAccessor = SimpMessageHeaderAccessor.create();
+    headerAccessor.setContentType(encoding.contentType());
+    return headerAccessor.getMessageHeaders();
+  }
+
+  private static MessageEventDto messageEvent() {
+    return new MessageEventDto(
+        7_000_000_000_123L,
+        "thread",
+        "Thread",
+        "picture",
+        "thumbnail",
+        3,
+        "author",
+        "Author",
+        "Hello, world!",
+        LocalDateTime.of(2022, 7, 24, 21, 35),
+        false,
+        true,
+        false);
+  }
+
+  private static MessageFrameEncoder encoder() {
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getDelivery().setEncodeOnce(true);
+    return new MessageFrameEncoder(Jackson2ObjectMapperBuilder.json().build(), messagingProps);
+  }
+}
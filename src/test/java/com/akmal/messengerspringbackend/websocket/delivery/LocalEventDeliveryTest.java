@@ -0,0 +1,122 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.shared.concurrent.KeyOrderedExecutor;
+import com.akmal.messengerspringbackend.shared.metrics.MessagingMetrics;
+import com.akmal.messengerspringbackend.websocket.storage.SessionLocationRegistry;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorageImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 15:05
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class LocalEventDeliveryTest {
+  private static final String NODE = "instance01";
+  private static final String LOCAL_TOPIC = "thread.events.node." + NODE;
+  private static final String REMOTE_TOPIC = "thread.events.node.instance02";
+
+  private final WebsocketSessionStorageImpl sessionStorage = new WebsocketSessionStorageImpl();
+  private final SessionLocationRegistry sessionLocationRegistry =
+      mock(SessionLocationRegistry.class);
+  private final KeyOrderedExecutor threadEventsExecutor = mock(KeyOrderedExecutor.class);
+  private final OutboundFrameDispatcher frameDispatcher = mock(OutboundFrameDispatcher.class);
+
+  LocalEventDeliveryTest() {
+    when(this.sessionLocationRegistry.getLocalNode()).thenReturn(NODE);
+    when(this.sessionLocationRegistry.isEnabled()).thenReturn(true);
+    doAnswer(
+            invocation -> {
+              invocation.<Runnable>getArgument(1).run();
+              return null;
+            })
+        .when(this.threadEventsExecutor)
+        .execute(any(), any());
+    this.sessionStorage.add(
+        WebsocketSession.builder()
+            .uid("alice")
+            .id("alice-phone")
+            .joinedAtMillis(System.currentTimeMillis())
+            .build());
+  }
+
+  @Test
+  @DisplayName("Should serve the connected recipients in-process and publish only to the others")
+  void shouldServeConnectedRecipientsInProcess() {
+    final var localEventDelivery = this.localEventDelivery(true);
+    final var frame = OutboundFrame.of("alice", "/queue/notifications", "hello");
+
+    final List<String> localRecipients =
+        localEventDelivery.connectedRecipients(List.of("alice", "bob"));
+    final Map<String, List<String>> routes =
+        localEventDelivery.withoutLocalRoute(this.routes(), LOCAL_TOPIC);
+    localEventDelivery.deliver("alice", () -> List.of(frame));
+    final ProducerRecord<String, String> record =
+        localEventDelivery.record(REMOTE_TOPIC, "key", "value");
+
+    assertThat(localRecipients).containsExactly("alice");
+    assertThat(routes).containsOnlyKeys(REMOTE_TOPIC);
+    verify(this.frameDispatcher).send(frame);
+    assertThat(localEventDelivery.isLocalOrigin(originOf(record))).isTrue();
+    assertThat(localEventDelivery.isLocalOrigin("instance02".getBytes(StandardCharsets.UTF_8)))
+        .isFalse();
+  }
+
+  @Test
+  @DisplayName("Should keep the local route and leave the records untagged when disabled")
+  void shouldKeepLocalRouteWhenDisabled() {
+    final var localEventDelivery = this.localEventDelivery(false);
+
+    final ProducerRecord<String, String> record =
+        localEventDelivery.record(REMOTE_TOPIC, "key", "value");
+
+    assertThat(localEventDelivery.connectedRecipients(List.of("alice", "bob"))).isEmpty();
+    assertThat(localEventDelivery.withoutLocalRoute(this.routes(), LOCAL_TOPIC))
+        .containsOnlyKeys(LOCAL_TOPIC, REMOTE_TOPIC);
+    assertThat(record.headers().lastHeader(LocalEventDelivery.ORIGIN_NODE_HEADER)).isNull();
+    assertThat(localEventDelivery.isLocalOrigin(NODE.getBytes(StandardCharsets.UTF_8))).isFalse();
+  }
+
+  private Map<String, List<String>> routes() {
+    final var routes = new HashMap<String, List<String>>();
+    routes.put(LOCAL_TOPIC, List.of("alice"));
+    routes.put(REMOTE_TOPIC, List.of("bob"));
+    return routes;
+  }
+
+  private LocalEventDelivery localEventDelivery(boolean enabled) {
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getDelivery().setLocalFastPath(enabled);
+
+    return new LocalEventDelivery(
+        this.sessionStorage,
+        this.sessionLocationRegistry,
+        this.threadEventsExecutor,
+        this.frameDispatcher,
+        new MessagingMetrics(new SimpleMeterRegistry()),
+        new ReplayBuffer(this.sessionStorage, messagingProps),
+        messagingProps);
+  }
+
+  private static byte[] originOf(ProducerRecord<?, ?> record) {
+    return record.headers().lastHeader(LocalEventDelivery.ORIGIN_NODE_HEADER).value();
+  }
+}
@@ -0,0 +1,84 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.websocket.dto.MessageEventDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+
+/**
+ * Smoke test of the fan-out of messages to the recipients: every frame that shares the payload
+ * encoded once by {@link MessageFrameEncoder} carries the same document as the frame converted by
+ * the broker's JSON converter.
+ *
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 16:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class MessageFrameEncoderFanoutTest {
+  private static final int MESSAGES = 20;
+  private static final String BODY =
+      "Hello there, this is a message that is delivered to every member of the thread ".repeat(6);
+
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+  @ParameterizedTest(name = "{0} recipients")
+  @ValueSource(ints = {10, 100, 500})
+  @DisplayName("Should send the same documents pre-encoded as the converted fan-out")
+  void shouldSendSameDocumentsAsConvertedFanout(int recipients) throws IOException {
+    final var converter = new MappingJackson2MessageConverter();
+    converter.setObjectMapper(this.objectMapper);
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getDelivery().setEncodeOnce(true);
+    final var encoder = new MessageFrameEncoder(this.objectMapper, messagingProps);
+
+    for (int message = 0; message < MESSAGES; message++) {
+      for (int recipient = 0; recipient < recipients; recipient++) {
+        final MessageEventDto event = messageEvent(message, recipient);
+        final Message<?> converted = converter.toMessage(event, headers().getMessageHeaders());
+        final var preEncoded = (EncodedPayload) encoder.encode(event);
+
+        assertThat(converted).isNotNull();
+        assertThat(this.objectMapper.readTree(preEncoded.json()))
+            .isEqualTo(this.objectMapper.readTree((byte[]) converted.getPayload()));
+      }
+    }
+  }
+
+  private static SimpMessageHeaderAccessor headers() {
+    final var headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+    headers.setLeaveMutable(true);
+    return headers;
+  }
+
+  /** Every third recipient has the thread open, so the message is read on delivery. */
+  private static MessageEventDto messageEvent(int message, int recipient) {
+    return new MessageEventDto(
+        7_000_000_000_000L + message,
+        UUID.nameUUIDFromBytes(new byte[] {1}).toString(),
+        "Thread",
+        "https://cdn.example.com/pictures/thread.png",
+        "https://cdn.example.com/pictures/thread-thumbnail.png",
+        3,
+        "author",
+        "John Doe",
+        BODY,
+        LocalDateTime.of(2022, 7, 24, 16, 10),
+        recipient % 3 == 0,
+        false,
+        false);
+  }
+}
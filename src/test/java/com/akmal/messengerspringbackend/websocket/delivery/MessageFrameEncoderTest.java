@@ -0,0 +1,82 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.websocket.dto.MessageEventDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 15:50
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class MessageFrameEncoderTest {
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+  private final MessageFrameEncoder encoder = this.encoder(true);
+
+  @Test
+  @DisplayName("Should encode the same document as the converter of the broker")
+  void shouldEncodeSameDocument() throws Exception {
+    final var unread = messageEvent("thread").withRead(false);
+    final var read = unread.withRead(true);
+
+    final var encodedUnread = (EncodedPayload) this.encoder.encode(unread);
+    final var encodedRead = (EncodedPayload) this.encoder.encode(read);
+
+    assertThat(this.objectMapper.readTree(encodedUnread.json()))
+        .isEqualTo(this.objectMapper.valueToTree(unread));
+    assertThat(this.objectMapper.readTree(encodedRead.json()))
+        .isEqualTo(this.objectMapper.valueToTree(read));
+  }
+
+  @Test
+  @DisplayName("Should not reuse the shared part encoded for a different view of the message")
+  void shouldEncodeDifferentViewOfMessage() throws Exception {
+    this.encoder.encode(messageEvent("John Doe"));
+    final var otherView = messageEvent("Jane Doe");
+
+    final var encoded = (EncodedPayload) this.encoder.encode(otherView);
+
+    assertThat(this.objectMapper.readTree(encoded.json()).get("threadName").asText())
+        .isEqualTo("Jane Doe");
+  }
+
+  @Test
+  @DisplayName("Should hand the event over to the converter of the broker when disabled")
+  void shouldNotEncodeWhenDisabled() {
+    final var event = messageEvent("thread");
+
+    assertThat(this.encoder(false).encode(event)).isSameAs(event);
+  }
+
+  private MessageFrameEncoder encoder(boolean encodeOnce) {
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getDelivery().setEncodeOnce(encodeOnce);
+    return new MessageFrameEncoder(this.objectMapper, messagingProps);
+  }
+
+  private static MessageEventDto messageEvent(String threadName) {
+    return new MessageEventDto(
+        7_000_000_000_123L,
+        UUID.nameUUIDFromBytes(new byte[] {1}).toString(),
+        threadName,
+        "picture",
+        "thumbnail",
+        3,
+        "author",
+        "Author \"quoted\" name",
+        "Hello, world!",
+        LocalDateTime.of(2022, 7, 24, 15, 50),
+        false,
+        false,
+        false);
+  }
+}
@@ -0,0 +1,136 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.shared.metrics.MessagingMetrics;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSession;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorageImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 10:10
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class OutboundFrameDispatcherTest {
+  private static final String UID = "user";
+  private static final String SESSION_ID = "session";
+  private static final String THREAD_DESTINATION = "/queue/threads/thread";
+
+  private final List<Message<?>> sentMessages = new ArrayList<>();
+  private final WebsocketSessionStorageImpl sessionStorage = new WebsocketSessionStorageImpl();
+  private final OutboundFrameDispatcher dispatcher = dispatcher();
+
+  @Test
+  @DisplayName("Should deliver the frame under the user destination the client subscribed to")
+  void shouldDeliverUnderSubscribedDestination() throws Exception {
+    this.sessionStorage.add(session(SESSION_ID, false));
+
+    this.dispatcher.send(OutboundFrame.of(UID, THREAD_DESTINATION, "hello"));
+
+    assertThat(this.sentMessages).hasSize(1);
+    assertThat(this.sentMessages.get(0).getHeaders())
+        .containsEntry("simpDestination", THREAD_DESTINATION + "-user" + SESSION_ID);
+    assertThat(receivedByClient(this.sentMessages.get(0)).getDestination())
+        .isEqualTo("/user" + THREAD_DESTINATION);
+  }
+
+  @Test
+  @DisplayName("Should coalesce the frames of the session that accepts the coalesced frames")
+  void shouldCoalesceFramesOfAcceptingSession() {
+    final String batchDestination = "/queue/batch-user" + SESSION_ID;
+    this.sessionStorage.add(session(SESSION_ID, true));
+    this.sessionStorage.add(session("legacy", false));
+
+    this.dispatcher.sendAll(
+        UID,
+        List.of(
+            OutboundFrame.of(UID, THREAD_DESTINATION, "first"),
+            OutboundFrame.of(UID, THREAD_DESTINATION, "second")));
+
+    assertThat(this.sentMessages)
+        .extracting(message -> message.getHeaders().get("simpDestination"))
+        .containsExactlyInAnyOrder(
+            batchDestination,
+            THREAD_DESTINATION + "-userlegacy",
+            THREAD_DESTINATION + "-userlegacy");
+    assertThat(this.sentMessages)
+        .filteredOn(
+            message -> batchDestination.equals(message.getHeaders().get("simpDestination")))
+        .singleElement()
+        .extracting(message -> new String((byte[]) message.getPayload()))
+        .asString()
+        .contains("/user" + THREAD_DESTINATION, "first", "second");
+  }
+
+  @Test
+  @DisplayName("Should send the single frame as is even if the session accepts coalesced frames")
+  void shouldNotCoalesceSingleFrame() {
+    this.sessionStorage.add(session(SESSION_ID, true));
+
+    this.dispatcher.sendAll(UID, List.of(OutboundFrame.of(UID, THREAD_DESTINATION, "first")));
+
+    assertThat(this.sentMessages)
+        .singleElement()
+        .extracting(message -> message.getHeaders().get("simpDestination"))
+        .isEqualTo(THREAD_DESTINATION + "-user" + SESSION_ID);
+  }
+
+  private OutboundFrameDispatcher dispatcher() {
+    final var template = new SimpMessagingTemplate((message, timeout) -> sentMessages.add(message));
+    template.setMessageConverter(new MappingJackson2MessageConverter());
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getBroker().setDirectSessionRouting(true);
+
+    return new OutboundFrameDispatcher(
+        template,
+        this.sessionStorage,
+        new MessagingMetrics(new SimpleMeterRegistry()),
+        messagingProps);
+  }
+
+  private static WebsocketSession session(String sessionId, boolean coalescedFrames) {
+    return WebsocketSession.builder()
+        .uid(UID)
+        .id(sessionId)
+        .joinedAtMillis(System.currentTimeMillis())
+        .coalescedFrames(coalescedFrames)
+        .build();
+  }
+
+  /** Writes the message to the socket the way the broker does and decodes the STOMP frame. */
+  private static StompHeaderAccessor receivedByClient(Message<?> message) throws Exception {
+    final var socket = mock(WebSocketSession.class);
+    final var written = new ArrayList<WebSocketMessage<?>>();
+    when(socket.getId()).thenReturn(SESSION_ID);
+    when(socket.isOpen()).thenReturn(true);
+    doAnswer(invocation -> written.add(invocation.getArgument(0))).when(socket).sendMessage(any());
+
+    new StompSubProtocolHandler().handleMessageToClient(socket, message);
+
+    assertThat(written).hasSize(1);
+    final var frame = ((TextMessage) written.get(0)).asBytes();
+    return StompHeaderAccessor.wrap(new StompDecoder().decode(ByteBuffer.wrap(frame)).get(0));
+  }
+}
@@ -0,0 +1,71 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.websocket.dto.ResumeDto;
+import com.akmal.messengerspringbackend.websocket.storage.WebsocketSessionStorage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 24/07/2022 - 21:00
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class ReplayBufferTest {
+  private static final String UID = "user";
+  private static final String DESTINATION = "/user/queue/threads/thread";
+
+  private final WebsocketSessionStorage sessionStorage = mock(WebsocketSessionStorage.class);
+  private final ReplayBuffer replayBuffer = replayBuffer(3);
+
+  @Test
+  @DisplayName("Should replay only the frames the client missed while it was disconnected")
+  void shouldReplayMissedFrames() {
+    this.replayBuffer.onConnected(UID);
+    this.replayBuffer.append(UID, DESTINATION, "first", false);
+    final ReplaySequence lastSeen = this.replayBuffer.append(UID, DESTINATION, "second", false);
+
+    this.replayBuffer.onDisconnected(UID, "old-session");
+    this.replayBuffer.append(UID, DESTINATION, "third", false);
+    this.replayBuffer.onConnected(UID);
+    this.replayBuffer.requestResume("new-session", ReplaySequence.parse(lastSeen.toString()).get());
+
+    final ResumeDto resume = this.replayBuffer.resume(UID, "new-session").orElseThrow();
+
+    assertThat(resume.complete()).isTrue();
+    assertThat(resume.frames())
+        .extracting(ResumeDto.Frame::payload)
+        .containsExactly("third");
+    assertThat(resume.seq()).isEqualTo(resume.frames().get(0).seq());
+    assertThat(this.replayBuffer.resume(UID, "new-session")).isEmpty();
+  }
+
+  @Test
+  @DisplayName("Should ask the client to reload once the missed frames are evicted")
+  void shouldReportIncompleteReplay() {
+    this.replayBuffer.onConnected(UID);
+    final ReplaySequence lastSeen = this.replayBuffer.append(UID, DESTINATION, "first", false);
+    for (int i = 0; i < 4; i++) this.replayBuffer.append(UID, DESTINATION, "next", false);
+
+    this.replayBuffer.requestResume("evicted", lastSeen);
+    this.replayBuffer.requestResume(
+        "other-epoch", new ReplaySequence(lastSeen.epoch() + 1, lastSeen.seq()));
+
+    assertThat(this.replayBuffer.resume(UID, "evicted").orElseThrow().complete()).isFalse();
+    assertThat(this.replayBuffer.resume(UID, "other-epoch").orElseThrow())
+        .satisfies(resume -> assertThat(resume.complete()).isFalse())
+        .satisfies(resume -> assertThat(resume.frames()).isEmpty());
+  }
+
+  private ReplayBuffer replayBuffer(int capacity) {
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getReplay().setEnabled(true);
+    messagingProps.getReplay().setCapacity(capacity);
+    return new ReplayBuffer(this.sessionStorage, messagingProps);
+  }
+}
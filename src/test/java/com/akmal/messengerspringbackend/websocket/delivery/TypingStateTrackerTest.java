@@ -0,0 +1,79 @@
+package com.akmal.messengerspringbackend.websocket.delivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.websocket.dto.TypingStateDto;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 13:35
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class TypingStateTrackerTest {
+  private static final String RECIPIENT = "recipient";
+  private static final UUID THREAD_ID = UUID.randomUUID();
+
+  private final OutboundFrameDispatcher frameDispatcher = mock(OutboundFrameDispatcher.class);
+
+  @Test
+  @DisplayName("Should send the typing state only when the set of typing users changes")
+  void shouldSendStateOnlyWhenTypingUsersChange() {
+    final var tracker = this.tracker(Duration.ofMinutes(1));
+
+    assertThat(tracker.onTyping(RECIPIENT, THREAD_ID, "alice"))
+        .map(TypingStateTrackerTest::typingUsers)
+        .hasValueSatisfying(userIds -> assertThat(userIds).containsExactly("alice"));
+    assertThat(tracker.onTyping(RECIPIENT, THREAD_ID, "alice")).isEmpty();
+    assertThat(tracker.onTyping(RECIPIENT, THREAD_ID, "bob"))
+        .map(TypingStateTrackerTest::typingUsers)
+        .hasValueSatisfying(
+            userIds -> assertThat(userIds).containsExactlyInAnyOrder("alice", "bob"));
+
+    tracker.clear(RECIPIENT, THREAD_ID, "alice");
+
+    assertThat(tracker.onTyping(RECIPIENT, THREAD_ID, "alice")).isPresent();
+    verify(this.frameDispatcher, never()).send(any());
+  }
+
+  @Test
+  @DisplayName("Should notify the recipient once the typing indicator expires")
+  void shouldNotifyRecipientOnExpiration() throws InterruptedException {
+    final var tracker = this.tracker(Duration.ofMillis(20));
+    tracker.onTyping(RECIPIENT, THREAD_ID, "alice");
+    tracker.onTyping(RECIPIENT, THREAD_ID, "bob");
+    tracker.clear(RECIPIENT, THREAD_ID, "bob");
+
+    Thread.sleep(50);
+    tracker.expireIndicators();
+
+    final ArgumentCaptor<OutboundFrame> sent = ArgumentCaptor.forClass(OutboundFrame.class);
+    verify(this.frameDispatcher).send(sent.capture());
+    assertThat(sent.getValue().userId()).isEqualTo(RECIPIENT);
+    assertThat(typingUsers(sent.getValue())).isEmpty();
+    assertThat(tracker.onTyping(RECIPIENT, THREAD_ID, "alice")).isPresent();
+  }
+
+  private TypingStateTracker tracker(Duration indicatorTtl) {
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getTyping().setIndicatorTtl(indicatorTtl);
+    messagingProps.getTyping().setTickDuration(Duration.ofMillis(5));
+    return new TypingStateTracker(this.frameDispatcher, messagingProps);
+  }
+
+  private static List<String> typingUsers(OutboundFrame frame) {
+    return ((TypingStateDto) frame.payload()).userIds();
+  }
+}
@@ -0,0 +1,119 @@
+package com.akmal.messengerspringbackend.websocket.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akmal.messengerspringbackend.config.kafka.KafkaConfigurationProperties;
+import com.akmal.messengerspringbackend.config.messaging.MessagingConfigurationProperties;
+import com.akmal.messengerspringbackend.exception.persistence.DataReadTimeoutException;
+import com.akmal.messengerspringbackend.repository.SessionLocationRepository;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 25/07/2022 - 11:30
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class SessionLocationRegistryTest {
+  private static final String UID = "user";
+  private static final String NODE = "instance-1";
+  private static final String SHARED_TOPIC = "thread.events";
+  private static final String NODE_TOPIC_PREFIX = "thread.events.node.";
+
+  private final SessionLocationRepository sessionLocationRepository =
+      mock(SessionLocationRepository.class);
+  private final WebsocketSessionStorage sessionStorage = mock(WebsocketSessionStorage.class);
+  private final SessionLocationRegistry registry = registry();
+
+  @Test
+  @DisplayName("Should delete the locations of the connected users on shutdown")
+  void shouldDeleteLocationsOnShutdown() {
+    when(this.sessionStorage.isUserConnected(UID)).thenReturn(true);
+    this.registry.register(UID);
+
+    this.registry.unregisterAll();
+    this.registry.refreshLocalSessions();
+
+    verify(this.sessionLocationRepository).delete(UID, NODE);
+    verify(this.sessionLocationRepository, times(1)).save(eq(UID), eq(NODE), any(Duration.class));
+  }
+
+  @Test
+  @DisplayName("Should keep the location of the device that connects while the last one leaves")
+  void shouldKeepLocationOfConcurrentConnect() throws Exception {
+    final var connected = new AtomicBoolean();
+    final var connect = new AtomicReference<Thread>();
+    when(this.sessionStorage.isUserConnected(UID))
+        .thenAnswer(
+            invocation -> {
+              if (connect.get() != null) return connected.get();
+
+              // the other device connects right after the last session was seen gone
+              final boolean seen = connected.get();
+              connect.set(
+                  new Thread(
+                      () -> {
+                        connected.set(true);
+                        this.registry.register(UID);
+                      }));
+              connect.get().start();
+              connect.get().join(200);
+              return seen;
+            });
+    this.registry.register(UID);
+
+    this.registry.unregister(UID);
+    connect.get().join();
+    this.registry.refreshLocalSessions();
+
+    final var writes = inOrder(this.sessionLocationRepository);
+    writes.verify(this.sessionLocationRepository).delete(UID, NODE);
+    writes.verify(this.sessionLocationRepository, times(2))
+        .save(eq(UID), eq(NODE), any(Duration.class));
+  }
+
+  @Test
+  @DisplayName("Should route the users to the topics of their nodes or fall back to the shared one")
+  void shouldRouteUsersByTopic() {
+    when(this.sessionLocationRepository.findNodesByUids(List.of("alice", "bob", "carol")))
+        .thenReturn(Map.of("alice", Set.of(NODE), "bob", Set.of(NODE, "instance-2")));
+    when(this.sessionLocationRepository.findNodesByUids(List.of("dave")))
+        .thenThrow(new DataReadTimeoutException("timeout"));
+
+    assertThat(this.registry.routeByTopic(List.of("alice", "bob", "carol")))
+        .containsOnlyKeys(NODE_TOPIC_PREFIX + NODE, NODE_TOPIC_PREFIX + "instance-2")
+        .hasEntrySatisfying(
+            NODE_TOPIC_PREFIX + NODE,
+            uids -> assertThat(uids).containsExactlyInAnyOrder("alice", "bob"))
+        .containsEntry(NODE_TOPIC_PREFIX + "instance-2", List.of("bob"));
+    assertThat(this.registry.routeByTopic(List.of("dave")))
+        .containsExactly(Map.entry(SHARED_TOPIC, List.of("dave")));
+  }
+
+  private SessionLocationRegistry registry() {
+    final var messagingProps = new MessagingConfigurationProperties();
+    messagingProps.getRouting().setEnabled(true);
+    final var kafkaProps = new KafkaConfigurationProperties();
+    kafkaProps.setGroupId(NODE);
+    kafkaProps.setTopics(new KafkaConfigurationProperties.TopicNames());
+    kafkaProps.getTopics().setThreadEvents(SHARED_TOPIC);
+
+    return new SessionLocationRegistry(
+        this.sessionLocationRepository, this.sessionStorage, messagingProps, kafkaProps);
+  }
+}
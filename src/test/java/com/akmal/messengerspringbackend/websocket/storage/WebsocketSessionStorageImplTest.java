@@ -0,0 +1,140 @@
+package com.akmal.messengerspringbackend.websocket.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Akmal Alikhujaev
+ * @version 1.0
+ * @created 23/07/2022 - 20:40
+ * @project messenger-spring-backend
+ * @since 1.0
+ */
+class WebsocketSessionStorageImplTest {
+  private static final String UID = "user";
+  private static final String TOPIC = "/user/queue/threads/thread";
+
+  private final WebsocketSessionStorageImpl storage = new WebsocketSessionStorageImpl();
+
+  @Test
+  @DisplayName("Should keep the sessions of all the devices of the user")
+  void shouldKeepSessionsOfAllDevices() {
+    this.storage.add(session("phone"));
+    this.storage.add(session("laptop"));
+
+    assertThat(this.storage.getSessions(UID))
+        .extracting(WebsocketSession::id)
+        .containsExactlyInAnyOrder("phone", "laptop");
+
+    this.storage.remove(UID, "phone");
+
+    assertThat(this.storage.isUserConnected(UID)).isTrue();
+    assertThat(this.storage.remove(UID, "laptop")).isPresent();
+    assertThat(this.storage.isUserConnected(UID)).isFalse();
+    assertThat(this.storage.getSessions(UID)).isEmpty();
+  }
+
+  @Test
+  @DisplayName("Should track the subscriptions per session and remove them by the id")
+  void shouldTrackSubscriptionsPerSession() {
+    this.storage.add(session("phone"));
+    this.storage.add(session("laptop"));
+
+    assertThat(this.storage.addSubscription(UID, "phone", subscription("sub-0"))).isTrue();
+    assertThat(this.storage.addSubscription(UID, "tablet", subscription("sub-0"))).isFalse();
+
+    assertThat(this.storage.isUserSubscribedTo(UID, TOPIC)).isTrue();
+    assertThat(this.storage.getSession(UID, "phone").orElseThrow().isSubscribedTo(TOPIC)).isTrue();
+    assertThat(this.storage.getSession(UID, "laptop").orElseThrow().isSubscribedTo(TOPIC))
+        .isFalse();
+
+    this.storage.unsubscribe(UID, "phone", "sub-0");
+
+    assertThat(this.storage.isUserSubscribedTo(UID, TOPIC)).isFalse();
+  }
+
+  @Test
+  @DisplayName("Should not drop the subscription when the replaced subscription id is removed")
+  void shouldKeepResubscribedTopic() {
+    this.storage.add(session("phone"));
+    this.storage.addSubscription(UID, "phone", subscription("sub-0"));
+    this.storage.addSubscription(UID, "phone", subscription("sub-1"));
+
+    this.storage.unsubscribe(UID, "phone", "sub-0");
+
+    assertThat(this.storage.getSession(UID, "phone").orElseThrow().getSubscription(TOPIC))
+        .map(TopicSubscription::id)
+        .contains("sub-1");
+  }
+
+  @Test
+  @DisplayName("Should grow and shrink the subscription table of the session")
+  void shouldGrowAndShrinkSubscriptionTable() {
+    final var session = session("phone");
+    this.storage.add(session);
+    final long emptySessionBytes = session.estimatedBytes();
+
+    for (int i = 0; i < 40; i++) {
+      this.storage.addSubscription(UID, "phone", subscription("sub-" + i, TOPIC + i));
+    }
+    for (int i = 0; i < 40; i += 2) {
+      this.storage.unsubscribe(UID, "phone", "sub-" + i);
+    }
+
+    for (int i = 0; i < 40; i++) {
+      assertThat(session.isSubscribedTo(TOPIC + i)).isEqualTo(i % 2 == 1);
+    }
+    assertThat(session.getSubscription(TOPIC + 39))
+        .map(TopicSubscription::id)
+        .contains("sub-39");
+    assertThat(session.subscribedAtMillis(TOPIC + 38)).isEqualTo(-1);
+    assertThat(session.estimatedBytes()).isGreaterThan(emptySessionBytes);
+    assertThat(this.storage.sessionCount()).isEqualTo(1);
+  }
+
+  @Test
+  @DisplayName("Should release the topic id with the last subscription and reuse it")
+  void shouldReleaseTopicIdWithLastSubscription() {
+    final String topic = TOPIC + "-released";
+    final var laptop = session("laptop");
+    this.storage.add(session("phone"));
+    this.storage.add(laptop);
+    this.storage.addSubscription(UID, "phone", subscription("sub-0", topic));
+    this.storage.addSubscription(UID, "laptop", subscription("sub-0", topic));
+    this.storage.addSubscription(UID, "laptop", subscription("sub-1", topic));
+    final int topicId = TopicIds.find(topic);
+
+    this.storage.unsubscribe(UID, "phone", "sub-0");
+
+    assertThat(TopicIds.find(topic)).isEqualTo(topicId);
+
+    this.storage.remove(UID, "laptop");
+
+    assertThat(TopicIds.find(topic)).isEqualTo(TopicIds.UNKNOWN);
+
+    this.storage.addSubscription(UID, "phone", subscription("sub-2", TOPIC + "-reused"));
+
+    assertThat(TopicIds.find(TOPIC + "-reused")).isEqualTo(topicId);
+    assertThat(laptop.isSubscribedTo(topic)).isFalse();
+    assertThat(laptop.isSubscribedTo(TOPIC + "-reused")).isFalse();
+  }
+
+  private static WebsocketSession session(String id) {
+    return WebsocketSession.builder()
+        .id(id)
+        .uid(UID)
+        .joinedAtMillis(System.currentTimeMillis())
+        .build();
+  }
+
+  private static TopicSubscription subscription(String id) {
+    return subscription(id, TOPIC);
+  }
+
+  private static TopicSubscription subscription(String id, String topic) {
+    return TopicSubscription.builder().id(id).topic(topic).joinedAt(Instant.now()).build();
+  }
+}